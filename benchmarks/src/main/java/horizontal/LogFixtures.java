@@ -0,0 +1,93 @@
+package horizontal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Synthetic test logs in the format of submission.log.
+ *
+ * Instances join at an even pace so the last one is registered by the
+ * final minute; every minute lists each joined instance with a throughput
+ * around 12.5 rps, as in the recorded run.
+ */
+public final class LogFixtures {
+    /**
+     * Test ID of every fixture.
+     */
+    public static final String TEST_ID = "1601348831791";
+
+    /**
+     * Private Constructor.
+     */
+    private LogFixtures() {
+    }
+
+    /**
+     * Generate a full test log.
+     * @param minutes number of minute sections
+     * @param instances number of Web Service instances by the last minute
+     * @param seed random seed
+     * @return log text
+     */
+    public static String generate(final int minutes, final int instances,
+                                  final long seed) {
+        Random random = new Random(seed);
+        List<String> dns = new ArrayList<>();
+        for (int i = 0; i < instances; i++) {
+            dns.add(String.format(Locale.ROOT,
+                    "ec2-%d-%d-%d-%d.compute-1.amazonaws.com",
+                    random.nextInt(223) + 1, random.nextInt(256),
+                    random.nextInt(256), random.nextInt(256)));
+        }
+        StringBuilder log = new StringBuilder();
+        log.append("; 2020-09-29T03:07:11+00:00\n")
+                .append("; Horizontal Scaling Test\n")
+                .append("; isTestingThroughCode=true\n")
+                .append("; Test launched. Please check every minute for update.\n")
+                .append("; Your goal is to achieve rps=50 in 30 min\n")
+                .append("; Minimal interval of adding instances is 100 sec\n")
+                .append("[Test]\n")
+                .append("type=horizontal\n")
+                .append("testId=").append(TEST_ID).append('\n')
+                .append("testFile=test.").append(TEST_ID).append(".log\n")
+                .append("startTime=2020-09-29T03:07:11+00:00\n\n");
+        float rps = 0;
+        for (int minute = 1; minute <= minutes; minute++) {
+            int joined = Math.max(1, (int) Math.ceil(
+                    (double) instances * minute / minutes));
+            rps = 0;
+            log.append("[Minute ").append(minute).append("]\n");
+            for (int i = 0; i < joined; i++) {
+                float value = (float) (12.5 + 1.2 * random.nextGaussian());
+                rps += value;
+                log.append(dns.get(i)).append('=').append(format(value)).append('\n');
+            }
+            log.append("[Current rps=").append(format(rps)).append("]\n\n");
+        }
+        for (int i = 0; i < instances; i++) {
+            log.append("[Web Service ").append(i).append("]\n")
+                    .append("username=null\n")
+                    .append("platform=AWS\n")
+                    .append("instanceType=m5.large\n")
+                    .append("hostname=").append(dns.get(i)).append("\n\n");
+        }
+        log.append("; MSB is validating...\n")
+                .append("[Test End]\n")
+                .append("endTime=2020-09-29T03:37:11+00:00\n")
+                .append("rps=").append(format(rps)).append('\n')
+                .append("pass=true\n")
+                .append("[Test finished]\n");
+        return log.toString();
+    }
+
+    /**
+     * Format an rps value as the log does.
+     * @param rps requests per second
+     * @return value with two decimals
+     */
+    private static String format(final float rps) {
+        return String.format(Locale.ROOT, "%.2f", rps);
+    }
+}
@@ -0,0 +1,125 @@
+package horizontal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing hot paths of the control loop, on a 30 minute log.
+ *
+ * Run with "-prof gc" to see the allocation rate per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LogParsingBenchmark {
+    /**
+     * Bytes delivered by one poll of the tailer.
+     */
+    private static final int POLL_CHUNK = 512;
+
+    /**
+     * Minute sections in the log.
+     */
+    @Param({"30"})
+    private int minutes;
+    /**
+     * Web Service instances by the last minute.
+     */
+    @Param({"4", "40"})
+    private int instances;
+
+    /**
+     * Log bytes.
+     */
+    private byte[] log;
+    /**
+     * Parsed log.
+     */
+    private TestLog parsed;
+    /**
+     * Response of the test launch.
+     */
+    private String launchResponse;
+
+    /**
+     * Generate the fixtures.
+     */
+    @Setup
+    public void setUp() {
+        log = LogFixtures.generate(minutes, instances, 1)
+                .getBytes(StandardCharsets.UTF_8);
+        LogTailer tailer = new LogTailer(null, "http://localhost/log");
+        tailer.append(log, 0, log.length);
+        parsed = tailer.getLog();
+        launchResponse = "<a href='/log?name=test." + LogFixtures.TEST_ID
+                + ".log'>Test</a> launched.";
+    }
+
+    /**
+     * Parse the whole log in one read.
+     * @return parsed log
+     */
+    @Benchmark
+    public TestLog parseWholeLog() {
+        LogTailer tailer = new LogTailer(null, "http://localhost/log");
+        tailer.append(log, 0, log.length);
+        return tailer.getLog();
+    }
+
+    /**
+     * Parse the log in small chunks, as successive polls deliver it.
+     * @return parsed log
+     */
+    @Benchmark
+    public TestLog parseInPolls() {
+        LogTailer tailer = new LogTailer(null, "http://localhost/log");
+        for (int from = 0; from < log.length; from += POLL_CHUNK) {
+            tailer.append(log, from, Math.min(POLL_CHUNK, log.length - from));
+        }
+        return tailer.getLog();
+    }
+
+    /**
+     * Build the per-instance series of a parsed log.
+     * @return series
+     */
+    @Benchmark
+    public InstanceRpsSeries updateSeries() {
+        InstanceRpsSeries series = new InstanceRpsSeries();
+        series.update(parsed);
+        return series;
+    }
+
+    /**
+     * Estimate the per-instance throughput of a parsed log.
+     * @return rps per instance
+     */
+    @Benchmark
+    public float estimateInstanceRps() {
+        return CapacityModelPolicy.estimateInstanceRps(parsed);
+    }
+
+    /**
+     * Extract the test ID from the launch response.
+     * @return test ID
+     */
+    @Benchmark
+    public String getTestId() {
+        return LoadGenerator.getTestId(launchResponse);
+    }
+}
@@ -0,0 +1,121 @@
+package horizontal;
+
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import utilities.Configuration;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cold start of the launcher: every score is a single call in a fresh JVM,
+ * class loading included, averaged over the forks. firstEc2Call starts
+ * the EC2 client build on a background thread, reads the settings while
+ * it runs and makes one DescribeInstances call through the deferred
+ * client against a local endpoint, as the launcher does, so the score is
+ * the time from launch to the first API call, without the network.
+ * Credentials come from system properties, the second provider of the
+ * default chain.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(value = 10, jvmArgsAppend = {"-Daws.accessKeyId=startup",
+        "-Daws.secretKey=startup"})
+public class StartupBenchmark {
+    /**
+     * Empty DescribeInstances response.
+     */
+    private static final byte[] DESCRIBE_RESPONSE = ("<?xml version=\"1.0\""
+            + " encoding=\"UTF-8\"?>\n<DescribeInstancesResponse"
+            + " xmlns=\"http://ec2.amazonaws.com/doc/2016-11-15/\">"
+            + "<requestId>startup</requestId><reservationSet/>"
+            + "</DescribeInstancesResponse>").getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Local EC2 endpoint.
+     */
+    private HttpServer server;
+    /**
+     * Endpoint of the client under test.
+     */
+    private AwsClientBuilder.EndpointConfiguration endpoint;
+
+    /**
+     * Start the local endpoint.
+     * @throws IOException when the port cannot be bound
+     */
+    @Setup
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::describe);
+        server.start();
+        endpoint = new AwsClientBuilder.EndpointConfiguration("http://127.0.0.1:"
+                + server.getAddress().getPort(), "us-east-1");
+    }
+
+    /**
+     * Stop the local endpoint.
+     */
+    @TearDown
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    /**
+     * Read the configuration file from the classpath.
+     * @return configuration
+     */
+    @Benchmark
+    public Configuration configuration() {
+        return new Configuration("horizontal-scaling-config.json");
+    }
+
+    /**
+     * Start the EC2 client build, read the settings, and make the first
+     * call once the client is built.
+     * @param blackhole sink of the settings
+     * @return response of the call
+     */
+    @Benchmark
+    public DescribeInstancesResult firstEc2Call(final Blackhole blackhole) {
+        AmazonEC2 ec2 = new DeferredEC2(() -> LoadGenerator.ec2Client(endpoint))
+                .getClient();
+        blackhole.consume(LoadGenerator.Settings.CONFIGURATION);
+        return ec2.describeInstances();
+    }
+
+    /**
+     * Answer every call with an empty DescribeInstances response.
+     * @param exchange HTTP exchange
+     * @throws IOException when the response cannot be written
+     */
+    private void describe(final HttpExchange exchange) throws IOException {
+        exchange.getRequestBody().close();
+        exchange.getResponseHeaders().set("Content-Type", "text/xml");
+        exchange.sendResponseHeaders(200, DESCRIBE_RESPONSE.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(DESCRIBE_RESPONSE);
+        }
+    }
+}
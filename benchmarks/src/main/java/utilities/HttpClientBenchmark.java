@@ -0,0 +1,142 @@
+package utilities;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import horizontal.LogFixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client overhead of the HTTP calls made every second, against a local
+ * server returning a 30 minute log. The server does no work, so the score
+ * is the cost of the client and the loopback round trip. TCP_NODELAY is
+ * set on the server, otherwise every response waits for a delayed ACK.
+ *
+ * Run with "-prof gc" to see the allocation rate per request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dsun.net.httpserver.nodelay=true")
+public class HttpClientBenchmark {
+    /**
+     * Bytes returned by a tail poll with nothing new but the last line.
+     */
+    private static final int TAIL_BYTES = 16;
+
+    /**
+     * Web Service instances by the last minute.
+     */
+    @Param({"4", "40"})
+    private int instances;
+
+    /**
+     * Log served by the stub.
+     */
+    private byte[] log;
+    /**
+     * Local stub server.
+     */
+    private HttpServer server;
+    /**
+     * URL of the log.
+     */
+    private String url;
+    /**
+     * Client under test.
+     */
+    private HttpClient client;
+
+    /**
+     * Start the stub server.
+     * @throws IOException when the port cannot be bound
+     */
+    @Setup
+    public void setUp() throws IOException {
+        log = LogFixtures.generate(30, instances, 1)
+                .getBytes(StandardCharsets.UTF_8);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/log", this::serveLog);
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort()
+                + "/log?name=test." + LogFixtures.TEST_ID + ".log";
+        client = new HttpClient(1000, 1000, new RetryPolicy(0, 0, 1));
+    }
+
+    /**
+     * Stop the stub server.
+     */
+    @TearDown
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    /**
+     * Download the full log, as the ini download did on every poll.
+     * @return response
+     * @throws IOException on network failure
+     */
+    @Benchmark
+    public HttpRequest.Response getFullLog() throws IOException {
+        return client.get(url);
+    }
+
+    /**
+     * Download the full log as a String.
+     * @return log text
+     * @throws IOException on network failure
+     */
+    @Benchmark
+    public String sendGetFullLog() throws IOException {
+        return HttpRequest.sendGet(client, url);
+    }
+
+    /**
+     * Poll the tail of the log, as the tailer does every second.
+     * @return response
+     * @throws IOException on network failure
+     */
+    @Benchmark
+    public HttpRequest.Response rangeGetTail() throws IOException {
+        return HttpRequest.sendRangeGet(client, url, log.length - TAIL_BYTES);
+    }
+
+    /**
+     * Serve the log, honouring an open-ended Range header.
+     * @param exchange HTTP exchange
+     * @throws IOException when the response cannot be written
+     */
+    private void serveLog(final HttpExchange exchange) throws IOException {
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        int offset = 0;
+        int status = 200;
+        if (range != null && range.startsWith("bytes=")) {
+            offset = Integer.parseInt(range.substring("bytes=".length(),
+                    range.indexOf('-')));
+            status = 206;
+        }
+        exchange.sendResponseHeaders(status, log.length - offset);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(log, offset, log.length - offset);
+        }
+        exchange.close();
+    }
+}
@@ -0,0 +1,470 @@
+package horizontal;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import utilities.ApiGovernor;
+import utilities.BalancingProxy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Embedded admin HTTP server of a run.
+ *
+ * GET /metrics serves live metrics in the Prometheus text format.
+ * GET /parameters shows the scaling parameters, and POST /parameters with
+ * rps_target, launch_delay_millis or poll_delay_millis in the query or a form body changes them for every
+ * session from its next tick on; a request with any bad value changes
+ * nothing. With a proxy in front of the fleet, its backends are reported
+ * too. The server has no authentication, so it binds to the loopback
+ * interface unless told otherwise.
+ */
+public final class AdminServer {
+    /**
+     * Content type of the Prometheus text format.
+     */
+    private static final String PROMETHEUS_TYPE = "text/plain; version=0.0.4";
+    /**
+     * HTTP OK.
+     */
+    private static final int HTTP_OK = 200;
+    /**
+     * HTTP Bad Request.
+     */
+    private static final int HTTP_BAD_REQUEST = 400;
+    /**
+     * HTTP Method Not Allowed.
+     */
+    private static final int HTTP_BAD_METHOD = 405;
+
+    /**
+     * Sessions of the run.
+     */
+    private final List<TestSession> sessions;
+    /**
+     * Parameters shared by the sessions.
+     */
+    private final ScalingParameters parameters;
+    /**
+     * Governor of the EC2 calls.
+     */
+    private final ApiGovernor governor;
+    /**
+     * Proxy in front of the fleet, null when disabled.
+     */
+    private final BalancingProxy proxy;
+    /**
+     * Embedded server, created by {@link #start(int)}.
+     */
+    private HttpServer server;
+
+    /**
+     * Constructor.
+     * @param sessions sessions of the run
+     * @param parameters parameters shared by the sessions
+     * @param governor governor of the EC2 calls
+     * @param proxy proxy in front of the fleet, null when disabled
+     */
+    public AdminServer(final List<TestSession> sessions,
+                       final ScalingParameters parameters,
+                       final ApiGovernor governor,
+                       final BalancingProxy proxy) {
+        this.sessions = sessions;
+        this.parameters = parameters;
+        this.governor = governor;
+        this.proxy = proxy;
+    }
+
+    /**
+     * Start serving on the loopback interface.
+     * @param port port, 0 for an ephemeral one
+     * @throws IOException when the port cannot be bound
+     */
+    public void start(final int port) throws IOException {
+        start(InetAddress.getLoopbackAddress(), port);
+    }
+
+    /**
+     * Start serving.
+     * @param address local address to bind
+     * @param port port, 0 for an ephemeral one
+     * @throws IOException when the port cannot be bound
+     */
+    public void start(final InetAddress address, final int port)
+            throws IOException {
+        server = HttpServer.create(new InetSocketAddress(address, port), 0);
+        server.createContext("/metrics", this::handleMetrics);
+        server.createContext("/parameters", this::handleParameters);
+        server.start();
+        System.out.println("Admin server on " + address.getHostAddress()
+                + ":" + getPort());
+    }
+
+    /**
+     * @return bound port
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stop serving.
+     */
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Serve the metrics.
+     * @param exchange HTTP exchange
+     * @throws IOException when the response cannot be written
+     */
+    private void handleMetrics(final HttpExchange exchange) throws IOException {
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            respond(exchange, HTTP_BAD_METHOD, "GET only\n");
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", PROMETHEUS_TYPE);
+        respond(exchange, HTTP_OK, renderMetrics());
+    }
+
+    /**
+     * Show or change the scaling parameters.
+     * @param exchange HTTP exchange
+     * @throws IOException when the response cannot be written
+     */
+    private void handleParameters(final HttpExchange exchange)
+            throws IOException {
+        String method = exchange.getRequestMethod();
+        if ("POST".equals(method)) {
+            String query = exchange.getRequestURI().getRawQuery();
+            String body = readBody(exchange);
+            try {
+                // every value is checked before all of them apply at once
+                synchronized (parameters) {
+                    ScalingParameters.Values changed = update(
+                            update(parameters.get(),
+                                    query == null ? "" : query), body);
+                    parameters.set(changed);
+                }
+            } catch (IllegalArgumentException e) {
+                respond(exchange, HTTP_BAD_REQUEST, e.getMessage() + "\n");
+                return;
+            }
+            System.out.println("Scaling parameters changed: "
+                    + parameters.toString().replace('\n', ' ').trim());
+        } else if (!"GET".equals(method)) {
+            respond(exchange, HTTP_BAD_METHOD, "GET or POST only\n");
+            return;
+        }
+        respond(exchange, HTTP_OK, parameters.toString());
+    }
+
+    /**
+     * Apply form-encoded parameter changes.
+     * @param values values to change
+     * @param form name=value pairs separated by ampersands
+     * @return changed values
+     * @throws IllegalArgumentException on an unknown name or a bad value
+     */
+    private static ScalingParameters.Values update(
+            final ScalingParameters.Values values, final String form) {
+        ScalingParameters.Values changed = values;
+        for (String pair : form.split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int equals = pair.indexOf('=');
+            if (equals < 0) {
+                throw new IllegalArgumentException("Missing value of " + pair);
+            }
+            String name = decode(pair.substring(0, equals));
+            String value = decode(pair.substring(equals + 1)).trim();
+            try {
+                switch (name) {
+                    case "rps_target":
+                        changed = changed.withRpsTarget(
+                                Float.parseFloat(value));
+                        break;
+                    case "launch_delay_millis":
+                        changed = changed.withLaunchDelayMillis(
+                                Long.parseLong(value));
+                        break;
+                    case "poll_delay_millis":
+                        changed = changed.withPollDelayMillis(
+                                Long.parseLong(value));
+                        break;
+                    default:
+                        throw new IllegalArgumentException(
+                                "Unknown parameter " + name);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad value of " + name
+                        + ": " + value);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Render every metric.
+     * @return metrics in the Prometheus text format
+     */
+    private String renderMetrics() {
+        StringBuilder out = new StringBuilder();
+        header(out, "horizontal_current_rps", "RPS of the latest minute.");
+        for (TestSession session : sessions) {
+            sample(out, "horizontal_current_rps", session, null,
+                    session.getCurrentRps());
+        }
+        header(out, "horizontal_instance_rps",
+                "RPS of a Web Service in the latest complete minute.");
+        for (TestSession session : sessions) {
+            for (Map.Entry<String, Float> instance
+                    : session.getInstanceRps().entrySet()) {
+                sample(out, "horizontal_instance_rps", session,
+                        instance.getKey(), instance.getValue());
+            }
+        }
+        header(out, "horizontal_fleet_size",
+                "Web Services registered with the Load Generator.");
+        for (TestSession session : sessions) {
+            sample(out, "horizontal_fleet_size", session, null,
+                    session.getFleetSize());
+        }
+        header(out, "horizontal_pending_launches",
+                "Web Services launched and not registered yet.");
+        for (TestSession session : sessions) {
+            sample(out, "horizontal_pending_launches", session, null,
+                    session.getPendingLaunches());
+        }
+        header(out, "horizontal_seconds_since_scale_out",
+                "Time since the last scale-out finished.");
+        for (TestSession session : sessions) {
+            long millis = session.getMillisSinceScaleOut();
+            if (millis >= 0) {
+                sample(out, "horizontal_seconds_since_scale_out", session, null,
+                        millis / 1000.0);
+            }
+        }
+        header(out, "horizontal_session_state", "Current state of a session.");
+        for (TestSession session : sessions) {
+            for (TestSession.State state : TestSession.State.values()) {
+                out.append("horizontal_session_state{session=\"")
+                        .append(escape(session.getName())).append("\",state=\"")
+                        .append(state).append("\"} ")
+                        .append(session.getState() == state ? 1 : 0).append('\n');
+            }
+        }
+        ScalingParameters.Values values = parameters.get();
+        gauge(out, "horizontal_rps_target", "RPS target to stop provisioning.",
+                values.getRpsTarget());
+        gauge(out, "horizontal_launch_delay_seconds",
+                "Cooldown between two scale-outs.",
+                values.getLaunchDelayMillis() / 1000.0);
+        gauge(out, "horizontal_poll_delay_seconds",
+                "Delay between two reads of the log.",
+                values.getPollDelayMillis() / 1000.0);
+        gauge(out, "horizontal_ec2_calls_per_second",
+                "Current EC2 call rate allowed by the governor.",
+                governor.getRate());
+        out.append("# HELP horizontal_ec2_throttles_total EC2 throttling errors.\n")
+                .append("# TYPE horizontal_ec2_throttles_total counter\n")
+                .append("horizontal_ec2_throttles_total ")
+                .append(governor.getThrottles()).append('\n');
+        if (proxy != null) {
+            renderProxy(out);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Write the metrics of the proxy backends.
+     * @param out output
+     */
+    private void renderProxy(final StringBuilder out) {
+        List<BalancingProxy.Backend> backends = proxy.getBackends();
+        header(out, "horizontal_proxy_in_flight",
+                "Requests in flight through the proxy to a backend.");
+        for (BalancingProxy.Backend backend : backends) {
+            backendSample(out, "horizontal_proxy_in_flight", backend, null,
+                    backend.getOutstanding());
+        }
+        header(out, "horizontal_proxy_latency_seconds",
+                "Latency of the backend responses relayed by the proxy.");
+        for (BalancingProxy.Backend backend : backends) {
+            for (double quantile : new double[] {0.5, 0.9, 0.99}) {
+                backendSample(out, "horizontal_proxy_latency_seconds", backend,
+                        String.valueOf(quantile), backend.getLatencyMicros()
+                                .getValueAtPercentile(quantile * 100) / 1e6);
+            }
+        }
+        header(out, "horizontal_proxy_ejected",
+                "1 while the proxy keeps traffic away from a backend.");
+        for (BalancingProxy.Backend backend : backends) {
+            backendSample(out, "horizontal_proxy_ejected", backend, null,
+                    backend.isEjected() ? 1 : 0);
+        }
+        out.append("# HELP horizontal_proxy_requests_total Requests relayed"
+                + " to a backend.\n")
+                .append("# TYPE horizontal_proxy_requests_total counter\n");
+        for (BalancingProxy.Backend backend : backends) {
+            backendSample(out, "horizontal_proxy_requests_total", backend, null,
+                    backend.getRequests());
+        }
+        out.append("# HELP horizontal_proxy_failures_total Failed requests"
+                + " and 5xx responses of a backend.\n")
+                .append("# TYPE horizontal_proxy_failures_total counter\n");
+        for (BalancingProxy.Backend backend : backends) {
+            backendSample(out, "horizontal_proxy_failures_total", backend, null,
+                    backend.getFailures());
+        }
+    }
+
+    /**
+     * Write a sample of a proxy backend.
+     * @param out output
+     * @param name metric name
+     * @param backend backend
+     * @param quantile quantile label, null for none
+     * @param value value
+     */
+    private static void backendSample(final StringBuilder out,
+                                      final String name,
+                                      final BalancingProxy.Backend backend,
+                                      final String quantile,
+                                      final double value) {
+        out.append(name).append("{backend=\"").append(escape(backend.getName()));
+        if (quantile != null) {
+            out.append("\",quantile=\"").append(quantile);
+        }
+        out.append("\"} ").append(format(value)).append('\n');
+    }
+
+    /**
+     * Write the HELP and TYPE lines of a gauge.
+     * @param out output
+     * @param name metric name
+     * @param help description
+     */
+    private static void header(final StringBuilder out, final String name,
+                               final String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n')
+                .append("# TYPE ").append(name).append(" gauge\n");
+    }
+
+    /**
+     * Write a gauge without labels.
+     * @param out output
+     * @param name metric name
+     * @param help description
+     * @param value value
+     */
+    private static void gauge(final StringBuilder out, final String name,
+                              final String help, final double value) {
+        header(out, name, help);
+        out.append(name).append(' ').append(format(value)).append('\n');
+    }
+
+    /**
+     * Write a sample of a session.
+     * @param out output
+     * @param name metric name
+     * @param session session
+     * @param dns Web Service DNS label, null for none
+     * @param value value
+     */
+    private static void sample(final StringBuilder out, final String name,
+                               final TestSession session, final String dns,
+                               final double value) {
+        out.append(name).append("{session=\"").append(escape(session.getName()));
+        if (dns != null) {
+            out.append("\",dns=\"").append(escape(dns));
+        }
+        out.append("\"} ").append(format(value)).append('\n');
+    }
+
+    /**
+     * @param value sample value
+     * @return value in the Prometheus text format
+     */
+    private static String format(final double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            return String.valueOf((long) value);
+        }
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    /**
+     * Escape a label value.
+     * @param value label value
+     * @return escaped value
+     */
+    private static String escape(final String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"")
+                .replace("\n", "\\n");
+    }
+
+    /**
+     * @param text URL-encoded text
+     * @return decoded text
+     */
+    private static String decode(final String text) {
+        try {
+            return URLDecoder.decode(text, "UTF-8");
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Read a request body.
+     * @param exchange HTTP exchange
+     * @return body as text
+     * @throws IOException when the body cannot be read
+     */
+    private static String readBody(final HttpExchange exchange)
+            throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        try (InputStream in = exchange.getRequestBody()) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                body.write(buffer, 0, read);
+            }
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8).trim();
+    }
+
+    /**
+     * Send a text response.
+     * @param exchange HTTP exchange
+     * @param status HTTP status
+     * @param text body
+     * @throws IOException when the response cannot be written
+     */
+    private static void respond(final HttpExchange exchange, final int status,
+                                final String text) throws IOException {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        if (!exchange.getResponseHeaders().containsKey("Content-Type")) {
+            exchange.getResponseHeaders().set("Content-Type",
+                    "text/plain; charset=utf-8");
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+        exchange.close();
+    }
+}
@@ -0,0 +1,95 @@
+package horizontal;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Estimates per-instance throughput from the per-DNS lines of the latest
+ * minute sections and launches every missing instance at once. The first
+ * minute of every instance is left out of the estimate, as it is only
+ * partly served.
+ */
+public final class CapacityModelPolicy implements ScalingPolicy {
+    /**
+     * Configuration name.
+     */
+    static final String NAME = "capacity-model";
+    /**
+     * Number of complete minute sections averaged.
+     */
+    private static final int WINDOW_MINUTES = 2;
+    /**
+     * Default upper bound of a single step.
+     */
+    private static final int DEFAULT_MAX_STEP = 5;
+
+    /**
+     * Upper bound of a single step, guards against a bad estimate.
+     */
+    private final int maxStep;
+
+    /**
+     * Constructor with the default step bound.
+     */
+    public CapacityModelPolicy() {
+        this(DEFAULT_MAX_STEP);
+    }
+
+    /**
+     * Constructor.
+     * @param maxStep maximum number of instances launched at once
+     */
+    public CapacityModelPolicy(final int maxStep) {
+        this.maxStep = maxStep;
+    }
+
+    @Override
+    public int instancesToAdd(final TestLog log, final int fleetSize,
+                              final float target) {
+        if (log.getCurrentRps() >= target) {
+            return 0;
+        }
+        float perInstance = estimateInstanceRps(log);
+        if (perInstance <= 0) {
+            return 1;
+        }
+        int needed = (int) Math.ceil(target / perInstance) - fleetSize;
+        return Math.max(0, Math.min(needed, maxStep));
+    }
+
+    /**
+     * Mean RPS of one instance over the latest complete minute sections,
+     * without the first minute of any instance.
+     * @param log test log
+     * @return RPS per instance, 0 without data
+     */
+    static float estimateInstanceRps(final TestLog log) {
+        List<MinuteSection> minutes = log.getMinutes();
+        Map<String, Integer> firstMinute = new HashMap<>();
+        for (int i = 0; i < minutes.size(); i++) {
+            for (String dns : minutes.get(i).getInstanceRps().keySet()) {
+                firstMinute.putIfAbsent(dns, i);
+            }
+        }
+        float sum = 0;
+        int samples = 0;
+        int used = 0;
+        for (int i = minutes.size() - 1; i >= 0 && used < WINDOW_MINUTES; i--) {
+            MinuteSection minute = minutes.get(i);
+            if (!minute.isComplete()) {
+                continue;
+            }
+            for (Map.Entry<String, Float> instance
+                    : minute.getInstanceRps().entrySet()) {
+                // the first minute of an instance is only partly served
+                if (firstMinute.get(instance.getKey()) < i) {
+                    sum += instance.getValue();
+                    samples++;
+                }
+            }
+            used++;
+        }
+        return samples == 0 ? 0 : sum / samples;
+    }
+}
@@ -0,0 +1,117 @@
+package horizontal;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.services.ec2.AmazonEC2;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * EC2 client built on a background thread, so that loading the SDK,
+ * building the client and resolving credentials overlap with the rest of
+ * the startup. Every call through {@link #getClient()} waits for the built
+ * client, except shutdown, which is applied once it is built.
+ */
+public final class DeferredEC2 implements InvocationHandler {
+    /**
+     * Client being built.
+     */
+    private final CompletableFuture<AmazonEC2> built = new CompletableFuture<>();
+    /**
+     * Client handed out before the build is done.
+     */
+    private final AmazonEC2 client = Ec2Proxy.create(this);
+    /**
+     * Time the build started.
+     */
+    private final long start = System.currentTimeMillis();
+    /**
+     * True once the first call was made.
+     */
+    private final AtomicBoolean called = new AtomicBoolean();
+    /**
+     * Time the client was ready, 0 until then.
+     */
+    private volatile long readyAt;
+
+    /**
+     * Start building the client.
+     * @param factory builds the client, run once on a daemon thread
+     */
+    public DeferredEC2(final Supplier<AmazonEC2> factory) {
+        Thread builder = new Thread(() -> {
+            try {
+                AmazonEC2 ec2 = factory.get();
+                readyAt = System.currentTimeMillis();
+                built.complete(ec2);
+            } catch (RuntimeException | Error e) {
+                built.completeExceptionally(e);
+            }
+        }, "ec2-client");
+        builder.setDaemon(true);
+        builder.start();
+    }
+
+    /**
+     * Wait for the client.
+     * @return time the build took in milliseconds
+     */
+    public long awaitClient() {
+        join();
+        return readyAt - start;
+    }
+
+    /**
+     * @return client whose calls wait for the build
+     */
+    public AmazonEC2 getClient() {
+        return client;
+    }
+
+    @Override
+    public Object invoke(final Object proxy, final Method method,
+                         final Object[] args) throws Throwable {
+        if ("shutdown".equals(method.getName())) {
+            built.thenAccept(AmazonEC2::shutdown);
+            return null;
+        }
+        return Ec2Proxy.invoke(builtClient(), method, args);
+    }
+
+    /**
+     * Wait for the client, and report how long the first call waited.
+     * @return client
+     */
+    private AmazonEC2 builtClient() {
+        long waitStart = System.currentTimeMillis();
+        AmazonEC2 ec2 = join();
+        if (called.compareAndSet(false, true)) {
+            System.out.println("EC2 client built in " + (readyAt - start)
+                    + " ms, first call waited "
+                    + (System.currentTimeMillis() - waitStart) + " ms");
+        }
+        return ec2;
+    }
+
+    /**
+     * Wait for the client.
+     * @return client
+     */
+    private AmazonEC2 join() {
+        try {
+            return built.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AbortedException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw (Error) e.getCause();
+        }
+    }
+}
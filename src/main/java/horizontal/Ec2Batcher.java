@@ -0,0 +1,301 @@
+package horizontal;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.CreateTagsRequest;
+import com.amazonaws.services.ec2.model.InstanceStateName;
+import com.amazonaws.services.ec2.model.Tag;
+import com.amazonaws.services.ec2.model.TerminateInstancesRequest;
+import utilities.Clock;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces EC2 mutations made by every session.
+ *
+ * Tags and terminations are queued and flushed together once per tick:
+ * instances getting the same tags share one CreateTags call, and all
+ * instances to terminate share one TerminateInstances call. Terminations
+ * complete once the tracker sees every instance terminated, so the caller
+ * waits once for the whole batch.
+ */
+public final class Ec2Batcher {
+    /**
+     * Delay between the first queued mutation and the flush in milliseconds.
+     */
+    static final long FLUSH_INTERVAL_MILLIS = 200;
+    /**
+     * Maximum number of resources in one call.
+     */
+    private static final int MAX_RESOURCES = 1000;
+    /**
+     * Terminated instance state name.
+     */
+    private static final String TERMINATED =
+            InstanceStateName.Terminated.toString();
+
+    /**
+     * A queued mutation of one resource.
+     */
+    private static final class Pending {
+        /**
+         * Resource ID.
+         */
+        private final String resourceId;
+        /**
+         * Future completed once the mutation is applied.
+         */
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        /**
+         * Constructor.
+         * @param resourceId resource ID
+         */
+        Pending(final String resourceId) {
+            this.resourceId = resourceId;
+        }
+    }
+
+    /**
+     * EC2 client.
+     */
+    private final AmazonEC2 ec2;
+    /**
+     * Tracker waiting for terminations.
+     */
+    private final InstanceTracker tracker;
+    /**
+     * Clock of the flush interval.
+     */
+    private final Clock clock;
+    /**
+     * Timer of the flushes.
+     */
+    private final ScheduledExecutorService scheduler;
+    /**
+     * Threads making the calls.
+     */
+    private final Executor executor;
+    /**
+     * Queued tags, grouped by tag set.
+     */
+    private Map<Map<String, String>, List<Pending>> tags = new LinkedHashMap<>();
+    /**
+     * Queued terminations.
+     */
+    private List<Pending> terminations = new ArrayList<>();
+    /**
+     * True when a flush is scheduled.
+     */
+    private boolean flushScheduled;
+    /**
+     * CreateTags calls made.
+     */
+    private final AtomicLong tagCalls = new AtomicLong();
+    /**
+     * TerminateInstances calls made.
+     */
+    private final AtomicLong terminateCalls = new AtomicLong();
+
+    /**
+     * Constructor.
+     * @param ec2 EC2 client instance
+     * @param tracker started instance tracker
+     * @param clock clock of the flush interval
+     * @param scheduler timer of the flushes
+     * @param executor threads making the calls
+     */
+    public Ec2Batcher(final AmazonEC2 ec2, final InstanceTracker tracker,
+                      final Clock clock,
+                      final ScheduledExecutorService scheduler,
+                      final Executor executor) {
+        this.ec2 = ec2;
+        this.tracker = tracker;
+        this.clock = clock;
+        this.scheduler = scheduler;
+        this.executor = executor;
+    }
+
+    /**
+     * Queue tags on a resource.
+     * @param resourceId resource ID
+     * @param tagsToAdd tags
+     * @return future completed once the tags are applied
+     */
+    public synchronized CompletableFuture<Void> tag(final String resourceId,
+                                                    final Tag... tagsToAdd) {
+        Map<String, String> key = new TreeMap<>();
+        for (Tag tag : tagsToAdd) {
+            key.put(tag.getKey(), tag.getValue());
+        }
+        Pending pending = new Pending(resourceId);
+        tags.computeIfAbsent(key, k -> new ArrayList<>()).add(pending);
+        scheduleFlush();
+        return pending.future;
+    }
+
+    /**
+     * Queue instances for termination.
+     * @param instanceIds instance IDs
+     * @return future completed once every instance is terminated
+     */
+    public synchronized CompletableFuture<Void> terminate(
+            final Collection<String> instanceIds) {
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (String instanceId : instanceIds) {
+            Pending pending = new Pending(instanceId);
+            terminations.add(pending);
+            futures.add(pending.future);
+        }
+        if (!futures.isEmpty()) {
+            scheduleFlush();
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+    }
+
+    /**
+     * @return CreateTags calls made
+     */
+    public long getTagCalls() {
+        return tagCalls.get();
+    }
+
+    /**
+     * @return TerminateInstances calls made
+     */
+    public long getTerminateCalls() {
+        return terminateCalls.get();
+    }
+
+    /**
+     * Schedule a flush unless one is already scheduled. While the threads
+     * shut down, the flush runs on the thread at hand instead, so nothing
+     * queued is left behind.
+     */
+    private void scheduleFlush() {
+        if (flushScheduled) {
+            return;
+        }
+        flushScheduled = true;
+        try {
+            scheduler.schedule(() -> {
+                try {
+                    executor.execute(this::flush);
+                } catch (RejectedExecutionException e) {
+                    flush();
+                }
+            }, clock.toRealMillis(FLUSH_INTERVAL_MILLIS), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            flush();
+        }
+    }
+
+    /**
+     * Send every queued mutation. A failed call fails the mutations it
+     * carried, whatever the error.
+     */
+    private void flush() {
+        Map<Map<String, String>, List<Pending>> tagBatch;
+        List<Pending> terminationBatch;
+        synchronized (this) {
+            tagBatch = tags;
+            terminationBatch = terminations;
+            tags = new LinkedHashMap<>();
+            terminations = new ArrayList<>();
+            flushScheduled = false;
+        }
+        for (Map.Entry<Map<String, String>, List<Pending>> group
+                : tagBatch.entrySet()) {
+            List<Tag> tagList = new ArrayList<>();
+            for (Map.Entry<String, String> tag : group.getKey().entrySet()) {
+                tagList.add(new Tag(tag.getKey(), tag.getValue()));
+            }
+            for (List<Pending> chunk : chunks(group.getValue())) {
+                try {
+                    tagCalls.incrementAndGet();
+                    ec2.createTags(new CreateTagsRequest()
+                            .withResources(resourceIds(chunk))
+                            .withTags(tagList));
+                    for (Pending pending : chunk) {
+                        pending.future.complete(null);
+                    }
+                } catch (RuntimeException e) {
+                    fail(chunk, e);
+                }
+            }
+        }
+        for (List<Pending> chunk : chunks(terminationBatch)) {
+            try {
+                terminateCalls.incrementAndGet();
+                ec2.terminateInstances(new TerminateInstancesRequest()
+                        .withInstanceIds(resourceIds(chunk)));
+            } catch (RuntimeException e) {
+                fail(chunk, e);
+                continue;
+            }
+            for (Pending pending : chunk) {
+                tracker.whenState(pending.resourceId, TERMINATED)
+                        .whenComplete((instance, e) -> {
+                            tracker.untrack(pending.resourceId);
+                            if (e == null) {
+                                pending.future.complete(null);
+                            } else {
+                                pending.future.completeExceptionally(e);
+                            }
+                        });
+            }
+        }
+    }
+
+    /**
+     * Fail every mutation of a chunk.
+     * @param chunk queued mutations
+     * @param e error of the call
+     */
+    private static void fail(final List<Pending> chunk,
+                             final RuntimeException e) {
+        System.out.println("EC2 batch of " + chunk.size() + " failed: "
+                + (e instanceof AmazonServiceException
+                        ? ((AmazonServiceException) e).getErrorCode() : e));
+        for (Pending pending : chunk) {
+            pending.future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Split mutations into calls of at most MAX_RESOURCES resources.
+     * @param pending queued mutations
+     * @return chunks
+     */
+    private static List<List<Pending>> chunks(final List<Pending> pending) {
+        List<List<Pending>> chunks = new ArrayList<>();
+        for (int from = 0; from < pending.size(); from += MAX_RESOURCES) {
+            chunks.add(pending.subList(from,
+                    Math.min(from + MAX_RESOURCES, pending.size())));
+        }
+        return chunks;
+    }
+
+    /**
+     * @param chunk queued mutations
+     * @return their resource IDs
+     */
+    private static List<String> resourceIds(final List<Pending> chunk) {
+        List<String> ids = new ArrayList<>();
+        for (Pending pending : chunk) {
+            ids.add(pending.resourceId);
+        }
+        return ids;
+    }
+}
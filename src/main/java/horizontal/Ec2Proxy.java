@@ -0,0 +1,62 @@
+package horizontal;
+
+import com.amazonaws.services.ec2.AmazonEC2;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Dynamic proxies implementing the whole {@link AmazonEC2} interface, so a
+ * wrapper intercepts every operation, including ones added to the SDK
+ * later, instead of overriding a few and leaving the rest unsupported.
+ */
+final class Ec2Proxy {
+    /**
+     * Private Constructor.
+     */
+    private Ec2Proxy() {
+    }
+
+    /**
+     * Create a client whose every call goes to a handler. equals, hashCode
+     * and toString go to the handler object itself.
+     * @param handler handler of the calls
+     * @return client
+     */
+    static AmazonEC2 create(final InvocationHandler handler) {
+        return (AmazonEC2) Proxy.newProxyInstance(
+                AmazonEC2.class.getClassLoader(),
+                new Class<?>[] {AmazonEC2.class},
+                (proxy, method, args) -> method.getDeclaringClass() == Object.class
+                        ? invoke(handler, method, args)
+                        : handler.invoke(proxy, method, args));
+    }
+
+    /**
+     * Call a method on a target, rethrowing what the method threw as is.
+     * @param target target of the call
+     * @param method method
+     * @param args arguments, null for none
+     * @return result of the call
+     * @throws Throwable what the method threw
+     */
+    static Object invoke(final Object target, final Method method,
+                         final Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * @param method client method
+     * @return EC2 operation name of the method, e.g. DescribeInstances
+     */
+    static String operation(final Method method) {
+        String name = method.getName();
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+}
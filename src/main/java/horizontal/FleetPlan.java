@@ -0,0 +1,130 @@
+package horizontal;
+
+import org.apache.commons.io.FileUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Instance types of the Web Service fleet, in launch order.
+ *
+ * The n-th Web Service of a session is launched with the n-th type of the
+ * plan; once the plan is used up, its last type is repeated. A uniform
+ * plan holds a single type.
+ */
+public final class FleetPlan {
+    /**
+     * Instance types in launch order.
+     */
+    private final List<String> instanceTypes;
+    /**
+     * Expected RPS of the whole fleet, 0 if unknown.
+     */
+    private final float expectedRps;
+    /**
+     * Hourly cost of the whole fleet, 0 if unknown.
+     */
+    private final double hourlyCost;
+
+    /**
+     * Constructor.
+     * @param instanceTypes instance types in launch order, at least one
+     * @param expectedRps expected RPS of the whole fleet, 0 if unknown
+     * @param hourlyCost hourly cost of the whole fleet, 0 if unknown
+     */
+    public FleetPlan(final List<String> instanceTypes, final float expectedRps,
+                     final double hourlyCost) {
+        if (instanceTypes.isEmpty()) {
+            throw new IllegalArgumentException("Empty fleet plan");
+        }
+        this.instanceTypes = Collections.unmodifiableList(
+                new ArrayList<>(instanceTypes));
+        this.expectedRps = expectedRps;
+        this.hourlyCost = hourlyCost;
+    }
+
+    /**
+     * Plan launching every Web Service with the same type.
+     * @param instanceType instance type
+     * @return uniform plan
+     */
+    public static FleetPlan uniform(final String instanceType) {
+        return new FleetPlan(Collections.singletonList(instanceType), 0, 0);
+    }
+
+    /**
+     * Instance type of a Web Service.
+     * @param index launch order of the Web Service, from 0
+     * @return instance type
+     */
+    public String getInstanceType(final int index) {
+        return instanceTypes.get(Math.min(index, instanceTypes.size() - 1));
+    }
+
+    /**
+     * @return instance types in launch order
+     */
+    public List<String> getInstanceTypes() {
+        return instanceTypes;
+    }
+
+    /**
+     * @return expected RPS of the whole fleet, 0 if unknown
+     */
+    public float getExpectedRps() {
+        return expectedRps;
+    }
+
+    /**
+     * @return hourly cost of the whole fleet, 0 if unknown
+     */
+    public double getHourlyCost() {
+        return hourlyCost;
+    }
+
+    @Override
+    public String toString() {
+        return instanceTypes.size() + " instances " + instanceTypes + ", "
+                + String.format("%.2f", expectedRps) + " rps expected, $"
+                + String.format("%.4f", hourlyCost) + "/h";
+    }
+
+    /**
+     * Read a plan from a JSON file.
+     * @param file plan file
+     * @return plan
+     * @throws IOException when the file cannot be read
+     */
+    public static FleetPlan read(final File file) throws IOException {
+        JSONObject json = new JSONObject(FileUtils.readFileToString(file,
+                StandardCharsets.UTF_8));
+        JSONArray types = json.getJSONArray("instance_types");
+        List<String> instanceTypes = new ArrayList<>();
+        for (int i = 0; i < types.length(); i++) {
+            instanceTypes.add(types.getString(i));
+        }
+        return new FleetPlan(instanceTypes,
+                (float) json.optDouble("expected_rps", 0),
+                json.optDouble("hourly_cost", 0));
+    }
+
+    /**
+     * Write the plan to a JSON file.
+     * @param file plan file
+     * @throws IOException when the file cannot be written
+     */
+    public void write(final File file) throws IOException {
+        JSONObject json = new JSONObject()
+                .put("instance_types", new JSONArray(instanceTypes))
+                .put("expected_rps", expectedRps)
+                .put("hourly_cost", hourlyCost);
+        FileUtils.writeStringToFile(file, json.toString(2),
+                StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,201 @@
+package horizontal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Chooses the Web Service fleet reaching an RPS target from measured
+ * instance profiles and a price table.
+ *
+ * Fleets may mix instance types. The planner solves the covering problem
+ * exactly on a 0.1 rps grid: the cheapest multiset of instances, by the
+ * chosen objective, whose sustained RPS adds up to the target. The plan
+ * launches the fastest instances first.
+ */
+public final class FleetPlanner {
+    /**
+     * Resolution of the RPS grid, steps per rps.
+     */
+    private static final int STEPS_PER_RPS = 10;
+    /**
+     * Tolerance when comparing weights.
+     */
+    private static final double EPSILON = 1e-9;
+
+    /**
+     * What the plan minimizes.
+     */
+    public enum Objective {
+        /**
+         * Number of instances, then cost.
+         */
+        FEWEST_INSTANCES("fewest-instances"),
+        /**
+         * Hourly cost, then number of instances.
+         */
+        LOWEST_COST("lowest-cost"),
+        /**
+         * Estimated time to target, then cost. Every instance after the
+         * first waits for a cooldown and its own boot.
+         */
+        FASTEST("fastest");
+
+        /**
+         * Configuration name.
+         */
+        private final String name;
+
+        /**
+         * Constructor.
+         * @param name configuration name
+         */
+        Objective(final String name) {
+            this.name = name;
+        }
+
+        /**
+         * Look up an objective by its configuration name.
+         * @param name "fewest-instances", "lowest-cost" or "fastest"
+         * @return objective
+         */
+        public static Objective forName(final String name) {
+            for (Objective objective : values()) {
+                if (objective.name.equals(name)) {
+                    return objective;
+                }
+            }
+            throw new IllegalArgumentException("Unknown plan objective " + name);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * Private Constructor.
+     */
+    private FleetPlanner() {
+    }
+
+    /**
+     * Plan the fleet.
+     * @param profiles measured profiles
+     * @param prices hourly price by instance type
+     * @param target RPS the fleet must sustain
+     * @param objective what the plan minimizes
+     * @return fleet plan
+     */
+    public static FleetPlan plan(final Collection<InstanceProfile> profiles,
+                                 final Map<String, Double> prices,
+                                 final float target,
+                                 final Objective objective) {
+        List<InstanceProfile> candidates = new ArrayList<>();
+        for (InstanceProfile profile : profiles) {
+            if (profile.getSustainedRps() <= 0) {
+                continue;
+            }
+            if (objective == Objective.LOWEST_COST
+                    && !prices.containsKey(profile.getInstanceType())) {
+                System.out.println("No price for "
+                        + profile.getInstanceType() + ", skipped");
+                continue;
+            }
+            candidates.add(profile);
+        }
+        if (candidates.isEmpty()) {
+            throw new IllegalArgumentException("No instance type to plan with");
+        }
+
+        int goal = (int) Math.ceil(target * STEPS_PER_RPS);
+        // best[s]: lowest weights of a fleet sustaining at least s steps
+        double[] primary = new double[goal + 1];
+        double[] secondary = new double[goal + 1];
+        int[] choice = new int[goal + 1];
+        for (int s = 1; s <= goal; s++) {
+            primary[s] = Double.POSITIVE_INFINITY;
+            secondary[s] = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < candidates.size(); i++) {
+                InstanceProfile profile = candidates.get(i);
+                int previous = Math.max(0, s - steps(profile));
+                double p = primary[previous]
+                        + primaryWeight(profile, prices, objective);
+                double q = secondary[previous]
+                        + secondaryWeight(profile, prices, objective);
+                if (p < primary[s] - EPSILON
+                        || (p < primary[s] + EPSILON && q < secondary[s])) {
+                    primary[s] = p;
+                    secondary[s] = q;
+                    choice[s] = i;
+                }
+            }
+        }
+
+        List<InstanceProfile> fleet = new ArrayList<>();
+        int remaining = goal;
+        while (remaining > 0) {
+            InstanceProfile profile = candidates.get(choice[remaining]);
+            fleet.add(profile);
+            remaining = Math.max(0, remaining - steps(profile));
+        }
+        fleet.sort(Comparator.comparing(InstanceProfile::getSustainedRps)
+                .reversed());
+        List<String> types = new ArrayList<>();
+        float rps = 0;
+        double cost = 0;
+        for (InstanceProfile profile : fleet) {
+            types.add(profile.getInstanceType());
+            rps += profile.getSustainedRps();
+            cost += prices.getOrDefault(profile.getInstanceType(), 0.0);
+        }
+        return new FleetPlan(types, rps, cost);
+    }
+
+    /**
+     * @param profile instance profile
+     * @return sustained RPS in grid steps, at least one
+     */
+    private static int steps(final InstanceProfile profile) {
+        return Math.max(1, Math.round(profile.getSustainedRps() * STEPS_PER_RPS));
+    }
+
+    /**
+     * Weight of one instance under the objective.
+     * @param profile instance profile
+     * @param prices hourly price by instance type
+     * @param objective what the plan minimizes
+     * @return weight
+     */
+    private static double primaryWeight(final InstanceProfile profile,
+                                        final Map<String, Double> prices,
+                                        final Objective objective) {
+        switch (objective) {
+            case LOWEST_COST:
+                return prices.get(profile.getInstanceType());
+            case FASTEST:
+                return LoadGenerator.LAUNCH_DELAY + profile.getBootMillis();
+            default:
+                return 1;
+        }
+    }
+
+    /**
+     * Tie-breaking weight of one instance under the objective.
+     * @param profile instance profile
+     * @param prices hourly price by instance type
+     * @param objective what the plan minimizes
+     * @return weight
+     */
+    private static double secondaryWeight(final InstanceProfile profile,
+                                          final Map<String, Double> prices,
+                                          final Objective objective) {
+        if (objective == Objective.LOWEST_COST) {
+            return 1;
+        }
+        return prices.getOrDefault(profile.getInstanceType(), 0.0);
+    }
+}
@@ -0,0 +1,188 @@
+package horizontal;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.ec2.AmazonEC2;
+import utilities.ApiGovernor;
+import utilities.ApiGovernor.Priority;
+import utilities.LatencyHistogram;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * EC2 client shared by every session, with each call going through an
+ * {@link ApiGovernor}.
+ *
+ * Launches and terminations are critical, describes, gets and tags
+ * background, every other operation normal. Throttled calls slow the
+ * governor down and are retried. The latency of every attempt and its
+ * wait for the governor are recorded per operation. {@link #getClient()}
+ * governs every operation of the interface; only the methods configuring
+ * the client itself go straight to the wrapped one.
+ */
+public final class GovernedEC2 implements InvocationHandler {
+    /**
+     * Attempts of a throttled call before the error is rethrown.
+     */
+    private static final int MAX_ATTEMPTS = 10;
+    /**
+     * Client methods that make no API call.
+     */
+    private static final Set<String> LOCAL_METHODS = new HashSet<>(
+            Arrays.asList("setEndpoint", "setRegion", "shutdown",
+                    "getCachedResponseMetadata", "waiters"));
+    /**
+     * Operations that hold up a test until they are done.
+     */
+    private static final Set<String> CRITICAL_OPERATIONS = new HashSet<>(
+            Arrays.asList("RunInstances", "TerminateInstances"));
+
+    /**
+     * Wrapped client.
+     */
+    private final AmazonEC2 ec2;
+    /**
+     * Governor shared by every call.
+     */
+    private final ApiGovernor governor;
+    /**
+     * Client going through this wrapper.
+     */
+    private final AmazonEC2 client = Ec2Proxy.create(this);
+    /**
+     * Latency of every attempt in microseconds, by operation.
+     */
+    private final Map<String, LatencyHistogram> latencies =
+            new ConcurrentHashMap<>();
+    /**
+     * Wait of every attempt for the governor in microseconds, by operation.
+     */
+    private final Map<String, LatencyHistogram> waits = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     * @param ec2 wrapped client
+     * @param governor governor shared by every call
+     */
+    public GovernedEC2(final AmazonEC2 ec2, final ApiGovernor governor) {
+        this.ec2 = ec2;
+        this.governor = governor;
+    }
+
+    /**
+     * @return client whose every call goes through the governor
+     */
+    public AmazonEC2 getClient() {
+        return client;
+    }
+
+    /**
+     * @return governor shared by every call
+     */
+    public ApiGovernor getGovernor() {
+        return governor;
+    }
+
+    /**
+     * @return latency of every attempt in microseconds, by operation
+     */
+    public Map<String, LatencyHistogram> getLatencies() {
+        return Collections.unmodifiableMap(new TreeMap<>(latencies));
+    }
+
+    /**
+     * @return wait of every attempt for the governor in microseconds, by
+     *         operation
+     */
+    public Map<String, LatencyHistogram> getWaits() {
+        return Collections.unmodifiableMap(new TreeMap<>(waits));
+    }
+
+    @Override
+    public Object invoke(final Object proxy, final Method method,
+                         final Object[] args) throws Throwable {
+        if (LOCAL_METHODS.contains(method.getName())) {
+            return Ec2Proxy.invoke(ec2, method, args);
+        }
+        String operation = Ec2Proxy.operation(method);
+        return call(operation, priority(operation), method, args);
+    }
+
+    /**
+     * @param operation operation name
+     * @return priority of the operation
+     */
+    private static Priority priority(final String operation) {
+        if (CRITICAL_OPERATIONS.contains(operation)) {
+            return Priority.CRITICAL;
+        }
+        if (operation.startsWith("Describe") || operation.startsWith("Get")
+                || "CreateTags".equals(operation)) {
+            return Priority.BACKGROUND;
+        }
+        return Priority.NORMAL;
+    }
+
+    /**
+     * Make a call once the governor allows it, retrying throttled calls.
+     * @param operation operation name
+     * @param priority priority of the call
+     * @param method client method
+     * @param args arguments of the call
+     * @return result of the call
+     * @throws Throwable what the call threw
+     */
+    private Object call(final String operation, final Priority priority,
+                        final Method method, final Object[] args)
+            throws Throwable {
+        LatencyHistogram latency = latencies.computeIfAbsent(operation,
+                key -> new LatencyHistogram());
+        LatencyHistogram wait = waits.computeIfAbsent(operation,
+                key -> new LatencyHistogram());
+        for (int attempt = 1; ; attempt++) {
+            long start = System.nanoTime();
+            try {
+                governor.acquire(priority);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AbortedException(e);
+            }
+            long acquired = System.nanoTime();
+            wait.record((acquired - start) / 1000);
+            try {
+                Object result = Ec2Proxy.invoke(ec2, method, args);
+                latency.record((System.nanoTime() - acquired) / 1000);
+                governor.onSuccess();
+                return result;
+            } catch (AmazonServiceException e) {
+                latency.record((System.nanoTime() - acquired) / 1000);
+                if (!isThrottling(e) || attempt >= MAX_ATTEMPTS) {
+                    throw e;
+                }
+                governor.onThrottled();
+                System.out.println("EC2 throttled, slowing down to "
+                        + String.format("%.1f", governor.getRate()) + " calls/s");
+            }
+        }
+    }
+
+    /**
+     * Check whether an error means the account is over its API rate.
+     * @param e service error
+     * @return true for throttling errors
+     */
+    private static boolean isThrottling(final AmazonServiceException e) {
+        String code = e.getErrorCode();
+        return "RequestLimitExceeded".equals(code)
+                || "Throttling".equals(code)
+                || "ThrottlingException".equals(code);
+    }
+}
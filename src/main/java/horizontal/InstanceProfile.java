@@ -0,0 +1,126 @@
+package horizontal;
+
+import org.apache.commons.io.FileUtils;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Measured throughput of the Web Service on one instance type.
+ *
+ * Profiles are stored as a JSON object keyed by instance type, e.g.
+ * {"m5.large": {"rps": 12.4, "boot_millis": 45000, "minutes": 4}}.
+ */
+public final class InstanceProfile {
+    /**
+     * Instance type.
+     */
+    private final String instanceType;
+    /**
+     * Sustained RPS of one instance after warm-up.
+     */
+    private final float sustainedRps;
+    /**
+     * Time from launch to serving HTTP in milliseconds.
+     */
+    private final long bootMillis;
+    /**
+     * Number of minutes the sustained RPS was measured over.
+     */
+    private final int minutes;
+
+    /**
+     * Constructor.
+     * @param instanceType instance type
+     * @param sustainedRps sustained RPS of one instance after warm-up
+     * @param bootMillis time from launch to serving HTTP in milliseconds
+     * @param minutes number of minutes measured
+     */
+    public InstanceProfile(final String instanceType, final float sustainedRps,
+                           final long bootMillis, final int minutes) {
+        this.instanceType = instanceType;
+        this.sustainedRps = sustainedRps;
+        this.bootMillis = bootMillis;
+        this.minutes = minutes;
+    }
+
+    /**
+     * @return instance type
+     */
+    public String getInstanceType() {
+        return instanceType;
+    }
+
+    /**
+     * @return sustained RPS of one instance after warm-up
+     */
+    public float getSustainedRps() {
+        return sustainedRps;
+    }
+
+    /**
+     * @return time from launch to serving HTTP in milliseconds
+     */
+    public long getBootMillis() {
+        return bootMillis;
+    }
+
+    /**
+     * @return number of minutes measured
+     */
+    public int getMinutes() {
+        return minutes;
+    }
+
+    @Override
+    public String toString() {
+        return instanceType + " " + String.format("%.2f", sustainedRps)
+                + " rps over " + minutes + " min, boots in "
+                + bootMillis / 1000 + " s";
+    }
+
+    /**
+     * Read profiles from a JSON file.
+     * @param file profile file
+     * @return profiles by instance type
+     * @throws IOException when the file cannot be read
+     */
+    public static Map<String, InstanceProfile> read(final File file)
+            throws IOException {
+        JSONObject json = new JSONObject(FileUtils.readFileToString(file,
+                StandardCharsets.UTF_8));
+        Map<String, InstanceProfile> profiles = new LinkedHashMap<>();
+        for (String type : json.keySet()) {
+            JSONObject profile = json.getJSONObject(type);
+            profiles.put(type, new InstanceProfile(type,
+                    (float) profile.getDouble("rps"),
+                    profile.getLong("boot_millis"),
+                    profile.getInt("minutes")));
+        }
+        return profiles;
+    }
+
+    /**
+     * Write profiles to a JSON file.
+     * @param profiles profiles
+     * @param file profile file
+     * @throws IOException when the file cannot be written
+     */
+    public static void write(final Collection<InstanceProfile> profiles,
+                             final File file) throws IOException {
+        JSONObject json = new JSONObject();
+        for (InstanceProfile profile : profiles) {
+            json.put(profile.instanceType, new JSONObject()
+                    .put("rps", profile.sustainedRps)
+                    .put("boot_millis", profile.bootMillis)
+                    .put("minutes", profile.minutes));
+        }
+        FileUtils.writeStringToFile(file, json.toString(2),
+                StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,205 @@
+package horizontal;
+
+import utilities.Clock;
+import utilities.HttpClient;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Measures the sustained RPS of one Web Service instance per instance type.
+ *
+ * Every type gets its own Load Generator and a test with a single Web
+ * Service, so one fast type cannot end the test of the others by reaching
+ * the target. Types are profiled side by side. The first complete minutes
+ * are skipped while the Web Service warms up; the profile is the median of
+ * the following minutes.
+ */
+public final class InstanceProfiler {
+    /**
+     * Complete minutes skipped while the Web Service warms up.
+     */
+    private static final int WARMUP_MINUTES = 2;
+
+    /**
+     * Provisioning pipeline.
+     */
+    private final ProvisioningPipeline pipeline;
+    /**
+     * Readiness prober.
+     */
+    private final ReadinessProber prober;
+    /**
+     * Batcher terminating the profiled instances.
+     */
+    private final Ec2Batcher batcher;
+    /**
+     * Client of the Load Generator calls.
+     */
+    private final HttpClient http;
+    /**
+     * Clock of the log polls.
+     */
+    private final Clock clock;
+    /**
+     * Threads running the profiles.
+     */
+    private final Executor executor;
+
+    /**
+     * Constructor.
+     * @param pipeline provisioning pipeline
+     * @param prober readiness prober
+     * @param batcher batcher terminating the profiled instances
+     * @param http client of the Load Generator calls
+     * @param clock clock of the log polls
+     * @param executor threads running the profiles
+     */
+    public InstanceProfiler(final ProvisioningPipeline pipeline,
+                            final ReadinessProber prober,
+                            final Ec2Batcher batcher, final HttpClient http,
+                            final Clock clock, final Executor executor) {
+        this.pipeline = pipeline;
+        this.prober = prober;
+        this.batcher = batcher;
+        this.http = http;
+        this.clock = clock;
+        this.executor = executor;
+    }
+
+    /**
+     * Profile instance types side by side.
+     * @param instanceTypes instance types
+     * @param minutes minutes to measure after the warm-up
+     * @return profiles of the types that could be measured
+     */
+    public List<InstanceProfile> profile(final List<String> instanceTypes,
+                                         final int minutes) {
+        List<CompletableFuture<InstanceProfile>> futures = new ArrayList<>();
+        for (String instanceType : instanceTypes) {
+            futures.add(CompletableFuture.supplyAsync(
+                    () -> profile(instanceType, minutes), executor));
+        }
+        List<InstanceProfile> profiles = new ArrayList<>();
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                InstanceProfile profile = futures.get(i).join();
+                System.out.println("Profiled " + profile);
+                profiles.add(profile);
+            } catch (CompletionException e) {
+                System.out.println("Profiling " + instanceTypes.get(i)
+                        + " failed: " + e.getCause());
+            }
+        }
+        return profiles;
+    }
+
+    /**
+     * Profile one instance type, then terminate its instances.
+     * @param instanceType instance type
+     * @param minutes minutes to measure after the warm-up
+     * @return profile
+     */
+    private InstanceProfile profile(final String instanceType,
+                                    final int minutes) {
+        long start = clock.currentTimeMillis();
+        ProvisioningPipeline.Launch loadGenerator =
+                pipeline.launch(LoadGenerator.loadGeneratorRequest());
+        ProvisioningPipeline.Launch webService =
+                pipeline.launch(LoadGenerator.webServiceRequest(instanceType));
+        try {
+            CompletableFuture<Long> boot = webService.getPublicDnsName()
+                    .thenCompose(prober::whenReady)
+                    .thenApply(dns -> clock.currentTimeMillis() - start);
+            String lgDns = loadGenerator.getPublicDnsName().join();
+            http.getWithRetry(LoadGenerator.authenticationUrl(lgDns));
+            long bootMillis = boot.join();
+            String wsDns = webService.getPublicDnsName().join();
+            String response = new String(http.getWithRetry(
+                    LoadGenerator.testUrl(lgDns, wsDns)).getBody(),
+                    StandardCharsets.UTF_8);
+            LogTailer tailer = new LogTailer(http, lgDns,
+                    LoadGenerator.getTestId(response));
+            List<Float> samples = measure(tailer, wsDns, minutes);
+            return new InstanceProfile(instanceType, median(samples),
+                    bootMillis, samples.size());
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+        } finally {
+            List<String> instanceIds = new ArrayList<>();
+            for (ProvisioningPipeline.Launch launch
+                    : Arrays.asList(loadGenerator, webService)) {
+                String id = launch.getInstanceId().handle((v, e) -> v).join();
+                if (id != null) {
+                    instanceIds.add(id);
+                }
+            }
+            batcher.terminate(instanceIds).handle((v, e) -> null).join();
+        }
+    }
+
+    /**
+     * Poll the test log until enough minutes after the warm-up are complete
+     * or the test is over.
+     * @param tailer tailer of the test log
+     * @param wsDns DNS Name of the Web Service
+     * @param minutes minutes to measure after the warm-up
+     * @return RPS of the Web Service in every measured minute
+     * @throws InterruptedException when interrupted between polls
+     */
+    private List<Float> measure(final LogTailer tailer, final String wsDns,
+                                final int minutes) throws InterruptedException {
+        while (true) {
+            TestLog log;
+            try {
+                log = tailer.poll();
+            } catch (IOException e) {
+                System.out.println("Log poll failed: " + e.getMessage());
+                clock.sleep(LoadGenerator.POLL_DELAY_MILLIS);
+                continue;
+            }
+            List<Float> all = new ArrayList<>();
+            for (MinuteSection minute : log.getMinutes()) {
+                Float rps = minute.getInstanceRps().get(wsDns);
+                if (minute.isComplete() && rps != null) {
+                    all.add(rps);
+                }
+            }
+            List<Float> measured = all.subList(
+                    Math.min(WARMUP_MINUTES, all.size()), all.size());
+            if (measured.size() >= minutes) {
+                return new ArrayList<>(measured.subList(0, minutes));
+            }
+            if (log.isFinished()) {
+                // a type fast enough to end the test alone is still measured
+                return measured.isEmpty() ? all : new ArrayList<>(measured);
+            }
+            clock.sleep(LoadGenerator.POLL_DELAY_MILLIS);
+        }
+    }
+
+    /**
+     * @param samples RPS samples
+     * @return median, 0 without samples
+     */
+    private static float median(final List<Float> samples) {
+        if (samples.isEmpty()) {
+            return 0;
+        }
+        List<Float> sorted = new ArrayList<>(samples);
+        Collections.sort(sorted);
+        int middle = sorted.size() / 2;
+        return sorted.size() % 2 == 1 ? sorted.get(middle)
+                : (sorted.get(middle - 1) + sorted.get(middle)) / 2;
+    }
+}
@@ -0,0 +1,149 @@
+package horizontal;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Per-instance RPS time series with one float slot per minute.
+ *
+ * Every Web Service DNS name owns a primitive array indexed by minute - 1;
+ * minutes in which an instance did not appear hold NaN.
+ */
+public final class InstanceRpsSeries {
+    /**
+     * Initial number of slots, enough for a 30 minute test.
+     */
+    private static final int INITIAL_CAPACITY = 32;
+
+    /**
+     * RPS slots per DNS name.
+     */
+    private final Map<String, float[]> series = new LinkedHashMap<>();
+    /**
+     * DNS names whose samples are ignored.
+     */
+    private final Set<String> evicted = new HashSet<>();
+    /**
+     * Highest minute recorded.
+     */
+    private int minuteCount;
+    /**
+     * Complete minute sections already consumed from the log.
+     */
+    private int consumed;
+
+    /**
+     * Record the minute sections completed since the last update.
+     * @param log test log
+     * @return true if at least one minute was recorded
+     */
+    public boolean update(final TestLog log) {
+        List<MinuteSection> minutes = log.getMinutes();
+        boolean recorded = false;
+        while (consumed < minutes.size() && minutes.get(consumed).isComplete()) {
+            MinuteSection section = minutes.get(consumed++);
+            for (Map.Entry<String, Float> entry
+                    : section.getInstanceRps().entrySet()) {
+                record(section.getMinute(), entry.getKey(), entry.getValue());
+            }
+            minuteCount = Math.max(minuteCount, section.getMinute());
+            recorded = true;
+        }
+        return recorded;
+    }
+
+    /**
+     * Record the RPS of one instance in one minute.
+     * @param minute minute number, starting at 1
+     * @param dns Web Service DNS name
+     * @param rps RPS value
+     */
+    public void record(final int minute, final String dns, final float rps) {
+        minuteCount = Math.max(minuteCount, minute);
+        if (evicted.contains(dns)) {
+            return;
+        }
+        float[] slots = series.get(dns);
+        if (slots == null) {
+            slots = new float[Math.max(INITIAL_CAPACITY, minute)];
+            Arrays.fill(slots, Float.NaN);
+            series.put(dns, slots);
+        } else if (slots.length < minute) {
+            int length = slots.length;
+            slots = Arrays.copyOf(slots, Math.max(length * 2, minute));
+            Arrays.fill(slots, length, slots.length, Float.NaN);
+            series.put(dns, slots);
+        }
+        slots[minute - 1] = rps;
+    }
+
+    /**
+     * Get the RPS of one instance in one minute.
+     * @param dns Web Service DNS name
+     * @param minute minute number, starting at 1
+     * @return RPS value, NaN if the instance did not appear
+     */
+    public float get(final String dns, final int minute) {
+        float[] slots = series.get(dns);
+        if (slots == null || minute < 1 || minute > slots.length) {
+            return Float.NaN;
+        }
+        return slots[minute - 1];
+    }
+
+    /**
+     * Count the minutes in which an instance appeared.
+     * @param dns Web Service DNS name
+     * @return number of samples
+     */
+    public int getSampleCount(final String dns) {
+        float[] slots = series.get(dns);
+        int samples = 0;
+        if (slots != null) {
+            for (int i = 0; i < minuteCount && i < slots.length; i++) {
+                if (!Float.isNaN(slots[i])) {
+                    samples++;
+                }
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * @return highest minute recorded
+     */
+    public int getMinuteCount() {
+        return minuteCount;
+    }
+
+    /**
+     * @return DNS names with a series
+     */
+    public Set<String> getInstances() {
+        return Collections.unmodifiableSet(series.keySet());
+    }
+
+    /**
+     * Forget an instance and ignore its later samples, e.g. after it has
+     * been replaced.
+     * @param dns Web Service DNS name
+     */
+    public void evict(final String dns) {
+        series.remove(dns);
+        evicted.add(dns);
+    }
+
+    /**
+     * Take the later samples of an evicted instance again, e.g. after its
+     * replacement failed.
+     * @param dns Web Service DNS name
+     */
+    public void restore(final String dns) {
+        evicted.remove(dns);
+    }
+}
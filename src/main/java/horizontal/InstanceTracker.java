@@ -0,0 +1,385 @@
+package horizontal;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.amazonaws.services.ec2.model.Filter;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.InstanceStateName;
+import com.amazonaws.services.ec2.model.Reservation;
+import utilities.Clock;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cached view of the instances we are waiting on.
+ *
+ * Every tick refreshes all tracked instance IDs with a single filtered,
+ * paginated DescribeInstances call. Callers read state and DNS names from
+ * the cache and wait in {@link #whenState} or {@link #awaitState} instead of
+ * polling EC2.
+ */
+public final class InstanceTracker {
+    /**
+     * Delay between two refreshes in milliseconds.
+     */
+    static final long POLL_INTERVAL_MILLIS = 800;
+    /**
+     * Terminated instance state name.
+     */
+    private static final String TERMINATED =
+            InstanceStateName.Terminated.toString();
+    /**
+     * Page size of a DescribeInstances call.
+     */
+    private static final int PAGE_SIZE = 1000;
+    /**
+     * Maximum number of values EC2 accepts in one filter.
+     */
+    private static final int MAX_FILTER_VALUES = 200;
+
+    /**
+     * Listener notified when a tracked instance changes state.
+     */
+    public interface Listener {
+        /**
+         * Called after the cache has been updated.
+         * @param instance latest description of the instance
+         * @param previousState previous state name, null if first seen
+         */
+        void onStateChange(Instance instance, String previousState);
+    }
+
+    /**
+     * Future waiting for an instance to reach a state.
+     */
+    private static final class StateWaiter {
+        /**
+         * Instance ID.
+         */
+        private final String instanceId;
+        /**
+         * Expected state name.
+         */
+        private final String state;
+        /**
+         * Future completed with the instance.
+         */
+        private final CompletableFuture<Instance> future =
+                new CompletableFuture<>();
+
+        /**
+         * Constructor.
+         * @param instanceId instance ID
+         * @param state expected state name
+         */
+        StateWaiter(final String instanceId, final String state) {
+            this.instanceId = instanceId;
+            this.state = state;
+        }
+    }
+
+    /**
+     * EC2 client.
+     */
+    private final AmazonEC2 ec2;
+    /**
+     * Clock pacing the refreshes.
+     */
+    private final Clock clock;
+    /**
+     * Instance IDs refreshed on every tick.
+     */
+    private final Set<String> tracked =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    /**
+     * Latest known description of every instance seen so far.
+     */
+    private final Map<String, Instance> cache = new ConcurrentHashMap<>();
+    /**
+     * State change listeners.
+     */
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    /**
+     * Futures waiting for an instance state.
+     */
+    private final List<StateWaiter> waiters = new CopyOnWriteArrayList<>();
+    /**
+     * Refresh timer, created by {@link #start()}.
+     */
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Constructor.
+     * @param ec2 EC2 client instance
+     */
+    public InstanceTracker(final AmazonEC2 ec2) {
+        this(ec2, Clock.SYSTEM);
+    }
+
+    /**
+     * Constructor.
+     * @param ec2 EC2 client instance
+     * @param clock clock pacing the refreshes
+     */
+    public InstanceTracker(final AmazonEC2 ec2, final Clock clock) {
+        this.ec2 = ec2;
+        this.clock = clock;
+    }
+
+    /**
+     * Start refreshing tracked instances in the background.
+     */
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "instance-tracker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                refresh();
+            } catch (RuntimeException e) {
+                // an escaped exception would cancel every later refresh
+                System.out.println("Instance refresh failed: "
+                        + (e instanceof AmazonServiceException
+                                ? ((AmazonServiceException) e).getErrorCode()
+                                : e));
+            }
+        }, 0, clock.toRealMillis(POLL_INTERVAL_MILLIS), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop the background refresh.
+     */
+    public synchronized void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Refresh these instances on every tick.
+     * @param instanceIds instance IDs
+     */
+    public void track(final String... instanceIds) {
+        Collections.addAll(tracked, instanceIds);
+    }
+
+    /**
+     * Stop refreshing an instance. Its last description stays cached.
+     * @param instanceId instance ID
+     */
+    public void untrack(final String instanceId) {
+        tracked.remove(instanceId);
+    }
+
+    /**
+     * Register a state change listener.
+     * @param listener listener
+     */
+    public void addListener(final Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Refresh all tracked instances with one describe call.
+     */
+    public void refresh() {
+        if (tracked.isEmpty()) {
+            return;
+        }
+        List<Instance> instances = describe(ec2, tracked);
+        List<Instance> changed = new ArrayList<>();
+        List<String> previousStates = new ArrayList<>();
+        synchronized (this) {
+            for (Instance instance : instances) {
+                Instance previous = cache.put(instance.getInstanceId(), instance);
+                String previousState = previous == null
+                        ? null : previous.getState().getName();
+                if (!instance.getState().getName().equals(previousState)) {
+                    changed.add(instance);
+                    previousStates.add(previousState);
+                }
+            }
+            notifyAll();
+        }
+        for (StateWaiter waiter : waiters) {
+            if (check(waiter)) {
+                waiters.remove(waiter);
+            }
+        }
+        for (int i = 0; i < changed.size(); i++) {
+            for (Listener listener : listeners) {
+                listener.onStateChange(changed.get(i), previousStates.get(i));
+            }
+        }
+    }
+
+    /**
+     * Get the cached description of an instance.
+     * @param instanceId instance ID
+     * @return Instance object, null if not seen yet
+     */
+    public Instance getInstance(final String instanceId) {
+        return cache.get(instanceId);
+    }
+
+    /**
+     * Get the cached state name of an instance.
+     * @param instanceId instance ID
+     * @return state name, null if not seen yet
+     */
+    public String getState(final String instanceId) {
+        Instance instance = cache.get(instanceId);
+        return instance == null ? null : instance.getState().getName();
+    }
+
+    /**
+     * Get the cached public DNS name of an instance.
+     * @param instanceId instance ID
+     * @return DNS name, empty if not assigned yet
+     */
+    public String getPublicDnsName(final String instanceId) {
+        Instance instance = cache.get(instanceId);
+        if (instance == null || instance.getPublicDnsName() == null) {
+            return "";
+        }
+        return instance.getPublicDnsName();
+    }
+
+    /**
+     * Block until an instance reaches a state. The instance is tracked
+     * while waiting.
+     * @param instanceId instance ID
+     * @param state expected state name, e.g. "running"
+     * @return latest Instance object
+     * @throws InterruptedException when interrupted while waiting
+     */
+    public Instance awaitState(final String instanceId, final String state)
+            throws InterruptedException {
+        return awaitState(instanceId, state, 0);
+    }
+
+    /**
+     * Block until an instance reaches a state. The instance is tracked
+     * while waiting.
+     * @param instanceId instance ID
+     * @param state expected state name, e.g. "running"
+     * @param timeoutMillis maximum wait on the tracker clock, 0 to wait
+     *                      forever
+     * @return latest Instance object, null on timeout
+     * @throws InterruptedException when interrupted while waiting
+     * @throws IllegalStateException when the instance is terminated first
+     */
+    public synchronized Instance awaitState(final String instanceId,
+                                            final String state,
+                                            final long timeoutMillis)
+            throws InterruptedException {
+        track(instanceId);
+        long deadline = clock.currentTimeMillis() + timeoutMillis;
+        while (!state.equals(getState(instanceId))) {
+            if (TERMINATED.equals(getState(instanceId))) {
+                untrack(instanceId);
+                throw new IllegalStateException(instanceId
+                        + " terminated while waiting for " + state);
+            }
+            if (timeoutMillis <= 0) {
+                wait();
+            } else {
+                long remaining = deadline - clock.currentTimeMillis();
+                if (remaining <= 0) {
+                    return null;
+                }
+                wait(clock.toRealMillis(remaining));
+            }
+        }
+        return cache.get(instanceId);
+    }
+
+    /**
+     * Get a future completed when an instance reaches a state, without
+     * blocking a thread. The instance is tracked while waiting.
+     * @param instanceId instance ID
+     * @param state expected state name, e.g. "running"
+     * @return future completed with the latest Instance object, or with an
+     *         IllegalStateException when the instance is terminated first
+     */
+    public CompletableFuture<Instance> whenState(final String instanceId,
+                                                 final String state) {
+        StateWaiter waiter = new StateWaiter(instanceId, state);
+        track(instanceId);
+        waiters.add(waiter);
+        // the state may have been cached before the waiter was added
+        if (check(waiter)) {
+            waiters.remove(waiter);
+        }
+        return waiter.future;
+    }
+
+    /**
+     * Complete a waiter if its instance reached the state or terminated.
+     * @param waiter state waiter
+     * @return true if the waiter is done
+     */
+    private boolean check(final StateWaiter waiter) {
+        String current = getState(waiter.instanceId);
+        if (waiter.state.equals(current)) {
+            waiter.future.complete(cache.get(waiter.instanceId));
+        } else if (TERMINATED.equals(current)) {
+            untrack(waiter.instanceId);
+            waiter.future.completeExceptionally(new IllegalStateException(
+                    waiter.instanceId + " terminated while waiting for "
+                            + waiter.state));
+        }
+        return waiter.future.isDone();
+    }
+
+    /**
+     * Describe instances by ID with a filtered, paginated request.
+     * Unlike InstanceIds, the instance-id filter does not fail on
+     * instances EC2 does not know about yet.
+     * @param ec2 EC2 client instance
+     * @param instanceIds instance IDs
+     * @return Instance objects found
+     */
+    static List<Instance> describe(final AmazonEC2 ec2,
+                                   final Collection<String> instanceIds) {
+        List<String> ids = new ArrayList<>(new LinkedHashSet<>(instanceIds));
+        List<Instance> instances = new ArrayList<>();
+        for (int from = 0; from < ids.size(); from += MAX_FILTER_VALUES) {
+            List<String> chunk = ids.subList(from,
+                    Math.min(from + MAX_FILTER_VALUES, ids.size()));
+            DescribeInstancesRequest request = new DescribeInstancesRequest()
+                    .withFilters(new Filter("instance-id", chunk))
+                    .withMaxResults(PAGE_SIZE);
+            String nextToken;
+            do {
+                DescribeInstancesResult response = ec2.describeInstances(request);
+                for (Reservation reservation : response.getReservations()) {
+                    instances.addAll(reservation.getInstances());
+                }
+                nextToken = response.getNextToken();
+                request.setNextToken(nextToken);
+            } while (nextToken != null && !nextToken.isEmpty());
+        }
+        return instances;
+    }
+}
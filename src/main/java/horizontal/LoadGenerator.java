@@ -1,46 +1,53 @@
  package horizontal;
 
+import com.amazonaws.SdkClientException;
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
+import com.amazonaws.client.builder.AwsClientBuilder;
 import com.amazonaws.regions.Regions;
 import com.amazonaws.services.ec2.AmazonEC2;
 import com.amazonaws.services.ec2.AmazonEC2ClientBuilder;
 import com.amazonaws.services.ec2.model.AmazonEC2Exception;
 import com.amazonaws.services.ec2.model.Instance;
-import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
-import com.amazonaws.services.ec2.model.DescribeInstancesResult;
-import com.amazonaws.services.ec2.model.Reservation;
 import com.amazonaws.services.ec2.model.CreateSecurityGroupRequest;
 import com.amazonaws.services.ec2.model.CreateSecurityGroupResult;
-import com.amazonaws.services.ec2.model.TerminateInstancesRequest;
 import com.amazonaws.services.ec2.model.AuthorizeSecurityGroupIngressResult;
 import com.amazonaws.services.ec2.model.AuthorizeSecurityGroupIngressRequest;
 import com.amazonaws.services.ec2.model.IpPermission;
 import com.amazonaws.services.ec2.model.IpRange;
-import com.amazonaws.services.ec2.model.RunInstancesResult;
 import com.amazonaws.services.ec2.model.RunInstancesRequest;
-import com.amazonaws.services.ec2.model.CreateTagsRequest;
-import com.amazonaws.services.ec2.model.CreateTagsResult;
-import com.amazonaws.services.ec2.model.Tag;
 import com.amazonaws.services.ec2.model.DeleteSecurityGroupRequest;
-import com.amazonaws.services.ec2.model.DeleteSecurityGroupResult;
-import com.amazonaws.services.ec2.model.DescribeInstanceStatusRequest;
-import com.amazonaws.waiters.WaiterParameters;
-// import com.amazonaws.services.ec2.waiters;
 
-import org.apache.commons.io.FileUtils;
-import org.ini4j.Ini;
+import utilities.ApiGovernor;
+import utilities.BalancingProxy;
+import utilities.Clock;
 import utilities.Configuration;
-import utilities.HttpRequest;
+import utilities.HttpClient;
+import utilities.LoadDriver;
+import utilities.RetryPolicy;
 
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.charset.Charset;
-import java.util.Date;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.URL;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Class for Task1 Solution.
@@ -51,28 +58,6 @@ public final class LoadGenerator {
      */
     public static final String PROJECT_VALUE = "2.1";
 
-    /**
-     * Configuration file.
-     */
-    static final Configuration CONFIGURATION
-            = new Configuration("horizontal-scaling-config.json");
-
-    /**
-     * Load Generator AMI.
-     */
-    private static final String LOAD_GENERATOR
-            = CONFIGURATION.getString("load_generator_ami");
-    /**
-     * Web Service AMI.
-     */
-    static final String WEB_SERVICE
-            = CONFIGURATION.getString("web_service_ami");
-
-    /**
-     * Instance Type Name.
-     */
-    private static final String INSTANCE_TYPE
-            = CONFIGURATION.getString("instance_type");
     /**
      * Security Key Name (e.g. pem).
      */
@@ -89,32 +74,239 @@ public final class LoadGenerator {
     static final String LG_SECURITY_GROUP =
             "lg-security-group";
     /**
-     * HTTP Port.
+     * Launch Delay in milliseconds, the default cooldown.
+     */
+    static final long LAUNCH_DELAY =  100000;
+    /**
+     * Default delay between two reads of the log in milliseconds.
      */
-    private static final Integer HTTP_PORT = 80;
+    static final long POLL_DELAY_MILLIS = 1000;
     /**
-     * Launch Delay in milliseconds.
+     * Default RPS target to stop provisioning.
      */
-    private static final long LAUNCH_DELAY =  100000;
+    static final float RPS_TARGET = 50;
     /**
-     * RPS target to stop provisioning.
+     * Test log name in the response of the test launch.
      */
-    private static final float RPS_TARGET = 50;
+    private static final Pattern TEST_ID_PATTERN =
+            Pattern.compile("test\\.([0-9]*)\\.log");
     /**
      * Submission Password.
      */
-    private static final String SUBMISSION_PASSWORD
+    static final String SUBMISSION_PASSWORD
             = System.getenv("TPZ_PASSWORD");
     /**
      * TPZ_USERNAME
      */
-    private static final String TPZ_USERNAME
+    static final String TPZ_USERNAME
             = System.getenv("TPZ_USERNAME");
+    /**
+     * Threads of the timer shared by the sessions.
+     */
+    private static final int SCHEDULER_THREADS = 2;
+    /**
+     * Retries of a security group deletion while EC2 still sees instances
+     * in the group.
+     */
+    private static final RetryPolicy SECURITY_GROUP_RETRY =
+            new RetryPolicy(1000, 10000, 120000);
     /**
      * Delay before retrying API call.
      */
     public static final int RETRY_DELAY_MILLIS = 100;
 
+    /**
+     * Settings of the configuration file, read on first use rather than
+     * when the class loads, so the EC2 client build starts first.
+     */
+    static final class Settings {
+        /**
+         * Configuration file.
+         */
+        static final Configuration CONFIGURATION
+                = new Configuration("horizontal-scaling-config.json");
+        /**
+         * Load Generator AMI.
+         */
+        private static final String LOAD_GENERATOR
+                = CONFIGURATION.getString("load_generator_ami");
+        /**
+         * Web Service AMI.
+         */
+        static final String WEB_SERVICE
+                = CONFIGURATION.getString("web_service_ami");
+        /**
+         * Instance Type Name.
+         */
+        private static final String INSTANCE_TYPE
+                = CONFIGURATION.getString("instance_type");
+        /**
+         * Number of pre-booted Web Service instances to keep.
+         */
+        private static final int WARM_POOL_SIZE
+                = CONFIGURATION.getInt("warm_pool_size", 0);
+        /**
+         * Name of the scaling policy.
+         */
+        private static final String SCALING_POLICY
+                = CONFIGURATION.getString("scaling_policy", "one-at-a-time");
+        /**
+         * Number of tests run side by side.
+         */
+        private static final int SESSIONS = CONFIGURATION.getInt("sessions", 1);
+        /**
+         * EC2 calls per second allowed by the governor.
+         */
+        private static final double EC2_CALLS_PER_SECOND
+                = CONFIGURATION.getDouble("ec2_calls_per_second", 10.0);
+        /**
+         * EC2 calls the governor allows in a burst.
+         */
+        private static final int EC2_BURST
+                = CONFIGURATION.getInt("ec2_burst", 20);
+        /**
+         * Instance types benchmarked in profiling mode.
+         */
+        private static final List<String> PROFILE_INSTANCE_TYPES
+                = CONFIGURATION.getStringList("profile_instance_types");
+        /**
+         * Minutes measured per instance type after the warm-up.
+         */
+        private static final int PROFILE_MINUTES
+                = CONFIGURATION.getInt("profile_minutes", 5);
+        /**
+         * File the instance profiles are written to and planned from.
+         */
+        private static final String PROFILE_FILE
+                = CONFIGURATION.getString("profile_file",
+                        "instance-profiles.json");
+        /**
+         * Hourly on-demand price by instance type.
+         */
+        private static final Map<String, Double> INSTANCE_PRICES
+                = CONFIGURATION.getDoubleMap("instance_prices");
+        /**
+         * What fleet plans minimize.
+         */
+        private static final String PLAN_OBJECTIVE
+                = CONFIGURATION.getString("plan_objective", "lowest-cost");
+        /**
+         * Capacity planned above the RPS target, as a fraction of the target.
+         */
+        private static final double PLAN_HEADROOM
+                = CONFIGURATION.getDouble("plan_headroom", 0.1);
+        /**
+         * Fleet plan of the Web Services, empty to launch INSTANCE_TYPE only.
+         */
+        private static final String FLEET_PLAN
+                = CONFIGURATION.getString("fleet_plan", "");
+        /**
+         * Fraction of the fleet median RPS below which a Web Service instance
+         * is backed by a new one, 0 to disable.
+         */
+        static final float OUTLIER_FRACTION
+                = CONFIGURATION.getDouble("outlier_fraction", 0.0).floatValue();
+        /**
+         * Width of the band above the RPS target aimed at by the scale-outs
+         * of the target-tracking policy, as a fraction of the target.
+         */
+        static final float TRACKING_BAND
+                = CONFIGURATION.getDouble("tracking_band", 0.2).floatValue();
+        /**
+         * Weight of the latest minute in the RPS average of the
+         * target-tracking policy.
+         */
+        static final float TRACKING_SMOOTHING
+                = CONFIGURATION.getDouble("tracking_smoothing", 0.5)
+                        .floatValue();
+        /**
+         * Port of the admin server, 0 for an ephemeral one, -1 to disable it.
+         */
+        private static final int ADMIN_PORT
+                = CONFIGURATION.getInt("admin_port", -1);
+        /**
+         * Local address the admin server binds, loopback by default as it has
+         * no authentication.
+         */
+        private static final String ADMIN_ADDRESS
+                = CONFIGURATION.getString("admin_address", "127.0.0.1");
+        /**
+         * File of the timing report written at the end of a run, empty to
+         * disable it.
+         */
+        private static final String TIMING_REPORT
+                = CONFIGURATION.getString("timing_report", "");
+        /**
+         * Write-ahead journal of the sessions, empty to disable it.
+         */
+        private static final String JOURNAL_FILE
+                = CONFIGURATION.getString("journal_file", "");
+        /**
+         * What a restart does with the sessions of a run that died: "resume"
+         * the ones whose test still runs, or "teardown" all of them.
+         */
+        private static final String RECOVERY_MODE
+                = CONFIGURATION.getString("recovery_mode", "resume");
+        /**
+         * Archive of the complete minutes of every test, empty to disable it.
+         */
+        private static final String LOG_ARCHIVE
+                = CONFIGURATION.getString("log_archive", "");
+        /**
+         * Most requests in flight per Web Service while driving load.
+         */
+        private static final int DRIVE_CONNECTIONS
+                = CONFIGURATION.getInt("drive_connections", 64);
+        /**
+         * Time after which a driven request fails.
+         */
+        private static final int DRIVE_TIMEOUT_MILLIS
+                = CONFIGURATION.getInt("drive_timeout_millis", 10000);
+        /**
+         * Port of the proxy in front of the Web Services, -1 to disable it.
+         */
+        private static final int PROXY_PORT
+                = CONFIGURATION.getInt("proxy_port", -1);
+        /**
+         * Local address the proxy binds, loopback by default.
+         */
+        private static final String PROXY_ADDRESS
+                = CONFIGURATION.getString("proxy_address", "127.0.0.1");
+        /**
+         * Backend selection of the proxy: "least-outstanding" or
+         * "power-of-two".
+         */
+        private static final String PROXY_POLICY
+                = CONFIGURATION.getString("proxy_policy", "least-outstanding");
+        /**
+         * Requests per second driven at a new Web Service before it is
+         * registered, 0 to register it as soon as it serves.
+         */
+        private static final double WARMUP_RPS
+                = CONFIGURATION.getDouble("warmup_rps", 0.0);
+        /**
+         * Length of a warm-up round in milliseconds.
+         */
+        private static final long WARMUP_ROUND_MILLIS
+                = CONFIGURATION.getInt("warmup_round_millis", 30000);
+        /**
+         * Longest warm-up of a Web Service in milliseconds.
+         */
+        private static final long WARMUP_MAX_MILLIS
+                = CONFIGURATION.getInt("warmup_max_millis", 240000);
+        /**
+         * Relative throughput gain under which a warm-up round counts as flat.
+         */
+        private static final double WARMUP_PLATEAU
+                = CONFIGURATION.getDouble("warmup_plateau", 0.05);
+
+        /**
+         * Private Constructor.
+         */
+        private Settings() {
+        }
+    }
+
     private static final String vpcId = "vpc-76de210b";
     /**
      * Private Constructor.
@@ -122,12 +314,56 @@ public final class LoadGenerator {
     private LoadGenerator() {
     }
 
+    /**
+     * Build the client of all Load Generator calls: keep-alive, bounded
+     * timeouts and exponential backoff from RETRY_DELAY_MILLIS within a
+     * retry budget.
+     * @param clock clock of the retry budget and backoff delays
+     * @return HTTP client
+     */
+    static HttpClient httpClient(final Clock clock) {
+        return new HttpClient(
+                Settings.CONFIGURATION.getInt(
+                        "http_connect_timeout_millis", 2000),
+                Settings.CONFIGURATION.getInt(
+                        "http_read_timeout_millis", 10000),
+                new RetryPolicy(RETRY_DELAY_MILLIS,
+                        Settings.CONFIGURATION.getInt(
+                                "http_max_backoff_millis", 5000),
+                        Settings.CONFIGURATION.getInt(
+                                "http_retry_budget_millis", 900000)),
+                clock);
+    }
+
     /**
      * Task1 main method.
-     * @param args No Args required
+     * @param args none to run the test, or resume the one in the journal,
+     *             "teardown" to terminate every instance of the run in
+     *             the journal, "profile" to benchmark the
+     *             profile_instance_types and plan the fleet,
+     *             "plan [objective]" to plan again from saved profiles,
+     *             "drive rps seconds target..." to drive load at Web
+     *             Services by DNS Name or URL, or "characterize rps
+     *             seconds" to drive load at one new Web Service of every
+     *             profile_instance_types, or "startup" to only build the
+     *             EC2 client and report the startup time
      * @throws Exception when something unpredictably goes wrong.
      */
     public static void main(final String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : "run";
+        if ("plan".equals(mode)) {
+            plan(InstanceProfile.read(new File(Settings.PROFILE_FILE)).values(),
+                    FleetPlanner.Objective.forName(args.length > 1
+                            ? args[1] : Settings.PLAN_OBJECTIVE));
+            return;
+        }
+        if ("drive".equals(mode)) {
+            drive(args.length > 3 ? Arrays.asList(args).subList(3, args.length)
+                            : Collections.emptyList(),
+                    Double.parseDouble(args[1]), Long.parseLong(args[2]));
+            return;
+        }
+
         // BIG PICTURE TODO: Provision resources to achieve horizontal scalability
         //  - Create security groups for Load Generator and Web Service
         //  - Provision a Load Generator instance
@@ -136,350 +372,703 @@ public final class LoadGenerator {
         //  - Add Web Service instances to Load Generator 
         //  - Terminate resources
 
-        AWSCredentialsProvider credentialsProvider =
-                new DefaultAWSCredentialsProviderChain();
+        // Create an Amazon EC2 Client while the run starts up
+        DeferredEC2 deferred = new DeferredEC2(() -> ec2Client(null));
+        AmazonEC2 ec2 = deferred.getClient();
 
-        // Create an Amazon EC2 Client
-        AmazonEC2 ec2 = AmazonEC2ClientBuilder
-                .standard()
-                .withCredentials(credentialsProvider)
-                .withRegion(Regions.US_EAST_1)
-                .build();
-
-        // Create Security Groups
-        try {
-            createHttpSecurityGroup(ec2, WEB_SERVICE_SECURITY_GROUP);
-        } catch (AmazonEC2Exception e) {
-            System.out.println("Security group already exists");
+        if ("startup".equals(mode)) {
+            System.out.println("EC2 client built in " + deferred.awaitClient()
+                    + " ms, ready " + (System.currentTimeMillis()
+                    - ManagementFactory.getRuntimeMXBean().getStartTime())
+                    + " ms after the JVM started");
+            return;
+        }
+        if ("profile".equals(mode)) {
+            List<InstanceProfile> profiles = profile(ec2, Clock.SYSTEM,
+                    Settings.PROFILE_INSTANCE_TYPES, Settings.PROFILE_MINUTES);
+            InstanceProfile.write(profiles, new File(Settings.PROFILE_FILE));
+            plan(profiles,
+                    FleetPlanner.Objective.forName(Settings.PLAN_OBJECTIVE));
+            return;
         }
+        if ("teardown".equals(mode)) {
+            tearDown(ec2, Clock.SYSTEM);
+            return;
+        }
+        if ("characterize".equals(mode)) {
+            characterize(ec2, Clock.SYSTEM, Settings.PROFILE_INSTANCE_TYPES,
+                    Double.parseDouble(args[1]), Long.parseLong(args[2]));
+            return;
+        }
+        run(ec2, Clock.SYSTEM, Settings.SCALING_POLICY, Settings.WARM_POOL_SIZE,
+                Settings.SESSIONS, configuredFleetPlan(), Settings.WARMUP_RPS);
+    }
 
+    /**
+     * Build the EC2 client and resolve the credentials it signs with, so
+     * the first call does not pay for either.
+     * @param endpoint endpoint to call, null for the US East 1 region
+     * @return EC2 client
+     */
+    static AmazonEC2 ec2Client(
+            final AwsClientBuilder.EndpointConfiguration endpoint) {
+        AWSCredentialsProvider credentialsProvider =
+                new DefaultAWSCredentialsProviderChain();
+        AmazonEC2ClientBuilder builder = AmazonEC2ClientBuilder.standard()
+                .withCredentials(credentialsProvider);
+        if (endpoint == null) {
+            builder.withRegion(Regions.US_EAST_1);
+        } else {
+            builder.withEndpointConfiguration(endpoint);
+        }
+        AmazonEC2 ec2 = builder.build();
         try {
-            createHttpSecurityGroup(ec2, LG_SECURITY_GROUP);
-        } catch (AmazonEC2Exception e) {
-            System.out.println("Security group already exists");
+            credentialsProvider.getCredentials();
+        } catch (SdkClientException e) {
+            // left to the first call to report
         }
+        return ec2;
+    }
 
-        //  Create Load Generator instance and obtain DNS
-        ArrayList<String> instanceIdArray = new ArrayList<>();
-
-        RunInstancesRequest runLoadGeneratorRequest = new RunInstancesRequest();
-
-        runLoadGeneratorRequest.withImageId(LOAD_GENERATOR)
-                                .withInstanceType(INSTANCE_TYPE)
-                                .withMinCount(1)
-                                .withMaxCount(1)
-                                .withKeyName(KEY_NAME)
-                                .withSecurityGroups(LG_SECURITY_GROUP);
-
-        RunInstancesResult loadGeneratorResult = ec2.runInstances(runLoadGeneratorRequest);
-        //  TODO wait for the state to transit
-        
-        String loadGeneratorInstanceId = loadGeneratorResult
-                                        .getReservation()
-                                        .getInstances()
-                                        .get(0)
-                                        .getInstanceId();
-
-        instanceIdArray.add(loadGeneratorInstanceId);
-
-        //  Create first Web Service instance and obtain DNS
-        RunInstancesRequest runWebServiceRequest = new RunInstancesRequest();
-
-        runWebServiceRequest.withImageId(WEB_SERVICE)
-                                .withInstanceType(INSTANCE_TYPE)
-                                .withMinCount(1)
-                                .withMaxCount(1)
-                                .withKeyName(KEY_NAME)
-                                .withSecurityGroups(WEB_SERVICE_SECURITY_GROUP);
-
-        RunInstancesResult webServiceResult = ec2.runInstances(runWebServiceRequest);
-
-        String webServiceInstanceId = webServiceResult
-                                        .getReservation()
-                                        .getInstances()
-                                        .get(0)
-                                        .getInstanceId();
-
-        instanceIdArray.add(webServiceInstanceId);
-        Instance loadGenerator = getInstance(ec2, loadGeneratorInstanceId);
+    /**
+     * @return the fleet plan fleet_plan points to, or INSTANCE_TYPE only
+     * @throws IOException when the plan cannot be read
+     */
+    public static FleetPlan configuredFleetPlan() throws IOException {
+        return Settings.FLEET_PLAN.isEmpty()
+                ? FleetPlan.uniform(Settings.INSTANCE_TYPE)
+                : FleetPlan.read(new File(Settings.FLEET_PLAN));
+    }
 
-        while(!loadGenerator.getState().getName().equals("running")) {
-            Thread.sleep(800); // sleep < 1 sec
-            loadGenerator = getInstance(ec2, loadGeneratorInstanceId);
+    /**
+     * Benchmark the Web Service on several instance types.
+     * @param ec2 EC2 client instance
+     * @param clock clock of the log polls, accelerated in simulations
+     * @param instanceTypes instance types
+     * @param minutes minutes measured per type after the warm-up
+     * @return profiles of the types that could be measured
+     * @throws Exception when something unpredictably goes wrong.
+     */
+    public static List<InstanceProfile> profile(final AmazonEC2 ec2,
+                                                final Clock clock,
+                                                final List<String> instanceTypes,
+                                                final int minutes)
+            throws Exception {
+        GovernedEC2 governed = new GovernedEC2(ec2, new ApiGovernor(clock,
+                Settings.EC2_CALLS_PER_SECOND, Settings.EC2_BURST));
+        createSecurityGroups(governed.getClient());
+        Services services = new Services(governed.getClient(), clock,
+                newRunId());
+        try {
+            List<InstanceProfile> profiles = new InstanceProfiler(
+                    services.pipeline, services.prober, services.batcher,
+                    services.http, clock, services.executor).profile(instanceTypes, minutes);
+            deleteSecurityGroups(governed.getClient());
+            return profiles;
+        } finally {
+            services.shutdown();
         }
+    }
 
-        Instance webServerInstance = getInstance(ec2, webServiceInstanceId);
+    /**
+     * Plan the Web Service fleet reaching the RPS target with some headroom,
+     * and write it where fleet_plan points, or to fleet-plan.json.
+     * @param profiles measured profiles
+     * @param objective what the plan minimizes
+     * @return fleet plan
+     * @throws Exception when the plan cannot be written
+     */
+    public static FleetPlan plan(final Collection<InstanceProfile> profiles,
+                                 final FleetPlanner.Objective objective)
+            throws Exception {
+        FleetPlan fleetPlan = FleetPlanner.plan(profiles,
+                Settings.INSTANCE_PRICES,
+                (float) (RPS_TARGET * (1 + Settings.PLAN_HEADROOM)), objective);
+        File file = new File(Settings.FLEET_PLAN.isEmpty()
+                ? "fleet-plan.json" : Settings.FLEET_PLAN);
+        fleetPlan.write(file);
+        System.out.println("Plan (" + objective + "): " + fleetPlan);
+        System.out.println("Plan written to " + file);
+        return fleetPlan;
+    }
 
-        while(!webServerInstance.getState().getName().equals("running")) {
-            Thread.sleep(800); // sleep < 1 sec
-            webServerInstance = getInstance(ec2, webServiceInstanceId);
+    /**
+     * Drive open-loop load at Web Services, round robin, and print the
+     * answered requests every second and the latency at the end.
+     * @param targets DNS Names, or URLs, of the Web Services
+     * @param rps requests per second over all targets
+     * @param seconds length of the run
+     * @return outcome of the run
+     * @throws IOException when a target is not a URL or the driver fails
+     */
+    public static LoadDriver.Result drive(final List<String> targets,
+                                          final double rps, final long seconds)
+            throws IOException {
+        List<URL> urls = new ArrayList<>();
+        for (String target : targets) {
+            urls.add(new URL(target.contains("://") ? target
+                    : "http://" + target + "/"));
         }
-        // Thread.sleep(120000);
-        // TODO check state of instance
-        // Get load generator id
-
-        // DescribeInstanceStatusRequest lgWaitRequest = new DescribeInstanceStatusRequest().withInstanceIds(loadGeneratorInstanceId);
-
-        // ec2.waiters().instanceStatusOk().run(new WaiterParameters().withRequest(lgWaitRequest));
-
-        String loadGeneratorDNS = getInstancePublicDnsName(ec2, loadGeneratorInstanceId);
-
-        // get web server id
-
-
-        // DescribeInstanceStatusRequest wsWaitRequest = new DescribeInstanceStatusRequest().withInstanceIds(webServiceInstanceId);
-
-        // ec2.waiters().instanceStatusOk().run(new WaiterParameters().withRequest(wsWaitRequest));
-
-        String webServiceDNS = getInstancePublicDnsName(ec2, webServiceInstanceId);
-
-        System.out.println(webServiceInstanceId);
-        //  Tag instance using Tag Specification
-        Tag tag = new Tag()
-            .withKey("Project")
-            .withValue("2.1");
-
-        CreateTagsRequest lgTagRequest = new CreateTagsRequest()
-            .withResources(loadGeneratorInstanceId)
-            .withTags(tag);
-
-        CreateTagsResult lgTagResponse = ec2.createTags(lgTagRequest);
-
-        CreateTagsRequest wsTagRequest = new CreateTagsRequest()
-            .withResources(webServiceInstanceId)
-            .withTags(tag);
-
-        CreateTagsResult wsTagResponse = ec2.createTags(wsTagRequest);
-
-        System.out.println("Load Generator DNS is");
-        System.out.println(loadGeneratorDNS);
-        System.out.println("Web Server DNS is");
-        System.out.println(webServiceDNS);
-        //Setup TPZ Credentials
-        authenticate(loadGeneratorDNS);
-        System.out.println("Load Generator DNS authentication passed");
-        //Initialize test
-        String response = initializeTest(loadGeneratorDNS, webServiceDNS);
-        System.out.println("Test Initialized");
-        //Get TestID
-        String testId = getTestId(response);
-        System.out.println("test id is");
-        System.out.println(testId);
-        //Save launch time
-        Date lastLaunchTime = new Date();
-
-        //Monitor LOG file
-        Ini ini = getIniUpdate(loadGeneratorDNS, testId);
-        while (ini == null || !ini.containsKey("Test finished")) {
-            // Everything belows is triggered when the test has not completed. "30 min has not been reached"
-            Thread.sleep(1000);
-            //  Check last launch time and RPS
-            Date currentTime = new Date();
-            long pastSeconds = (currentTime.getTime() - lastLaunchTime.getTime()) / 1000;
-            if (pastSeconds > 100) { // wait until 100s has passed from last launch to start considering add a new instance
-                float rps =  getRPS(ini);
-                if(rps >= 50.0) {
-                    break;
-                } else {
-                    //Everything belows is triggered after 1. The test has not completed; 
-                                                         //2. 100 secs has passed after the completement of last test; 
-                                                         //3. RPS still hasn't reached 50
-
-                    // create and tag a new web service instance
-
-                    webServiceResult = ec2.runInstances(runWebServiceRequest);
-
-                    webServiceInstanceId = webServiceResult
-                                                    .getReservation()
-                                                    .getInstances()
-                                                    .get(0)
-                                                    .getInstanceId();
-
-                    instanceIdArray.add(webServiceInstanceId);
-
-                    // DescribeInstanceStatusRequest waitRequest = new DescribeInstanceStatusRequest().withInstanceIds(webServiceInstanceId);
-
-                    // ec2.waiters().instanceStatusOk().run(new WaiterParameters().withRequest(waitRequest));
-                    // Thread.sleep(120000);
-                    Instance webServerInstance2 = getInstance(ec2, webServiceInstanceId);
-
-                    while(webServerInstance2 == null || !webServerInstance2.getState().getName().equals("running")) {
-                        Thread.sleep(800); // sleep < 1 sec
-                        webServerInstance2 = getInstance(ec2, webServiceInstanceId);
-                    }
-                    webServiceDNS = getInstancePublicDnsName(ec2, webServiceInstanceId);
-
-                    wsTagRequest = new CreateTagsRequest()
-                        .withResources(webServiceInstanceId)
-                        .withTags(tag);
+        System.out.println("Driving " + rps + " rps at " + targets + " for "
+                + seconds + " s");
+        LoadDriver.Result result = new LoadDriver(urls, rps,
+                Settings.DRIVE_CONNECTIONS, Settings.DRIVE_TIMEOUT_MILLIS)
+                .run(seconds * 1000,
+                        (second, completed, errors, latency) ->
+                                System.out.println("Second " + second + ": "
+                                        + completed + " rps, " + errors
+                                        + " errors, p99 "
+                                        + latency.getValueAtPercentile(99) / 1000
+                                        + " ms"));
+        System.out.println("Drive result: " + result);
+        return result;
+    }
 
-                    wsTagResponse = ec2.createTags(wsTagRequest);
-                    // end Create and tag a new web service instance
+    /**
+     * Launch one Web Service of every instance type, drive open-loop load
+     * at each in turn once it serves, then terminate them.
+     * @param ec2 EC2 client instance
+     * @param clock clock of the control loop, accelerated in simulations
+     * @param instanceTypes instance types
+     * @param rps requests per second driven at each Web Service
+     * @param seconds length of each drive
+     * @return outcome by instance type of the types that served
+     * @throws Exception when something unpredictably goes wrong.
+     */
+    public static Map<String, LoadDriver.Result> characterize(
+            final AmazonEC2 ec2, final Clock clock,
+            final List<String> instanceTypes, final double rps,
+            final long seconds) throws Exception {
+        GovernedEC2 governed = new GovernedEC2(ec2, new ApiGovernor(clock,
+                Settings.EC2_CALLS_PER_SECOND, Settings.EC2_BURST));
+        createSecurityGroups(governed.getClient());
+        Services services = new Services(governed.getClient(), clock,
+                newRunId());
+        Map<String, ProvisioningPipeline.Launch> launches = new LinkedHashMap<>();
+        Map<String, LoadDriver.Result> results = new LinkedHashMap<>();
+        try {
+            for (String instanceType : instanceTypes) {
+                launches.put(instanceType, services.pipeline.launch(
+                        webServiceRequest(instanceType)));
+            }
+            for (Map.Entry<String, ProvisioningPipeline.Launch> launch
+                    : launches.entrySet()) {
+                String dns;
+                try {
+                    dns = launch.getValue().getPublicDnsName()
+                            .thenCompose(services.prober::whenReady).join();
+                } catch (CompletionException e) {
+                    System.out.println(launch.getKey() + " did not serve: "
+                            + e.getCause());
+                    continue;
+                }
+                System.out.println("Characterizing " + launch.getKey());
+                results.put(launch.getKey(),
+                        drive(Collections.singletonList(dns), rps, seconds));
+            }
+        } finally {
+            List<String> instanceIds = new ArrayList<>();
+            for (ProvisioningPipeline.Launch launch : launches.values()) {
+                String id = launch.getInstanceId().handle((v, e) -> v).join();
+                if (id != null) {
+                    instanceIds.add(id);
+                }
+            }
+            services.batcher.terminate(instanceIds).handle((v, e) -> null).join();
+            services.shutdown();
+        }
+        deleteSecurityGroups(governed.getClient());
+        for (Map.Entry<String, LoadDriver.Result> result : results.entrySet()) {
+            System.out.println(result.getKey() + ": " + result.getValue());
+        }
+        return results;
+    }
 
-                    // add the new web service instance and start a new test
-                    response = addWebServiceInstance(loadGeneratorDNS, webServiceDNS, testId);
+    /**
+     * Run independent horizontal scaling tests side by side, each with its
+     * own Load Generator, test and fleet, then tear everything down. All
+     * sessions share one EC2 client behind a rate governor.
+     * @param ec2 EC2 client instance
+     * @param clock clock of the control loop, accelerated in simulations
+     * @param scalingPolicy name of the scaling policy of every session
+     * @param warmPoolSize number of pre-booted Web Service instances per session
+     * @param sessionCount number of tests to run
+     * @param fleetPlan instance types of the Web Services
+     * @param warmUpRps requests per second driven at a new Web Service
+     *                  before it is registered, 0 to disable warm-up
+     * @throws Exception when something unpredictably goes wrong.
+     */
+    public static void run(final AmazonEC2 ec2, final Clock clock,
+                           final String scalingPolicy,
+                           final int warmPoolSize,
+                           final int sessionCount,
+                           final FleetPlan fleetPlan,
+                           final double warmUpRps) throws Exception {
+        GovernedEC2 governed = new GovernedEC2(ec2, new ApiGovernor(clock,
+                Settings.EC2_CALLS_PER_SECOND, Settings.EC2_BURST));
+        try {
+            runGoverned(governed, clock, scalingPolicy, warmPoolSize,
+                    sessionCount, fleetPlan, warmUpRps);
+        } finally {
+            System.out.println("EC2 governor: "
+                    + governed.getGovernor().getThrottles() + " throttles, "
+                    + governed.getGovernor().getWaitMillis() + " ms waited");
+        }
+    }
 
-                    //renew the launch time after starting a new test
-                    lastLaunchTime = new Date();
+    /**
+     * Run the sessions with the governed client.
+     * @param governed governed EC2 client
+     * @param clock clock of the control loop
+     * @param scalingPolicy name of the scaling policy of every session
+     * @param warmPoolSize number of pre-booted Web Service instances per session
+     * @param sessionCount number of tests to run
+     * @param fleetPlan instance types of the Web Services
+     * @param warmUpRps requests per second driven at a new Web Service
+     *                  before it is registered, 0 to disable warm-up
+     * @throws Exception when something unpredictably goes wrong.
+     */
+    private static void runGoverned(final GovernedEC2 governed, final Clock clock,
+                                    final String scalingPolicy,
+                                    final int warmPoolSize,
+                                    final int sessionCount,
+                                    final FleetPlan fleetPlan,
+                                    final double warmUpRps) throws Exception {
+        AmazonEC2 ec2 = governed.getClient();
+        SessionJournal journal = openJournal();
+        //  A journal with unfinished sessions means the last run died:
+        //  go on with its tests instead of provisioning new ones
+        boolean recovering = !journal.getUnfinished().isEmpty();
+        if (!recovering) {
+            journal.reset();
+        }
+        //  A resumed run keeps its ID, so a later recovery finds its
+        //  instances by tag
+        String runId = journal.getRunId();
+        if (runId == null) {
+            runId = newRunId();
+            journal.run(runId);
+        }
+        Services services = new Services(ec2, clock, runId);
+        WarmUp warmUp = new WarmUp(clock, services.executor, services.timings,
+                warmUpRps, Settings.WARMUP_ROUND_MILLIS,
+                Settings.WARMUP_MAX_MILLIS, Settings.WARMUP_PLATEAU);
+        LogArchive archive = openArchive();
+        ScalingParameters parameters = new ScalingParameters(RPS_TARGET,
+                LAUNCH_DELAY, POLL_DELAY_MILLIS);
+        // the first EC2 call, made once the local setup is done
+        createSecurityGroups(ec2);
+
+        List<SessionRecovery.Resumption> resumptions = new ArrayList<>();
+        CompletableFuture<Void> recovered =
+                CompletableFuture.completedFuture(null);
+        List<String> names = new ArrayList<>();
+        if (recovering) {
+            SessionRecovery recovery = new SessionRecovery(ec2,
+                    services.batcher, journal, services.http);
+            resumptions = recovery.recover(
+                    "resume".equals(Settings.RECOVERY_MODE));
+            recovered = recovery.getTermination();
+            for (SessionRecovery.Resumption resumption : resumptions) {
+                names.add(resumption.getRecord().getSession());
+            }
+        } else {
+            for (int i = 1; i <= sessionCount; i++) {
+                names.add(String.valueOf(i));
+            }
+        }
+        List<TestSession> testSessions = new ArrayList<>();
+        for (String name : names) {
+            testSessions.add(new TestSession(name,
+                    services.batcher, clock, services.scheduler,
+                    services.executor, services.http, services.pipeline, services.prober,
+                    warmUp, ScalingPolicy.forName(scalingPolicy), parameters,
+                    warmPoolSize, fleetPlan, services.timings, journal,
+                    archive));
+        }
+        BalancingProxy proxy = startProxy(testSessions, services, clock);
+        AdminServer admin = new AdminServer(testSessions, parameters,
+                governed.getGovernor(), proxy);
+        if (Settings.ADMIN_PORT >= 0) {
+            try {
+                admin.start(InetAddress.getByName(Settings.ADMIN_ADDRESS),
+                        Settings.ADMIN_PORT);
+            } catch (IOException e) {
+                // the test does not depend on the admin server
+                System.out.println("Admin server not started: " + e);
+            }
+        }
+        List<CompletableFuture<Void>> sessions = new ArrayList<>();
+        sessions.add(recovered);
+        for (int i = 0; i < testSessions.size(); i++) {
+            sessions.add(recovering
+                    ? testSessions.get(i).resume(resumptions.get(i))
+                    : testSessions.get(i).start());
+        }
+        try {
+            // wait for every session, even when one fails; a session
+            // completes once its instances are terminated
+            CompletableFuture.allOf(sessions.toArray(new CompletableFuture<?>[0]))
+                    .handle((ignored, e) -> null).get();
+            deleteSecurityGroups(ec2);
+            for (CompletableFuture<Void> session : sessions) {
+                session.get();
+            }
+        } finally {
+            for (Map.Entry<String, HttpClient.EndpointStats> entry
+                    : services.http.getStats().entrySet()) {
+                System.out.println("HTTP " + entry.getKey() + " " + entry.getValue());
+            }
+            if (!Settings.TIMING_REPORT.isEmpty()) {
+                try {
+                    services.timings.writeReport(
+                            new File(Settings.TIMING_REPORT), governed,
+                            services.http);
+                } catch (IOException e) {
+                    System.out.println("Timing report not written: " + e);
                 }
             }
+            admin.stop();
+            services.shutdown();
+            if (proxy != null) {
+                proxy.stop();
+            }
+            closeJournal(journal);
+            if (archive != null) {
+                archive.close();
+            }
+        }
+    }
 
-            //  Add New Web Service Instance if Required
-            ini = getIniUpdate(loadGeneratorDNS, testId);
+    /**
+     * Start the proxy, if enabled, with the registered Web Services of
+     * every session as backends, kept in sync on every poll.
+     * @param testSessions sessions of the run
+     * @param services timers and threads of the run
+     * @param clock clock of the control loop
+     * @return proxy, null when disabled or not started
+     */
+    private static BalancingProxy startProxy(final List<TestSession> testSessions,
+                                             final Services services,
+                                             final Clock clock) {
+        if (Settings.PROXY_PORT < 0) {
+            return null;
         }
-        // TODO Terminate all resources
-        for (String id : instanceIdArray) {
-            TerminateInstancesRequest terminateInstancesRequest = new TerminateInstancesRequest()
-                .withInstanceIds(id);
-            ec2.terminateInstances(terminateInstancesRequest);
-            // TODO terminate instances
+        BalancingProxy proxy = new BalancingProxy(
+                BalancingProxy.Policy.forName(Settings.PROXY_POLICY),
+                Settings.CONFIGURATION.getInt(
+                        "http_read_timeout_millis", 10000));
+        try {
+            proxy.start(InetAddress.getByName(Settings.PROXY_ADDRESS),
+                    Settings.PROXY_PORT);
+        } catch (IOException e) {
+            // the test does not depend on the proxy
+            System.out.println("Proxy not started: " + e);
+            return null;
         }
+        services.scheduler.scheduleWithFixedDelay(() -> {
+            List<String> backends = new ArrayList<>();
+            for (TestSession session : testSessions) {
+                backends.addAll(session.getRegisteredDns());
+            }
+            proxy.setBackends(backends);
+        }, 0, clock.toRealMillis(POLL_DELAY_MILLIS), TimeUnit.MILLISECONDS);
+        return proxy;
+    }
 
-        //TODO delete security groups
-
-        DeleteSecurityGroupRequest request = new DeleteSecurityGroupRequest();
-
-        request.withGroupName(WEB_SERVICE_SECURITY_GROUP);
+    /**
+     * Terminate every instance of the run in the journal, tagged with its
+     * run ID or listed by a session, then delete the security groups.
+     * Instances of other runs are left alone.
+     * @param ec2 EC2 client instance
+     * @param clock clock of the control loop
+     * @throws Exception when something unpredictably goes wrong.
+     */
+    public static void tearDown(final AmazonEC2 ec2, final Clock clock)
+            throws Exception {
+        GovernedEC2 governed = new GovernedEC2(ec2, new ApiGovernor(clock,
+                Settings.EC2_CALLS_PER_SECOND, Settings.EC2_BURST));
+        Services services = new Services(governed.getClient(), clock,
+                newRunId());
+        SessionJournal journal = openJournal();
+        try {
+            SessionRecovery recovery = new SessionRecovery(governed.getClient(),
+                    services.batcher, journal, services.http);
+            recovery.recover(false);
+            recovery.getTermination().get();
+            deleteSecurityGroups(governed.getClient());
+        } finally {
+            services.shutdown();
+            closeJournal(journal);
+        }
+    }
 
-        ec2.deleteSecurityGroup(request);
+    /**
+     * @return new run ID, tagged on every instance of the run
+     */
+    private static String newRunId() {
+        return UUID.randomUUID().toString();
+    }
 
-        DeleteSecurityGroupRequest request2 = new DeleteSecurityGroupRequest();
+    /**
+     * Open the log_archive.
+     * @return archive, null when disabled or unreadable
+     */
+    private static LogArchive openArchive() {
+        if (Settings.LOG_ARCHIVE.isEmpty()) {
+            return null;
+        }
+        try {
+            return LogArchive.open(new File(Settings.LOG_ARCHIVE));
+        } catch (IOException e) {
+            // the test does not depend on the archive
+            System.out.println("Log archive not opened: " + e.getMessage());
+            return null;
+        }
+    }
 
-        request2.withGroupName(LG_SECURITY_GROUP);
-        
-        ec2.deleteSecurityGroup(request2);
+    /**
+     * Open the journal_file, or a journal in memory when it is disabled.
+     * @return journal
+     * @throws IOException when the journal cannot be read or opened
+     */
+    private static SessionJournal openJournal() throws IOException {
+        return Settings.JOURNAL_FILE.isEmpty() ? SessionJournal.inMemory()
+                : SessionJournal.open(new File(Settings.JOURNAL_FILE));
     }
 
     /**
-     * Get the latest RPS.
-     * @param ini INI file object
-     * @return RPS Value
+     * Close the journal, and delete it once no session is left to recover.
+     * @param journal journal
      */
-    private static float getRPS(final Ini ini) {
-            float rps = 0;
-            for (String key: ini.keySet()) {
-                if (key.startsWith("Current rps")) {
-                    rps = Float.parseFloat(key.split("=")[1]);
-                }
+    private static void closeJournal(final SessionJournal journal) {
+        try {
+            if (journal.getUnfinished().isEmpty()) {
+                journal.delete();
+            } else {
+                journal.close();
+                System.out.println("Journal kept, "
+                        + journal.getUnfinished().size()
+                        + " sessions left to recover");
             }
-            return rps;
+        } catch (IOException e) {
+            System.out.println("Journal not closed: " + e.getMessage());
+        }
     }
 
     /**
-     * Get the latest version of the log.
-     * @param loadGeneratorDNS DNS Name of load generator
-     * @param testId TestID String
-     * @return INI Object
-     * @throws IOException on network failure
+     * Timers, threads and EC2 helpers shared by everything a run starts.
      */
-    private static Ini getIniUpdate(final String loadGeneratorDNS,
-                                    final String testId)
-            throws IOException {
-        String response = HttpRequest.sendGet("http://"
-                + loadGeneratorDNS + "/log?name=test." + testId + ".log");
-        File log = new File(testId + ".log");
-        FileUtils.writeStringToFile(log, response, Charset.defaultCharset());
-        Ini ini = new Ini(log);
-        return ini;
+    private static final class Services {
+        /**
+         * Timer shared by the sessions.
+         */
+        private final ScheduledExecutorService scheduler =
+                Executors.newScheduledThreadPool(SCHEDULER_THREADS, r -> {
+                    Thread thread = new Thread(r, "control-loop");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        /**
+         * Threads making HTTP and EC2 calls.
+         */
+        private final ExecutorService executor =
+                Executors.newCachedThreadPool(r -> {
+                    Thread thread = new Thread(r, "session-io");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        /**
+         * Timeline of the run.
+         */
+        private final RunTimings timings;
+        /**
+         * Instance tracker.
+         */
+        private final InstanceTracker tracker;
+        /**
+         * Provisioning pipeline.
+         */
+        private final ProvisioningPipeline pipeline;
+        /**
+         * Readiness prober.
+         */
+        private final ReadinessProber prober;
+        /**
+         * Batcher of EC2 mutations.
+         */
+        private final Ec2Batcher batcher;
+        /**
+         * Client of all Load Generator calls.
+         */
+        private final HttpClient http;
+
+        /**
+         * Start the services.
+         * @param ec2 EC2 client instance
+         * @param clock clock of the control loop
+         * @param runId ID of the run, tagged on every instance launched
+         */
+        Services(final AmazonEC2 ec2, final Clock clock, final String runId) {
+            timings = new RunTimings(clock);
+            tracker = new InstanceTracker(ec2, clock);
+            tracker.start();
+            pipeline = new ProvisioningPipeline(ec2, tracker, timings, runId);
+            prober = new ReadinessProber(clock, timings);
+            batcher = new Ec2Batcher(ec2, tracker, clock, scheduler, executor);
+            http = httpClient(clock);
+        }
+
+        /**
+         * Stop the services.
+         */
+        void shutdown() {
+            System.out.println("EC2 batcher: " + batcher.getTagCalls()
+                    + " CreateTags calls, " + batcher.getTerminateCalls()
+                    + " TerminateInstances calls");
+            prober.shutdown();
+            pipeline.shutdown();
+            tracker.shutdown();
+            scheduler.shutdownNow();
+            executor.shutdownNow();
+        }
     }
 
     /**
-     * Get ID of test.
-     * @param response Response containing LoadGenerator output
-     * @return TestID string
+     * Create the Web Service and Load Generator security groups.
+     * @param ec2 EC2 client instance
      */
-    private static String getTestId(final String response) {
-        Pattern pattern = Pattern.compile("test\\.([0-9]*)\\.log");
-        Matcher matcher = pattern.matcher(response);
-        if (matcher.find()) {
-            return matcher.group(1);
+    private static void createSecurityGroups(final AmazonEC2 ec2) {
+        try {
+            createHttpSecurityGroup(ec2, WEB_SERVICE_SECURITY_GROUP);
+        } catch (AmazonEC2Exception e) {
+            System.out.println("Security group already exists");
+        }
+
+        try {
+            createHttpSecurityGroup(ec2, LG_SECURITY_GROUP);
+        } catch (AmazonEC2Exception e) {
+            System.out.println("Security group already exists");
         }
-        return null;
     }
 
     /**
-     * Initializes Load Generator Test 
-     * @param loadGeneratorDNS DNS Name of load generator
-     * @param webServiceDNS DNS Name of web service
-     * @return response of initialization (contains test ID)
+     * Delete the Web Service and Load Generator security groups, once
+     * their instances are terminated.
+     * @param ec2 EC2 client instance
+     * @throws InterruptedException when interrupted between retries
      */
-    private static String initializeTest(final String loadGeneratorDNS,
-                                         final String webServiceDNS) {
-        String response = "";
-        boolean launchWebServiceSuccess = false;
-        while (!launchWebServiceSuccess) {
-            try {
-                response = HttpRequest.sendGet("http://" + loadGeneratorDNS
-                        + "/test/horizontal?dns=" + webServiceDNS);
-                System.out.println(response);
-                launchWebServiceSuccess = true;
-            } catch (Exception e) {
-                System.out.print("*");
-            }
-        }
-        return response;
+    private static void deleteSecurityGroups(final AmazonEC2 ec2)
+            throws InterruptedException {
+        deleteSecurityGroup(ec2, WEB_SERVICE_SECURITY_GROUP);
+        deleteSecurityGroup(ec2, LG_SECURITY_GROUP);
     }
 
     /**
-     * Add a Web Service vm to Load Generator.
-     * @param loadGeneratorDNS DNS Name of Load Generator
-     * @param webServiceDNS DNS Name of Web Service
-     * @return String response
+     * Delete a security group once its instances are terminated. EC2 may
+     * still report the group in use for a short while after the instances
+     * are gone, so DependencyViolation is retried within a budget.
+     * @param ec2 EC2 client instance
+     * @param securityGroupName Security group name
+     * @throws InterruptedException when interrupted between retries
      */
-    private static String addWebServiceInstance(final String loadGeneratorDNS,
-                                          final String webServiceDNS,
-                                          final String testId) {
-        String response = "";
-        boolean launchWebServiceSuccess = false;
-        while (!launchWebServiceSuccess) {
+    private static void deleteSecurityGroup(final AmazonEC2 ec2,
+                                            final String securityGroupName)
+            throws InterruptedException {
+        DeleteSecurityGroupRequest request = new DeleteSecurityGroupRequest()
+                .withGroupName(securityGroupName);
+        long start = System.currentTimeMillis();
+        for (int attempt = 1; ; attempt++) {
             try {
-                response = HttpRequest.sendGet(
-                        "http://" + loadGeneratorDNS
-                                + "/test/horizontal/add?dns=" + webServiceDNS);
-                System.out.println(response);
-                launchWebServiceSuccess = true;
-            } catch (Exception e) {
-                try {
-                    Thread.sleep(RETRY_DELAY_MILLIS);
-                    Ini ini = getIniUpdate(loadGeneratorDNS, testId);
-                    if (ini != null & ini.containsKey("Test finished")){
-                        launchWebServiceSuccess = true;
-                        System.out.println("New WS not submitted because test already completed");
-                    }
-
-                } catch (InterruptedException e1) {
-                    e1.printStackTrace();
-                } catch (Exception e2) { 
-                    e2.printStackTrace();
+                ec2.deleteSecurityGroup(request);
+                return;
+            } catch (AmazonEC2Exception e) {
+                if (!"DependencyViolation".equals(e.getErrorCode())
+                        || SECURITY_GROUP_RETRY.isExhausted(start)) {
+                    throw e;
                 }
+                System.out.println("Security group " + securityGroupName
+                        + " still in use, retrying");
+                SECURITY_GROUP_RETRY.sleep(attempt, start);
             }
         }
-        return response;
     }
 
     /**
-     * Supply LG with TPZ credentials.
-     * @param loadGeneratorDNS DNS Name of load generator
+     * Build the launch request of the Load Generator, tagged at launch.
+     * @return RunInstances request
      */
-    private static void authenticate(final String loadGeneratorDNS) {
-        boolean loadGeneratorSuccess = false;
-        while (!loadGeneratorSuccess) {
-            try {
-                String response = HttpRequest.sendGet("http://"
-                        + loadGeneratorDNS + "/password?passwd="
-                        + SUBMISSION_PASSWORD
-                        + "&username="
-                        + TPZ_USERNAME);
-                System.out.println(response);
-                loadGeneratorSuccess = true;
-            } catch (Exception e) {
-                try {
-                    Thread.sleep(RETRY_DELAY_MILLIS);
-                } catch (InterruptedException e1) {
-                    e1.printStackTrace();
-                }
-            }
+    static RunInstancesRequest loadGeneratorRequest() {
+        RunInstancesRequest runLoadGeneratorRequest = new RunInstancesRequest();
+
+        runLoadGeneratorRequest.withImageId(Settings.LOAD_GENERATOR)
+                                .withInstanceType(Settings.INSTANCE_TYPE)
+                                .withMinCount(1)
+                                .withMaxCount(1)
+                                .withKeyName(KEY_NAME)
+                                .withSecurityGroups(LG_SECURITY_GROUP);
+        return ProvisioningPipeline.withProjectTag(runLoadGeneratorRequest);
+    }
+
+    /**
+     * Build the launch request of one Web Service of a given type, tagged
+     * at launch.
+     * @param instanceType instance type
+     * @return RunInstances request
+     */
+    static RunInstancesRequest webServiceRequest(final String instanceType) {
+        RunInstancesRequest runWebServiceRequest = new RunInstancesRequest();
+
+        runWebServiceRequest.withImageId(Settings.WEB_SERVICE)
+                                .withInstanceType(instanceType)
+                                .withMinCount(1)
+                                .withMaxCount(1)
+                                .withKeyName(KEY_NAME)
+                                .withSecurityGroups(WEB_SERVICE_SECURITY_GROUP);
+        return ProvisioningPipeline.withProjectTag(runWebServiceRequest);
+    }
+
+    /**
+     * URL supplying the Load Generator with TPZ credentials.
+     * @param lgDns DNS Name of the Load Generator
+     * @return URL
+     */
+    static String authenticationUrl(final String lgDns) {
+        return "http://" + lgDns + "/password?passwd=" + SUBMISSION_PASSWORD
+                + "&username=" + TPZ_USERNAME;
+    }
+
+    /**
+     * URL starting a horizontal scaling test.
+     * @param lgDns DNS Name of the Load Generator
+     * @param wsDns DNS Name of the first Web Service
+     * @return URL
+     */
+    static String testUrl(final String lgDns, final String wsDns) {
+        return "http://" + lgDns + "/test/horizontal?dns=" + wsDns;
+    }
+
+    /**
+     * URL adding a Web Service to the running test.
+     * @param lgDns DNS Name of the Load Generator
+     * @param wsDns DNS Name of the Web Service
+     * @return URL
+     */
+    static String registrationUrl(final String lgDns, final String wsDns) {
+        return "http://" + lgDns + "/test/horizontal/add?dns=" + wsDns;
+    }
+
+    /**
+     * Get ID of test.
+     * @param response Response containing LoadGenerator output
+     * @return TestID string
+     */
+    static String getTestId(final String response) {
+        Matcher matcher = TEST_ID_PATTERN.matcher(response);
+        if (matcher.find()) {
+            return matcher.group(1);
         }
+        return null;
     }
 
     /**
@@ -522,17 +1111,11 @@ public final class LoadGenerator {
      */
     public static String getInstancePublicDnsName(final AmazonEC2 ec2,
                                                   final  String instanceId) {
-        //  Implement this method
-        DescribeInstancesRequest request = new DescribeInstancesRequest();
-        DescribeInstancesResult response = ec2.describeInstances(request);
-        for(Reservation reservation : response.getReservations()) {
-            for(Instance instance : reservation.getInstances()) {
-                if (instance.getInstanceId().equals(instanceId)) {
-                    return instance.getPublicDnsName();
-                }
-            }
+        Instance instance = getInstance(ec2, instanceId);
+        if (instance == null) {
+            return "";
         }
-        return "";
+        return instance.getPublicDnsName();
     }
 
     /**
@@ -543,16 +1126,11 @@ public final class LoadGenerator {
      */
     public static Instance getInstance(final AmazonEC2 ec2,
                                        final String instanceId){
-        //  Implement this method
-        DescribeInstancesRequest request = new DescribeInstancesRequest();
-        DescribeInstancesResult response = ec2.describeInstances(request);
-        for(Reservation reservation : response.getReservations()) {
-            for(Instance instance : reservation.getInstances()) {
-                if (instance.getInstanceId().equals(instanceId)) {
-                    return instance;
-                }
-            }
+        List<Instance> instances = InstanceTracker.describe(ec2,
+                Collections.singletonList(instanceId));
+        if (instances.isEmpty()) {
+            return null;
         }
-        return null;
+        return instances.get(0);
     }
 }
@@ -0,0 +1,498 @@
+package horizontal;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Append-only, memory-mapped binary archive of the complete minutes of
+ * every test log.
+ *
+ * Each minute is stored once, when it completes, as a timestamped record of
+ * its current RPS and the RPS of every Web Service. Test IDs and DNS names
+ * are stored once in a string table and referenced by index, so a minute
+ * of ten instances takes under 100 bytes. The header holds the end of the
+ * last complete record. Every record is forced to disk before the header
+ * that publishes it, and the header right after, so once append returns
+ * the minute survives a crash of the process or of the machine, and a
+ * crash mid-append loses at most that minute. Archives are limited to
+ * 2 GiB.
+ *
+ * Usage: LogArchive archive.bin runs
+ *        LogArchive archive.bin export testId|all [out.csv]
+ */
+public final class LogArchive {
+    /**
+     * File signature, "HSLA".
+     */
+    private static final int MAGIC = 0x48534C41;
+    /**
+     * Format version.
+     */
+    private static final int VERSION = 1;
+    /**
+     * Header: signature, version, end of the records.
+     */
+    private static final int HEADER_SIZE = 16;
+    /**
+     * Offset of the end of the records in the header.
+     */
+    private static final int END_OFFSET = 8;
+    /**
+     * Initial size of the mapping.
+     */
+    private static final int INITIAL_CAPACITY = 1 << 20;
+    /**
+     * Record of a string: type, length, UTF-8 bytes.
+     */
+    private static final byte STRING_RECORD = 1;
+    /**
+     * Record of a minute: type, test ID string, time, minute, current RPS,
+     * count, then count pairs of DNS name string and RPS.
+     */
+    private static final byte MINUTE_RECORD = 2;
+    /**
+     * Bytes of a minute record before its instance pairs.
+     */
+    private static final int MINUTE_HEADER_SIZE = 1 + 4 + 8 + 4 + 4 + 2;
+    /**
+     * Bytes of one instance pair.
+     */
+    private static final int INSTANCE_SIZE = 4 + 4;
+
+    /**
+     * Receives the records of a scan.
+     */
+    public interface Visitor {
+        /**
+         * Called once per archived minute, before its instances.
+         * @param testId test ID
+         * @param timeMillis time the minute was archived
+         * @param minute minute number in the test
+         * @param currentRps RPS of the whole fleet in the minute
+         */
+        default void minute(final String testId, final long timeMillis,
+                            final int minute, final float currentRps) {
+        }
+
+        /**
+         * Called once per Web Service of an archived minute.
+         * @param testId test ID
+         * @param timeMillis time the minute was archived
+         * @param minute minute number in the test
+         * @param dns DNS Name of the Web Service
+         * @param rps RPS of the Web Service in the minute
+         */
+        default void instance(final String testId, final long timeMillis,
+                              final int minute, final String dns,
+                              final float rps) {
+        }
+    }
+
+    /**
+     * Archive file.
+     */
+    private final File file;
+    /**
+     * Channel of the file.
+     */
+    private final FileChannel channel;
+    /**
+     * Mapping of the file, remapped larger when full.
+     */
+    private MappedByteBuffer buffer;
+    /**
+     * End of the complete records.
+     */
+    private int end;
+    /**
+     * String table, by index.
+     */
+    private final List<String> strings = new ArrayList<>();
+    /**
+     * String table, index by string.
+     */
+    private final Map<String, Integer> stringIds = new HashMap<>();
+    /**
+     * Last archived minute by test ID, in order of first record.
+     */
+    private final Map<String, Integer> lastMinutes = new LinkedHashMap<>();
+
+    /**
+     * Constructor.
+     * @param file archive file
+     * @param channel channel of the file
+     */
+    private LogArchive(final File file, final FileChannel channel) {
+        this.file = file;
+        this.channel = channel;
+    }
+
+    /**
+     * Open an archive, creating it if missing.
+     * @param file archive file
+     * @return archive
+     * @throws IOException when the file cannot be opened or is not an archive
+     */
+    public static LogArchive open(final File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        LogArchive archive = new LogArchive(file, channel);
+        try {
+            long size = channel.size();
+            archive.map((int) Math.max(INITIAL_CAPACITY, size));
+            if (size == 0) {
+                archive.buffer.putInt(0, MAGIC);
+                archive.buffer.putInt(4, VERSION);
+                archive.setEnd(HEADER_SIZE);
+            } else {
+                archive.load();
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return archive;
+    }
+
+    /**
+     * Archive a complete minute of a test and force it to disk, unless a
+     * later or the same minute of the test is archived already.
+     * @param testId test ID
+     * @param timeMillis time the minute completed
+     * @param minute complete minute
+     * @throws IllegalStateException when the archive is closed
+     */
+    public synchronized void append(final String testId, final long timeMillis,
+                                    final MinuteSection minute) {
+        checkOpen();
+        Integer last = lastMinutes.get(testId);
+        if (last != null && last >= minute.getMinute()) {
+            return;
+        }
+        int testRef = intern(testId);
+        Map<String, Float> instances = minute.getInstanceRps();
+        int[] dnsRefs = new int[instances.size()];
+        int i = 0;
+        for (String dns : instances.keySet()) {
+            dnsRefs[i++] = intern(dns);
+        }
+        int size = MINUTE_HEADER_SIZE + INSTANCE_SIZE * instances.size();
+        ensure(size);
+        ByteBuffer out = buffer.duplicate();
+        out.position(end);
+        out.put(MINUTE_RECORD).putInt(testRef).putLong(timeMillis)
+                .putInt(minute.getMinute()).putFloat(minute.getCurrentRps())
+                .putShort((short) instances.size());
+        i = 0;
+        for (float rps : instances.values()) {
+            out.putInt(dnsRefs[i++]).putFloat(rps);
+        }
+        setEnd(end + size);
+        lastMinutes.put(testId, minute.getMinute());
+    }
+
+    /**
+     * @return test IDs with archived minutes, oldest first
+     */
+    public synchronized List<String> getTestIds() {
+        return new ArrayList<>(lastMinutes.keySet());
+    }
+
+    /**
+     * Read back the archived minutes of a test.
+     * @param testId test ID
+     * @return complete minutes, in order
+     */
+    public List<MinuteSection> getMinutes(final String testId) {
+        List<MinuteSection> minutes = new ArrayList<>();
+        scan(testId, new Visitor() {
+            @Override
+            public void minute(final String test, final long timeMillis,
+                               final int minute, final float currentRps) {
+                MinuteSection section = new MinuteSection(minute);
+                section.setCurrentRps(currentRps);
+                minutes.add(section);
+            }
+
+            @Override
+            public void instance(final String test, final long timeMillis,
+                                 final int minute, final String dns,
+                                 final float rps) {
+                minutes.get(minutes.size() - 1).putInstanceRps(dns, rps);
+            }
+        });
+        return minutes;
+    }
+
+    /**
+     * Visit every archived minute, oldest first, without copying records.
+     * @param testId test ID to visit, null for every test
+     * @param visitor visitor
+     * @throws IllegalStateException when the archive is closed
+     */
+    public void scan(final String testId, final Visitor visitor) {
+        ByteBuffer in;
+        String[] table;
+        synchronized (this) {
+            checkOpen();
+            in = buffer.duplicate();
+            in.limit(end);
+            table = strings.toArray(new String[0]);
+        }
+        in.position(HEADER_SIZE);
+        int stringCount = 0;
+        while (in.hasRemaining()) {
+            byte type = in.get();
+            if (type == STRING_RECORD) {
+                int length = in.getShort() & 0xFFFF;
+                in.position(in.position() + length);
+                stringCount++;
+                continue;
+            }
+            String test = table[in.getInt()];
+            long time = in.getLong();
+            int minute = in.getInt();
+            float currentRps = in.getFloat();
+            int count = in.getShort() & 0xFFFF;
+            if (testId != null && !testId.equals(test)) {
+                in.position(in.position() + count * INSTANCE_SIZE);
+                continue;
+            }
+            visitor.minute(test, time, minute, currentRps);
+            for (int i = 0; i < count; i++) {
+                visitor.instance(test, time, minute, table[in.getInt()],
+                        in.getFloat());
+            }
+        }
+        if (stringCount != table.length) {
+            throw new IllegalStateException("Corrupt archive " + file);
+        }
+    }
+
+    /**
+     * Write the archived minutes of a test as CSV, one row per Web Service
+     * and minute.
+     * @param testId test ID, null for every test
+     * @param writer output
+     */
+    public void exportCsv(final String testId, final Writer writer) {
+        PrintWriter out = new PrintWriter(writer);
+        out.println("test_id,time_millis,minute,current_rps,dns,rps");
+        float[] currentRps = new float[1];
+        scan(testId, new Visitor() {
+            @Override
+            public void minute(final String test, final long timeMillis,
+                               final int minute, final float rps) {
+                currentRps[0] = rps;
+            }
+
+            @Override
+            public void instance(final String test, final long timeMillis,
+                                 final int minute, final String dns,
+                                 final float rps) {
+                out.println(String.format(Locale.ROOT, "%s,%d,%d,%.2f,%s,%.2f",
+                        test, timeMillis, minute, currentRps[0], dns, rps));
+            }
+        });
+        out.flush();
+    }
+
+    /**
+     * @return bytes used by the records and the header
+     */
+    public synchronized int getSize() {
+        return end;
+    }
+
+    /**
+     * Flush the mapping to disk, trim the file to its records and close the
+     * archive. Closing a closed archive does nothing.
+     * @throws IOException when the file cannot be closed
+     */
+    public synchronized void close() throws IOException {
+        if (buffer == null) {
+            return;
+        }
+        buffer.force();
+        buffer = null;
+        try {
+            channel.truncate(end);
+        } catch (IOException e) {
+            // some platforms refuse to truncate a mapped file; the unused
+            // tail is only wasted space
+            System.out.println("Archive " + file + " not trimmed: "
+                    + e.getMessage());
+        }
+        channel.close();
+    }
+
+    /**
+     * Fail on a closed archive.
+     */
+    private void checkOpen() {
+        if (buffer == null) {
+            throw new IllegalStateException("Archive " + file + " is closed");
+        }
+    }
+
+    /**
+     * Map the file.
+     * @param capacity bytes to map
+     * @throws IOException when the file cannot be mapped
+     */
+    private void map(final int capacity) throws IOException {
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    /**
+     * Make room for a record, mapping a larger region if needed.
+     * @param size bytes of the record
+     */
+    private void ensure(final int size) {
+        if ((long) end + size <= buffer.capacity()) {
+            return;
+        }
+        long capacity = Math.max(2L * buffer.capacity(), (long) end + size);
+        if (capacity > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Archive " + file + " is full");
+        }
+        try {
+            map((int) capacity);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot grow archive " + file, e);
+        }
+    }
+
+    /**
+     * Publish the end of the complete records, forcing the records to disk
+     * before the header that points past them.
+     * @param newEnd end of the records
+     */
+    private void setEnd(final int newEnd) {
+        buffer.force();
+        end = newEnd;
+        buffer.putLong(END_OFFSET, newEnd);
+        buffer.force();
+    }
+
+    /**
+     * Get the index of a string, appending it to the table if new.
+     * @param value string
+     * @return index
+     */
+    private int intern(final String value) {
+        Integer id = stringIds.get(value);
+        if (id != null) {
+            return id;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ensure(1 + 2 + bytes.length);
+        ByteBuffer out = buffer.duplicate();
+        out.position(end);
+        out.put(STRING_RECORD).putShort((short) bytes.length).put(bytes);
+        setEnd(end + 1 + 2 + bytes.length);
+        strings.add(value);
+        stringIds.put(value, strings.size() - 1);
+        return strings.size() - 1;
+    }
+
+    /**
+     * Check the header and index the string table and the last minutes.
+     * @throws IOException when the file is not an archive
+     */
+    private void load() throws IOException {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException(file + " is not a log archive");
+        }
+        long stored = buffer.getLong(END_OFFSET);
+        if (stored < HEADER_SIZE || stored > buffer.capacity()) {
+            throw new IOException("Corrupt archive " + file);
+        }
+        end = (int) stored;
+        ByteBuffer in = buffer.duplicate();
+        in.position(HEADER_SIZE).limit(end);
+        while (in.hasRemaining()) {
+            if (in.get() == STRING_RECORD) {
+                byte[] bytes = new byte[in.getShort() & 0xFFFF];
+                in.get(bytes);
+                String value = new String(bytes, StandardCharsets.UTF_8);
+                strings.add(value);
+                stringIds.put(value, strings.size() - 1);
+                continue;
+            }
+            String test = strings.get(in.getInt());
+            in.position(in.position() + 8);
+            int minute = in.getInt();
+            in.position(in.position() + 4);
+            int count = in.getShort() & 0xFFFF;
+            in.position(in.position() + count * INSTANCE_SIZE);
+            lastMinutes.put(test, minute);
+        }
+    }
+
+    /**
+     * List the archived tests, or export one as CSV.
+     * @param args archive file, then "runs", or "export", a test ID or
+     *             "all", and optionally a CSV file
+     * @throws IOException when a file cannot be read or written
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 2 || !new File(args[0]).isFile()) {
+            System.out.println("Usage: LogArchive archive.bin runs");
+            System.out.println("       LogArchive archive.bin export testId|all"
+                    + " [out.csv]");
+            return;
+        }
+        LogArchive archive = open(new File(args[0]));
+        try {
+            if ("runs".equals(args[1])) {
+                Map<String, Integer> minutes = new LinkedHashMap<>();
+                archive.scan(null, new Visitor() {
+                    @Override
+                    public void minute(final String testId,
+                                       final long timeMillis, final int minute,
+                                       final float currentRps) {
+                        minutes.merge(testId, 1, Integer::sum);
+                    }
+                });
+                for (Map.Entry<String, Integer> test : minutes.entrySet()) {
+                    System.out.println(test.getKey() + " " + test.getValue()
+                            + " minutes");
+                }
+                System.out.println(archive.getSize() + " bytes");
+            } else if ("export".equals(args[1]) && args.length > 2) {
+                String testId = "all".equals(args[2]) ? null : args[2];
+                if (args.length > 3) {
+                    try (Writer writer = new OutputStreamWriter(
+                            new FileOutputStream(args[3]),
+                            StandardCharsets.UTF_8)) {
+                        archive.exportCsv(testId, writer);
+                    }
+                } else {
+                    archive.exportCsv(testId, new OutputStreamWriter(
+                            System.out, StandardCharsets.UTF_8));
+                }
+            } else {
+                System.out.println("Unknown command " + args[1]);
+            }
+        } finally {
+            archive.close();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package horizontal;
+
+import utilities.HttpClient;
+import utilities.HttpRequest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Incremental reader of a test log served by the Load Generator.
+ *
+ * Each poll fetches only the bytes after the offset already consumed and
+ * feeds complete lines to a {@link TestLog}. A trailing partial line is
+ * kept until the rest of it arrives.
+ */
+public final class LogTailer {
+    /**
+     * HTTP client.
+     */
+    private final HttpClient client;
+    /**
+     * URL of the log.
+     */
+    private final String url;
+    /**
+     * Model fed with every complete line.
+     */
+    private final TestLog log = new TestLog();
+    /**
+     * Bytes of the log consumed so far.
+     */
+    private long offset;
+    /**
+     * Bytes of a line whose terminator has not arrived yet.
+     */
+    private final ByteArrayOutputStream partial = new ByteArrayOutputStream();
+
+    /**
+     * Constructor.
+     * @param client HTTP client
+     * @param loadGeneratorDNS DNS Name of load generator
+     * @param testId TestID String
+     */
+    public LogTailer(final HttpClient client, final String loadGeneratorDNS,
+                     final String testId) {
+        this(client, "http://" + loadGeneratorDNS + "/log?name=test."
+                + testId + ".log");
+    }
+
+    /**
+     * Constructor.
+     * @param client HTTP client
+     * @param url URL of the log
+     */
+    public LogTailer(final HttpClient client, final String url) {
+        this.client = client;
+        this.url = url;
+    }
+
+    /**
+     * Fetch and parse the bytes appended since the last poll.
+     * @return the updated log model
+     * @throws IOException on network failure
+     */
+    public TestLog poll() throws IOException {
+        HttpRequest.Response response = HttpRequest.sendRangeGet(client, url,
+                offset);
+        byte[] body = response.getBody();
+        int from;
+        if (response.getStatus() == HttpURLConnection.HTTP_PARTIAL) {
+            from = 0;
+        } else if (response.getStatus() == HttpURLConnection.HTTP_OK) {
+            // Range ignored, skip what was already consumed
+            from = (int) Math.min(offset, body.length);
+        } else {
+            return log;
+        }
+        append(body, from, body.length - from);
+        return log;
+    }
+
+    /**
+     * Consume new log bytes.
+     * @param bytes buffer
+     * @param start first new byte
+     * @param length number of new bytes
+     */
+    void append(final byte[] bytes, final int start, final int length) {
+        offset += length;
+        int lineStart = start;
+        int end = start + length;
+        for (int i = start; i < end; i++) {
+            if (bytes[i] == '\n') {
+                partial.write(bytes, lineStart, i - lineStart);
+                log.accept(new String(partial.toByteArray(),
+                        StandardCharsets.UTF_8));
+                partial.reset();
+                lineStart = i + 1;
+            }
+        }
+        partial.write(bytes, lineStart, end - lineStart);
+        // The log may end with a section header and no terminator,
+        // e.g. "[Test finished]"; a header is complete once it is closed.
+        if (length > 0 && partial.size() > 0 && bytes[end - 1] == ']') {
+            String line = new String(partial.toByteArray(),
+                    StandardCharsets.UTF_8).trim();
+            if (line.startsWith("[")) {
+                log.accept(line);
+                partial.reset();
+            }
+        }
+    }
+
+    /**
+     * @return the log model
+     */
+    public TestLog getLog() {
+        return log;
+    }
+
+    /**
+     * @return bytes of the log consumed so far
+     */
+    public long getOffset() {
+        return offset;
+    }
+}
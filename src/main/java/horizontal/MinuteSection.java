@@ -0,0 +1,77 @@
+package horizontal;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * One "[Minute N]" section of the test log: the RPS of every Web Service
+ * DNS name and the "[Current rps=...]" total that follows it.
+ */
+public final class MinuteSection {
+    /**
+     * Minute number.
+     */
+    private final int minute;
+    /**
+     * RPS per Web Service DNS name, in log order.
+     */
+    private final Map<String, Float> instanceRps = new LinkedHashMap<>();
+    /**
+     * Aggregate RPS, NaN until the "[Current rps=...]" line is read.
+     */
+    private float currentRps = Float.NaN;
+
+    /**
+     * Constructor.
+     * @param minute minute number
+     */
+    public MinuteSection(final int minute) {
+        this.minute = minute;
+    }
+
+    /**
+     * @return minute number
+     */
+    public int getMinute() {
+        return minute;
+    }
+
+    /**
+     * @return RPS per Web Service DNS name, in log order
+     */
+    public Map<String, Float> getInstanceRps() {
+        return Collections.unmodifiableMap(instanceRps);
+    }
+
+    /**
+     * @return aggregate RPS, NaN if not complete yet
+     */
+    public float getCurrentRps() {
+        return currentRps;
+    }
+
+    /**
+     * @return true once the "[Current rps=...]" line has been read
+     */
+    public boolean isComplete() {
+        return !Float.isNaN(currentRps);
+    }
+
+    /**
+     * Record the RPS of one Web Service.
+     * @param dns Web Service DNS name
+     * @param rps RPS value
+     */
+    void putInstanceRps(final String dns, final float rps) {
+        instanceRps.put(dns, rps);
+    }
+
+    /**
+     * Record the aggregate RPS.
+     * @param rps RPS value
+     */
+    void setCurrentRps(final float rps) {
+        currentRps = rps;
+    }
+}
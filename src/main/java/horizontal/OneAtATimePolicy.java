@@ -0,0 +1,17 @@
+package horizontal;
+
+/**
+ * Adds a single instance per cooldown while RPS is below the target.
+ */
+public final class OneAtATimePolicy implements ScalingPolicy {
+    /**
+     * Configuration name.
+     */
+    static final String NAME = "one-at-a-time";
+
+    @Override
+    public int instancesToAdd(final TestLog log, final int fleetSize,
+                              final float target) {
+        return log.getCurrentRps() < target ? 1 : 0;
+    }
+}
@@ -0,0 +1,97 @@
+package horizontal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Flags Web Service instances that drag the fleet down in the latest minute:
+ * those below a fraction of the fleet median and those missing from the
+ * minute section after having reported before.
+ */
+public final class OutlierDetector {
+    /**
+     * Minutes an instance must have reported before it can be flagged as
+     * slow, so a freshly added instance is not judged on its first minute.
+     */
+    private static final int DEFAULT_MIN_SAMPLES = 2;
+
+    /**
+     * Fraction of the fleet median below which an instance is flagged.
+     */
+    private final float fraction;
+    /**
+     * Minutes an instance must have reported before it can be flagged as slow.
+     */
+    private final int minSamples;
+
+    /**
+     * Constructor.
+     * @param fraction fraction of the fleet median, e.g. 0.7
+     */
+    public OutlierDetector(final float fraction) {
+        this(fraction, DEFAULT_MIN_SAMPLES);
+    }
+
+    /**
+     * Constructor.
+     * @param fraction fraction of the fleet median, e.g. 0.7
+     * @param minSamples minutes reported before an instance can be slow
+     */
+    public OutlierDetector(final float fraction, final int minSamples) {
+        this.fraction = fraction;
+        this.minSamples = minSamples;
+    }
+
+    /**
+     * Find the outliers of the latest recorded minute.
+     * @param series per-instance RPS series
+     * @return DNS names of flagged instances
+     */
+    public List<String> detect(final InstanceRpsSeries series) {
+        List<String> flagged = new ArrayList<>();
+        int minute = series.getMinuteCount();
+        if (minute == 0) {
+            return flagged;
+        }
+        float[] values = new float[series.getInstances().size()];
+        int present = 0;
+        for (String dns : series.getInstances()) {
+            float rps = series.get(dns, minute);
+            if (!Float.isNaN(rps)) {
+                values[present++] = rps;
+            }
+        }
+        if (present == 0) {
+            return flagged;
+        }
+        float median = median(values, present);
+        for (String dns : series.getInstances()) {
+            float rps = series.get(dns, minute);
+            if (Float.isNaN(rps)) {
+                System.out.println(dns + " missing from minute " + minute);
+                flagged.add(dns);
+            } else if (series.getSampleCount(dns) >= minSamples
+                    && rps < fraction * median) {
+                System.out.println(dns + " at " + rps + " rps, fleet median "
+                        + median);
+                flagged.add(dns);
+            }
+        }
+        return flagged;
+    }
+
+    /**
+     * Median of the first values of an array.
+     * @param values values, reordered in place
+     * @param count number of values used
+     * @return median
+     */
+    static float median(final float[] values, final int count) {
+        Arrays.sort(values, 0, count);
+        if (count % 2 == 1) {
+            return values[count / 2];
+        }
+        return (values[count / 2 - 1] + values[count / 2]) / 2;
+    }
+}
@@ -0,0 +1,266 @@
+package horizontal;
+
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.InstanceStateName;
+import com.amazonaws.services.ec2.model.ResourceType;
+import com.amazonaws.services.ec2.model.RunInstancesRequest;
+import com.amazonaws.services.ec2.model.Tag;
+import com.amazonaws.services.ec2.model.TagSpecification;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Launches instances concurrently and hands out their DNS names as futures.
+ *
+ * Instances are tagged at launch through TagSpecifications, so no separate
+ * CreateTags call is needed. Every instance gets the ID of the run that
+ * launched it, so recovery and teardown only touch instances of their own
+ * run, never those of other controllers sharing the account. Launches wait
+ * for "running" through the shared {@link InstanceTracker}, so a booting
+ * instance holds no thread. Launch milestones are recorded in the
+ * {@link RunTimings} of the run.
+ */
+public final class ProvisioningPipeline {
+    /**
+     * Project Tag key.
+     */
+    public static final String PROJECT_KEY = "Project";
+    /**
+     * Run ID Tag key.
+     */
+    public static final String RUN_KEY = "RunId";
+    /**
+     * Running instance state name.
+     */
+    private static final String RUNNING = InstanceStateName.Running.toString();
+
+    /**
+     * Handle on a launched instance.
+     */
+    public static final class Launch {
+        /**
+         * Instance ID, completed once RunInstances returns.
+         */
+        private final CompletableFuture<String> instanceId;
+        /**
+         * Public DNS name, completed once the instance is running.
+         */
+        private final CompletableFuture<String> publicDnsName;
+
+        /**
+         * Constructor.
+         * @param instanceId instance ID future
+         * @param publicDnsName public DNS name future
+         */
+        Launch(final CompletableFuture<String> instanceId,
+               final CompletableFuture<String> publicDnsName) {
+            this.instanceId = instanceId;
+            this.publicDnsName = publicDnsName;
+        }
+
+        /**
+         * @return instance ID future
+         */
+        public CompletableFuture<String> getInstanceId() {
+            return instanceId;
+        }
+
+        /**
+         * @return public DNS name future
+         */
+        public CompletableFuture<String> getPublicDnsName() {
+            return publicDnsName;
+        }
+    }
+
+    /**
+     * EC2 client.
+     */
+    private final AmazonEC2 ec2;
+    /**
+     * Tracker used to wait for running instances.
+     */
+    private final InstanceTracker tracker;
+    /**
+     * Timeline of the run.
+     */
+    private final RunTimings timings;
+    /**
+     * ID of the run, tagged on every instance launched.
+     */
+    private final String runId;
+    /**
+     * Threads making RunInstances calls.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Constructor.
+     * @param ec2 EC2 client instance
+     * @param tracker started instance tracker
+     * @param timings timeline of the run
+     * @param runId ID of the run, tagged on every instance launched
+     */
+    public ProvisioningPipeline(final AmazonEC2 ec2,
+                                final InstanceTracker tracker,
+                                final RunTimings timings,
+                                final String runId) {
+        this.ec2 = ec2;
+        this.tracker = tracker;
+        this.timings = timings;
+        this.runId = runId;
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "provisioning");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Add the Project tag to a launch request as a TagSpecification.
+     * @param request RunInstances request
+     * @return the same request
+     */
+    public static RunInstancesRequest withProjectTag(
+            final RunInstancesRequest request) {
+        return request.withTagSpecifications(new TagSpecification()
+                .withResourceType(ResourceType.Instance)
+                .withTags(new Tag()
+                        .withKey(PROJECT_KEY)
+                        .withValue(LoadGenerator.PROJECT_VALUE)));
+    }
+
+    /**
+     * @return ID of the run, tagged on every instance launched
+     */
+    public String getRunId() {
+        return runId;
+    }
+
+    /**
+     * Launch one instance without blocking the caller.
+     * @param request RunInstances request for a single instance
+     * @return launch handle
+     */
+    public Launch launch(final RunInstancesRequest request) {
+        RunInstancesRequest tagged = withRunTag(request);
+        CompletableFuture<String> instanceId = CompletableFuture.supplyAsync(
+                () -> {
+                    long requested = timings.now();
+                    String id = ec2.runInstances(tagged)
+                            .getReservation()
+                            .getInstances()
+                            .get(0)
+                            .getInstanceId();
+                    markLaunched(id, requested);
+                    return id;
+                }, executor);
+        return new Launch(instanceId,
+                instanceId.thenCompose(this::whenDns));
+    }
+
+    /**
+     * Launch several identical instances with a single RunInstances call.
+     * @param request RunInstances request, its counts are overridden
+     * @param count number of instances
+     * @return one launch handle per instance
+     */
+    public List<Launch> launch(final RunInstancesRequest request,
+                               final int count) {
+        RunInstancesRequest batch = withRunTag(request)
+                .withMinCount(count)
+                .withMaxCount(count);
+        CompletableFuture<List<Instance>> instances =
+                CompletableFuture.supplyAsync(() -> {
+                    long requested = timings.now();
+                    List<Instance> list = ec2.runInstances(batch)
+                            .getReservation()
+                            .getInstances();
+                    for (Instance instance : list) {
+                        markLaunched(instance.getInstanceId(), requested);
+                    }
+                    return list;
+                }, executor);
+        List<Launch> launches = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            CompletableFuture<String> instanceId = instances.thenApply(
+                    list -> list.get(index).getInstanceId());
+            launches.add(new Launch(instanceId,
+                    instanceId.thenCompose(this::whenDns)));
+        }
+        return launches;
+    }
+
+    /**
+     * Copy a launch request with the run ID added to the instance tags.
+     * EC2 takes one TagSpecification per resource type, so the tag joins
+     * the instance one when there is one.
+     * @param request RunInstances request, left unchanged
+     * @return tagged copy
+     */
+    private RunInstancesRequest withRunTag(final RunInstancesRequest request) {
+        Tag runTag = new Tag().withKey(RUN_KEY).withValue(runId);
+        List<TagSpecification> specifications = new ArrayList<>();
+        boolean tagged = false;
+        if (request.getTagSpecifications() != null) {
+            for (TagSpecification specification
+                    : request.getTagSpecifications()) {
+                if (ResourceType.Instance.toString().equals(
+                        specification.getResourceType())) {
+                    specification = new TagSpecification()
+                            .withResourceType(specification.getResourceType())
+                            .withTags(specification.getTags())
+                            .withTags(runTag);
+                    tagged = true;
+                }
+                specifications.add(specification);
+            }
+        }
+        if (!tagged) {
+            specifications.add(new TagSpecification()
+                    .withResourceType(ResourceType.Instance)
+                    .withTags(runTag));
+        }
+        RunInstancesRequest copy = request.clone();
+        copy.setTagSpecifications(specifications);
+        return copy;
+    }
+
+    /**
+     * Record that RunInstances returned an instance.
+     * @param instanceId instance ID
+     * @param requested time the call was made
+     */
+    private void markLaunched(final String instanceId, final long requested) {
+        timings.mark(instanceId, RunTimings.Milestone.REQUESTED, requested);
+        timings.mark(instanceId, RunTimings.Milestone.LAUNCHED);
+    }
+
+    /**
+     * Wait until an instance is running, without holding a thread.
+     * @param instanceId instance ID
+     * @return future completed with the public DNS name
+     */
+    CompletableFuture<String> whenDns(final String instanceId) {
+        return tracker.whenState(instanceId, RUNNING).thenApply(instance -> {
+            tracker.untrack(instanceId);
+            String dns = tracker.getPublicDnsName(instanceId);
+            timings.mark(instanceId, RunTimings.Milestone.RUNNING);
+            timings.setPublicDnsName(instanceId, dns);
+            return dns;
+        });
+    }
+
+    /**
+     * Stop the pipeline threads.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,144 @@
+package horizontal;
+
+import utilities.Clock;
+import utilities.HttpClient;
+import utilities.HttpRequest;
+import utilities.RetryPolicy;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Probes the HTTP port of new Web Service instances until they serve.
+ *
+ * Every instance is probed on a shared scheduler, so all pending instances
+ * are checked at the same time. While the port refuses connections the
+ * interval backs off; once the server answers, even with an error, the
+ * instance is close to ready and the interval drops back to the minimum.
+ */
+public final class ReadinessProber {
+    /**
+     * Shortest delay between two probes in milliseconds.
+     */
+    private static final long MIN_INTERVAL_MILLIS = 200;
+    /**
+     * Longest delay between two probes in milliseconds.
+     */
+    private static final long MAX_INTERVAL_MILLIS = 2000;
+    /**
+     * Connect and read timeout of a probe in milliseconds.
+     */
+    private static final int PROBE_TIMEOUT_MILLIS = 1000;
+    /**
+     * Time after which an instance is given up in milliseconds.
+     */
+    private static final long DEADLINE_MILLIS = 600000;
+    /**
+     * Threads probing in parallel.
+     */
+    private static final int PROBE_THREADS = 4;
+    /**
+     * First status code meaning the server is not ready.
+     */
+    private static final int HTTP_SERVER_ERROR = 500;
+
+    /**
+     * Clock pacing the probes.
+     */
+    private final Clock clock;
+    /**
+     * Timeline of the run, null when not recorded.
+     */
+    private final RunTimings timings;
+    /**
+     * Client with short timeouts, never retried.
+     */
+    private final HttpClient client = new HttpClient(PROBE_TIMEOUT_MILLIS,
+            PROBE_TIMEOUT_MILLIS, new RetryPolicy(0, 0, 1));
+    /**
+     * Probe timer.
+     */
+    private final ScheduledExecutorService scheduler =
+            Executors.newScheduledThreadPool(PROBE_THREADS, r -> {
+                Thread thread = new Thread(r, "readiness-prober");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /**
+     * Constructor.
+     */
+    public ReadinessProber() {
+        this(Clock.SYSTEM, null);
+    }
+
+    /**
+     * Constructor.
+     * @param clock clock pacing the probes
+     * @param timings timeline of the run, null when not recorded
+     */
+    public ReadinessProber(final Clock clock, final RunTimings timings) {
+        this.clock = clock;
+        this.timings = timings;
+    }
+
+    /**
+     * Start probing an instance.
+     * @param dns public DNS name
+     * @return future completed with the DNS name once it serves HTTP
+     */
+    public CompletableFuture<String> whenReady(final String dns) {
+        CompletableFuture<String> ready = new CompletableFuture<>();
+        long start = clock.currentTimeMillis();
+        scheduler.execute(() -> probe(dns, ready, MIN_INTERVAL_MILLIS, start));
+        return ready;
+    }
+
+    /**
+     * Probe once and schedule the next probe if needed.
+     * @param dns public DNS name
+     * @param ready future to complete
+     * @param interval delay used before this probe
+     * @param start time probing started
+     */
+    private void probe(final String dns, final CompletableFuture<String> ready,
+                       final long interval, final long start) {
+        if (ready.isDone()) {
+            return;
+        }
+        long next;
+        try {
+            HttpRequest.Response response = client.get("http://" + dns + "/");
+            if (response.getStatus() < HTTP_SERVER_ERROR) {
+                System.out.println(dns + " serving after "
+                        + (clock.currentTimeMillis() - start) + " ms");
+                if (timings != null) {
+                    timings.markDns(dns, RunTimings.Milestone.SERVING);
+                }
+                ready.complete(dns);
+                return;
+            }
+            next = MIN_INTERVAL_MILLIS;
+        } catch (IOException e) {
+            next = Math.min(MAX_INTERVAL_MILLIS, interval * 2);
+        }
+        if (clock.currentTimeMillis() - start > DEADLINE_MILLIS) {
+            ready.completeExceptionally(new IOException(dns
+                    + " not serving after " + DEADLINE_MILLIS + " ms"));
+            return;
+        }
+        final long delay = next;
+        scheduler.schedule(() -> probe(dns, ready, delay, start),
+                clock.toRealMillis(delay), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop probing.
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,353 @@
+package horizontal;
+
+import org.apache.commons.io.FileUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import utilities.Clock;
+import utilities.HttpClient;
+import utilities.LatencyHistogram;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Timeline of a run: lifecycle milestones of every instance and the phases
+ * of every session, on the run clock.
+ *
+ * At exit the timeline is written as a JSON report together with the
+ * latency histograms of the EC2 and HTTP calls. The report breaks every
+ * session down into its phases, longest first, and every instance launch
+ * into its stages, so the step dominating the time to target stands out.
+ */
+public final class RunTimings {
+    /**
+     * Lifecycle milestones of an instance, in order.
+     */
+    public enum Milestone {
+        /**
+         * RunInstances call made.
+         */
+        REQUESTED,
+        /**
+         * RunInstances call returned the instance ID.
+         */
+        LAUNCHED,
+        /**
+         * Instance running with a public DNS name.
+         */
+        RUNNING,
+        /**
+         * Web Service answering HTTP.
+         */
+        SERVING,
+        /**
+         * Web Service warmed up, or serving when warm-up is disabled.
+         */
+        WARMED,
+        /**
+         * Registration with the Load Generator requested.
+         */
+        REGISTERING,
+        /**
+         * Web Service registered with the Load Generator.
+         */
+        REGISTERED,
+        /**
+         * Web Service first seen in the test log.
+         */
+        IN_LOG
+    }
+
+    /**
+     * Clock of the run.
+     */
+    private final Clock clock;
+    /**
+     * Time the run started.
+     */
+    private final long start;
+    /**
+     * Milestone times by instance ID.
+     */
+    private final Map<String, Map<Milestone, Long>> milestones =
+            new ConcurrentHashMap<>();
+    /**
+     * Instance ID by public DNS name.
+     */
+    private final Map<String, String> instanceIdByDns = new ConcurrentHashMap<>();
+    /**
+     * Phase clocks by session name.
+     */
+    private final Map<String, PhaseClock> phases = new ConcurrentHashMap<>();
+
+    /**
+     * Time spent in each phase of one session.
+     */
+    private static final class PhaseClock {
+        /**
+         * Milliseconds by phase, in order of first entry.
+         */
+        private final Map<String, Long> millis = new LinkedHashMap<>();
+        /**
+         * Current phase, null once ended.
+         */
+        private String current;
+        /**
+         * Time the current phase was entered.
+         */
+        private long since;
+    }
+
+    /**
+     * Constructor.
+     * @param clock clock of the run
+     */
+    public RunTimings(final Clock clock) {
+        this.clock = clock;
+        this.start = clock.currentTimeMillis();
+    }
+
+    /**
+     * @return current time on the run clock
+     */
+    public long now() {
+        return clock.currentTimeMillis();
+    }
+
+    /**
+     * Record a milestone of an instance now, unless already recorded.
+     * @param instanceId instance ID
+     * @param milestone milestone
+     */
+    public void mark(final String instanceId, final Milestone milestone) {
+        mark(instanceId, milestone, now());
+    }
+
+    /**
+     * Record a milestone of an instance, unless already recorded.
+     * @param instanceId instance ID
+     * @param milestone milestone
+     * @param time time of the milestone on the run clock
+     */
+    public void mark(final String instanceId, final Milestone milestone,
+                     final long time) {
+        Map<Milestone, Long> times = milestones.computeIfAbsent(instanceId,
+                key -> new EnumMap<>(Milestone.class));
+        synchronized (times) {
+            times.putIfAbsent(milestone, time);
+        }
+    }
+
+    /**
+     * Record the public DNS name of an instance, so that later milestones
+     * can be marked by DNS name.
+     * @param instanceId instance ID
+     * @param dns public DNS name
+     */
+    public void setPublicDnsName(final String instanceId, final String dns) {
+        instanceIdByDns.put(dns, instanceId);
+    }
+
+    /**
+     * Record a milestone of an instance now by its public DNS name, unless
+     * already recorded. Unknown names are ignored.
+     * @param dns public DNS name
+     * @param milestone milestone
+     */
+    public void markDns(final String dns, final Milestone milestone) {
+        String instanceId = instanceIdByDns.get(dns);
+        if (instanceId != null) {
+            mark(instanceId, milestone);
+        }
+    }
+
+    /**
+     * Move a session into a phase, ending its current phase.
+     * @param session session name
+     * @param phase next phase, null to stop the clock
+     */
+    public void enterPhase(final String session, final String phase) {
+        PhaseClock phaseClock = phases.computeIfAbsent(session,
+                key -> new PhaseClock());
+        long time = now();
+        synchronized (phaseClock) {
+            if (phaseClock.current != null) {
+                phaseClock.millis.merge(phaseClock.current,
+                        time - phaseClock.since, Long::sum);
+            }
+            phaseClock.current = phase;
+            phaseClock.since = time;
+        }
+    }
+
+    /**
+     * Write the report.
+     * @param file report file
+     * @param ec2 governed EC2 client of the run
+     * @param httpClient HTTP client of the run
+     * @throws IOException when the file cannot be written
+     */
+    public void writeReport(final File file, final GovernedEC2 ec2,
+                            final HttpClient httpClient) throws IOException {
+        JSONObject report = new JSONObject();
+        report.put("run_millis", now() - start);
+
+        JSONObject ec2Calls = new JSONObject();
+        Map<String, LatencyHistogram> waits = ec2.getWaits();
+        for (Map.Entry<String, LatencyHistogram> operation
+                : ec2.getLatencies().entrySet()) {
+            ec2Calls.put(operation.getKey(), new JSONObject()
+                    .put("latency_ms", summary(operation.getValue(), 1000))
+                    .put("governor_wait_ms",
+                            summary(waits.get(operation.getKey()), 1000)));
+        }
+        report.put("ec2", ec2Calls);
+
+        JSONObject http = new JSONObject();
+        for (Map.Entry<String, HttpClient.EndpointStats> endpoint
+                : httpClient.getStats().entrySet()) {
+            HttpClient.EndpointStats stats = endpoint.getValue();
+            http.put(endpoint.getKey(), new JSONObject()
+                    .put("failures", stats.getFailures())
+                    .put("retries", stats.getRetries())
+                    .put("request_ms", summary(stats.getLatencyMicros(), 1000))
+                    .put("completion_ms",
+                            summary(stats.getCompletionMillis(), 1)));
+        }
+        report.put("http", http);
+
+        Map<String, LatencyHistogram> stages = new LinkedHashMap<>();
+        Milestone[] order = Milestone.values();
+        for (int i = 1; i < order.length; i++) {
+            stages.put(stageName(order[i - 1], order[i]),
+                    new LatencyHistogram());
+        }
+        JSONObject instances = new JSONObject();
+        for (Map.Entry<String, Map<Milestone, Long>> instance
+                : milestones.entrySet()) {
+            JSONObject timeline = new JSONObject();
+            synchronized (instance.getValue()) {
+                Milestone previous = null;
+                for (Map.Entry<Milestone, Long> milestone
+                        : instance.getValue().entrySet()) {
+                    timeline.put(milestone.getKey().name()
+                            .toLowerCase(Locale.ROOT),
+                            milestone.getValue() - start);
+                    Milestone next = milestone.getKey();
+                    if (previous != null
+                            && next.ordinal() == previous.ordinal() + 1) {
+                        stages.get(stageName(previous, next)).record(
+                                milestone.getValue()
+                                        - instance.getValue().get(previous));
+                    }
+                    previous = next;
+                }
+            }
+            instances.put(instance.getKey(), timeline);
+        }
+        JSONObject stageReport = new JSONObject();
+        String slowestStage = null;
+        double slowestMean = -1;
+        // a warm pool standby waits for demand, not on the critical path
+        String idle = stageName(Milestone.WARMED, Milestone.REGISTERING);
+        for (Map.Entry<String, LatencyHistogram> stage : stages.entrySet()) {
+            stageReport.put(stage.getKey(), summary(stage.getValue(), 1));
+            if (!stage.getKey().equals(idle)
+                    && stage.getValue().getMean() > slowestMean) {
+                slowestMean = stage.getValue().getMean();
+                slowestStage = stage.getKey();
+            }
+        }
+        report.put("instance_stages_ms", stageReport);
+        report.put("slowest_instance_stage", slowestStage);
+        report.put("instances", instances);
+
+        JSONObject sessions = new JSONObject();
+        for (Map.Entry<String, PhaseClock> session : phases.entrySet()) {
+            sessions.put(session.getKey(), criticalPath(session.getValue()));
+        }
+        report.put("critical_path", sessions);
+
+        FileUtils.writeStringToFile(file, report.toString(2),
+                StandardCharsets.UTF_8);
+        System.out.println("Timing report written to " + file);
+    }
+
+    /**
+     * Break a session down into its phases, longest first.
+     * @param phaseClock phase clock of the session
+     * @return phases with their time and share of the session
+     */
+    private JSONArray criticalPath(final PhaseClock phaseClock) {
+        Map<String, Long> millis;
+        synchronized (phaseClock) {
+            millis = new LinkedHashMap<>(phaseClock.millis);
+            if (phaseClock.current != null) {
+                millis.merge(phaseClock.current, now() - phaseClock.since,
+                        Long::sum);
+            }
+        }
+        long total = 0;
+        for (long phase : millis.values()) {
+            total += phase;
+        }
+        List<Map.Entry<String, Long>> sorted = new ArrayList<>(millis.entrySet());
+        sorted.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        JSONArray path = new JSONArray();
+        for (Map.Entry<String, Long> phase : sorted) {
+            path.put(new JSONObject()
+                    .put("phase", phase.getKey())
+                    .put("millis", phase.getValue())
+                    .put("fraction", total == 0 ? 0
+                            : Math.round(1000.0 * phase.getValue() / total)
+                                    / 1000.0));
+        }
+        return path;
+    }
+
+    /**
+     * @param from first milestone
+     * @param to next milestone
+     * @return name of the stage between them
+     */
+    private static String stageName(final Milestone from, final Milestone to) {
+        return from.name().toLowerCase(Locale.ROOT) + "_to_"
+                + to.name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Summarize a histogram in milliseconds.
+     * @param histogram histogram, may be null
+     * @param perMilli recorded units per millisecond
+     * @return count, mean, percentiles and maximum
+     */
+    private static JSONObject summary(final LatencyHistogram histogram,
+                                      final double perMilli) {
+        JSONObject summary = new JSONObject();
+        if (histogram == null) {
+            return summary.put("count", 0);
+        }
+        return summary.put("count", histogram.getCount())
+                .put("mean", round(histogram.getMean() / perMilli))
+                .put("p50", round(histogram.getValueAtPercentile(50) / perMilli))
+                .put("p90", round(histogram.getValueAtPercentile(90) / perMilli))
+                .put("p99", round(histogram.getValueAtPercentile(99) / perMilli))
+                .put("max", round(histogram.getMax() / perMilli));
+    }
+
+    /**
+     * @param value value
+     * @return value rounded to three decimals
+     */
+    private static double round(final double value) {
+        return Math.round(value * 1000) / 1000.0;
+    }
+}
@@ -0,0 +1,146 @@
+package horizontal;
+
+/**
+ * Scaling parameters shared by every session and changeable while tests run.
+ *
+ * The values are one immutable snapshot published through a single
+ * volatile field, so a reader sees either every value of a change or none
+ * of them. Sessions take a snapshot on every tick, so a change applies from
+ * the next tick on, without restarting a test.
+ */
+public final class ScalingParameters {
+    /**
+     * Validated values of the parameters.
+     */
+    public static final class Values {
+        /**
+         * RPS target to stop provisioning.
+         */
+        private final float rpsTarget;
+        /**
+         * Cooldown between two scale-outs in milliseconds.
+         */
+        private final long launchDelayMillis;
+        /**
+         * Delay between two reads of the log in milliseconds.
+         */
+        private final long pollDelayMillis;
+
+        /**
+         * Constructor.
+         * @param rpsTarget RPS target to stop provisioning, positive and
+         *                  finite
+         * @param launchDelayMillis cooldown between two scale-outs, not
+         *                          negative
+         * @param pollDelayMillis delay between two reads of the log,
+         *                        positive
+         * @throws IllegalArgumentException on a value out of range
+         */
+        public Values(final float rpsTarget, final long launchDelayMillis,
+                      final long pollDelayMillis) {
+            if (!(rpsTarget > 0) || Float.isInfinite(rpsTarget)) {
+                throw new IllegalArgumentException(
+                        "rps_target must be positive and finite");
+            }
+            if (launchDelayMillis < 0) {
+                throw new IllegalArgumentException(
+                        "launch_delay_millis must not be negative");
+            }
+            if (pollDelayMillis <= 0) {
+                throw new IllegalArgumentException(
+                        "poll_delay_millis must be positive");
+            }
+            this.rpsTarget = rpsTarget;
+            this.launchDelayMillis = launchDelayMillis;
+            this.pollDelayMillis = pollDelayMillis;
+        }
+
+        /**
+         * @return RPS target to stop provisioning
+         */
+        public float getRpsTarget() {
+            return rpsTarget;
+        }
+
+        /**
+         * @return cooldown between two scale-outs in milliseconds
+         */
+        public long getLaunchDelayMillis() {
+            return launchDelayMillis;
+        }
+
+        /**
+         * @return delay between two reads of the log in milliseconds
+         */
+        public long getPollDelayMillis() {
+            return pollDelayMillis;
+        }
+
+        /**
+         * @param value RPS target to stop provisioning
+         * @return these values with another RPS target
+         */
+        public Values withRpsTarget(final float value) {
+            return new Values(value, launchDelayMillis, pollDelayMillis);
+        }
+
+        /**
+         * @param value cooldown between two scale-outs
+         * @return these values with another launch cooldown
+         */
+        public Values withLaunchDelayMillis(final long value) {
+            return new Values(rpsTarget, value, pollDelayMillis);
+        }
+
+        /**
+         * @param value delay between two reads of the log
+         * @return these values with another poll delay
+         */
+        public Values withPollDelayMillis(final long value) {
+            return new Values(rpsTarget, launchDelayMillis, value);
+        }
+
+        @Override
+        public String toString() {
+            return "rps_target=" + rpsTarget
+                    + "\nlaunch_delay_millis=" + launchDelayMillis
+                    + "\npoll_delay_millis=" + pollDelayMillis + "\n";
+        }
+    }
+
+    /**
+     * Current values.
+     */
+    private volatile Values values;
+
+    /**
+     * Constructor.
+     * @param rpsTarget RPS target to stop provisioning
+     * @param launchDelayMillis cooldown between two scale-outs
+     * @param pollDelayMillis delay between two reads of the log
+     */
+    public ScalingParameters(final float rpsTarget, final long launchDelayMillis,
+                             final long pollDelayMillis) {
+        values = new Values(rpsTarget, launchDelayMillis, pollDelayMillis);
+    }
+
+    /**
+     * @return current values, read together
+     */
+    public Values get() {
+        return values;
+    }
+
+    /**
+     * Replace every value at once.
+     * @param changed validated values
+     */
+    public void set(final Values changed) {
+        values = changed;
+    }
+
+    @Override
+    public String toString() {
+        return values.toString();
+    }
+}
@@ -0,0 +1,42 @@
+package horizontal;
+
+/**
+ * Decides how many Web Service instances to add after each cooldown.
+ */
+public interface ScalingPolicy {
+    /**
+     * Number of Web Service instances to launch now.
+     * @param log test log read so far
+     * @param fleetSize Web Service instances already registered
+     * @param target RPS target
+     * @return instances to launch, 0 for none
+     */
+    int instancesToAdd(TestLog log, int fleetSize, float target);
+
+    /**
+     * @return true when the policy keeps holding the target until the test
+     *         ends, false when reaching the target ends the session
+     */
+    default boolean isContinuous() {
+        return false;
+    }
+
+    /**
+     * Look up a policy by its configuration name.
+     * @param name "one-at-a-time", "capacity-model" or "target-tracking"
+     * @return scaling policy
+     */
+    static ScalingPolicy forName(final String name) {
+        switch (name) {
+            case OneAtATimePolicy.NAME:
+                return new OneAtATimePolicy();
+            case CapacityModelPolicy.NAME:
+                return new CapacityModelPolicy();
+            case TargetTrackingPolicy.NAME:
+                return new TargetTrackingPolicy();
+            default:
+                throw new IllegalArgumentException(
+                        "Unknown scaling policy " + name);
+        }
+    }
+}
@@ -0,0 +1,447 @@
+package horizontal;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Append-only journal of the sessions of a run, for recovery after the
+ * controller dies.
+ *
+ * The ID of the run, and every launch, Load Generator DNS name, test ID,
+ * registration and finished session is one JSON line, flushed to disk
+ * before the call returns. Replaying the lines rebuilds the state
+ * of every session. A line torn by a crash is dropped when the journal is
+ * opened again.
+ */
+public final class SessionJournal {
+    /**
+     * Record type of the run ID, which belongs to no session.
+     */
+    private static final String RUN = "run";
+    /**
+     * Record type of a launched instance.
+     */
+    private static final String LAUNCHED = "launched";
+    /**
+     * Record type of the Load Generator DNS name.
+     */
+    private static final String LOAD_GENERATOR = "load-generator";
+    /**
+     * Record type of a started test.
+     */
+    private static final String TEST = "test";
+    /**
+     * Record type of a registered Web Service.
+     */
+    private static final String REGISTERED = "registered";
+    /**
+     * Record type of a session whose instances are terminated.
+     */
+    private static final String FINISHED = "finished";
+
+    /**
+     * State of one session rebuilt from the journal.
+     */
+    public static final class Record {
+        /**
+         * Session name.
+         */
+        private final String session;
+        /**
+         * Instance ID of the Load Generator.
+         */
+        private String loadGeneratorId;
+        /**
+         * DNS Name of the Load Generator.
+         */
+        private String loadGeneratorDns;
+        /**
+         * Test ID.
+         */
+        private String testId;
+        /**
+         * Every instance launched or taken by the session.
+         */
+        private final Set<String> instanceIds = new LinkedHashSet<>();
+        /**
+         * Number of Web Services launched or taken.
+         */
+        private int webServiceLaunches;
+        /**
+         * Instance ID by DNS name of the registered Web Services.
+         */
+        private final Map<String, String> registered = new LinkedHashMap<>();
+        /**
+         * True once every instance of the session is terminated.
+         */
+        private boolean finished;
+
+        /**
+         * Constructor.
+         * @param session session name
+         */
+        Record(final String session) {
+            this.session = session;
+        }
+
+        /**
+         * @return session name
+         */
+        public String getSession() {
+            return session;
+        }
+
+        /**
+         * @return instance ID of the Load Generator, null if not launched
+         */
+        public String getLoadGeneratorId() {
+            return loadGeneratorId;
+        }
+
+        /**
+         * @return DNS Name of the Load Generator, null if not running yet
+         */
+        public String getLoadGeneratorDns() {
+            return loadGeneratorDns;
+        }
+
+        /**
+         * @return test ID, null if the test did not start
+         */
+        public String getTestId() {
+            return testId;
+        }
+
+        /**
+         * @return every instance launched or taken by the session
+         */
+        public Set<String> getInstanceIds() {
+            return Collections.unmodifiableSet(instanceIds);
+        }
+
+        /**
+         * @return number of Web Services launched or taken
+         */
+        public int getWebServiceLaunches() {
+            return webServiceLaunches;
+        }
+
+        /**
+         * @return instance ID by DNS name of the registered Web Services
+         */
+        public Map<String, String> getRegistered() {
+            return Collections.unmodifiableMap(registered);
+        }
+
+        /**
+         * @return true once every instance of the session is terminated
+         */
+        public boolean isFinished() {
+            return finished;
+        }
+
+        /**
+         * Apply one journal line.
+         * @param line journal line
+         */
+        private void apply(final JSONObject line) {
+            switch (line.getString("type")) {
+                case LAUNCHED:
+                    String instanceId = line.getString("instance");
+                    if (instanceIds.add(instanceId)) {
+                        if (line.getBoolean("load_generator")) {
+                            loadGeneratorId = instanceId;
+                        } else {
+                            webServiceLaunches++;
+                        }
+                    }
+                    break;
+                case LOAD_GENERATOR:
+                    loadGeneratorDns = line.getString("dns");
+                    break;
+                case TEST:
+                    testId = line.getString("test_id");
+                    break;
+                case REGISTERED:
+                    registered.put(line.getString("dns"),
+                            line.getString("instance"));
+                    break;
+                case FINISHED:
+                    finished = true;
+                    break;
+                default:
+                    throw new JSONException("Unknown record type "
+                            + line.getString("type"));
+            }
+        }
+    }
+
+    /**
+     * Journal file, null for a journal kept in memory only.
+     */
+    private final File file;
+    /**
+     * Channel appending to the file, null for a journal kept in memory.
+     */
+    private FileChannel channel;
+    /**
+     * State of every session, in order of first record.
+     */
+    private final Map<String, Record> sessions = new LinkedHashMap<>();
+    /**
+     * ID of the run the sessions belong to, null if not recorded.
+     */
+    private String runId;
+
+    /**
+     * Constructor.
+     * @param file journal file, null to keep the journal in memory only
+     */
+    private SessionJournal(final File file) {
+        this.file = file;
+    }
+
+    /**
+     * Open a journal and replay its records. A torn last line is cut off.
+     * @param file journal file, created if missing
+     * @return journal ready to append
+     * @throws IOException when the file cannot be read or opened
+     */
+    public static SessionJournal open(final File file) throws IOException {
+        SessionJournal journal = new SessionJournal(file);
+        long valid = 0;
+        if (file.exists()) {
+            valid = journal.replay(file);
+        }
+        journal.channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        if (journal.channel.size() > valid) {
+            System.out.println("Journal " + file + ": dropped "
+                    + (journal.channel.size() - valid) + " torn bytes");
+            journal.channel.truncate(valid);
+        }
+        journal.channel.position(valid);
+        return journal;
+    }
+
+    /**
+     * @return journal kept in memory only, for runs without a journal file
+     */
+    public static SessionJournal inMemory() {
+        return new SessionJournal(null);
+    }
+
+    /**
+     * Record the ID of the run, tagged on every instance it launches.
+     * @param id run ID
+     */
+    public void run(final String id) {
+        append(new JSONObject().put("type", RUN).put("run_id", id));
+    }
+
+    /**
+     * @return ID of the run, null if not recorded
+     */
+    public synchronized String getRunId() {
+        return runId;
+    }
+
+    /**
+     * Record an instance launched or taken by a session.
+     * @param session session name
+     * @param instanceId instance ID
+     * @param loadGenerator true for the Load Generator
+     */
+    public void launched(final String session, final String instanceId,
+                         final boolean loadGenerator) {
+        append(line(LAUNCHED, session).put("instance", instanceId)
+                .put("load_generator", loadGenerator));
+    }
+
+    /**
+     * Record the DNS Name of the Load Generator of a session.
+     * @param session session name
+     * @param dns DNS Name of the Load Generator
+     */
+    public void loadGenerator(final String session, final String dns) {
+        append(line(LOAD_GENERATOR, session).put("dns", dns));
+    }
+
+    /**
+     * Record the test ID of a session.
+     * @param session session name
+     * @param testId test ID
+     */
+    public void test(final String session, final String testId) {
+        append(line(TEST, session).put("test_id", testId));
+    }
+
+    /**
+     * Record a Web Service registered with the Load Generator.
+     * @param session session name
+     * @param dns DNS Name of the Web Service
+     * @param instanceId instance ID of the Web Service
+     */
+    public void registered(final String session, final String dns,
+                           final String instanceId) {
+        append(line(REGISTERED, session).put("dns", dns)
+                .put("instance", instanceId));
+    }
+
+    /**
+     * Record a session whose instances are all terminated.
+     * @param session session name
+     */
+    public void finished(final String session) {
+        append(line(FINISHED, session));
+    }
+
+    /**
+     * @return sessions whose instances may still be running
+     */
+    public synchronized List<Record> getUnfinished() {
+        List<Record> unfinished = new ArrayList<>();
+        for (Record record : sessions.values()) {
+            if (!record.finished) {
+                unfinished.add(record);
+            }
+        }
+        return unfinished;
+    }
+
+    /**
+     * Forget every record, to start a new run.
+     * @throws IOException when the file cannot be truncated
+     */
+    public synchronized void reset() throws IOException {
+        sessions.clear();
+        runId = null;
+        if (channel != null) {
+            channel.truncate(0);
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Close the journal and delete its file, once nothing is left to
+     * recover.
+     * @throws IOException when the file cannot be closed or deleted
+     */
+    public synchronized void delete() throws IOException {
+        close();
+        if (file != null) {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    /**
+     * Close the journal.
+     * @throws IOException when the file cannot be closed
+     */
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Start a journal line.
+     * @param type record type
+     * @param session session name
+     * @return line to complete
+     */
+    private static JSONObject line(final String type, final String session) {
+        return new JSONObject().put("type", type).put("session", session);
+    }
+
+    /**
+     * Apply a line and write it to disk before returning. A failed write is
+     * reported and the run goes on, as the test does not depend on it.
+     * @param line journal line
+     */
+    private synchronized void append(final JSONObject line) {
+        apply(line);
+        if (channel == null) {
+            return;
+        }
+        ByteBuffer bytes = ByteBuffer.wrap((line.toString() + "\n")
+                .getBytes(StandardCharsets.UTF_8));
+        try {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            // the file size is data to fdatasync, so the line is durable
+            channel.force(false);
+        } catch (IOException e) {
+            System.out.println("Journal write failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Apply a line to its session.
+     * @param line journal line
+     */
+    private void apply(final JSONObject line) {
+        if (RUN.equals(line.getString("type"))) {
+            runId = line.getString("run_id");
+            return;
+        }
+        String session = line.getString("session");
+        sessions.computeIfAbsent(session, Record::new).apply(line);
+    }
+
+    /**
+     * Replay the complete lines of a journal file.
+     * @param journalFile journal file
+     * @return length of the complete lines in bytes
+     * @throws IOException when the file cannot be read or a line before
+     *         the last one is corrupt
+     */
+    private long replay(final File journalFile) throws IOException {
+        long valid = 0;
+        try (FileChannel in = FileChannel.open(journalFile.toPath(),
+                StandardOpenOption.READ);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(
+                     Channels.newInputStream(in), StandardCharsets.UTF_8))) {
+            long size = in.size();
+            String text;
+            int number = 0;
+            while ((text = reader.readLine()) != null) {
+                number++;
+                long end = valid + text.getBytes(StandardCharsets.UTF_8).length
+                        + 1;
+                if (end > size) {
+                    // no newline: the crash tore the last line
+                    break;
+                }
+                try {
+                    apply(new JSONObject(text));
+                } catch (JSONException e) {
+                    throw new IOException("Corrupt journal line " + number
+                            + " of " + journalFile + ": " + e.getMessage(), e);
+                }
+                valid = end;
+            }
+        }
+        return valid;
+    }
+}
@@ -0,0 +1,283 @@
+package horizontal;
+
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.amazonaws.services.ec2.model.Filter;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.InstanceStateName;
+import com.amazonaws.services.ec2.model.Reservation;
+import utilities.HttpClient;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Rebuilds the sessions of a run that died from its {@link SessionJournal}
+ * and checks them against EC2.
+ *
+ * Every live instance tagged with the run ID of the journal is found with
+ * one describe call, along with the live instances the journal lists. A
+ * session is resumed when its Load Generator is still running and its test
+ * log still grows; every other instance of the run, including ones
+ * launched right before the crash and never journaled, is terminated in
+ * one batch. The Project tag alone is never enough: other controllers
+ * sharing the account carry it too.
+ */
+public final class SessionRecovery {
+    /**
+     * Instances returned per describe page.
+     */
+    private static final int PAGE_SIZE = 1000;
+    /**
+     * States of an instance that is not shut down.
+     */
+    private static final List<String> LIVE_STATES = Arrays.asList(
+            InstanceStateName.Pending.toString(),
+            InstanceStateName.Running.toString());
+
+    /**
+     * Session that can go on with its fleet.
+     */
+    public static final class Resumption {
+        /**
+         * Journal state of the session.
+         */
+        private final SessionJournal.Record record;
+        /**
+         * Public DNS name by instance ID of its live instances, empty while
+         * an instance has none yet.
+         */
+        private final Map<String, String> liveInstances;
+        /**
+         * DNS names of the Web Services already in the test log.
+         */
+        private final Set<String> dnsInLog;
+
+        /**
+         * Constructor.
+         * @param record journal state of the session
+         * @param liveInstances public DNS name by ID of its live instances
+         * @param dnsInLog DNS names of the Web Services in the test log
+         */
+        Resumption(final SessionJournal.Record record,
+                   final Map<String, String> liveInstances,
+                   final Set<String> dnsInLog) {
+            this.record = record;
+            this.liveInstances = liveInstances;
+            this.dnsInLog = dnsInLog;
+        }
+
+        /**
+         * @return journal state of the session
+         */
+        public SessionJournal.Record getRecord() {
+            return record;
+        }
+
+        /**
+         * @return public DNS name by instance ID of its live instances
+         */
+        public Map<String, String> getLiveInstances() {
+            return Collections.unmodifiableMap(liveInstances);
+        }
+
+        /**
+         * @return DNS names of the Web Services already in the test log
+         */
+        public Set<String> getDnsInLog() {
+            return Collections.unmodifiableSet(dnsInLog);
+        }
+    }
+
+    /**
+     * EC2 client.
+     */
+    private final AmazonEC2 ec2;
+    /**
+     * Batcher terminating what is not resumed.
+     */
+    private final Ec2Batcher batcher;
+    /**
+     * Journal of the run that died.
+     */
+    private final SessionJournal journal;
+    /**
+     * Client of the test log checks.
+     */
+    private final HttpClient httpClient;
+    /**
+     * Termination of what is not resumed, set by {@link #recover(boolean)}.
+     */
+    private CompletableFuture<Void> termination =
+            CompletableFuture.completedFuture(null);
+
+    /**
+     * Constructor.
+     * @param ec2 EC2 client
+     * @param batcher batcher terminating what is not resumed
+     * @param journal journal of the run that died
+     * @param httpClient client of the test log checks
+     */
+    public SessionRecovery(final AmazonEC2 ec2, final Ec2Batcher batcher,
+                           final SessionJournal journal,
+                           final HttpClient httpClient) {
+        this.ec2 = ec2;
+        this.batcher = batcher;
+        this.journal = journal;
+        this.httpClient = httpClient;
+    }
+
+    /**
+     * Sort the unfinished sessions into resumed and torn down, and start
+     * terminating every live instance that is not resumed. Torn down
+     * sessions are journaled as finished once their instances are gone.
+     * @param resume false to tear every session down
+     * @return sessions to resume
+     */
+    public List<Resumption> recover(final boolean resume) {
+        Map<String, String> live = findLiveInstances();
+        System.out.println("Recovery: " + live.size()
+                + " live instances of run " + journal.getRunId());
+        List<Resumption> resumptions = new ArrayList<>();
+        List<String> tornDown = new ArrayList<>();
+        Set<String> kept = new HashSet<>();
+        for (SessionJournal.Record record : journal.getUnfinished()) {
+            Resumption resumption = resume ? check(record, live) : null;
+            if (resumption == null) {
+                System.out.println("Session " + record.getSession()
+                        + " will be torn down");
+                tornDown.add(record.getSession());
+            } else {
+                System.out.println("Session " + record.getSession()
+                        + " resumes test " + record.getTestId() + " with "
+                        + resumption.liveInstances.size() + " instances");
+                resumptions.add(resumption);
+                kept.addAll(resumption.liveInstances.keySet());
+            }
+        }
+        List<String> doomed = new ArrayList<>();
+        for (String instanceId : live.keySet()) {
+            if (!kept.contains(instanceId)) {
+                doomed.add(instanceId);
+            }
+        }
+        System.out.println("Recovery: terminating " + doomed.size()
+                + " instances");
+        termination = batcher.terminate(doomed).thenRun(() -> {
+            for (String session : tornDown) {
+                journal.finished(session);
+            }
+        });
+        return resumptions;
+    }
+
+    /**
+     * @return future completed once every instance that is not resumed is
+     *         terminated
+     */
+    public CompletableFuture<Void> getTermination() {
+        return termination;
+    }
+
+    /**
+     * Check whether a session can go on.
+     * @param record journal state of the session
+     * @param live public DNS name by ID of every live instance
+     * @return resumption, null when the session must be torn down
+     */
+    private Resumption check(final SessionJournal.Record record,
+                             final Map<String, String> live) {
+        String lgDns = record.getLoadGeneratorDns();
+        if (record.getTestId() == null || lgDns == null
+                || !lgDns.equals(live.get(record.getLoadGeneratorId()))) {
+            return null;
+        }
+        TestLog log;
+        try {
+            log = new LogTailer(httpClient, lgDns, record.getTestId()).poll();
+        } catch (IOException e) {
+            System.out.println("Session " + record.getSession()
+                    + ": test log unreachable: " + e.getMessage());
+            return null;
+        }
+        if (log.isFinished()) {
+            return null;
+        }
+        Map<String, String> instances = new LinkedHashMap<>();
+        for (String instanceId : record.getInstanceIds()) {
+            if (live.containsKey(instanceId)) {
+                instances.put(instanceId, live.get(instanceId));
+            }
+        }
+        Set<String> dnsInLog = new HashSet<>();
+        for (MinuteSection minute : log.getMinutes()) {
+            dnsInLog.addAll(minute.getInstanceRps().keySet());
+        }
+        return new Resumption(record, instances, dnsInLog);
+    }
+
+    /**
+     * Find every instance of the run that is not shut down: the ones tagged
+     * with its run ID, and the ones the journal lists.
+     * @return public DNS name by instance ID, empty while none is assigned
+     */
+    private Map<String, String> findLiveInstances() {
+        Map<String, String> live = new LinkedHashMap<>();
+        String runId = journal.getRunId();
+        if (runId != null) {
+            DescribeInstancesRequest request = new DescribeInstancesRequest()
+                    .withFilters(
+                            new Filter("tag:" + ProvisioningPipeline.PROJECT_KEY,
+                                    Collections.singletonList(
+                                            LoadGenerator.PROJECT_VALUE)),
+                            new Filter("tag:" + ProvisioningPipeline.RUN_KEY,
+                                    Collections.singletonList(runId)),
+                            new Filter("instance-state-name", LIVE_STATES))
+                    .withMaxResults(PAGE_SIZE);
+            String nextToken;
+            do {
+                DescribeInstancesResult response = ec2.describeInstances(request);
+                for (Reservation reservation : response.getReservations()) {
+                    for (Instance instance : reservation.getInstances()) {
+                        putLive(live, instance);
+                    }
+                }
+                nextToken = response.getNextToken();
+                request.setNextToken(nextToken);
+            } while (nextToken != null && !nextToken.isEmpty());
+        }
+        // journaled instances are looked up by ID too, in case one lacks
+        // the tag
+        Set<String> journaled = new HashSet<>();
+        for (SessionJournal.Record record : journal.getUnfinished()) {
+            journaled.addAll(record.getInstanceIds());
+        }
+        journaled.removeAll(live.keySet());
+        for (Instance instance : InstanceTracker.describe(ec2, journaled)) {
+            if (LIVE_STATES.contains(instance.getState().getName())) {
+                putLive(live, instance);
+            }
+        }
+        return live;
+    }
+
+    /**
+     * Add a live instance with its public DNS name.
+     * @param live public DNS name by instance ID
+     * @param instance instance
+     */
+    private static void putLive(final Map<String, String> live,
+                                final Instance instance) {
+        String dns = instance.getPublicDnsName();
+        live.put(instance.getInstanceId(), dns == null ? "" : dns);
+    }
+}
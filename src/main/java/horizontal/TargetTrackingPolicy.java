@@ -0,0 +1,133 @@
+package horizontal;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the fleet RPS at or above the target for as long as the test runs,
+ * scaling out whenever it falls below.
+ *
+ * The RPS of one instance is smoothed over the complete minute sections
+ * with an exponentially weighted moving average, leaving out the first,
+ * partial minute of every instance. A scale-out aims at the fleet size
+ * whose smoothed RPS reaches the middle of a band above the target, so a
+ * small dip does not cost one launch per cooldown. The policy never scales
+ * in: the Load Generator has no documented call to take a Web Service out
+ * of a running test.
+ */
+public final class TargetTrackingPolicy implements ScalingPolicy {
+    /**
+     * Configuration name.
+     */
+    static final String NAME = "target-tracking";
+    /**
+     * Default upper bound of a single step.
+     */
+    private static final int DEFAULT_MAX_STEP = 5;
+
+    /**
+     * Width of the band above the target, as a fraction of it.
+     */
+    private final float band;
+    /**
+     * Weight of the latest minute in the moving average.
+     */
+    private final float smoothing;
+    /**
+     * Upper bound of a single step.
+     */
+    private final int maxStep;
+    /**
+     * DNS names seen in an earlier minute section.
+     */
+    private final Set<String> seen = new HashSet<>();
+    /**
+     * Complete minute sections already consumed from the log.
+     */
+    private int consumed;
+    /**
+     * Smoothed RPS of one instance, NaN before the first sample.
+     */
+    private float instanceRps = Float.NaN;
+
+    /**
+     * Constructor with the configured band and smoothing.
+     */
+    public TargetTrackingPolicy() {
+        this(LoadGenerator.Settings.TRACKING_BAND,
+                LoadGenerator.Settings.TRACKING_SMOOTHING, DEFAULT_MAX_STEP);
+    }
+
+    /**
+     * Constructor.
+     * @param band width of the band above the target, e.g. 0.2
+     * @param smoothing weight of the latest minute, in (0, 1]
+     * @param maxStep maximum number of instances added at once
+     */
+    public TargetTrackingPolicy(final float band, final float smoothing,
+                                final int maxStep) {
+        if (!(band > 0) || !(smoothing > 0) || smoothing > 1) {
+            throw new IllegalArgumentException(
+                    "Need a positive band and a smoothing in (0, 1]");
+        }
+        this.band = band;
+        this.smoothing = smoothing;
+        this.maxStep = maxStep;
+    }
+
+    @Override
+    public synchronized int instancesToAdd(final TestLog log,
+                                           final int fleetSize,
+                                           final float target) {
+        update(log);
+        if (Float.isNaN(instanceRps) || instanceRps <= 0) {
+            return log.getCurrentRps() < target ? 1 : 0;
+        }
+        if (instanceRps * fleetSize >= target) {
+            return 0;
+        }
+        return Math.max(1, Math.min(fleetFor(target) - fleetSize, maxStep));
+    }
+
+    @Override
+    public boolean isContinuous() {
+        return true;
+    }
+
+    /**
+     * Smallest fleet whose smoothed RPS reaches the middle of the band.
+     * @param target RPS target
+     * @return number of instances
+     */
+    private int fleetFor(final float target) {
+        return (int) Math.ceil(target * (1 + band / 2) / instanceRps);
+    }
+
+    /**
+     * Fold the minute sections completed since the last call into the
+     * moving average.
+     * @param log test log
+     */
+    private void update(final TestLog log) {
+        List<MinuteSection> minutes = log.getMinutes();
+        while (consumed < minutes.size() && minutes.get(consumed).isComplete()) {
+            float sum = 0;
+            int samples = 0;
+            for (Map.Entry<String, Float> instance
+                    : minutes.get(consumed++).getInstanceRps().entrySet()) {
+                // the first minute of an instance is only partly served
+                if (!seen.add(instance.getKey())) {
+                    sum += instance.getValue();
+                    samples++;
+                }
+            }
+            if (samples > 0) {
+                float mean = sum / samples;
+                instanceRps = Float.isNaN(instanceRps) ? mean
+                        : smoothing * mean + (1 - smoothing) * instanceRps;
+            }
+        }
+    }
+}
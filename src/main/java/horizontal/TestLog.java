@@ -0,0 +1,149 @@
+package horizontal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * In-memory model of a horizontal scaling test log, built line by line.
+ *
+ * Only the parts the control loop needs are kept: the minute sections,
+ * the test ID and whether "[Test finished]" has been seen.
+ */
+public final class TestLog {
+    /**
+     * Prefix of a minute section name.
+     */
+    private static final String MINUTE_PREFIX = "Minute ";
+    /**
+     * Prefix of an aggregate RPS section name.
+     */
+    private static final String CURRENT_RPS_PREFIX = "Current rps=";
+    /**
+     * Section marking the end of the test.
+     */
+    private static final String TEST_FINISHED = "Test finished";
+    /**
+     * Section holding the test properties.
+     */
+    private static final String TEST_SECTION = "Test";
+
+    /**
+     * Minute sections in log order.
+     */
+    private final List<MinuteSection> minutes = new ArrayList<>();
+    /**
+     * Name of the section being read.
+     */
+    private String section;
+    /**
+     * Minute section being read, null outside minute sections.
+     */
+    private MinuteSection minute;
+    /**
+     * Test ID from the [Test] section.
+     */
+    private String testId;
+    /**
+     * True once "[Test finished]" has been read.
+     */
+    private boolean finished;
+
+    /**
+     * Parse one complete log line.
+     * @param rawLine line without its terminator
+     */
+    public void accept(final String rawLine) {
+        String line = rawLine.trim();
+        if (line.isEmpty() || line.startsWith(";")) {
+            return;
+        }
+        if (line.startsWith("[") && line.endsWith("]")) {
+            acceptSection(line.substring(1, line.length() - 1));
+            return;
+        }
+        int separator = line.indexOf('=');
+        if (separator < 0) {
+            return;
+        }
+        String key = line.substring(0, separator);
+        String value = line.substring(separator + 1);
+        if (minute != null) {
+            try {
+                minute.putInstanceRps(key, Float.parseFloat(value));
+            } catch (NumberFormatException e) {
+                System.out.println("Ignoring log line " + line);
+            }
+        } else if (TEST_SECTION.equals(section) && "testId".equals(key)) {
+            testId = value;
+        }
+    }
+
+    /**
+     * Handle a section header. A minute or RPS header whose number does not
+     * parse is ignored, and so are the lines under it.
+     * @param name section name without brackets
+     */
+    private void acceptSection(final String name) {
+        section = name;
+        minute = null;
+        try {
+            if (name.startsWith(CURRENT_RPS_PREFIX)) {
+                float currentRps = Float.parseFloat(
+                        name.substring(CURRENT_RPS_PREFIX.length()));
+                if (!minutes.isEmpty()) {
+                    minutes.get(minutes.size() - 1).setCurrentRps(currentRps);
+                }
+            } else if (name.startsWith(MINUTE_PREFIX)) {
+                minute = new MinuteSection(Integer.parseInt(
+                        name.substring(MINUTE_PREFIX.length()).trim()));
+                minutes.add(minute);
+            } else if (TEST_FINISHED.equals(name)) {
+                finished = true;
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Ignoring log section [" + name + "]");
+        }
+    }
+
+    /**
+     * @return minute sections in log order
+     */
+    public List<MinuteSection> getMinutes() {
+        return Collections.unmodifiableList(minutes);
+    }
+
+    /**
+     * @return latest complete minute section, null if none yet
+     */
+    public MinuteSection getLatestMinute() {
+        for (int i = minutes.size() - 1; i >= 0; i--) {
+            if (minutes.get(i).isComplete()) {
+                return minutes.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return latest aggregate RPS, 0 before the first minute
+     */
+    public float getCurrentRps() {
+        MinuteSection latest = getLatestMinute();
+        return latest == null ? 0 : latest.getCurrentRps();
+    }
+
+    /**
+     * @return test ID, null if not read yet
+     */
+    public String getTestId() {
+        return testId;
+    }
+
+    /**
+     * @return true once the test has finished
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+}
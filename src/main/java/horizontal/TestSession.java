@@ -0,0 +1,944 @@
+package horizontal;
+
+import com.amazonaws.services.ec2.model.RunInstancesRequest;
+import com.amazonaws.services.ec2.model.Tag;
+import utilities.Clock;
+import utilities.HttpClient;
+import utilities.HttpRequest;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One horizontal scaling test, driven as a state machine on shared timers.
+ *
+ * No thread blocks while the test waits: launches, readiness probes and
+ * registrations are futures, and the control tick is a timer that
+ * reschedules itself once its log poll has been handled. Log polls,
+ * instance boots and registrations therefore overlap, and several sessions
+ * can share one scheduler, executor, pipeline and prober. EC2 mutations go
+ * through a shared {@link Ec2Batcher}, so teardown is one termination call
+ * for the whole session. Phases and instance milestones are recorded in
+ * the {@link RunTimings} of the run, and every launch, registration and the
+ * test ID are written ahead to the {@link SessionJournal}, so a restarted
+ * controller can resume the session on its fleet.
+ */
+public final class TestSession {
+    /**
+     * Test ID Tag key.
+     */
+    public static final String TEST_ID_KEY = "TestId";
+    /**
+     * Phase while waiting between two scale-outs.
+     */
+    private static final String COOLDOWN_PHASE = "cooldown";
+    /**
+     * Phase while a scale-out is registering.
+     */
+    private static final String SCALING_OUT_PHASE = "scaling_out";
+
+    /**
+     * Lifecycle of a session.
+     */
+    public enum State {
+        /**
+         * Not started yet.
+         */
+        NEW,
+        /**
+         * Load Generator and first Web Service booting.
+         */
+        LAUNCHING,
+        /**
+         * Starting the test on the Load Generator.
+         */
+        STARTING,
+        /**
+         * Test running, fleet scaled on every tick.
+         */
+        SCALING,
+        /**
+         * Terminating the instances of the session.
+         */
+        TEARING_DOWN,
+        /**
+         * Done.
+         */
+        FINISHED,
+        /**
+         * Done after an error.
+         */
+        FAILED
+    }
+
+    /**
+     * Name of the session in log lines.
+     */
+    private final String name;
+    /**
+     * Batcher of EC2 mutations.
+     */
+    private final Ec2Batcher batcher;
+    /**
+     * Clock of the control loop.
+     */
+    private final Clock clock;
+    /**
+     * Timer of the ticks and retry delays.
+     */
+    private final ScheduledExecutorService scheduler;
+    /**
+     * Threads making HTTP and EC2 calls.
+     */
+    private final ExecutorService executor;
+    /**
+     * Client of the Load Generator calls.
+     */
+    private final HttpClient http;
+    /**
+     * Provisioning pipeline.
+     */
+    private final ProvisioningPipeline pipeline;
+    /**
+     * Readiness prober.
+     */
+    private final ReadinessProber prober;
+    /**
+     * Warm-up of new Web Services before registration.
+     */
+    private final WarmUp warmUp;
+    /**
+     * Scaling policy.
+     */
+    private final ScalingPolicy scalingPolicy;
+    /**
+     * Target, cooldown and poll interval, read on every tick.
+     */
+    private final ScalingParameters parameters;
+    /**
+     * Number of pre-booted Web Service instances.
+     */
+    private final int warmPoolSize;
+    /**
+     * Launch request of the Load Generator.
+     */
+    private final RunInstancesRequest loadGeneratorRequest;
+    /**
+     * Instance types of the Web Services.
+     */
+    private final FleetPlan fleetPlan;
+    /**
+     * Timeline of the run.
+     */
+    private final RunTimings timings;
+    /**
+     * Journal of the run.
+     */
+    private final SessionJournal journal;
+    /**
+     * Archive of the complete minutes, null when disabled.
+     */
+    private final LogArchive archive;
+    /**
+     * Minutes of the log handed to the archive so far.
+     */
+    private int archivedMinutes;
+    /**
+     * Web Services launched so far, the index of the next one in the plan.
+     */
+    private final AtomicInteger webServiceLaunches = new AtomicInteger();
+    /**
+     * Completed once the session is torn down.
+     */
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+    /**
+     * Instance ID of every instance launched or taken by the session.
+     */
+    private final List<CompletableFuture<String>> owned =
+            new CopyOnWriteArrayList<>();
+    /**
+     * Instance ID by public DNS name of the registered Web Services.
+     */
+    private final Map<String, String> instanceIdByDns = new LinkedHashMap<>();
+    /**
+     * Requests cancelled on teardown.
+     */
+    private final Set<CompletableFuture<?>> inFlight =
+            ConcurrentHashMap.newKeySet();
+    /**
+     * Per-instance RPS history.
+     */
+    private final InstanceRpsSeries rpsSeries = new InstanceRpsSeries();
+    /**
+     * Warm-up curve of the Web Services, learned from rpsSeries.
+     */
+    private final WarmUpCurve warmUpCurve = new WarmUpCurve();
+    /**
+     * Outlier detector, null when replacement is disabled.
+     */
+    private final OutlierDetector outlierDetector;
+    /**
+     * Web Services launched or taken and not registered or given up yet.
+     */
+    private final AtomicInteger pendingLaunches = new AtomicInteger();
+    /**
+     * Current state.
+     */
+    private volatile State state = State.NEW;
+    /**
+     * RPS of the latest minute, as of the latest tick.
+     */
+    private volatile float currentRps;
+    /**
+     * RPS by Web Service DNS in the latest complete minute.
+     */
+    private volatile Map<String, Float> instanceRps = Collections.emptyMap();
+    /**
+     * DNS Name of the Load Generator.
+     */
+    private volatile String loadGeneratorDNS;
+    /**
+     * Test ID.
+     */
+    private volatile String testId;
+    /**
+     * Tailer of the test log.
+     */
+    private volatile LogTailer logTailer;
+    /**
+     * Warm pool of the session.
+     */
+    private volatile WarmPool warmPool;
+    /**
+     * Time the last scale-out finished registering.
+     */
+    private long lastLaunchTime;
+    /**
+     * True while a scale-out is registering.
+     */
+    private boolean scalingOut;
+    /**
+     * True while the replacement of an outlier is registering.
+     */
+    private boolean replacing;
+
+    /**
+     * Constructor.
+     * @param name name of the session in log lines
+     * @param batcher batcher of EC2 mutations
+     * @param clock clock of the control loop
+     * @param scheduler timer shared by the sessions
+     * @param executor threads making HTTP and EC2 calls
+     * @param http client of the Load Generator calls
+     * @param pipeline provisioning pipeline
+     * @param prober readiness prober
+     * @param warmUp warm-up of new Web Services before registration
+     * @param scalingPolicy scaling policy
+     * @param parameters target, cooldown and poll interval, read on every tick
+     * @param warmPoolSize number of pre-booted Web Service instances
+     * @param fleetPlan instance types of the Web Services
+     * @param timings timeline of the run
+     * @param journal journal of the run
+     * @param archive archive of the complete minutes, null to disable it
+     */
+    public TestSession(final String name, final Ec2Batcher batcher,
+                       final Clock clock,
+                       final ScheduledExecutorService scheduler,
+                       final ExecutorService executor,
+                       final HttpClient http,
+                       final ProvisioningPipeline pipeline,
+                       final ReadinessProber prober,
+                       final WarmUp warmUp,
+                       final ScalingPolicy scalingPolicy,
+                       final ScalingParameters parameters,
+                       final int warmPoolSize,
+                       final FleetPlan fleetPlan,
+                       final RunTimings timings,
+                       final SessionJournal journal,
+                       final LogArchive archive) {
+        this.name = name;
+        this.batcher = batcher;
+        this.clock = clock;
+        this.scheduler = scheduler;
+        this.executor = executor;
+        this.http = http;
+        this.pipeline = pipeline;
+        this.prober = prober;
+        this.warmUp = warmUp;
+        this.scalingPolicy = scalingPolicy;
+        this.parameters = parameters;
+        this.warmPoolSize = warmPoolSize;
+        this.loadGeneratorRequest = LoadGenerator.loadGeneratorRequest();
+        this.fleetPlan = fleetPlan;
+        this.timings = timings;
+        this.journal = journal;
+        this.archive = archive;
+        float outlierFraction = LoadGenerator.Settings.OUTLIER_FRACTION;
+        this.outlierDetector = outlierFraction > 0
+                ? new OutlierDetector(outlierFraction) : null;
+    }
+
+    /**
+     * Launch the Load Generator and first Web Service in parallel, then run
+     * the test.
+     * @return future completed once the session is torn down
+     */
+    public CompletableFuture<Void> start() {
+        transition(State.NEW, State.LAUNCHING);
+        ProvisioningPipeline.Launch loadGenerator =
+                pipeline.launch(loadGeneratorRequest);
+        ProvisioningPipeline.Launch webService =
+                pipeline.launch(nextWebServiceRequest());
+        own(loadGenerator.getInstanceId(), true);
+        own(webService.getInstanceId(), false);
+        webService.getInstanceId().thenAccept(System.out::println);
+
+        //  Authenticate as soon as the Load Generator is up, while the
+        //  Web Service may still be booting
+        CompletableFuture<String> authenticated = loadGenerator
+                .getPublicDnsName().thenCompose(dns -> {
+                    System.out.println("Load Generator DNS is");
+                    System.out.println(dns);
+                    loadGeneratorDNS = dns;
+                    journal.loadGenerator(name, dns);
+                    return authenticate(dns).thenApply(response -> dns);
+                });
+        CompletableFuture<String> webServiceReady = webService
+                .getPublicDnsName().thenCompose(prober::whenReady)
+                .thenCompose(warmUp::whenWarm);
+
+        authenticated.thenCombine(webServiceReady, (lgDns, wsDns) -> {
+            System.out.println("Load Generator DNS authentication passed");
+            String wsId = webService.getInstanceId().join();
+            synchronized (this) {
+                instanceIdByDns.put(wsDns, wsId);
+            }
+            journal.registered(name, wsDns, wsId);
+            // the test starts with the first Web Service registered
+            timings.mark(wsId, RunTimings.Milestone.REGISTERING);
+            System.out.println("Web Server DNS is");
+            System.out.println(wsDns);
+            transition(State.LAUNCHING, State.STARTING);
+            return wsDns;
+        }).thenCompose(this::initializeTest)
+                .thenAccept(this::startScaling)
+                .exceptionally(e -> {
+                    tearDown(e);
+                    return null;
+                });
+        return completion;
+    }
+
+    /**
+     * Resume a test left running by a controller that died: adopt the live
+     * instances of the session, register the Web Services that never made
+     * it into the test, and go on scaling.
+     * @param resumption session state rebuilt from the journal
+     * @return future completed once the session is torn down
+     */
+    public CompletableFuture<Void> resume(
+            final SessionRecovery.Resumption resumption) {
+        transition(State.NEW, State.STARTING);
+        SessionJournal.Record record = resumption.getRecord();
+        loadGeneratorDNS = record.getLoadGeneratorDns();
+        testId = record.getTestId();
+        webServiceLaunches.set(record.getWebServiceLaunches());
+        List<String> unregistered = new ArrayList<>();
+        synchronized (this) {
+            for (Map.Entry<String, String> instance
+                    : resumption.getLiveInstances().entrySet()) {
+                String instanceId = instance.getKey();
+                String dns = instance.getValue();
+                owned.add(CompletableFuture.completedFuture(instanceId));
+                if (instanceId.equals(record.getLoadGeneratorId())) {
+                    continue;
+                }
+                if (record.getRegistered().containsValue(instanceId)) {
+                    instanceIdByDns.put(dns, instanceId);
+                } else if (!dns.isEmpty()
+                        && resumption.getDnsInLog().contains(dns)) {
+                    // registered right before the crash, never journaled
+                    instanceIdByDns.put(dns, instanceId);
+                    journal.registered(name, dns, instanceId);
+                } else {
+                    unregistered.add(instanceId);
+                }
+            }
+            scalingOut = !unregistered.isEmpty();
+        }
+        beginScaling();
+        if (!unregistered.isEmpty()) {
+            System.out.println("Registering " + unregistered.size()
+                    + " web service instances launched before the restart");
+            timings.enterPhase(name, SCALING_OUT_PHASE);
+            List<CompletableFuture<Boolean>> registrations = new ArrayList<>();
+            for (String instanceId : unregistered) {
+                registrations.add(pipeline.whenDns(instanceId)
+                        .thenCompose(prober::whenReady)
+                        .thenCompose(warmUp::whenWarm)
+                        .thenCompose(dns -> register(dns, instanceId)));
+            }
+            settle(registrations).thenRun(this::finishScaleOut);
+        }
+        return completion;
+    }
+
+    /**
+     * @return name of the session in log lines
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return current state
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return RPS of the latest minute, as of the latest tick
+     */
+    public float getCurrentRps() {
+        return currentRps;
+    }
+
+    /**
+     * @return RPS by Web Service DNS in the latest complete minute
+     */
+    public Map<String, Float> getInstanceRps() {
+        return instanceRps;
+    }
+
+    /**
+     * @return Web Services registered with the Load Generator
+     */
+    public synchronized int getFleetSize() {
+        return instanceIdByDns.size();
+    }
+
+    /**
+     * @return DNS names of the Web Services registered with the Load
+     *         Generator
+     */
+    public synchronized List<String> getRegisteredDns() {
+        return new ArrayList<>(instanceIdByDns.keySet());
+    }
+
+    /**
+     * @return Web Services launched or taken and not registered yet
+     */
+    public int getPendingLaunches() {
+        return pendingLaunches.get();
+    }
+
+    /**
+     * @return time since the last scale-out finished, or since scaling
+     *         started, in milliseconds; -1 before scaling starts
+     */
+    public synchronized long getMillisSinceScaleOut() {
+        return lastLaunchTime == 0 ? -1
+                : clock.currentTimeMillis() - lastLaunchTime;
+    }
+
+    /**
+     * @return test ID, null until the test starts
+     */
+    public String getTestId() {
+        return testId;
+    }
+
+    /**
+     * @return future completed once the session is torn down
+     */
+    public CompletableFuture<Void> getCompletion() {
+        return completion;
+    }
+
+    /**
+     * Supply the Load Generator with TPZ credentials.
+     * @param lgDns DNS Name of the Load Generator
+     * @return future completed with the response
+     */
+    private CompletableFuture<String> authenticate(final String lgDns) {
+        return get(LoadGenerator.authenticationUrl(lgDns));
+    }
+
+    /**
+     * Start the test with the first Web Service.
+     * @param wsDns DNS Name of the Web Service
+     * @return future completed with the test ID
+     */
+    private CompletableFuture<String> initializeTest(final String wsDns) {
+        return get(LoadGenerator.testUrl(loadGeneratorDNS, wsDns))
+                .thenApply(response -> {
+                    System.out.println("Test Initialized");
+                    String id = LoadGenerator.getTestId(response);
+                    System.out.println("test id is");
+                    System.out.println(id);
+                    return id;
+                });
+    }
+
+    /**
+     * Enter the scaling state: fill the warm pool and start ticking.
+     * @param id test ID
+     */
+    private void startScaling(final String id) {
+        testId = id;
+        journal.test(name, id);
+        // only the Load Generator and first Web Service are owned so far
+        for (CompletableFuture<String> instanceId : owned) {
+            tagTestId(instanceId.join());
+        }
+        beginScaling();
+    }
+
+    /**
+     * Fill the warm pool and start ticking on the test of {@link #testId}.
+     */
+    private void beginScaling() {
+        logTailer = new LogTailer(http, loadGeneratorDNS,
+                testId);
+        synchronized (this) {
+            lastLaunchTime = clock.currentTimeMillis();
+            for (String instanceId : instanceIdByDns.values()) {
+                timings.mark(instanceId, RunTimings.Milestone.REGISTERED);
+            }
+        }
+        //Boot standby Web Services during the cooldown
+        warmPool = new WarmPool(pipeline, prober, warmUp,
+                this::nextWebServiceRequest, warmPoolSize, clock);
+        warmPool.fill();
+        transition(State.STARTING, State.SCALING);
+        scheduleTick(0);
+    }
+
+    /**
+     * Schedule the next control tick on the executor.
+     * @param delayMillis delay on the session clock
+     */
+    private void scheduleTick(final long delayMillis) {
+        try {
+            scheduler.schedule(() -> executor.execute(this::tick),
+                    clock.toRealMillis(delayMillis), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            tearDown(e);
+        }
+    }
+
+    /**
+     * Poll the log, decide, and schedule the next tick. A tick that fails
+     * unexpectedly tears the session down rather than leave its instances
+     * running with nothing ticking.
+     */
+    private void tick() {
+        if (state != State.SCALING) {
+            return;
+        }
+        try {
+            // one snapshot, so a change made during the tick applies whole
+            ScalingParameters.Values values = parameters.get();
+            TestLog testLog;
+            try {
+                testLog = logTailer.poll();
+            } catch (IOException e) {
+                System.out.println("Log poll failed: " + e.getMessage());
+                scheduleTick(values.getPollDelayMillis());
+                return;
+            }
+            publish(testLog);
+            if (decide(testLog, values)) {
+                scheduleTick(values.getPollDelayMillis());
+            } else {
+                tearDown(null);
+            }
+        } catch (RuntimeException e) {
+            tearDown(e);
+        }
+    }
+
+    /**
+     * Publish the metrics of the latest log and archive the minutes
+     * completed since the previous tick.
+     * @param testLog latest log
+     */
+    private void publish(final TestLog testLog) {
+        currentRps = testLog.getCurrentRps();
+        List<MinuteSection> minutes = testLog.getMinutes();
+        while (archivedMinutes < minutes.size()
+                && minutes.get(archivedMinutes).isComplete()) {
+            if (archive != null) {
+                try {
+                    archive.append(testId, clock.currentTimeMillis(),
+                            minutes.get(archivedMinutes));
+                } catch (RuntimeException e) {
+                    // the test does not depend on the archive
+                    System.out.println("Minute not archived: " + e);
+                }
+            }
+            archivedMinutes++;
+        }
+        if (!minutes.isEmpty()) {
+            for (String dns
+                    : minutes.get(minutes.size() - 1).getInstanceRps().keySet()) {
+                timings.markDns(dns, RunTimings.Milestone.IN_LOG);
+            }
+        }
+        for (int i = minutes.size() - 1; i >= 0; i--) {
+            if (minutes.get(i).isComplete()) {
+                instanceRps = Collections.unmodifiableMap(
+                        new LinkedHashMap<>(minutes.get(i).getInstanceRps()));
+                return;
+            }
+        }
+    }
+
+    /**
+     * React to the latest log: scale out after the cooldown unless the
+     * fleet reaches the target once warm, and back outliers with an extra
+     * instance. Registered instances serve until teardown: the Load
+     * Generator has no documented call to take one out of a running test.
+     * @param testLog latest log
+     * @param values scaling parameters of the tick
+     * @return false once the test is over
+     */
+    private synchronized boolean decide(final TestLog testLog,
+                                        final ScalingParameters.Values values) {
+        if (testLog.isFinished()) {
+            return false;
+        }
+        boolean recorded = rpsSeries.update(testLog);
+        //  Check last launch time and RPS
+        long pastMillis = clock.currentTimeMillis() - lastLaunchTime;
+        float target = values.getRpsTarget();
+        boolean cooledDown = !scalingOut && !replacing
+                && pastMillis > values.getLaunchDelayMillis();
+        if (cooledDown) {
+            if (!scalingPolicy.isContinuous()
+                    && testLog.getCurrentRps() >= target) {
+                return false;
+            }
+            // instances still launching count as part of the fleet
+            int count = scalingPolicy.instancesToAdd(testLog,
+                    instanceIdByDns.size() + pendingLaunches.get(), target);
+            // young instances still warming up will close the gap
+            float projected = warmUpCurve.projectRps(rpsSeries);
+            if (count > 0 && projected >= target) {
+                if (recorded) {
+                    System.out.println("Holding launch, warming fleet"
+                            + " projected at " + projected + " rps");
+                }
+                count = 0;
+            }
+            if (count > 0) {
+                System.out.println("Adding " + count + " web service instances");
+                scalingOut = true;
+                timings.enterPhase(name, SCALING_OUT_PHASE);
+                addWebServiceInstances(count).thenRun(this::finishScaleOut);
+            }
+        }
+
+        //  Back a Web Service instance that drags the fleet down, one at
+        //  a time and within the scale-out cooldown
+        if (recorded && outlierDetector != null && cooledDown && !scalingOut
+                && pendingLaunches.get() == 0) {
+            List<String> outliers = outlierDetector.detect(rpsSeries);
+            if (!outliers.isEmpty()) {
+                replace(outliers.get(0));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Leave an outlier out of the fleet estimates and launch an instance
+     * to make up for it. The outlier stays registered and is terminated
+     * with the rest of the fleet at teardown. Scale-outs wait until the
+     * replacement is registered or given up.
+     * @param dns DNS Name of the outlier
+     */
+    private void replace(final String dns) {
+        System.out.println("Replacing " + dns);
+        replacing = true;
+        rpsSeries.evict(dns);
+        addWebServiceInstances(1).thenAccept(registered -> {
+            synchronized (this) {
+                if (registered == 0) {
+                    rpsSeries.restore(dns);
+                }
+                replacing = false;
+                lastLaunchTime = clock.currentTimeMillis();
+            }
+        });
+    }
+
+    /**
+     * End a scale-out once its instances are registered or given up.
+     */
+    private synchronized void finishScaleOut() {
+        scalingOut = false;
+        //renew the launch time once the instances are added
+        lastLaunchTime = clock.currentTimeMillis();
+        if (state == State.SCALING) {
+            timings.enterPhase(name, COOLDOWN_PHASE);
+        }
+    }
+
+    /**
+     * Build the launch request of the next Web Service of the fleet plan.
+     * @return RunInstances request
+     */
+    private RunInstancesRequest nextWebServiceRequest() {
+        return LoadGenerator.webServiceRequest(fleetPlan.getInstanceType(
+                webServiceLaunches.getAndIncrement()));
+    }
+
+    /**
+     * Get Web Service instances, first from the warm pool, then from one
+     * RunInstances call per planned instance type for the rest, and register
+     * each one with the Load Generator as soon as it serves HTTP.
+     * @param count number of instances
+     * @return future completed with the number of instances registered once
+     *         every one is registered or given up
+     */
+    private CompletableFuture<Integer> addWebServiceInstances(final int count) {
+        int fromPool = Math.min(count, warmPool.getAvailable());
+        List<CompletableFuture<Boolean>> registrations = new ArrayList<>();
+        // Web Services of the same type share a launch call
+        Map<String, Integer> countByType = new LinkedHashMap<>();
+        for (int i = fromPool; i < count; i++) {
+            countByType.merge(fleetPlan.getInstanceType(
+                    webServiceLaunches.getAndIncrement()), 1, Integer::sum);
+        }
+        List<ProvisioningPipeline.Launch> launches = new ArrayList<>();
+        for (Map.Entry<String, Integer> type : countByType.entrySet()) {
+            launches.addAll(pipeline.launch(LoadGenerator.webServiceRequest(
+                    type.getKey()), type.getValue()));
+        }
+        for (ProvisioningPipeline.Launch launch : launches) {
+            own(launch.getInstanceId(), false);
+            registrations.add(launch.getPublicDnsName()
+                    .thenCompose(prober::whenReady)
+                    .thenCompose(warmUp::whenWarm)
+                    .thenCompose(dns -> register(dns,
+                            launch.getInstanceId().join())));
+        }
+        for (int i = 0; i < fromPool; i++) {
+            registrations.add(warmPool.takeAsync().thenCompose(standby -> {
+                own(CompletableFuture.completedFuture(
+                        standby.getInstanceId()), false);
+                return register(standby.getPublicDnsName(),
+                        standby.getInstanceId());
+            }));
+        }
+        return settle(registrations);
+    }
+
+    /**
+     * Count registrations as pending until they settle.
+     * @param registrations registrations of new Web Services
+     * @return future completed with the number of Web Services registered
+     *         once every one is registered or given up
+     */
+    private CompletableFuture<Integer> settle(
+            final List<CompletableFuture<Boolean>> registrations) {
+        pendingLaunches.addAndGet(registrations.size());
+        List<CompletableFuture<Boolean>> settled = new ArrayList<>();
+        for (CompletableFuture<Boolean> registration : registrations) {
+            settled.add(registration.whenComplete(
+                    (ignored, e) -> pendingLaunches.decrementAndGet()
+            ).exceptionally(e -> {
+                if (!(e.getCause() instanceof CancellationException)) {
+                    System.out.println("Web service never became ready: "
+                            + e.getMessage());
+                }
+                return false;
+            }));
+        }
+        return CompletableFuture.allOf(settled.toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignored -> {
+                    int registered = 0;
+                    for (CompletableFuture<Boolean> registration : settled) {
+                        if (registration.join()) {
+                            registered++;
+                        }
+                    }
+                    return registered;
+                });
+    }
+
+    /**
+     * Register a Web Service with the Load Generator, retrying in the
+     * background until the budget is spent or the test is over.
+     * @param dns DNS Name of the Web Service
+     * @param instanceId instance ID of the Web Service
+     * @return future completed with true once registered, false when
+     *         given up
+     */
+    private CompletableFuture<Boolean> register(final String dns,
+                                                final String instanceId) {
+        timings.mark(instanceId, RunTimings.Milestone.REGISTERING);
+        return get(LoadGenerator.registrationUrl(loadGeneratorDNS, dns))
+                .handle((response, e) -> {
+                    if (e == null) {
+                        synchronized (this) {
+                            instanceIdByDns.put(dns, instanceId);
+                        }
+                        timings.mark(instanceId,
+                                RunTimings.Milestone.REGISTERED);
+                        journal.registered(name, dns, instanceId);
+                        tagTestId(instanceId);
+                        return true;
+                    } else if (e instanceof CancellationException
+                            || e.getCause() instanceof CancellationException) {
+                        System.out.println("New WS not submitted because test already completed");
+                    } else {
+                        System.out.println("New WS not submitted, retry budget spent");
+                    }
+                    return false;
+                });
+    }
+
+    /**
+     * Own an instance, journaled once its ID is known.
+     * @param instanceId instance ID future
+     * @param loadGenerator true for the Load Generator
+     */
+    private void own(final CompletableFuture<String> instanceId,
+                     final boolean loadGenerator) {
+        owned.add(instanceId);
+        instanceId.thenAccept(id -> journal.launched(name, id, loadGenerator));
+    }
+
+    /**
+     * Tag an instance with the test ID, together with the other instances
+     * tagged in the same tick.
+     * @param instanceId instance ID
+     */
+    private void tagTestId(final String instanceId) {
+        batcher.tag(instanceId, new Tag(TEST_ID_KEY, testId))
+                .exceptionally(e -> null);
+    }
+
+    /**
+     * GET a Load Generator URL in the background with retries. The request
+     * is cancelled if the session is torn down first.
+     * @param url URL
+     * @return future completed with the response body
+     */
+    private CompletableFuture<String> get(final String url) {
+        CompletableFuture<HttpRequest.Response> request =
+                http.getWithRetryAsync(url, scheduler, executor);
+        inFlight.add(request);
+        if (state == State.TEARING_DOWN) {
+            request.cancel(false);
+        }
+        return request.whenComplete((response, e) -> inFlight.remove(request))
+                .thenApply(response -> {
+                    String body = new String(response.getBody(),
+                            StandardCharsets.UTF_8);
+                    System.out.println(body);
+                    return body;
+                });
+    }
+
+    /**
+     * Stop ticking, cancel pending requests and terminate every instance
+     * of the session in one batch, once. Completes once every instance is
+     * terminated, so its security groups can be deleted.
+     * @param failure cause of a failed session, null if it ended normally
+     */
+    private void tearDown(final Throwable failure) {
+        synchronized (this) {
+            if (state == State.TEARING_DOWN || state == State.FINISHED
+                    || state == State.FAILED) {
+                return;
+            }
+            if (failure != null) {
+                System.out.println("Session " + name + " failed in " + state + ": "
+                        + failure.getMessage());
+            }
+            state = State.TEARING_DOWN;
+            timings.enterPhase(name, phase(state));
+        }
+        for (CompletableFuture<?> request : inFlight) {
+            request.cancel(false);
+        }
+        CompletableFuture.supplyAsync(() -> {
+            Set<String> instanceIds = new HashSet<>();
+            if (warmPool != null) {
+                instanceIds.addAll(warmPool.drain());
+                System.out.println("Warm pool: " + warmPool.getTakenCount()
+                        + " instances taken, " + warmPool.getIdleMillis() / 1000
+                        + " instance-seconds idle");
+            }
+            for (CompletableFuture<String> instanceId : owned) {
+                // waits for RunInstances calls still in flight
+                String id = instanceId.handle((value, e) -> value).join();
+                if (id != null) {
+                    instanceIds.add(id);
+                }
+            }
+            return instanceIds;
+        }, executor).thenCompose(batcher::terminate).whenComplete((ignored, e) -> {
+            Throwable cause = failure != null ? failure : e;
+            state = cause == null ? State.FINISHED : State.FAILED;
+            timings.enterPhase(name, null);
+            if (e == null) {
+                // nothing of the session is left to recover
+                journal.finished(name);
+            }
+            System.out.println("Session " + name + " " + state);
+            if (cause == null) {
+                completion.complete(null);
+            } else {
+                completion.completeExceptionally(cause);
+            }
+        });
+    }
+
+    /**
+     * Move to the next state.
+     * @param from expected current state
+     * @param to next state
+     */
+    private synchronized void transition(final State from, final State to) {
+        if (state != from) {
+            throw new IllegalStateException("Session " + name + " is " + state
+                    + ", expected " + from);
+        }
+        System.out.println("Session " + name + " " + from + " -> " + to);
+        state = to;
+        timings.enterPhase(name, phase(to));
+    }
+
+    /**
+     * @param state state entered
+     * @return phase of the timeline starting with it
+     */
+    private static String phase(final State state) {
+        if (state == State.SCALING) {
+            return COOLDOWN_PHASE;
+        }
+        return state.name().toLowerCase(Locale.ROOT);
+    }
+}
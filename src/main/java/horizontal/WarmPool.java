@@ -0,0 +1,287 @@
+package horizontal;
+
+import com.amazonaws.services.ec2.model.RunInstancesRequest;
+import utilities.Clock;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Pool of pre-booted Web Service instances.
+ *
+ * Standby instances are launched, tagged and health-checked while the
+ * scaling cooldown runs, so a scale-out only has to take one from the pool.
+ * The pool records how long every standby sat idle before being used.
+ */
+public final class WarmPool {
+    /**
+     * A booted, serving Web Service instance.
+     */
+    public static final class Standby {
+        /**
+         * Instance ID.
+         */
+        private final String instanceId;
+        /**
+         * Public DNS name.
+         */
+        private final String publicDnsName;
+        /**
+         * Time the instance passed its health check.
+         */
+        private final long readyAt;
+
+        /**
+         * Constructor.
+         * @param instanceId instance ID
+         * @param publicDnsName public DNS name
+         * @param readyAt time the instance became ready
+         */
+        Standby(final String instanceId, final String publicDnsName,
+                final long readyAt) {
+            this.instanceId = instanceId;
+            this.publicDnsName = publicDnsName;
+            this.readyAt = readyAt;
+        }
+
+        /**
+         * @return instance ID
+         */
+        public String getInstanceId() {
+            return instanceId;
+        }
+
+        /**
+         * @return public DNS name
+         */
+        public String getPublicDnsName() {
+            return publicDnsName;
+        }
+    }
+
+    /**
+     * Pipeline used to launch standbys.
+     */
+    private final ProvisioningPipeline pipeline;
+    /**
+     * Prober used as health check.
+     */
+    private final ReadinessProber prober;
+    /**
+     * Warm-up of standbys before they are offered.
+     */
+    private final WarmUp warmUp;
+    /**
+     * Launch request of the next single Web Service instance.
+     */
+    private final Supplier<RunInstancesRequest> requests;
+    /**
+     * Clock measuring idle time.
+     */
+    private final Clock clock;
+    /**
+     * Number of standbys to keep.
+     */
+    private final int size;
+    /**
+     * Standbys ready to be taken.
+     */
+    private final Queue<Standby> ready = new ArrayDeque<>();
+    /**
+     * Takers waiting for a standby, in arrival order.
+     */
+    private final Queue<CompletableFuture<Standby>> waiting = new ArrayDeque<>();
+    /**
+     * Launches that are not ready yet.
+     */
+    private final AtomicInteger booting = new AtomicInteger();
+    /**
+     * Instance ID futures of every launch not taken yet.
+     */
+    private final Set<CompletableFuture<String>> owned =
+            ConcurrentHashMap.newKeySet();
+    /**
+     * Idle time of all standbys in milliseconds.
+     */
+    private final AtomicLong idleMillis = new AtomicLong();
+    /**
+     * Number of standbys taken so far.
+     */
+    private final AtomicInteger taken = new AtomicInteger();
+
+    /**
+     * Constructor.
+     * @param pipeline provisioning pipeline
+     * @param prober readiness prober
+     * @param warmUp warm-up of standbys before they are offered
+     * @param requests launch request of the next single Web Service
+     *                 instance, e.g. the next type of a fleet plan
+     * @param size number of standbys to keep
+     * @param clock clock measuring idle time
+     */
+    public WarmPool(final ProvisioningPipeline pipeline,
+                    final ReadinessProber prober,
+                    final WarmUp warmUp,
+                    final Supplier<RunInstancesRequest> requests,
+                    final int size,
+                    final Clock clock) {
+        this.pipeline = pipeline;
+        this.prober = prober;
+        this.warmUp = warmUp;
+        this.clock = clock;
+        this.requests = requests;
+        this.size = size;
+    }
+
+    /**
+     * Launch standbys until the pool holds its configured size.
+     */
+    public synchronized void fill() {
+        while (ready.size() + booting.get() - waiting.size() < size) {
+            launchStandby();
+        }
+    }
+
+    /**
+     * Take a ready standby without blocking, and refill the pool. When none
+     * is ready the future completes once a booting standby serves.
+     * @return future completed with the standby
+     */
+    public CompletableFuture<Standby> takeAsync() {
+        CompletableFuture<Standby> future = new CompletableFuture<>();
+        Standby standby;
+        synchronized (this) {
+            standby = ready.poll();
+            if (standby == null) {
+                waiting.add(future);
+                if (booting.get() < waiting.size()) {
+                    launchStandby();
+                }
+                return future;
+            }
+        }
+        hand(standby, future);
+        return future;
+    }
+
+    /**
+     * Release every instance still owned by the pool, counting the idle time
+     * of ready standbys. Takers still waiting are cancelled.
+     * @return IDs of the instances to terminate
+     */
+    public synchronized List<String> drain() {
+        long now = clock.currentTimeMillis();
+        for (Standby standby : ready) {
+            idleMillis.addAndGet(now - standby.readyAt);
+        }
+        ready.clear();
+        for (CompletableFuture<Standby> future : waiting) {
+            future.cancel(false);
+        }
+        waiting.clear();
+        List<String> instanceIds = new ArrayList<>();
+        for (CompletableFuture<String> instanceId : owned) {
+            // waits for RunInstances calls still in flight
+            String id = instanceId.handle((value, e) -> value).join();
+            if (id != null) {
+                instanceIds.add(id);
+            }
+        }
+        owned.clear();
+        return instanceIds;
+    }
+
+    /**
+     * @return standbys ready or booting and not promised to a taker
+     */
+    public synchronized int getAvailable() {
+        return ready.size() + booting.get() - waiting.size();
+    }
+
+    /**
+     * @return idle time of all standbys in milliseconds
+     */
+    public long getIdleMillis() {
+        return idleMillis.get();
+    }
+
+    /**
+     * @return number of standbys taken so far
+     */
+    public int getTakenCount() {
+        return taken.get();
+    }
+
+    /**
+     * Launch one standby and hand it out or queue it once it answers HTTP
+     * and is warmed up.
+     */
+    private void launchStandby() {
+        booting.incrementAndGet();
+        ProvisioningPipeline.Launch launch = pipeline.launch(requests.get());
+        owned.add(launch.getInstanceId());
+        launch.getPublicDnsName().thenCompose(prober::whenReady)
+                .thenCompose(warmUp::whenWarm)
+                .thenAcceptBoth(launch.getInstanceId(), (dns, instanceId) ->
+                        offer(new Standby(instanceId, dns,
+                                clock.currentTimeMillis())))
+                .exceptionally(e -> {
+                    CompletableFuture<Standby> waiter = null;
+                    synchronized (this) {
+                        booting.decrementAndGet();
+                        if (waiting.size() > booting.get()) {
+                            waiter = waiting.poll();
+                        }
+                    }
+                    System.out.println("Standby launch failed: "
+                            + e.getMessage());
+                    if (waiter != null) {
+                        waiter.completeExceptionally(e);
+                    }
+                    return null;
+                });
+    }
+
+    /**
+     * Give a standby that just became ready to the first waiting taker, or
+     * queue it.
+     * @param standby ready standby
+     */
+    private void offer(final Standby standby) {
+        CompletableFuture<Standby> waiter;
+        synchronized (this) {
+            booting.decrementAndGet();
+            waiter = waiting.poll();
+            if (waiter == null) {
+                ready.add(standby);
+                return;
+            }
+        }
+        hand(standby, waiter);
+    }
+
+    /**
+     * Hand a standby to a taker and refill the pool.
+     * @param standby ready standby
+     * @param future taker
+     */
+    private void hand(final Standby standby,
+                      final CompletableFuture<Standby> future) {
+        long idle = clock.currentTimeMillis() - standby.readyAt;
+        idleMillis.addAndGet(idle);
+        taken.incrementAndGet();
+        owned.removeIf(id -> standby.instanceId.equals(id.getNow(null)));
+        System.out.println("Took warm instance " + standby.instanceId
+                + " after " + idle / 1000 + " s idle");
+        fill();
+        future.complete(standby);
+    }
+}
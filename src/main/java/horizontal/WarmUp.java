@@ -0,0 +1,185 @@
+package horizontal;
+
+import utilities.Clock;
+import utilities.LoadDriver;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Warms new Web Service instances up before they are registered.
+ *
+ * A fresh instance serves far below its steady rate for its first minutes
+ * while its JVM compiles the hot paths. Registered right away, it drags the
+ * RPS of the test down, and the control loop reads the dip as missing
+ * capacity. Instead, rounds of open-loop load are driven at the instance
+ * until its throughput stops growing, and only then is it handed on.
+ */
+public final class WarmUp {
+    /**
+     * Most requests in flight at an instance being warmed up.
+     */
+    private static final int CONNECTIONS = 8;
+    /**
+     * Longest time a warm-up request may take in milliseconds.
+     */
+    private static final long REQUEST_TIMEOUT_MILLIS = 10000;
+    /**
+     * Rounds needed before a plateau can be seen.
+     */
+    private static final int MIN_ROUNDS = 3;
+
+    /**
+     * Clock of the control loop.
+     */
+    private final Clock clock;
+    /**
+     * Threads driving the load.
+     */
+    private final Executor executor;
+    /**
+     * Timeline of the run, null when not recorded.
+     */
+    private final RunTimings timings;
+    /**
+     * Requests per second driven at an instance, 0 to disable warm-up.
+     */
+    private final double rps;
+    /**
+     * Length of a round on the control loop clock.
+     */
+    private final long roundMillis;
+    /**
+     * Longest warm-up of an instance on the control loop clock.
+     */
+    private final long maxMillis;
+    /**
+     * Relative throughput gain under which a round counts as flat.
+     */
+    private final double plateau;
+
+    /**
+     * Constructor.
+     * @param clock clock of the control loop
+     * @param executor threads driving the load
+     * @param timings timeline of the run, null to not record it
+     * @param rps requests per second driven at an instance, 0 to disable
+     *            warm-up; above the steady capacity of the instance so its
+     *            throughput can be measured
+     * @param roundMillis length of a round on the control loop clock
+     * @param maxMillis longest warm-up of an instance on the control loop
+     *                  clock
+     * @param plateau relative throughput gain under which a round counts as
+     *                flat, e.g. 0.05
+     */
+    public WarmUp(final Clock clock, final Executor executor,
+                  final RunTimings timings, final double rps,
+                  final long roundMillis, final long maxMillis,
+                  final double plateau) {
+        this.clock = clock;
+        this.executor = executor;
+        this.timings = timings;
+        this.rps = rps;
+        this.roundMillis = roundMillis;
+        this.maxMillis = maxMillis;
+        this.plateau = plateau;
+    }
+
+    /**
+     * @return true when instances are warmed up before registration
+     */
+    public boolean isEnabled() {
+        return rps > 0;
+    }
+
+    /**
+     * Warm an instance up. A failed warm-up is logged and does not hold
+     * the instance back.
+     * @param dns public DNS name of an instance serving HTTP
+     * @return future completed with the DNS name once the instance is warm
+     */
+    public CompletableFuture<String> whenWarm(final String dns) {
+        if (!isEnabled()) {
+            markWarmed(dns);
+            return CompletableFuture.completedFuture(dns);
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                warm(dns);
+            } catch (IOException e) {
+                System.out.println("Warm-up of " + dns + " failed: "
+                        + e.getMessage());
+            }
+            markWarmed(dns);
+            return dns;
+        }, executor);
+    }
+
+    /**
+     * Drive rounds of load at an instance until its throughput plateaus
+     * or the warm-up runs out of time.
+     * @param dns public DNS name of the instance
+     * @throws IOException when the instance cannot be loaded
+     */
+    private void warm(final String dns) throws IOException {
+        List<URL> urls = Collections.singletonList(new URL("http://" + dns + "/"));
+        List<Double> throughput = new ArrayList<>();
+        long start = clock.currentTimeMillis();
+        while (!isPlateau(throughput)) {
+            if (clock.currentTimeMillis() - start >= maxMillis) {
+                System.out.println("Warm-up of " + dns + " stopped after "
+                        + throughput.size() + " rounds, still at "
+                        + String.format("%.1f", last(throughput)) + " rps");
+                return;
+            }
+            LoadDriver.Result result = new LoadDriver(urls, rps, CONNECTIONS,
+                    REQUEST_TIMEOUT_MILLIS).run(clock.toRealMillis(roundMillis), null);
+            throughput.add(result.getRps());
+        }
+        System.out.println("Warmed up " + dns + " in " + throughput.size()
+                + " rounds at " + String.format("%.1f", last(throughput))
+                + " rps");
+    }
+
+    /**
+     * A plateau is reached once the last two rounds each gained less than
+     * the tolerance over the round before.
+     * @param throughput throughput of every round so far
+     * @return true on a plateau
+     */
+    private boolean isPlateau(final List<Double> throughput) {
+        int rounds = throughput.size();
+        if (rounds < MIN_ROUNDS) {
+            return false;
+        }
+        for (int i = rounds - 2; i < rounds; i++) {
+            if (throughput.get(i) > throughput.get(i - 1) * (1 + plateau)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param throughput throughput of every round so far
+     * @return throughput of the last round, 0 before the first
+     */
+    private static double last(final List<Double> throughput) {
+        return throughput.isEmpty() ? 0 : throughput.get(throughput.size() - 1);
+    }
+
+    /**
+     * Record the end of the warm-up in the timeline.
+     * @param dns public DNS name of the instance
+     */
+    private void markWarmed(final String dns) {
+        if (timings != null) {
+            timings.markDns(dns, RunTimings.Milestone.WARMED);
+        }
+    }
+}
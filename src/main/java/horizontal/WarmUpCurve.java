@@ -0,0 +1,126 @@
+package horizontal;
+
+/**
+ * Learns how far below its steady RPS a Web Service reports in its first
+ * minutes, and projects the RPS the fleet settles at once its young
+ * instances are warm.
+ *
+ * The fraction of every early minute is the median, over the instances
+ * that have reached steady state, of their RPS in that minute over the mean
+ * of their later minutes. Until an instance has got there the curve is
+ * unknown and RPS are taken as they are.
+ */
+public final class WarmUpCurve {
+    /**
+     * Default number of minutes an instance is young for.
+     */
+    private static final int DEFAULT_WARM_UP_MINUTES = 3;
+    /**
+     * Lowest fraction used, so a near-empty first minute does not blow a
+     * projection up.
+     */
+    private static final float MIN_FRACTION = 0.25f;
+
+    /**
+     * Minutes an instance is young for.
+     */
+    private final int warmUpMinutes;
+
+    /**
+     * Constructor.
+     */
+    public WarmUpCurve() {
+        this(DEFAULT_WARM_UP_MINUTES);
+    }
+
+    /**
+     * Constructor.
+     * @param warmUpMinutes minutes an instance is young for
+     */
+    public WarmUpCurve(final int warmUpMinutes) {
+        this.warmUpMinutes = warmUpMinutes;
+    }
+
+    /**
+     * Learn the fraction of steady RPS of every early minute.
+     * @param series per-instance RPS series
+     * @return fraction by minute of age, from 0; NaN where unknown
+     */
+    public float[] fractions(final InstanceRpsSeries series) {
+        int minuteCount = series.getMinuteCount();
+        float[][] ratios = new float[warmUpMinutes][series.getInstances().size()];
+        int[] counts = new int[warmUpMinutes];
+        for (String dns : series.getInstances()) {
+            int first = firstMinute(series, dns);
+            if (first < 0 || first + warmUpMinutes > minuteCount) {
+                continue;
+            }
+            float steady = 0;
+            int samples = 0;
+            for (int minute = first + warmUpMinutes; minute <= minuteCount;
+                 minute++) {
+                float rps = series.get(dns, minute);
+                if (!Float.isNaN(rps)) {
+                    steady += rps;
+                    samples++;
+                }
+            }
+            if (samples == 0 || steady <= 0) {
+                continue;
+            }
+            steady /= samples;
+            for (int age = 0; age < warmUpMinutes; age++) {
+                float rps = series.get(dns, first + age);
+                if (!Float.isNaN(rps)) {
+                    ratios[age][counts[age]++] = rps / steady;
+                }
+            }
+        }
+        float[] fractions = new float[warmUpMinutes];
+        for (int age = 0; age < warmUpMinutes; age++) {
+            fractions[age] = counts[age] == 0 ? Float.NaN : Math.max(
+                    MIN_FRACTION, Math.min(1, OutlierDetector.median(
+                            ratios[age], counts[age])));
+        }
+        return fractions;
+    }
+
+    /**
+     * Project the RPS of the latest recorded minute with every young
+     * instance at its steady RPS.
+     * @param series per-instance RPS series
+     * @return projected RPS, the recorded one when the curve is unknown
+     */
+    public float projectRps(final InstanceRpsSeries series) {
+        int minute = series.getMinuteCount();
+        float[] fractions = fractions(series);
+        float projected = 0;
+        for (String dns : series.getInstances()) {
+            float rps = series.get(dns, minute);
+            if (Float.isNaN(rps)) {
+                continue;
+            }
+            int age = minute - firstMinute(series, dns);
+            if (age < warmUpMinutes && !Float.isNaN(fractions[age])) {
+                rps /= fractions[age];
+            }
+            projected += rps;
+        }
+        return projected;
+    }
+
+    /**
+     * @param series per-instance RPS series
+     * @param dns Web Service DNS name
+     * @return first minute the instance appeared in, -1 if none
+     */
+    private static int firstMinute(final InstanceRpsSeries series,
+                                   final String dns) {
+        for (int minute = 1; minute <= series.getMinuteCount(); minute++) {
+            if (!Float.isNaN(series.get(dns, minute))) {
+                return minute;
+            }
+        }
+        return -1;
+    }
+}
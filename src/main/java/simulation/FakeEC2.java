@@ -0,0 +1,609 @@
+package simulation;
+
+import com.amazonaws.services.ec2.AbstractAmazonEC2;
+import com.amazonaws.services.ec2.model.AmazonEC2Exception;
+import com.amazonaws.services.ec2.model.AuthorizeSecurityGroupIngressRequest;
+import com.amazonaws.services.ec2.model.AuthorizeSecurityGroupIngressResult;
+import com.amazonaws.services.ec2.model.CreateSecurityGroupRequest;
+import com.amazonaws.services.ec2.model.CreateSecurityGroupResult;
+import com.amazonaws.services.ec2.model.CreateTagsRequest;
+import com.amazonaws.services.ec2.model.CreateTagsResult;
+import com.amazonaws.services.ec2.model.DeleteSecurityGroupRequest;
+import com.amazonaws.services.ec2.model.DeleteSecurityGroupResult;
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.amazonaws.services.ec2.model.Filter;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.InstanceState;
+import com.amazonaws.services.ec2.model.InstanceStateChange;
+import com.amazonaws.services.ec2.model.InstanceStateName;
+import com.amazonaws.services.ec2.model.Reservation;
+import com.amazonaws.services.ec2.model.RunInstancesRequest;
+import com.amazonaws.services.ec2.model.RunInstancesResult;
+import com.amazonaws.services.ec2.model.Tag;
+import com.amazonaws.services.ec2.model.TagSpecification;
+import com.amazonaws.services.ec2.model.TerminateInstancesRequest;
+import com.amazonaws.services.ec2.model.TerminateInstancesResult;
+import utilities.Clock;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * In-memory EC2 backend for offline runs of the control loop.
+ *
+ * Instances boot after a normally distributed delay, optionally fail to
+ * boot, start serving HTTP a little after "running" and take a while to
+ * shut down. Public DNS names point at the embedded
+ * {@link LoadGeneratorStub}, so every instance answers HTTP locally.
+ */
+public final class FakeEC2 extends AbstractAmazonEC2 {
+    /**
+     * Shortest boot time in milliseconds.
+     */
+    private static final long MIN_BOOT_MILLIS = 5000;
+    /**
+     * Code of the pending state.
+     */
+    private static final int PENDING_CODE = 0;
+    /**
+     * Code of the running state.
+     */
+    private static final int RUNNING_CODE = 16;
+    /**
+     * Code of the shutting-down state.
+     */
+    private static final int SHUTTING_DOWN_CODE = 32;
+    /**
+     * Code of the terminated state.
+     */
+    private static final int TERMINATED_CODE = 48;
+
+    /**
+     * Lifecycle of one simulated instance.
+     */
+    private static final class SimInstance {
+        /**
+         * Instance ID.
+         */
+        private String instanceId;
+        /**
+         * AMI ID.
+         */
+        private String imageId;
+        /**
+         * Instance type.
+         */
+        private String instanceType;
+        /**
+         * Security group names.
+         */
+        private List<String> securityGroups;
+        /**
+         * Tags by key.
+         */
+        private final Map<String, String> tags = new LinkedHashMap<>();
+        /**
+         * Launch time.
+         */
+        private long launchedAt;
+        /**
+         * Time the instance leaves the pending state.
+         */
+        private long runningAt;
+        /**
+         * Time the instance starts serving HTTP.
+         */
+        private long servingAt;
+        /**
+         * True if the instance dies at the end of its boot.
+         */
+        private boolean failed;
+        /**
+         * Time terminate was requested, -1 if never.
+         */
+        private long terminatingAt = -1;
+        /**
+         * Time the instance is gone, -1 if never.
+         */
+        private long terminatedAt = -1;
+    }
+
+    /**
+     * Simulated time.
+     */
+    private final Clock clock;
+    /**
+     * Random source of boot times and failures.
+     */
+    private final Random random;
+    /**
+     * Instances by ID, in launch order.
+     */
+    private final Map<String, SimInstance> instances = new LinkedHashMap<>();
+    /**
+     * Names of existing security groups.
+     */
+    private final Set<String> securityGroups = new HashSet<>();
+    /**
+     * API calls per operation.
+     */
+    private final Map<String, Integer> calls = new TreeMap<>();
+    /**
+     * Prefix of public DNS names.
+     */
+    private String dnsPrefix = "localhost/i/";
+    /**
+     * Mean boot time in milliseconds.
+     */
+    private long bootMeanMillis = 45000;
+    /**
+     * Standard deviation of the boot time in milliseconds.
+     */
+    private long bootStdDevMillis = 10000;
+    /**
+     * Delay between "running" and serving HTTP in milliseconds.
+     */
+    private long serveDelayMillis = 15000;
+    /**
+     * Time spent shutting down in milliseconds.
+     */
+    private long shutdownMillis = 30000;
+    /**
+     * Probability that an instance fails to boot.
+     */
+    private double failureRate;
+    /**
+     * API calls per second before RequestLimitExceeded, 0 for no limit.
+     */
+    private double rateLimit;
+    /**
+     * Calls the account can make in a burst.
+     */
+    private double rateBurst;
+    /**
+     * Calls left in the throttling bucket.
+     */
+    private double rateTokens;
+    /**
+     * Time of the last throttling bucket refill.
+     */
+    private long rateRefilledAt;
+    /**
+     * Instances launched so far.
+     */
+    private int launched;
+
+    /**
+     * Constructor.
+     * @param clock simulated time
+     * @param random random source of boot times and failures
+     */
+    public FakeEC2(final Clock clock, final Random random) {
+        this.clock = clock;
+        this.random = random;
+    }
+
+    /**
+     * Set the boot time distribution.
+     * @param meanMillis mean boot time
+     * @param stdDevMillis standard deviation of the boot time
+     * @return this backend
+     */
+    public FakeEC2 withBootTime(final long meanMillis, final long stdDevMillis) {
+        this.bootMeanMillis = meanMillis;
+        this.bootStdDevMillis = stdDevMillis;
+        return this;
+    }
+
+    /**
+     * Set the delay between "running" and serving HTTP.
+     * @param millis delay in milliseconds
+     * @return this backend
+     */
+    public FakeEC2 withServeDelay(final long millis) {
+        this.serveDelayMillis = millis;
+        return this;
+    }
+
+    /**
+     * Set the probability that an instance fails to boot.
+     * @param rate probability between 0 and 1
+     * @return this backend
+     */
+    public FakeEC2 withFailureRate(final double rate) {
+        this.failureRate = rate;
+        return this;
+    }
+
+    /**
+     * Throttle API calls above a rate, as EC2 does per account.
+     * @param callsPerSecond calls per second, 0 for no limit
+     * @param burst calls allowed in a burst
+     * @return this backend
+     */
+    public synchronized FakeEC2 withRateLimit(final double callsPerSecond,
+                                              final int burst) {
+        this.rateLimit = callsPerSecond;
+        this.rateBurst = burst;
+        this.rateTokens = burst;
+        this.rateRefilledAt = clock.currentTimeMillis();
+        return this;
+    }
+
+    /**
+     * Set the prefix of public DNS names, e.g. "127.0.0.1:8080/i/".
+     * @param prefix DNS prefix
+     * @return this backend
+     */
+    public FakeEC2 withDnsPrefix(final String prefix) {
+        this.dnsPrefix = prefix;
+        return this;
+    }
+
+    @Override
+    public synchronized RunInstancesResult runInstances(
+            final RunInstancesRequest request) {
+        count("RunInstances");
+        long now = clock.currentTimeMillis();
+        List<Instance> launchedInstances = new ArrayList<>();
+        for (int i = 0; i < request.getMaxCount(); i++) {
+            SimInstance instance = new SimInstance();
+            instance.instanceId = String.format("i-%017x", ++launched);
+            instance.imageId = request.getImageId();
+            instance.instanceType = request.getInstanceType();
+            instance.securityGroups = request.getSecurityGroups() == null
+                    ? Collections.<String>emptyList()
+                    : new ArrayList<>(request.getSecurityGroups());
+            if (request.getTagSpecifications() != null) {
+                for (TagSpecification spec : request.getTagSpecifications()) {
+                    for (Tag tag : spec.getTags()) {
+                        instance.tags.put(tag.getKey(), tag.getValue());
+                    }
+                }
+            }
+            long boot = Math.max(MIN_BOOT_MILLIS, bootMeanMillis
+                    + (long) (random.nextGaussian() * bootStdDevMillis));
+            instance.launchedAt = now;
+            instance.runningAt = now + boot;
+            instance.servingAt = instance.runningAt + serveDelayMillis;
+            instance.failed = random.nextDouble() < failureRate;
+            if (instance.failed) {
+                instance.terminatingAt = instance.runningAt;
+                instance.terminatedAt = instance.runningAt;
+            }
+            instances.put(instance.instanceId, instance);
+            launchedInstances.add(describe(instance, now));
+        }
+        return new RunInstancesResult().withReservation(new Reservation()
+                .withReservationId("r-" + Long.toHexString(now))
+                .withInstances(launchedInstances));
+    }
+
+    @Override
+    public DescribeInstancesResult describeInstances() {
+        return describeInstances(new DescribeInstancesRequest());
+    }
+
+    @Override
+    public synchronized DescribeInstancesResult describeInstances(
+            final DescribeInstancesRequest request) {
+        count("DescribeInstances");
+        long now = clock.currentTimeMillis();
+        List<SimInstance> matches = new ArrayList<>();
+        if (request.getInstanceIds() != null
+                && !request.getInstanceIds().isEmpty()) {
+            for (String instanceId : request.getInstanceIds()) {
+                SimInstance instance = instances.get(instanceId);
+                if (instance == null) {
+                    throw error("InvalidInstanceID.NotFound",
+                            "The instance ID '" + instanceId
+                                    + "' does not exist");
+                }
+                matches.add(instance);
+            }
+        } else {
+            matches.addAll(instances.values());
+        }
+        List<Reservation> reservations = new ArrayList<>();
+        for (SimInstance instance : matches) {
+            Instance description = describe(instance, now);
+            if (matches(description, request.getFilters())) {
+                reservations.add(new Reservation()
+                        .withReservationId("r-" + instance.instanceId)
+                        .withInstances(description));
+            }
+        }
+        int from = request.getNextToken() == null
+                ? 0 : Integer.parseInt(request.getNextToken());
+        int pageSize = request.getMaxResults() == null
+                ? reservations.size() : request.getMaxResults();
+        int to = Math.min(reservations.size(), from + pageSize);
+        return new DescribeInstancesResult()
+                .withReservations(reservations.subList(from, to))
+                .withNextToken(to < reservations.size()
+                        ? String.valueOf(to) : null);
+    }
+
+    @Override
+    public synchronized CreateTagsResult createTags(
+            final CreateTagsRequest request) {
+        count("CreateTags");
+        for (String resource : request.getResources()) {
+            SimInstance instance = instances.get(resource);
+            if (instance != null) {
+                for (Tag tag : request.getTags()) {
+                    instance.tags.put(tag.getKey(), tag.getValue());
+                }
+            }
+        }
+        return new CreateTagsResult();
+    }
+
+    @Override
+    public synchronized TerminateInstancesResult terminateInstances(
+            final TerminateInstancesRequest request) {
+        count("TerminateInstances");
+        long now = clock.currentTimeMillis();
+        List<InstanceStateChange> changes = new ArrayList<>();
+        for (String instanceId : request.getInstanceIds()) {
+            SimInstance instance = instances.get(instanceId);
+            if (instance == null) {
+                throw error("InvalidInstanceID.NotFound",
+                        "The instance ID '" + instanceId + "' does not exist");
+            }
+            InstanceState previous = state(instance, now);
+            if (instance.terminatingAt < 0) {
+                instance.terminatingAt = now;
+                instance.terminatedAt = now + shutdownMillis;
+            }
+            changes.add(new InstanceStateChange()
+                    .withInstanceId(instanceId)
+                    .withPreviousState(previous)
+                    .withCurrentState(state(instance, now)));
+        }
+        return new TerminateInstancesResult().withTerminatingInstances(changes);
+    }
+
+    @Override
+    public synchronized CreateSecurityGroupResult createSecurityGroup(
+            final CreateSecurityGroupRequest request) {
+        count("CreateSecurityGroup");
+        if (!securityGroups.add(request.getGroupName())) {
+            throw error("InvalidGroup.Duplicate", "The security group '"
+                    + request.getGroupName() + "' already exists");
+        }
+        return new CreateSecurityGroupResult()
+                .withGroupId("sg-" + Integer.toHexString(
+                        request.getGroupName().hashCode()));
+    }
+
+    @Override
+    public synchronized AuthorizeSecurityGroupIngressResult
+            authorizeSecurityGroupIngress(
+            final AuthorizeSecurityGroupIngressRequest request) {
+        count("AuthorizeSecurityGroupIngress");
+        return new AuthorizeSecurityGroupIngressResult();
+    }
+
+    @Override
+    public synchronized DeleteSecurityGroupResult deleteSecurityGroup(
+            final DeleteSecurityGroupRequest request) {
+        count("DeleteSecurityGroup");
+        long now = clock.currentTimeMillis();
+        String name = request.getGroupName();
+        if (!securityGroups.contains(name)) {
+            throw error("InvalidGroup.NotFound",
+                    "The security group '" + name + "' does not exist");
+        }
+        for (SimInstance instance : instances.values()) {
+            if (instance.securityGroups.contains(name)
+                    && (instance.terminatedAt < 0 || now < instance.terminatedAt)) {
+                throw error("DependencyViolation", "resource " + name
+                        + " has a dependent object");
+            }
+        }
+        securityGroups.remove(name);
+        return new DeleteSecurityGroupResult();
+    }
+
+    /**
+     * Check whether an instance answers HTTP.
+     * @param instanceId instance ID
+     * @return true if running and past its serve delay
+     */
+    public synchronized boolean isServing(final String instanceId) {
+        SimInstance instance = instances.get(instanceId);
+        if (instance == null) {
+            return false;
+        }
+        long now = clock.currentTimeMillis();
+        return !instance.failed && now >= instance.servingAt
+                && (instance.terminatingAt < 0 || now < instance.terminatingAt);
+    }
+
+    /**
+     * @param instanceId instance ID
+     * @return instance type, null for an unknown instance
+     */
+    public synchronized String getInstanceType(final String instanceId) {
+        SimInstance instance = instances.get(instanceId);
+        return instance == null ? null : instance.instanceType;
+    }
+
+    /**
+     * Instance-seconds consumed so far, from launch to termination.
+     * @return instance-seconds
+     */
+    public synchronized long getInstanceSeconds() {
+        long now = clock.currentTimeMillis();
+        long millis = 0;
+        for (SimInstance instance : instances.values()) {
+            long end = instance.terminatedAt < 0
+                    ? now : Math.min(now, instance.terminatedAt);
+            millis += end - instance.launchedAt;
+        }
+        return millis / 1000;
+    }
+
+    /**
+     * @return instances launched so far
+     */
+    public synchronized int getLaunchCount() {
+        return launched;
+    }
+
+    /**
+     * @return IDs of instances not terminated yet
+     */
+    public synchronized List<String> getLiveInstanceIds() {
+        long now = clock.currentTimeMillis();
+        List<String> live = new ArrayList<>();
+        for (SimInstance instance : instances.values()) {
+            if (instance.terminatedAt < 0 || now < instance.terminatedAt) {
+                live.add(instance.instanceId);
+            }
+        }
+        return live;
+    }
+
+    /**
+     * @return API calls per operation
+     */
+    public synchronized Map<String, Integer> getCallCounts() {
+        return new TreeMap<>(calls);
+    }
+
+    /**
+     * Count an API call, and throttle it when over the rate limit.
+     * @param operation operation name
+     */
+    private void count(final String operation) {
+        calls.merge(operation, 1, Integer::sum);
+        if (rateLimit <= 0) {
+            return;
+        }
+        long now = clock.currentTimeMillis();
+        rateTokens = Math.min(rateBurst,
+                rateTokens + (now - rateRefilledAt) * rateLimit / 1000);
+        rateRefilledAt = now;
+        if (rateTokens < 1) {
+            calls.merge("Throttled", 1, Integer::sum);
+            AmazonEC2Exception e = error("RequestLimitExceeded",
+                    "Request limit exceeded.");
+            e.setStatusCode(503);
+            throw e;
+        }
+        rateTokens -= 1;
+    }
+
+    /**
+     * Describe an instance as EC2 would at a point in time.
+     * @param instance simulated instance
+     * @param now current time
+     * @return Instance object
+     */
+    private Instance describe(final SimInstance instance, final long now) {
+        InstanceState state = state(instance, now);
+        boolean hasDns = state.getCode() == RUNNING_CODE
+                || state.getCode() == SHUTTING_DOWN_CODE;
+        List<Tag> tags = new ArrayList<>();
+        for (Map.Entry<String, String> tag : instance.tags.entrySet()) {
+            tags.add(new Tag(tag.getKey(), tag.getValue()));
+        }
+        return new Instance()
+                .withInstanceId(instance.instanceId)
+                .withImageId(instance.imageId)
+                .withInstanceType(instance.instanceType)
+                .withLaunchTime(new Date(instance.launchedAt))
+                .withState(state)
+                .withTags(tags)
+                .withPublicDnsName(hasDns ? dnsPrefix + instance.instanceId : "");
+    }
+
+    /**
+     * State of an instance at a point in time.
+     * @param instance simulated instance
+     * @param now current time
+     * @return instance state
+     */
+    private static InstanceState state(final SimInstance instance,
+                                       final long now) {
+        if (instance.terminatedAt >= 0 && now >= instance.terminatedAt) {
+            return new InstanceState().withCode(TERMINATED_CODE)
+                    .withName(InstanceStateName.Terminated);
+        }
+        if (instance.terminatingAt >= 0 && now >= instance.terminatingAt) {
+            return new InstanceState().withCode(SHUTTING_DOWN_CODE)
+                    .withName(InstanceStateName.ShuttingDown);
+        }
+        if (now < instance.runningAt) {
+            return new InstanceState().withCode(PENDING_CODE)
+                    .withName(InstanceStateName.Pending);
+        }
+        return new InstanceState().withCode(RUNNING_CODE)
+                .withName(InstanceStateName.Running);
+    }
+
+    /**
+     * Apply DescribeInstances filters.
+     * @param instance instance description
+     * @param filters filters, may be null
+     * @return true if every filter matches
+     */
+    private static boolean matches(final Instance instance,
+                                   final Collection<Filter> filters) {
+        if (filters == null) {
+            return true;
+        }
+        Map<String, String> tags = new HashMap<>();
+        for (Tag tag : instance.getTags()) {
+            tags.put(tag.getKey(), tag.getValue());
+        }
+        for (Filter filter : filters) {
+            String name = filter.getName();
+            String value;
+            if ("instance-id".equals(name)) {
+                value = instance.getInstanceId();
+            } else if ("instance-state-name".equals(name)) {
+                value = instance.getState().getName();
+            } else if ("image-id".equals(name)) {
+                value = instance.getImageId();
+            } else if (name.startsWith("tag:")) {
+                value = tags.get(name.substring("tag:".length()));
+            } else {
+                throw error("InvalidParameterValue",
+                        "The filter '" + name + "' is invalid");
+            }
+            if (value == null || !filter.getValues().contains(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Build an EC2 error.
+     * @param code error code
+     * @param message error message
+     * @return exception to throw
+     */
+    private static AmazonEC2Exception error(final String code,
+                                            final String message) {
+        AmazonEC2Exception e = new AmazonEC2Exception(message);
+        e.setErrorCode(code);
+        e.setStatusCode(400);
+        e.setServiceName("AmazonEC2");
+        return e;
+    }
+}
@@ -0,0 +1,101 @@
+package simulation;
+
+import java.util.Random;
+
+/**
+ * Throughput model of a simulated Web Service instance.
+ *
+ * Every instance draws a steady capacity around the mean when it is
+ * registered, then every minute reports that capacity with some noise.
+ * Freshly registered instances run below capacity for a few minutes,
+ * as a cold JVM does. Defaults follow submission.log: about 12.5 rps per
+ * instance, varying by ten percent from minute to minute.
+ */
+public final class InstanceRpsModel {
+    /**
+     * Mean steady capacity of an instance.
+     */
+    private final float meanRps;
+    /**
+     * Relative standard deviation of capacity between instances.
+     */
+    private final float capacitySpread;
+    /**
+     * Relative standard deviation of a minute around the capacity.
+     */
+    private final float minuteNoise;
+    /**
+     * Fraction of capacity lost in the first minute after registration.
+     */
+    private final float warmupPenalty;
+    /**
+     * Time constant of the warm-up in minutes.
+     */
+    private final float warmupMinutes;
+
+    /**
+     * Constructor with the defaults observed in submission.log.
+     */
+    public InstanceRpsModel() {
+        this(12.5f, 0.05f, 0.08f, 0.15f, 1.5f);
+    }
+
+    /**
+     * Constructor.
+     * @param meanRps mean steady capacity of an instance
+     * @param capacitySpread relative deviation of capacity between instances
+     * @param minuteNoise relative deviation of a minute around the capacity
+     * @param warmupPenalty fraction of capacity lost right after registration
+     * @param warmupMinutes time constant of the warm-up in minutes
+     */
+    public InstanceRpsModel(final float meanRps, final float capacitySpread,
+                            final float minuteNoise, final float warmupPenalty,
+                            final float warmupMinutes) {
+        this.meanRps = meanRps;
+        this.capacitySpread = capacitySpread;
+        this.minuteNoise = minuteNoise;
+        this.warmupPenalty = warmupPenalty;
+        this.warmupMinutes = warmupMinutes;
+    }
+
+    /**
+     * Draw the steady capacity of a new instance.
+     * @param random random source
+     * @return capacity in rps
+     */
+    public float drawCapacity(final Random random) {
+        return Math.max(0, meanRps
+                * (1 + capacitySpread * (float) random.nextGaussian()));
+    }
+
+    /**
+     * Throughput of an instance over one full minute.
+     * @param capacity steady capacity of the instance
+     * @param minutesServing minutes since registration at the end of the minute
+     * @param random random source
+     * @return rps over the minute
+     */
+    public float minuteRps(final float capacity, final double minutesServing,
+                           final Random random) {
+        double noise = 1 + minuteNoise * random.nextGaussian();
+        return (float) Math.max(0,
+                capacity * warmth(minutesServing - 1) * noise);
+    }
+
+    /**
+     * Fraction of its steady capacity an instance serves at.
+     * @param minutesWarm minutes the instance has been warming up
+     * @return fraction between 1 - warm-up penalty and 1
+     */
+    public double warmth(final double minutesWarm) {
+        return 1 - warmupPenalty
+                * Math.exp(-Math.max(0, minutesWarm) / warmupMinutes);
+    }
+
+    /**
+     * @return mean steady capacity of an instance
+     */
+    public float getMeanRps() {
+        return meanRps;
+    }
+}
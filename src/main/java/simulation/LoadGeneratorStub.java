@@ -0,0 +1,712 @@
+package simulation;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import utilities.Clock;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Embedded HTTP server standing in for every simulated instance.
+ *
+ * Instances are addressed by path: "http://127.0.0.1:port/i/instanceId/...".
+ * An instance answers 503 until {@link FakeEC2} says it is serving. Web
+ * Services answer their root path; Load Generators also implement
+ * /password, /test/horizontal, /test/horizontal/add and a Range-aware /log
+ * that is written lazily from simulated time, in the format of
+ * submission.log. With a {@link RecordedLog} the log is replayed minute by
+ * minute instead of generated.
+ */
+public final class LoadGeneratorStub {
+    /**
+     * Context path of instances.
+     */
+    private static final String CONTEXT = "/i/";
+    /**
+     * One minute in milliseconds.
+     */
+    private static final long MINUTE_MILLIS = 60000;
+    /**
+     * Longest test in minutes.
+     */
+    private static final int TEST_MINUTES = 30;
+    /**
+     * Timestamp format of the log.
+     */
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter
+            .ofPattern("yyyy-MM-dd'T'HH:mm:ssxxx").withZone(ZoneOffset.UTC);
+    /**
+     * Range request header value.
+     */
+    private static final Pattern RANGE = Pattern.compile("bytes=([0-9]+)-");
+    /**
+     * HTTP 206 Partial Content.
+     */
+    private static final int HTTP_PARTIAL = 206;
+    /**
+     * HTTP 416 Range Not Satisfiable.
+     */
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    /**
+     * Log of one test, advanced lazily.
+     */
+    private abstract static class TestRun {
+        /**
+         * Start of the test.
+         */
+        protected final long startedAt;
+
+        /**
+         * Constructor.
+         * @param startedAt start of the test
+         */
+        TestRun(final long startedAt) {
+            this.startedAt = startedAt;
+        }
+
+        /**
+         * @return test ID
+         */
+        abstract String getTestId();
+
+        /**
+         * Register a Web Service.
+         * @param dns public DNS name
+         * @param now current time
+         */
+        abstract void register(String dns, long now);
+
+        /**
+         * Render the log as of a point in time.
+         * @param now current time
+         * @return log text
+         */
+        abstract String render(long now);
+
+        /**
+         * @return time from test start to the target, -1 if not reached
+         */
+        abstract long getTimeToTargetMillis();
+    }
+
+    /**
+     * A Web Service registered with a generated test.
+     */
+    private static final class Registered {
+        /**
+         * Public DNS name.
+         */
+        private final String dns;
+        /**
+         * Instance ID, the last segment of the DNS name.
+         */
+        private final String instanceId;
+        /**
+         * Registration time.
+         */
+        private final long registeredAt;
+        /**
+         * Steady capacity in rps.
+         */
+        private final float capacity;
+
+        /**
+         * Constructor.
+         * @param dns public DNS name
+         * @param registeredAt registration time
+         * @param capacity steady capacity in rps
+         */
+        Registered(final String dns, final long registeredAt,
+                   final float capacity) {
+            this.dns = dns;
+            this.instanceId = dns.substring(dns.lastIndexOf('/') + 1);
+            this.registeredAt = registeredAt;
+            this.capacity = capacity;
+        }
+    }
+
+    /**
+     * Test whose minutes are generated from the throughput model.
+     */
+    private final class GeneratedTest extends TestRun {
+        /**
+         * Load Generator instance ID.
+         */
+        private final String loadGeneratorId;
+        /**
+         * Log written so far.
+         */
+        private final StringBuilder text = new StringBuilder();
+        /**
+         * Registered Web Services.
+         */
+        private final List<Registered> registered = new ArrayList<>();
+        /**
+         * Minutes written so far.
+         */
+        private int minutes;
+        /**
+         * True once the end sections are written.
+         */
+        private boolean finished;
+        /**
+         * Time from test start to the target, -1 if not reached.
+         */
+        private long timeToTargetMillis = -1;
+
+        /**
+         * Constructor.
+         * @param loadGeneratorId Load Generator instance ID
+         * @param startedAt start of the test
+         */
+        GeneratedTest(final String loadGeneratorId, final long startedAt) {
+            super(startedAt);
+            this.loadGeneratorId = loadGeneratorId;
+            String start = TIMESTAMP.format(Instant.ofEpochMilli(startedAt));
+            text.append("; ").append(start).append('\n')
+                    .append("; Horizontal Scaling Test\n")
+                    .append("; isTestingThroughCode=true\n")
+                    .append("; Test launched. Please check every minute for update.\n")
+                    .append("; Your goal is to achieve rps=").append(formatRps(targetRps))
+                    .append(" in ").append(TEST_MINUTES).append(" min\n")
+                    .append("[Test]\n")
+                    .append("type=horizontal\n")
+                    .append("testId=").append(getTestId()).append('\n')
+                    .append("testFile=test.").append(getTestId()).append(".log\n")
+                    .append("startTime=").append(start).append("\n\n");
+        }
+
+        @Override
+        String getTestId() {
+            return String.valueOf(startedAt);
+        }
+
+        @Override
+        synchronized void register(final String dns, final long now) {
+            if (!finished) {
+                registered.add(new Registered(dns, now,
+                        drawCapacity(dns)));
+            }
+        }
+
+        @Override
+        synchronized String render(final long now) {
+            while (!finished && now >= startedAt + (minutes + 1) * MINUTE_MILLIS) {
+                writeMinute(++minutes);
+            }
+            return text.toString();
+        }
+
+        @Override
+        synchronized long getTimeToTargetMillis() {
+            return timeToTargetMillis;
+        }
+
+        /**
+         * Write a minute section, and the end of the test if it is over.
+         * @param minute minute number, from 1
+         */
+        private void writeMinute(final int minute) {
+            long end = startedAt + minute * MINUTE_MILLIS;
+            long start = end - MINUTE_MILLIS;
+            float total = 0;
+            text.append("[Minute ").append(minute).append("]\n");
+            for (Registered instance : registered) {
+                if (instance.registeredAt >= end) {
+                    continue;
+                }
+                float rps = 0;
+                if (ec2.isServing(instance.instanceId)) {
+                    double share = (double) (end - Math.max(start,
+                            instance.registeredAt)) / MINUTE_MILLIS;
+                    double serving = (double) (end - Math.min(
+                            instance.registeredAt, warmingSince.getOrDefault(
+                                    instance.instanceId, Long.MAX_VALUE)))
+                            / MINUTE_MILLIS;
+                    rps = (float) (share * model.minuteRps(
+                            instance.capacity, serving, random));
+                }
+                total += rps;
+                text.append(instance.dns).append('=')
+                        .append(formatRps(rps)).append('\n');
+            }
+            text.append("[Current rps=").append(formatRps(total)).append("]\n\n");
+            boolean passed = total >= targetRps;
+            if (passed && timeToTargetMillis < 0) {
+                timeToTargetMillis = end - startedAt;
+            }
+            if (passed && endOnTarget || minute >= TEST_MINUTES) {
+                writeEnd(end, total, passed);
+            }
+        }
+
+        /**
+         * Write the end sections of the test.
+         * @param end end time
+         * @param rps rps of the last minute
+         * @param passed true if the target was reached
+         */
+        private void writeEnd(final long end, final float rps,
+                              final boolean passed) {
+            text.append("[Load Generator]\n")
+                    .append("platform=AWS\n")
+                    .append("instanceId=").append(loadGeneratorId).append('\n')
+                    .append("hostname=").append(loadGeneratorId).append("\n\n");
+            for (int i = 0; i < registered.size(); i++) {
+                Registered instance = registered.get(i);
+                text.append("[Web Service ").append(i).append("]\n")
+                        .append("platform=AWS\n")
+                        .append("instanceId=").append(instance.instanceId).append('\n')
+                        .append("hostname=").append(instance.dns).append("\n\n");
+            }
+            text.append("; MSB is validating...\n")
+                    .append("[Test End]\n")
+                    .append("endTime=").append(TIMESTAMP.format(
+                            Instant.ofEpochMilli(end))).append('\n')
+                    .append("rps=").append(formatRps(rps)).append('\n')
+                    .append("pass=").append(passed).append('\n')
+                    .append("[Test finished]\n");
+            finished = true;
+        }
+    }
+
+    /**
+     * Test replaying a recorded log, one minute per simulated minute.
+     * Registrations are accepted but do not change the log.
+     */
+    private final class ReplayedTest extends TestRun {
+        /**
+         * Constructor.
+         * @param startedAt start of the test
+         */
+        ReplayedTest(final long startedAt) {
+            super(startedAt);
+        }
+
+        @Override
+        String getTestId() {
+            return replay.getTestId();
+        }
+
+        @Override
+        void register(final String dns, final long now) {
+        }
+
+        @Override
+        String render(final long now) {
+            List<String> minutes = replay.getMinutes();
+            int elapsed = (int) Math.min(minutes.size(),
+                    (now - startedAt) / MINUTE_MILLIS);
+            StringBuilder text = new StringBuilder(replay.getPreamble());
+            for (int i = 0; i < elapsed; i++) {
+                text.append(minutes.get(i));
+            }
+            if (elapsed == minutes.size()) {
+                text.append(replay.getTail());
+            }
+            return text.toString();
+        }
+
+        @Override
+        long getTimeToTargetMillis() {
+            List<Float> rps = replay.getMinuteRps();
+            for (int i = 0; i < rps.size(); i++) {
+                if (rps.get(i) >= targetRps) {
+                    return (i + 1) * MINUTE_MILLIS;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Simulated EC2 backend.
+     */
+    private final FakeEC2 ec2;
+    /**
+     * Simulated time.
+     */
+    private final Clock clock;
+    /**
+     * Throughput model of Web Services.
+     */
+    private final InstanceRpsModel model;
+    /**
+     * Mean capacity by instance type, the model mean for other types.
+     */
+    private final Map<String, Float> meanRpsByType = new ConcurrentHashMap<>();
+    /**
+     * Real time at which the queue of every Web Service empties, by
+     * instance ID, used when Web Services have a capacity.
+     */
+    private final Map<String, AtomicLong> queueEndNanos = new ConcurrentHashMap<>();
+    /**
+     * True when "/" of a Web Service is served at the mean capacity of its
+     * type instead of answered at once.
+     */
+    private volatile boolean webServiceCapacity;
+    /**
+     * Time every Web Service served its first queued request, by instance
+     * ID; it warms up from then on.
+     */
+    private final Map<String, Long> warmingSince = new ConcurrentHashMap<>();
+    /**
+     * True when a generated test ends once it reaches the target, false
+     * when it runs for its full length.
+     */
+    private volatile boolean endOnTarget = true;
+    /**
+     * Random source of the throughput model.
+     */
+    private final Random random;
+    /**
+     * Recorded log to replay, null to generate logs.
+     */
+    private final RecordedLog replay;
+    /**
+     * Total rps ending a test.
+     */
+    private final float targetRps;
+    /**
+     * Latest test of every Load Generator.
+     */
+    private final Map<String, TestRun> tests = new HashMap<>();
+    /**
+     * Embedded server, created by {@link #start()}.
+     */
+    private HttpServer server;
+    /**
+     * Request handler threads.
+     */
+    private ExecutorService executor;
+
+    /**
+     * Constructor.
+     * @param ec2 simulated EC2 backend
+     * @param clock simulated time
+     * @param model throughput model of Web Services
+     * @param random random source of the throughput model
+     * @param replay recorded log to replay, null to generate logs
+     * @param targetRps total rps ending a test
+     */
+    public LoadGeneratorStub(final FakeEC2 ec2, final Clock clock,
+                             final InstanceRpsModel model, final Random random,
+                             final RecordedLog replay, final float targetRps) {
+        this.ec2 = ec2;
+        this.clock = clock;
+        this.model = model;
+        this.random = random;
+        this.replay = replay;
+        this.targetRps = targetRps;
+    }
+
+    /**
+     * Give Web Services of an instance type another mean capacity.
+     * @param instanceType instance type
+     * @param meanRps mean steady capacity of an instance of the type
+     * @return this stub
+     */
+    public LoadGeneratorStub withInstanceTypeRps(
+            final String instanceType, final float meanRps) {
+        meanRpsByType.put(instanceType, meanRps);
+        return this;
+    }
+
+    /**
+     * Serve "/" of every Web Service one request at a time, at the mean
+     * capacity of its type in real time, so that a load driver sees it
+     * saturate. A Web Service warms up from its first request on, so one
+     * loaded before its registration starts the test warmer.
+     * @param enabled true to queue requests, false to answer at once
+     * @return this stub
+     */
+    public LoadGeneratorStub withWebServiceCapacity(final boolean enabled) {
+        this.webServiceCapacity = enabled;
+        return this;
+    }
+
+    /**
+     * Keep generated tests running for their full length after they reach
+     * the target, as a long-running production load would.
+     * @param enabled true to end a test at the target, false to keep it
+     * @return this stub
+     */
+    public LoadGeneratorStub withEndOnTarget(final boolean enabled) {
+        this.endOnTarget = enabled;
+        return this;
+    }
+
+    /**
+     * Wait for a request to get through the single server queue of a Web
+     * Service.
+     * @param instanceId instance ID of the Web Service
+     */
+    private void serve(final String instanceId) {
+        String type = ec2.getInstanceType(instanceId);
+        float meanRps = type == null ? model.getMeanRps()
+                : meanRpsByType.getOrDefault(type, model.getMeanRps());
+        long since = warmingSince.computeIfAbsent(instanceId,
+                key -> clock.currentTimeMillis());
+        double warmth = model.warmth((double) (clock.currentTimeMillis()
+                - since) / MINUTE_MILLIS);
+        long serviceNanos = (long) (TimeUnit.SECONDS.toNanos(1)
+                / (meanRps * warmth));
+        long now = System.nanoTime();
+        long done = queueEndNanos.computeIfAbsent(instanceId,
+                key -> new AtomicLong(now)).accumulateAndGet(serviceNanos,
+                        (end, service) -> Math.max(end, now) + service);
+        try {
+            TimeUnit.NANOSECONDS.sleep(done - now);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Draw the capacity of a registered Web Service, scaled to its type.
+     * @param dns public DNS name of the Web Service
+     * @return capacity in rps
+     */
+    private float drawCapacity(final String dns) {
+        String type = ec2.getInstanceType(dns.substring(dns.lastIndexOf('/') + 1));
+        float meanRps = type == null ? model.getMeanRps()
+                : meanRpsByType.getOrDefault(type, model.getMeanRps());
+        return model.drawCapacity(random) * meanRps / model.getMeanRps();
+    }
+
+    /**
+     * Start serving on an ephemeral loopback port.
+     * @throws IOException when the port cannot be bound
+     */
+    public void start() throws IOException {
+        // Headers and body are written separately; without TCP_NODELAY each
+        // response waits for a delayed ACK, about 40 ms real time.
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "load-generator-stub");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext(CONTEXT, this::handle);
+        server.start();
+    }
+
+    /**
+     * Stop serving.
+     */
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return prefix of public DNS names, e.g. "127.0.0.1:8080/i/"
+     */
+    public String getDnsPrefix() {
+        return "127.0.0.1:" + server.getAddress().getPort() + CONTEXT;
+    }
+
+    /**
+     * Time from start to target of every test, in start order.
+     * @return time in milliseconds per test, -1 if not reached
+     */
+    public synchronized List<Long> getTimesToTargetMillis() {
+        List<TestRun> runs = new ArrayList<>(tests.values());
+        runs.sort((a, b) -> Long.compare(a.startedAt, b.startedAt));
+        List<Long> times = new ArrayList<>();
+        for (TestRun test : runs) {
+            times.add(test.getTimeToTargetMillis());
+        }
+        return times;
+    }
+
+    /**
+     * Handle a request to any instance.
+     * @param exchange HTTP exchange
+     * @throws IOException when the response cannot be written
+     */
+    private void handle(final HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath()
+                    .substring(CONTEXT.length());
+            int slash = path.indexOf('/');
+            String instanceId = slash < 0 ? path : path.substring(0, slash);
+            String action = slash < 0 ? "/" : path.substring(slash);
+            if (!ec2.isServing(instanceId)) {
+                respond(exchange, 503, "");
+                return;
+            }
+            Map<String, String> query = parseQuery(
+                    exchange.getRequestURI().getRawQuery());
+            long now = clock.currentTimeMillis();
+            switch (action) {
+                case "/":
+                    if (webServiceCapacity) {
+                        serve(instanceId);
+                    }
+                    respond(exchange, 200, "OK");
+                    break;
+                case "/password":
+                    respond(exchange, 200, "Authenticated.");
+                    break;
+                case "/test/horizontal":
+                    TestRun test = replay == null
+                            ? new GeneratedTest(instanceId, now)
+                            : new ReplayedTest(now);
+                    test.register(query.get("dns"), now);
+                    synchronized (this) {
+                        tests.put(instanceId, test);
+                    }
+                    respond(exchange, 200, "<a href='/log?name=test."
+                            + test.getTestId() + ".log'>Test</a> launched.");
+                    break;
+                case "/test/horizontal/add":
+                    TestRun running = getTest(instanceId);
+                    if (running == null) {
+                        respond(exchange, 400, "No test running");
+                        break;
+                    }
+                    running.register(query.get("dns"), now);
+                    respond(exchange, 200, "<!DOCTYPE html><html>"
+                            + query.get("dns") + " added.</html>");
+                    break;
+                case "/log":
+                    TestRun logged = getTest(instanceId);
+                    if (logged == null) {
+                        respond(exchange, 404, "");
+                        break;
+                    }
+                    respondLog(exchange, logged.render(now)
+                            .getBytes(StandardCharsets.UTF_8));
+                    break;
+                default:
+                    respond(exchange, 404, "");
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Get the latest test of a Load Generator.
+     * @param loadGeneratorId Load Generator instance ID
+     * @return test, null if none
+     */
+    private synchronized TestRun getTest(final String loadGeneratorId) {
+        return tests.get(loadGeneratorId);
+    }
+
+    /**
+     * Send the log, honouring an open-ended Range header.
+     * @param exchange HTTP exchange
+     * @param log full log
+     * @throws IOException when the response cannot be written
+     */
+    private static void respondLog(final HttpExchange exchange,
+                                   final byte[] log) throws IOException {
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        Matcher matcher = range == null ? null : RANGE.matcher(range);
+        if (matcher == null || !matcher.matches()) {
+            respond(exchange, 200, log, 0);
+            return;
+        }
+        int offset = (int) Math.min(Integer.MAX_VALUE,
+                Long.parseLong(matcher.group(1)));
+        if (offset >= log.length) {
+            exchange.getResponseHeaders().set("Content-Range",
+                    "bytes */" + log.length);
+            respond(exchange, HTTP_RANGE_NOT_SATISFIABLE, new byte[0], 0);
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Range", "bytes " + offset
+                + "-" + (log.length - 1) + "/" + log.length);
+        respond(exchange, HTTP_PARTIAL, log, offset);
+    }
+
+    /**
+     * Send a text response.
+     * @param exchange HTTP exchange
+     * @param status status code
+     * @param body response body
+     * @throws IOException when the response cannot be written
+     */
+    private static void respond(final HttpExchange exchange, final int status,
+                                final String body) throws IOException {
+        respond(exchange, status, body.getBytes(StandardCharsets.UTF_8), 0);
+    }
+
+    /**
+     * Send the end of a byte array.
+     * @param exchange HTTP exchange
+     * @param status status code
+     * @param body response body
+     * @param offset first byte sent
+     * @throws IOException when the response cannot be written
+     */
+    private static void respond(final HttpExchange exchange, final int status,
+                                final byte[] body, final int offset)
+            throws IOException {
+        int length = body.length - offset;
+        exchange.sendResponseHeaders(status, length == 0 ? -1 : length);
+        if (length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body, offset, length);
+            }
+        }
+    }
+
+    /**
+     * Parse a raw query string. Only the first '=' splits a pair, so DNS
+     * names carrying a port and a path stay intact.
+     * @param rawQuery raw query, may be null
+     * @return decoded parameters
+     * @throws IOException never, UTF-8 is always supported
+     */
+    private static Map<String, String> parseQuery(final String rawQuery)
+            throws IOException {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            query.put(URLDecoder.decode(key, "UTF-8"),
+                    URLDecoder.decode(value, "UTF-8"));
+        }
+        return query;
+    }
+
+    /**
+     * Format an rps value as the log does.
+     * @param rps requests per second
+     * @return value with two decimals
+     */
+    private static String formatRps(final float rps) {
+        return String.format(Locale.ROOT, "%.2f", rps);
+    }
+}
@@ -0,0 +1,113 @@
+package simulation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A test log recorded from a real run, split so it can be replayed one
+ * minute at a time: the preamble up to the first minute section, one chunk
+ * per minute ending with its "[Current rps=...]" line, and the tail.
+ */
+public final class RecordedLog {
+    /**
+     * Start of a minute section.
+     */
+    private static final String MINUTE_HEADER = "[Minute ";
+    /**
+     * Line closing a minute section.
+     */
+    private static final Pattern CURRENT_RPS =
+            Pattern.compile("\\[Current rps=([0-9.]+)\\]\\r?\\n?");
+    /**
+     * Test ID line.
+     */
+    private static final Pattern TEST_ID = Pattern.compile("testId=([0-9]+)");
+
+    /**
+     * Text before the first minute.
+     */
+    private final String preamble;
+    /**
+     * Text of every minute.
+     */
+    private final List<String> minutes = new ArrayList<>();
+    /**
+     * Total rps of every minute.
+     */
+    private final List<Float> minuteRps = new ArrayList<>();
+    /**
+     * Text after the last minute.
+     */
+    private final String tail;
+    /**
+     * Recorded test ID.
+     */
+    private final String testId;
+
+    /**
+     * Constructor.
+     * @param text full log text
+     */
+    public RecordedLog(final String text) {
+        Matcher id = TEST_ID.matcher(text);
+        this.testId = id.find() ? id.group(1) : "0";
+        int first = text.indexOf(MINUTE_HEADER);
+        if (first < 0) {
+            this.preamble = text;
+            this.tail = "";
+            return;
+        }
+        this.preamble = text.substring(0, first);
+        int from = first;
+        Matcher rps = CURRENT_RPS.matcher(text);
+        while (text.startsWith(MINUTE_HEADER, from) && rps.find(from)) {
+            int to = rps.end();
+            while (to < text.length()
+                    && (text.charAt(to) == '\n' || text.charAt(to) == '\r')) {
+                to++;
+            }
+            minutes.add(text.substring(from, to));
+            minuteRps.add(Float.parseFloat(rps.group(1)));
+            from = to;
+        }
+        this.tail = text.substring(from);
+    }
+
+    /**
+     * @return text before the first minute
+     */
+    public String getPreamble() {
+        return preamble;
+    }
+
+    /**
+     * @return text of every minute
+     */
+    public List<String> getMinutes() {
+        return Collections.unmodifiableList(minutes);
+    }
+
+    /**
+     * @return total rps of every minute
+     */
+    public List<Float> getMinuteRps() {
+        return Collections.unmodifiableList(minuteRps);
+    }
+
+    /**
+     * @return text after the last minute
+     */
+    public String getTail() {
+        return tail;
+    }
+
+    /**
+     * @return recorded test ID
+     */
+    public String getTestId() {
+        return testId;
+    }
+}
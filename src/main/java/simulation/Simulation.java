@@ -0,0 +1,267 @@
+package simulation;
+
+import horizontal.FleetPlan;
+import horizontal.FleetPlanner;
+import horizontal.InstanceProfile;
+import horizontal.LoadGenerator;
+import org.apache.commons.io.FileUtils;
+import utilities.Clock;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Runs the whole control loop offline against {@link FakeEC2} and
+ * {@link LoadGeneratorStub}, on an accelerated clock, and reports how fast
+ * and at what cost the target was reached.
+ *
+ * Usage: Simulation [--speedup 120] [--policy one-at-a-time] [--warm-pool 1]
+ * [--sessions 1] [--seed 1] [--boot-mean 45] [--boot-sd 10]
+ * [--failure-rate 0] [--ec2-rate 0] [--replay submission.log]
+ * [--types m5.large=12.5,c5.large=14] [--plan fleet-plan.json]
+ * [--profile 5 --objective lowest-cost]
+ * [--crash-after 300 --recovery resume] [--drive 20 --drive-seconds 10]
+ * [--warm-up 30] [--end-on-target false]
+ *
+ * With --profile, the types are profiled for that many minutes and planned
+ * instead of running a test. With --crash-after, the control loop is killed
+ * after that many seconds without tearing anything down, then restarted
+ * from its journal to resume the test or tear it down; it needs a
+ * journal_file in the configuration. With --drive, one Web Service of
+ * every type serves requests at its mean capacity in real time and is
+ * driven at that many rps instead of running a test. With
+ * --warm-up, Web Services serve in real time too, warm up with the requests
+ * they get, and are driven at that many rps until they are warm before
+ * they are registered. With --end-on-target false, a test runs for its full
+ * length after reaching the target, for the target-tracking policy to hold
+ * it. The default type capacities are illustrative,
+ * only m5.large follows submission.log.
+ */
+public final class Simulation {
+    /**
+     * Total rps ending a test, as the real Load Generator does.
+     */
+    private static final float TARGET_RPS = 50;
+    /**
+     * Default mean capacity by instance type.
+     */
+    private static final String DEFAULT_TYPES =
+            "m5.large=12.5,c5.large=14,t3.medium=7.5,m5.xlarge=24,c5.xlarge=27";
+
+    /**
+     * Private Constructor.
+     */
+    private Simulation() {
+    }
+
+    /**
+     * Run one simulated test.
+     * @param args options, see the class comment
+     * @throws Exception when the stub cannot start or the replay is unreadable
+     */
+    public static void main(final String[] args) throws Exception {
+        double speedup = 120;
+        String policy = "one-at-a-time";
+        int warmPool = 0;
+        int sessions = 1;
+        long seed = 1;
+        long bootMeanSeconds = 45;
+        long bootSdSeconds = 10;
+        double failureRate = 0;
+        double ec2Rate = 0;
+        String replay = null;
+        String types = DEFAULT_TYPES;
+        String plan = null;
+        int profileMinutes = 0;
+        String objective = "lowest-cost";
+        long crashAfterSeconds = 0;
+        String recovery = "resume";
+        double driveRps = 0;
+        long driveSeconds = 10;
+        double warmUpRps = 0;
+        boolean endOnTarget = true;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--speedup":
+                    speedup = Double.parseDouble(value);
+                    break;
+                case "--policy":
+                    policy = value;
+                    break;
+                case "--warm-pool":
+                    warmPool = Integer.parseInt(value);
+                    break;
+                case "--sessions":
+                    sessions = Integer.parseInt(value);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(value);
+                    break;
+                case "--boot-mean":
+                    bootMeanSeconds = Long.parseLong(value);
+                    break;
+                case "--boot-sd":
+                    bootSdSeconds = Long.parseLong(value);
+                    break;
+                case "--failure-rate":
+                    failureRate = Double.parseDouble(value);
+                    break;
+                case "--ec2-rate":
+                    ec2Rate = Double.parseDouble(value);
+                    break;
+                case "--replay":
+                    replay = value;
+                    break;
+                case "--types":
+                    types = value;
+                    break;
+                case "--plan":
+                    plan = value;
+                    break;
+                case "--profile":
+                    profileMinutes = Integer.parseInt(value);
+                    break;
+                case "--objective":
+                    objective = value;
+                    break;
+                case "--crash-after":
+                    crashAfterSeconds = Long.parseLong(value);
+                    break;
+                case "--recovery":
+                    recovery = value;
+                    break;
+                case "--drive":
+                    driveRps = Double.parseDouble(value);
+                    break;
+                case "--drive-seconds":
+                    driveSeconds = Long.parseLong(value);
+                    break;
+                case "--warm-up":
+                    warmUpRps = Double.parseDouble(value);
+                    break;
+                case "--end-on-target":
+                    endOnTarget = Boolean.parseBoolean(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        Clock clock = new Clock(speedup);
+        Random random = new Random(seed);
+        FakeEC2 ec2 = new FakeEC2(clock, new Random(random.nextLong()))
+                .withBootTime(bootMeanSeconds * 1000, bootSdSeconds * 1000)
+                .withFailureRate(failureRate)
+                .withRateLimit(ec2Rate, (int) Math.ceil(ec2Rate * 2));
+        RecordedLog recorded = replay == null ? null : new RecordedLog(
+                FileUtils.readFileToString(new File(replay), StandardCharsets.UTF_8));
+        LoadGeneratorStub stub = new LoadGeneratorStub(ec2, clock,
+                new InstanceRpsModel(), new Random(random.nextLong()),
+                recorded, TARGET_RPS);
+        Map<String, Float> meanRpsByType = new LinkedHashMap<>();
+        for (String type : types.split(",")) {
+            String[] pair = type.split("=");
+            meanRpsByType.put(pair[0], Float.parseFloat(pair[1]));
+            stub.withInstanceTypeRps(pair[0], Float.parseFloat(pair[1]));
+        }
+        stub.start();
+        ec2.withDnsPrefix(stub.getDnsPrefix());
+
+        long wallStart = System.currentTimeMillis();
+        try {
+            if (driveRps > 0) {
+                stub.withWebServiceCapacity(true);
+                LoadGenerator.characterize(ec2, clock,
+                        new ArrayList<>(meanRpsByType.keySet()), driveRps,
+                        driveSeconds);
+            } else if (profileMinutes > 0) {
+                List<InstanceProfile> profiles = LoadGenerator.profile(ec2,
+                        clock, new ArrayList<>(meanRpsByType.keySet()),
+                        profileMinutes);
+                LoadGenerator.plan(profiles,
+                        FleetPlanner.Objective.forName(objective));
+            } else {
+                stub.withWebServiceCapacity(warmUpRps > 0)
+                        .withEndOnTarget(endOnTarget);
+                FleetPlan fleetPlan = plan == null
+                        ? LoadGenerator.configuredFleetPlan()
+                        : FleetPlan.read(new File(plan));
+                if (crashAfterSeconds > 0) {
+                    crash(ec2, clock, policy, warmPool, sessions, fleetPlan,
+                            warmUpRps, crashAfterSeconds);
+                    long restart = System.currentTimeMillis();
+                    if ("teardown".equals(recovery)) {
+                        LoadGenerator.tearDown(ec2, clock);
+                        System.out.println("Teardown after the crash took "
+                                + (System.currentTimeMillis() - restart)
+                                + " ms");
+                    } else {
+                        LoadGenerator.run(ec2, clock, policy, warmPool,
+                                sessions, fleetPlan, warmUpRps);
+                    }
+                } else {
+                    LoadGenerator.run(ec2, clock, policy, warmPool, sessions,
+                            fleetPlan, warmUpRps);
+                }
+            }
+        } catch (Exception e) {
+            System.out.println("Run ended with " + e);
+        } finally {
+            stub.stop();
+        }
+
+        for (long timeToTarget : stub.getTimesToTargetMillis()) {
+            System.out.println("Time to target: " + (timeToTarget < 0
+                    ? "not reached" : timeToTarget / 1000 + " s"));
+        }
+        System.out.println("Instances launched: " + ec2.getLaunchCount());
+        System.out.println("Instance-seconds: " + ec2.getInstanceSeconds());
+        System.out.println("Instances left running: " + ec2.getLiveInstanceIds());
+        for (Map.Entry<String, Integer> call : ec2.getCallCounts().entrySet()) {
+            System.out.println("EC2 " + call.getKey() + ": " + call.getValue());
+        }
+        System.out.println("Wall time: "
+                + (System.currentTimeMillis() - wallStart) / 1000.0 + " s");
+    }
+
+    /**
+     * Run the control loop and kill it as a crash would: its threads stop
+     * and nothing is torn down, only the journal is left behind.
+     * @param ec2 fake EC2
+     * @param clock accelerated clock
+     * @param policy scaling policy
+     * @param warmPool warm pool size
+     * @param sessions number of sessions
+     * @param fleetPlan instance types of the Web Services
+     * @param warmUpRps warm-up rps of new Web Services, 0 to disable it
+     * @param crashAfterSeconds run time before the crash
+     * @throws InterruptedException when interrupted while waiting
+     */
+    private static void crash(final FakeEC2 ec2, final Clock clock,
+                              final String policy, final int warmPool,
+                              final int sessions, final FleetPlan fleetPlan,
+                              final double warmUpRps,
+                              final long crashAfterSeconds)
+            throws InterruptedException {
+        Thread controller = new Thread(() -> {
+            try {
+                LoadGenerator.run(ec2, clock, policy, warmPool, sessions,
+                        fleetPlan, warmUpRps);
+            } catch (Exception e) {
+                System.out.println("Control loop died: " + e);
+            }
+        }, "controller");
+        controller.start();
+        clock.sleep(crashAfterSeconds * 1000);
+        controller.interrupt();
+        controller.join();
+        System.out.println("Crashed after " + crashAfterSeconds + " s with "
+                + ec2.getLiveInstanceIds().size() + " instances running");
+    }
+}
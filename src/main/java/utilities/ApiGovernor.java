@@ -0,0 +1,181 @@
+package utilities;
+
+/**
+ * Token bucket shared by every caller of a rate-limited API.
+ *
+ * Callers take one token per call. When tokens are short, waiting callers
+ * are served by priority, so launches are not queued behind bookkeeping.
+ * The refill rate adapts: it is halved on every throttling error and grows
+ * back a little on every success (AIMD), down to a floor of one tenth of
+ * the configured rate.
+ */
+public final class ApiGovernor {
+    /**
+     * Fraction of the configured rate added back per successful call.
+     */
+    private static final double INCREASE_FRACTION = 0.05;
+    /**
+     * Lowest rate as a fraction of the configured rate.
+     */
+    private static final double MIN_RATE_FRACTION = 0.1;
+
+    /**
+     * Priority of a call, most urgent first.
+     */
+    public enum Priority {
+        /**
+         * Latency-critical calls, e.g. launches and terminations.
+         */
+        CRITICAL,
+        /**
+         * Calls on the setup and teardown path.
+         */
+        NORMAL,
+        /**
+         * Bookkeeping, e.g. describes and tags.
+         */
+        BACKGROUND
+    }
+
+    /**
+     * Clock the rates are expressed in.
+     */
+    private final Clock clock;
+    /**
+     * Configured calls per second.
+     */
+    private final double maxRate;
+    /**
+     * Bucket capacity.
+     */
+    private final double burst;
+    /**
+     * Current calls per second.
+     */
+    private double rate;
+    /**
+     * Tokens in the bucket.
+     */
+    private double tokens;
+    /**
+     * Time of the last refill.
+     */
+    private long lastRefill;
+    /**
+     * Callers waiting per priority.
+     */
+    private final int[] waiting = new int[Priority.values().length];
+    /**
+     * Throttling errors seen.
+     */
+    private long throttles;
+    /**
+     * Total time callers waited for a token, in clock milliseconds.
+     */
+    private long waitMillis;
+
+    /**
+     * Constructor.
+     * @param clock clock the rates are expressed in
+     * @param ratePerSecond calls per second
+     * @param burst bucket capacity
+     */
+    public ApiGovernor(final Clock clock, final double ratePerSecond,
+                       final int burst) {
+        this.clock = clock;
+        this.maxRate = ratePerSecond;
+        this.burst = burst;
+        this.rate = ratePerSecond;
+        this.tokens = burst;
+        this.lastRefill = clock.currentTimeMillis();
+    }
+
+    /**
+     * Take a token, waiting until one is free and no more urgent caller
+     * is waiting.
+     * @param priority priority of the call
+     * @throws InterruptedException when interrupted while waiting
+     */
+    public synchronized void acquire(final Priority priority)
+            throws InterruptedException {
+        long start = clock.currentTimeMillis();
+        waiting[priority.ordinal()]++;
+        try {
+            while (true) {
+                refill();
+                boolean first = !isUrgentWaiting(priority);
+                if (first && tokens >= 1) {
+                    tokens -= 1;
+                    return;
+                }
+                long delay = first
+                        ? (long) Math.ceil((1 - tokens) * 1000 / rate) : 1000;
+                wait(Math.max(1, clock.toRealMillis(delay)));
+            }
+        } finally {
+            waiting[priority.ordinal()]--;
+            waitMillis += clock.currentTimeMillis() - start;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Record a successful call: grow the rate back towards the configured one.
+     */
+    public synchronized void onSuccess() {
+        rate = Math.min(maxRate, rate + maxRate * INCREASE_FRACTION);
+    }
+
+    /**
+     * Record a throttling error: halve the rate and empty the bucket.
+     */
+    public synchronized void onThrottled() {
+        throttles++;
+        rate = Math.max(maxRate * MIN_RATE_FRACTION, rate / 2);
+        tokens = 0;
+    }
+
+    /**
+     * @return current calls per second
+     */
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    /**
+     * @return throttling errors seen
+     */
+    public synchronized long getThrottles() {
+        return throttles;
+    }
+
+    /**
+     * @return total time callers waited for a token, in clock milliseconds
+     */
+    public synchronized long getWaitMillis() {
+        return waitMillis;
+    }
+
+    /**
+     * Add the tokens earned since the last refill.
+     */
+    private void refill() {
+        long now = clock.currentTimeMillis();
+        tokens = Math.min(burst, tokens + (now - lastRefill) * rate / 1000);
+        lastRefill = now;
+    }
+
+    /**
+     * Check whether a more urgent caller is waiting.
+     * @param priority priority of the caller
+     * @return true if a caller with a higher priority waits
+     */
+    private boolean isUrgentWaiting(final Priority priority) {
+        for (int i = 0; i < priority.ordinal(); i++) {
+            if (waiting[i] > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,1230 @@
+package utilities;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * HTTP/1.1 reverse proxy spreading requests over a changing set of
+ * backends, on one selector thread.
+ *
+ * Every request goes to the backend with the fewest requests in flight,
+ * or to the better of two picked at random. Responses are relayed through
+ * a direct buffer per backend connection without being copied into the
+ * heap; only their framing is parsed. Backends are ejected for a while
+ * after consecutive failures, or when their smoothed latency is far above
+ * the median of the others, and come back on their own.
+ */
+public final class BalancingProxy {
+    /**
+     * Consecutive failures ejecting a backend.
+     */
+    private static final int EJECT_AFTER_FAILURES = 5;
+    /**
+     * First ejection time; repeated ejections last longer.
+     */
+    private static final long EJECTION_NANOS = TimeUnit.SECONDS.toNanos(30);
+    /**
+     * Most multiples of the first ejection time an ejection lasts.
+     */
+    private static final int MAX_EJECTION_MULTIPLE = 10;
+    /**
+     * Largest share of the backends ejected at once.
+     */
+    private static final double MAX_EJECTED_FRACTION = 0.5;
+    /**
+     * Smoothed latency, over the median of the others, ejecting a backend.
+     */
+    private static final double SLOW_FACTOR = 3;
+    /**
+     * Answers a backend needs before it can be found slow.
+     */
+    private static final int SLOW_MIN_SAMPLES = 20;
+    /**
+     * Backends with answers needed to find one slow.
+     */
+    private static final int SLOW_MIN_BACKENDS = 3;
+    /**
+     * Weight of the latest answer in the smoothed latency.
+     */
+    private static final double EWMA_ALPHA = 0.2;
+    /**
+     * Size of the relay buffer of a backend connection.
+     */
+    private static final int RELAY_BUFFER_SIZE = 16 * 1024;
+    /**
+     * Largest request, head and body.
+     */
+    private static final int MAX_REQUEST = 1024 * 1024;
+    /**
+     * Longest wait of the selector, so that timeouts are checked.
+     */
+    private static final long SELECT_MILLIS = 100;
+    /**
+     * Methods a backend may see twice without a different outcome.
+     */
+    private static final Set<String> IDEMPOTENT_METHODS = new HashSet<>(
+            Arrays.asList("GET", "HEAD", "PUT", "DELETE", "OPTIONS", "TRACE"));
+
+    /**
+     * Backend selection policies.
+     */
+    public enum Policy {
+        /**
+         * Backend with the fewest requests in flight, then the lowest
+         * smoothed latency.
+         */
+        LEAST_OUTSTANDING("least-outstanding"),
+        /**
+         * Better of two backends picked at random.
+         */
+        POWER_OF_TWO("power-of-two");
+
+        /**
+         * Configuration name.
+         */
+        private final String name;
+
+        /**
+         * Constructor.
+         * @param name configuration name
+         */
+        Policy(final String name) {
+            this.name = name;
+        }
+
+        /**
+         * Look up a policy by its configuration name.
+         * @param name "least-outstanding" or "power-of-two"
+         * @return policy
+         */
+        public static Policy forName(final String name) {
+            for (Policy policy : values()) {
+                if (policy.name.equals(name)) {
+                    return policy;
+                }
+            }
+            throw new IllegalArgumentException("Unknown proxy policy " + name);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * Live view of one backend.
+     */
+    public static final class Backend {
+        /**
+         * Name the backend was added with.
+         */
+        private final String name;
+        /**
+         * Server address.
+         */
+        private final InetSocketAddress address;
+        /**
+         * Host header sent to the backend.
+         */
+        private final String host;
+        /**
+         * Path prepended to every request target, empty for none.
+         */
+        private final String pathPrefix;
+        /**
+         * Latency from request to complete response in microseconds.
+         */
+        private final LatencyHistogram latencyMicros = new LatencyHistogram();
+        /**
+         * Idle keep-alive connections.
+         */
+        private final ArrayDeque<BackendConnection> idle = new ArrayDeque<>();
+        /**
+         * Requests in flight.
+         */
+        private volatile int outstanding;
+        /**
+         * Responses relayed.
+         */
+        private volatile long requests;
+        /**
+         * Failed requests and 5xx responses.
+         */
+        private volatile long failures;
+        /**
+         * Smoothed latency in microseconds, -1 until measured.
+         */
+        private volatile double ewmaMicros = -1;
+        /**
+         * Answers since the smoothed latency was last reset.
+         */
+        private int samples;
+        /**
+         * Failures in a row.
+         */
+        private int consecutiveFailures;
+        /**
+         * Times the backend was ejected.
+         */
+        private int ejections;
+        /**
+         * Time the current ejection ends, 0 when not ejected.
+         */
+        private volatile long ejectedUntil;
+        /**
+         * True once the backend left the set.
+         */
+        private boolean removed;
+
+        /**
+         * Constructor.
+         * @param name "host[:port][/path]" or an HTTP URL
+         * @throws IOException when the name is not a valid address
+         */
+        Backend(final String name) throws IOException {
+            this.name = name;
+            URL url = new URL(name.contains("://") ? name : "http://" + name);
+            int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+            this.address = new InetSocketAddress(url.getHost(), port);
+            this.host = url.getPort() < 0 ? url.getHost()
+                    : url.getHost() + ":" + url.getPort();
+            String path = url.getPath();
+            this.pathPrefix = path.endsWith("/")
+                    ? path.substring(0, path.length() - 1) : path;
+        }
+
+        /**
+         * @return name the backend was added with
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return requests in flight
+         */
+        public int getOutstanding() {
+            return outstanding;
+        }
+
+        /**
+         * @return responses relayed
+         */
+        public long getRequests() {
+            return requests;
+        }
+
+        /**
+         * @return failed requests and 5xx responses
+         */
+        public long getFailures() {
+            return failures;
+        }
+
+        /**
+         * @return smoothed latency in microseconds, -1 until measured
+         */
+        public double getEwmaMicros() {
+            return ewmaMicros;
+        }
+
+        /**
+         * @return latency from request to complete response in microseconds
+         */
+        public LatencyHistogram getLatencyMicros() {
+            return latencyMicros;
+        }
+
+        /**
+         * @return true while ejected
+         */
+        public boolean isEjected() {
+            return ejectedUntil != 0;
+        }
+    }
+
+    /**
+     * Connection of a client.
+     */
+    private static final class Client {
+        /**
+         * Socket.
+         */
+        private final SocketChannel channel;
+        /**
+         * Bytes received and not forwarded yet.
+         */
+        private ByteBuffer in = ByteBuffer.allocate(8 * 1024);
+        /**
+         * Response of the proxy itself, after which the client is closed.
+         */
+        private ByteBuffer reply;
+        /**
+         * Backend connection of the request in flight, null between
+         * requests.
+         */
+        private BackendConnection exchange;
+        /**
+         * True when the client keeps the connection after the response.
+         */
+        private boolean keepAlive;
+
+        /**
+         * Constructor.
+         * @param channel socket
+         */
+        Client(final SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * Keep-alive connection to a backend.
+     */
+    private static final class BackendConnection {
+        /**
+         * Socket.
+         */
+        private final SocketChannel channel;
+        /**
+         * Backend.
+         */
+        private final Backend backend;
+        /**
+         * Buffer moving response bytes to the client.
+         */
+        private final ByteBuffer relay = ByteBuffer.allocateDirect(RELAY_BUFFER_SIZE);
+        /**
+         * Framer of the current response.
+         */
+        private final HttpResponseFramer framer = new HttpResponseFramer();
+        /**
+         * Client of the request in flight, null when idle.
+         */
+        private Client client;
+        /**
+         * Request bytes left to write.
+         */
+        private ByteBuffer request;
+        /**
+         * Time the request was taken.
+         */
+        private long startNanos;
+        /**
+         * True once response bytes reached the client.
+         */
+        private boolean responding;
+        /**
+         * True when the request is HEAD.
+         */
+        private boolean head;
+        /**
+         * True when the request method is idempotent, so the request can
+         * be sent again after the backend may have acted on it.
+         */
+        private boolean idempotent;
+        /**
+         * True when the connection served a request before this one.
+         */
+        private boolean reused;
+        /**
+         * True when the request was already sent again once.
+         */
+        private boolean retried;
+        /**
+         * True when the connection cannot serve another request.
+         */
+        private boolean spent;
+
+        /**
+         * Constructor.
+         * @param channel socket
+         * @param backend backend
+         */
+        BackendConnection(final SocketChannel channel, final Backend backend) {
+            this.channel = channel;
+            this.backend = backend;
+        }
+    }
+
+    /**
+     * Backend selection policy.
+     */
+    private final Policy policy;
+    /**
+     * Time after which a request in flight fails, in nanoseconds.
+     */
+    private final long timeoutNanos;
+    /**
+     * Backends by name.
+     */
+    private final Map<String, Backend> backends = new ConcurrentHashMap<>();
+    /**
+     * Backend names to apply on the selector thread, null when unchanged.
+     */
+    private final AtomicReference<Set<String>> nextBackends =
+            new AtomicReference<>();
+    /**
+     * Connections with a request in flight.
+     */
+    private final Set<BackendConnection> active = new LinkedHashSet<>();
+    /**
+     * Random source of the power of two choices.
+     */
+    private final Random random = new Random();
+    /**
+     * Rotation of the least outstanding ties.
+     */
+    private int rotation;
+    /**
+     * Selector of the proxy thread.
+     */
+    private Selector selector;
+    /**
+     * Listening socket.
+     */
+    private ServerSocketChannel server;
+    /**
+     * Proxy thread.
+     */
+    private Thread thread;
+    /**
+     * Set to stop the proxy thread.
+     */
+    private volatile boolean stopped;
+
+    /**
+     * Constructor.
+     * @param policy backend selection policy
+     * @param timeoutMillis time after which a request in flight fails
+     */
+    public BalancingProxy(final Policy policy, final long timeoutMillis) {
+        this.policy = policy;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    /**
+     * Listen on the loopback interface and start the proxy thread.
+     * @param port port, 0 for an ephemeral one
+     * @throws IOException when the port cannot be bound
+     */
+    public void start(final int port) throws IOException {
+        start(InetAddress.getLoopbackAddress(), port);
+    }
+
+    /**
+     * Listen and start the proxy thread.
+     * @param address local address to bind
+     * @param port port, 0 for an ephemeral one
+     * @throws IOException when the port cannot be bound
+     */
+    public void start(final InetAddress address, final int port)
+            throws IOException {
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(address, port));
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        thread = new Thread(this::loop, "balancing-proxy");
+        thread.setDaemon(true);
+        thread.start();
+        System.out.println("Proxy (" + policy + ") on "
+                + address.getHostAddress() + ":" + getPort());
+    }
+
+    /**
+     * @return bound port
+     */
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * Stop the proxy thread and close every connection.
+     * @throws InterruptedException when interrupted while waiting
+     */
+    public void stop() throws InterruptedException {
+        stopped = true;
+        if (selector != null) {
+            selector.wakeup();
+            thread.join();
+        }
+    }
+
+    /**
+     * Replace the backend set. Requests in flight on a removed backend
+     * complete.
+     * @param names "host[:port][/path]" or HTTP URLs, e.g. the public DNS
+     *              names of the registered Web Services
+     */
+    public void setBackends(final Collection<String> names) {
+        nextBackends.set(new LinkedHashSet<>(names));
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * @return live view of the backends
+     */
+    public List<Backend> getBackends() {
+        List<Backend> list = new ArrayList<>(backends.values());
+        list.sort((a, b) -> a.name.compareTo(b.name));
+        return list;
+    }
+
+    /**
+     * Serve until stopped.
+     */
+    private void loop() {
+        try {
+            while (!stopped) {
+                applyBackends();
+                selector.select(SELECT_MILLIS);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid()) {
+                        handle(key);
+                    }
+                }
+                expire(System.nanoTime());
+            }
+        } catch (IOException e) {
+            System.out.println("Proxy stopped: " + e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                close(key.channel());
+            }
+            close(selector);
+        }
+    }
+
+    /**
+     * Apply the latest backend set.
+     */
+    private void applyBackends() {
+        Set<String> names = nextBackends.getAndSet(null);
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            if (!backends.containsKey(name)) {
+                try {
+                    backends.put(name, new Backend(name));
+                } catch (IOException e) {
+                    System.out.println("Proxy backend " + name
+                            + " ignored: " + e.getMessage());
+                }
+            }
+        }
+        Iterator<Backend> all = backends.values().iterator();
+        while (all.hasNext()) {
+            Backend backend = all.next();
+            if (!names.contains(backend.name)) {
+                all.remove();
+                backend.removed = true;
+                for (BackendConnection connection : backend.idle) {
+                    close(connection.channel);
+                }
+                backend.idle.clear();
+            }
+        }
+    }
+
+    /**
+     * Handle a ready socket.
+     * @param key selection key
+     */
+    private void handle(final SelectionKey key) {
+        if (key.isAcceptable()) {
+            accept();
+            return;
+        }
+        Object attachment = key.attachment();
+        if (attachment instanceof Client) {
+            Client client = (Client) attachment;
+            try {
+                if (key.isReadable()) {
+                    readClient(client);
+                } else if (key.isWritable()) {
+                    writeClient(client);
+                }
+            } catch (IOException e) {
+                closeClient(client);
+            }
+            return;
+        }
+        BackendConnection connection = (BackendConnection) attachment;
+        try {
+            if (key.isConnectable()) {
+                connection.channel.finishConnect();
+                writeBackend(connection);
+            } else if (key.isWritable()) {
+                writeBackend(connection);
+            } else if (key.isReadable()) {
+                readBackend(connection);
+            }
+        } catch (IOException e) {
+            fail(connection, 502, e.getMessage());
+        }
+    }
+
+    /**
+     * Accept a client.
+     */
+    private void accept() {
+        SocketChannel channel = null;
+        try {
+            channel = server.accept();
+            if (channel == null) {
+                return;
+            }
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.register(selector, SelectionKey.OP_READ, new Client(channel));
+        } catch (IOException e) {
+            close(channel);
+        }
+    }
+
+    /**
+     * Read from a client, and forward its request once complete.
+     * @param client client
+     * @throws IOException when the socket fails
+     */
+    private void readClient(final Client client) throws IOException {
+        if (!client.in.hasRemaining()) {
+            if (client.in.capacity() >= MAX_REQUEST) {
+                reply(client, 413, "Payload Too Large");
+                return;
+            }
+            ByteBuffer larger = ByteBuffer.allocate(client.in.capacity() * 2);
+            client.in.flip();
+            larger.put(client.in);
+            client.in = larger;
+        }
+        if (client.channel.read(client.in) < 0) {
+            closeClient(client);
+            return;
+        }
+        forward(client);
+    }
+
+    /**
+     * Forward the next complete request of a client, if any.
+     * @param client client
+     */
+    private void forward(final Client client) {
+        byte[] bytes = client.in.array();
+        int length = client.in.position();
+        int headEnd = indexOf(bytes, length, "\r\n\r\n");
+        if (headEnd < 0) {
+            return;
+        }
+        String[] lines = new String(bytes, 0, headEnd,
+                StandardCharsets.ISO_8859_1).split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+        if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/")) {
+            reply(client, 400, "Bad Request");
+            return;
+        }
+        String method = requestLine[0];
+        String version = requestLine[2];
+        boolean keepAlive = !"HTTP/1.0".equals(version);
+        int contentLength = 0;
+        StringBuilder headers = new StringBuilder();
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            String name = lines[i].substring(0, colon).trim()
+                    .toLowerCase(Locale.ROOT);
+            String value = lines[i].substring(colon + 1).trim();
+            switch (name) {
+                case "connection":
+                    keepAlive = "HTTP/1.0".equals(version)
+                            ? "keep-alive".equalsIgnoreCase(value)
+                            : !"close".equalsIgnoreCase(value);
+                    break;
+                case "content-length":
+                    try {
+                        contentLength = Integer.parseInt(value);
+                    } catch (NumberFormatException e) {
+                        reply(client, 400, "Bad Request");
+                        return;
+                    }
+                    headers.append(lines[i]).append("\r\n");
+                    break;
+                case "transfer-encoding":
+                    reply(client, 501, "Not Implemented");
+                    return;
+                case "host":
+                case "keep-alive":
+                case "proxy-connection":
+                    break;
+                default:
+                    headers.append(lines[i]).append("\r\n");
+            }
+        }
+        int end = headEnd + 4 + contentLength;
+        if (end > MAX_REQUEST) {
+            reply(client, 413, "Payload Too Large");
+            return;
+        }
+        if (length < end) {
+            return;
+        }
+        Backend backend = choose();
+        if (backend == null) {
+            reply(client, 503, "Service Unavailable");
+            return;
+        }
+        String target = requestLine[1];
+        if (target.startsWith("http://")) {
+            int slash = target.indexOf('/', "http://".length());
+            target = slash < 0 ? "/" : target.substring(slash);
+        }
+        byte[] head = (method + " " + backend.pathPrefix + target
+                + " HTTP/1.1\r\nHost: " + backend.host + "\r\n" + headers
+                + "Connection: keep-alive\r\n\r\n")
+                .getBytes(StandardCharsets.ISO_8859_1);
+        ByteBuffer request = ByteBuffer.allocate(head.length + contentLength);
+        request.put(head).put(bytes, headEnd + 4, contentLength).flip();
+        // keep what the client sent after this request
+        client.in.flip().position(end);
+        client.in.compact();
+        client.keepAlive = keepAlive;
+        client.channel.keyFor(selector).interestOps(0);
+        send(client, backend, request, "HEAD".equals(method),
+                IDEMPOTENT_METHODS.contains(method), false);
+    }
+
+    /**
+     * Send a request on an idle or new connection to a backend.
+     * @param client client
+     * @param backend backend
+     * @param request request bytes
+     * @param head true for a HEAD request
+     * @param idempotent true when the request method is idempotent
+     * @param retried true when the request was already sent once
+     */
+    private void send(final Client client, final Backend backend,
+                      final ByteBuffer request, final boolean head,
+                      final boolean idempotent, final boolean retried) {
+        BackendConnection connection = backend.idle.poll();
+        boolean reused = connection != null;
+        if (connection == null) {
+            SocketChannel channel;
+            try {
+                channel = SocketChannel.open();
+            } catch (IOException e) {
+                reply(client, 502, "Bad Gateway");
+                return;
+            }
+            connection = new BackendConnection(channel, backend);
+        }
+        connection.client = client;
+        connection.request = request;
+        connection.framer.reset(head);
+        connection.head = head;
+        connection.idempotent = idempotent;
+        connection.startNanos = System.nanoTime();
+        connection.responding = false;
+        connection.reused = reused;
+        connection.retried = retried;
+        client.exchange = connection;
+        backend.outstanding++;
+        active.add(connection);
+        try {
+            if (reused) {
+                writeBackend(connection);
+                return;
+            }
+            SocketChannel channel = connection.channel;
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            if (channel.connect(backend.address)) {
+                channel.register(selector, 0, connection);
+                writeBackend(connection);
+            } else {
+                channel.register(selector, SelectionKey.OP_CONNECT, connection);
+            }
+        } catch (IOException e) {
+            fail(connection, 502, e.getMessage());
+        }
+    }
+
+    /**
+     * Write what the backend takes of the request, then wait for the
+     * response.
+     * @param connection backend connection
+     * @throws IOException when the socket fails
+     */
+    private void writeBackend(final BackendConnection connection)
+            throws IOException {
+        connection.channel.write(connection.request);
+        connection.channel.keyFor(selector).interestOps(
+                connection.request.hasRemaining()
+                        ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    /**
+     * Read response bytes from a backend and relay them.
+     * @param connection backend connection
+     * @throws IOException when the socket fails or the response is
+     *         malformed
+     */
+    private void readBackend(final BackendConnection connection)
+            throws IOException {
+        if (connection.client == null) {
+            // an idle connection only becomes readable when it is closed
+            connection.backend.idle.remove(connection);
+            close(connection.channel);
+            return;
+        }
+        connection.relay.clear();
+        int n = connection.channel.read(connection.relay);
+        if (n < 0) {
+            connection.spent = true;
+            if (!connection.framer.onEof()) {
+                throw new IOException("Backend closed the connection");
+            }
+            complete(connection);
+            return;
+        }
+        connection.relay.flip();
+        int response = connection.framer.scan(connection.relay);
+        if (response < connection.relay.remaining()) {
+            // bytes after the response: the connection is out of step
+            connection.relay.limit(connection.relay.position() + response);
+            connection.spent = true;
+        }
+        relay(connection);
+    }
+
+    /**
+     * Write the relay buffer to the client, pausing the backend while the
+     * client is slower.
+     * @param connection backend connection
+     * @throws IOException when the client socket fails
+     */
+    private void relay(final BackendConnection connection) throws IOException {
+        Client client = connection.client;
+        try {
+            client.channel.write(connection.relay);
+        } catch (IOException e) {
+            // the client left, which says nothing about the backend
+            closeClient(client);
+            return;
+        }
+        connection.responding = true;
+        if (connection.relay.hasRemaining()) {
+            connection.channel.keyFor(selector).interestOps(0);
+            client.channel.keyFor(selector).interestOps(SelectionKey.OP_WRITE);
+        } else if (connection.framer.isComplete()) {
+            complete(connection);
+        } else {
+            client.channel.keyFor(selector).interestOps(0);
+            connection.channel.keyFor(selector).interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Write to a client that was too slow.
+     * @param client client
+     * @throws IOException when the socket fails
+     */
+    private void writeClient(final Client client) throws IOException {
+        if (client.reply != null) {
+            client.channel.write(client.reply);
+            if (!client.reply.hasRemaining()) {
+                closeClient(client);
+            }
+        } else if (client.exchange != null) {
+            relay(client.exchange);
+        }
+    }
+
+    /**
+     * Account a relayed response, keep the backend connection, and go on
+     * with the next request of the client.
+     * @param connection backend connection
+     * @throws IOException when the client socket fails
+     */
+    private void complete(final BackendConnection connection)
+            throws IOException {
+        Client client = connection.client;
+        boolean failed = connection.framer.getStatus() >= 500;
+        if (connection.framer.isClose()) {
+            connection.spent = true;
+        }
+        finish(connection, failed, "status " + connection.framer.getStatus());
+        if (!client.keepAlive || connection.framer.isClose()) {
+            closeClient(client);
+            return;
+        }
+        client.channel.keyFor(selector).interestOps(SelectionKey.OP_READ);
+        forward(client);
+    }
+
+    /**
+     * Fail the request of a backend connection. A request on a reused
+     * connection that got no response is sent once more, on a new one,
+     * when its method is idempotent or none of its bytes were written, so
+     * a backend never acts twice on a POST.
+     * @param connection backend connection
+     * @param status status answered to the client when nothing was relayed
+     * @param reason reason in the log
+     */
+    private void fail(final BackendConnection connection, final int status,
+                      final String reason) {
+        Client client = connection.client;
+        if (client == null) {
+            connection.backend.idle.remove(connection);
+            close(connection.channel);
+            return;
+        }
+        connection.spent = true;
+        if (connection.reused && !connection.responding && !connection.retried
+                && (connection.idempotent || connection.request.position() == 0)) {
+            // the backend closed the idle connection as it was reused
+            release(connection);
+            connection.request.rewind();
+            send(client, connection.backend, connection.request,
+                    connection.head, connection.idempotent, true);
+            return;
+        }
+        finish(connection, true, reason);
+        if (connection.responding) {
+            closeClient(client);
+        } else {
+            reply(client, status, status == 504 ? "Gateway Timeout"
+                    : "Bad Gateway");
+        }
+    }
+
+    /**
+     * End the request of a backend connection, account it, and park or
+     * close the connection.
+     * @param connection backend connection
+     * @param failed true when the request failed or got a 5xx
+     * @param reason outcome in the log, should the backend be ejected
+     */
+    private void finish(final BackendConnection connection,
+                        final boolean failed, final String reason) {
+        Backend backend = connection.backend;
+        long micros = (System.nanoTime() - connection.startNanos) / 1000;
+        backend.requests++;
+        if (failed) {
+            backend.failures++;
+            if (++backend.consecutiveFailures >= EJECT_AFTER_FAILURES) {
+                eject(backend, EJECT_AFTER_FAILURES
+                        + " failures in a row, last: " + reason);
+            }
+        } else {
+            backend.consecutiveFailures = 0;
+            backend.latencyMicros.record(micros);
+            backend.ewmaMicros = backend.ewmaMicros < 0 ? micros
+                    : backend.ewmaMicros + EWMA_ALPHA
+                            * (micros - backend.ewmaMicros);
+            backend.samples++;
+            ejectIfSlow(backend);
+        }
+        release(connection);
+    }
+
+    /**
+     * End the request of a backend connection without accounting it, and
+     * park or close the connection.
+     * @param connection backend connection
+     */
+    private void release(final BackendConnection connection) {
+        Backend backend = connection.backend;
+        active.remove(connection);
+        backend.outstanding--;
+        if (connection.client != null) {
+            connection.client.exchange = null;
+        }
+        connection.client = null;
+        if (connection.spent || backend.removed) {
+            close(connection.channel);
+        } else {
+            connection.reused = true;
+            connection.channel.keyFor(selector).interestOps(SelectionKey.OP_READ);
+            backend.idle.add(connection);
+        }
+    }
+
+    /**
+     * Fail requests in flight for longer than the timeout.
+     * @param now current time
+     */
+    private void expire(final long now) {
+        List<BackendConnection> expired = new ArrayList<>();
+        for (BackendConnection connection : active) {
+            if (now - connection.startNanos > timeoutNanos) {
+                expired.add(connection);
+            }
+        }
+        for (BackendConnection connection : expired) {
+            connection.retried = true;
+            fail(connection, 504, "timeout");
+            close(connection.channel);
+        }
+    }
+
+    /**
+     * Pick the backend of the next request.
+     * @return backend, null when there is none
+     */
+    private Backend choose() {
+        long now = System.nanoTime();
+        List<Backend> available = new ArrayList<>();
+        List<Backend> all = new ArrayList<>(backends.values());
+        for (Backend backend : all) {
+            if (backend.ejectedUntil != 0 && now - backend.ejectedUntil >= 0) {
+                // back from ejection with a clean slate
+                backend.ejectedUntil = 0;
+                backend.ewmaMicros = -1;
+                backend.samples = 0;
+                System.out.println("Proxy restored " + backend.name);
+            }
+            if (backend.ejectedUntil == 0) {
+                available.add(backend);
+            }
+        }
+        if (available.isEmpty()) {
+            // with every backend ejected, ejection protects nothing
+            available = all;
+        }
+        if (available.isEmpty()) {
+            return null;
+        }
+        int size = available.size();
+        if (policy == Policy.POWER_OF_TWO) {
+            if (size == 1) {
+                return available.get(0);
+            }
+            int first = random.nextInt(size);
+            int second = random.nextInt(size - 1);
+            if (second >= first) {
+                second++;
+            }
+            Backend a = available.get(first);
+            Backend b = available.get(second);
+            return compare(b, a) < 0 ? b : a;
+        }
+        rotation = (rotation + 1) % size;
+        Backend best = null;
+        for (int i = 0; i < size; i++) {
+            Backend backend = available.get((rotation + i) % size);
+            if (best == null || compare(backend, best) < 0) {
+                best = backend;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Order backends by requests in flight, then smoothed latency; a
+     * backend without a measure counts as fastest so it gets one.
+     * @param a backend
+     * @param b backend
+     * @return negative when a is better
+     */
+    private static int compare(final Backend a, final Backend b) {
+        if (a.outstanding != b.outstanding) {
+            return Integer.compare(a.outstanding, b.outstanding);
+        }
+        return Double.compare(Math.max(a.ewmaMicros, 0),
+                Math.max(b.ewmaMicros, 0));
+    }
+
+    /**
+     * Eject a backend whose smoothed latency is far above the median of
+     * the others.
+     * @param backend backend that just answered
+     */
+    private void ejectIfSlow(final Backend backend) {
+        if (backend.samples < SLOW_MIN_SAMPLES) {
+            return;
+        }
+        List<Double> others = new ArrayList<>();
+        for (Backend other : backends.values()) {
+            if (other != backend && other.ejectedUntil == 0
+                    && other.samples >= SLOW_MIN_SAMPLES) {
+                others.add(other.ewmaMicros);
+            }
+        }
+        if (others.size() + 1 < SLOW_MIN_BACKENDS) {
+            return;
+        }
+        Collections.sort(others);
+        double median = others.get(others.size() / 2);
+        if (backend.ewmaMicros > SLOW_FACTOR * median) {
+            eject(backend, String.format(Locale.ROOT,
+                    "%.1f ms smoothed latency, median %.1f ms",
+                    backend.ewmaMicros / 1000, median / 1000));
+        }
+    }
+
+    /**
+     * Eject a backend, unless too many are ejected already.
+     * @param backend backend
+     * @param reason reason in the log
+     */
+    private void eject(final Backend backend, final String reason) {
+        backend.consecutiveFailures = 0;
+        int ejected = 0;
+        for (Backend other : backends.values()) {
+            if (other.ejectedUntil != 0) {
+                ejected++;
+            }
+        }
+        if (backend.ejectedUntil != 0
+                || ejected + 1 > MAX_EJECTED_FRACTION * backends.size()) {
+            return;
+        }
+        backend.ejections++;
+        long nanos = EJECTION_NANOS
+                * Math.min(backend.ejections, MAX_EJECTION_MULTIPLE);
+        backend.ejectedUntil = System.nanoTime() + nanos;
+        System.out.println("Proxy ejected " + backend.name + " for "
+                + TimeUnit.NANOSECONDS.toSeconds(nanos) + " s: " + reason);
+    }
+
+    /**
+     * Answer a client from the proxy and close it.
+     * @param client client
+     * @param status status code
+     * @param reason reason phrase
+     */
+    private void reply(final Client client, final int status,
+                       final String reason) {
+        client.reply = ByteBuffer.wrap(("HTTP/1.1 " + status + " " + reason
+                + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n")
+                .getBytes(StandardCharsets.ISO_8859_1));
+        try {
+            writeClient(client);
+            if (client.channel.isOpen()) {
+                client.channel.keyFor(selector).interestOps(SelectionKey.OP_WRITE);
+            }
+        } catch (IOException e) {
+            closeClient(client);
+        }
+    }
+
+    /**
+     * Close a client, and the backend connection of its request if any.
+     * @param client client
+     */
+    private void closeClient(final Client client) {
+        BackendConnection connection = client.exchange;
+        if (connection != null) {
+            connection.spent = true;
+            release(connection);
+        }
+        close(client.channel);
+    }
+
+    /**
+     * Find bytes in an array.
+     * @param array array
+     * @param length length of the data
+     * @param pattern ASCII pattern
+     * @return index of the pattern, -1 if absent
+     */
+    private static int indexOf(final byte[] array, final int length,
+                               final String pattern) {
+        byte[] bytes = pattern.getBytes(StandardCharsets.US_ASCII);
+        outer:
+        for (int i = 0; i <= length - bytes.length; i++) {
+            for (int j = 0; j < bytes.length; j++) {
+                if (array[i + j] != bytes[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Close quietly.
+     * @param channel channel or selector, may be null
+     */
+    private static void close(final java.io.Closeable channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // nothing left to do with it
+        }
+    }
+
+    /**
+     * Run a proxy in front of fixed backends until killed.
+     * @param args [address:]port, loopback unless an address is given,
+     *             "least-outstanding" or "power-of-two", and the
+     *             backends as "host[:port][/path]" or URLs
+     * @throws Exception when the port cannot be bound
+     */
+    public static void main(final String[] args) throws Exception {
+        if (args.length < 3) {
+            System.out.println("Usage: BalancingProxy [address:]port policy backend...");
+            return;
+        }
+        BalancingProxy proxy = new BalancingProxy(Policy.forName(args[1]),
+                TimeUnit.SECONDS.toMillis(10));
+        proxy.setBackends(Arrays.asList(args).subList(2, args.length));
+        int colon = args[0].lastIndexOf(':');
+        if (colon < 0) {
+            proxy.start(Integer.parseInt(args[0]));
+        } else {
+            proxy.start(InetAddress.getByName(args[0].substring(0, colon)),
+                    Integer.parseInt(args[0].substring(colon + 1)));
+        }
+        while (true) {
+            Thread.sleep(TimeUnit.SECONDS.toMillis(10));
+            for (Backend backend : proxy.getBackends()) {
+                System.out.println(String.format(Locale.ROOT,
+                        "%s: %d requests, %d failures, %d in flight,"
+                                + " p99 %.1f ms%s", backend.name,
+                        backend.requests, backend.failures, backend.outstanding,
+                        backend.latencyMicros.getValueAtPercentile(99) / 1000.0,
+                        backend.isEjected() ? ", ejected" : ""));
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package utilities;
+
+/**
+ * Source of time for the control loop, optionally accelerated.
+ *
+ * With a speedup of 60, one real second is one simulated minute: sleeps
+ * are divided by the speedup and elapsed time is multiplied by it.
+ */
+public final class Clock {
+    /**
+     * Wall clock.
+     */
+    public static final Clock SYSTEM = new Clock(1);
+
+    /**
+     * Simulated milliseconds per real millisecond.
+     */
+    private final double speedup;
+    /**
+     * Real time at construction.
+     */
+    private final long realOrigin;
+
+    /**
+     * Constructor.
+     * @param speedup simulated milliseconds per real millisecond
+     */
+    public Clock(final double speedup) {
+        this.speedup = speedup;
+        this.realOrigin = System.currentTimeMillis();
+    }
+
+    /**
+     * @return current time in milliseconds, simulated if accelerated
+     */
+    public long currentTimeMillis() {
+        long now = System.currentTimeMillis();
+        if (speedup == 1) {
+            return now;
+        }
+        return realOrigin + (long) ((now - realOrigin) * speedup);
+    }
+
+    /**
+     * Sleep for a duration of this clock.
+     * @param millis duration in milliseconds
+     * @throws InterruptedException when interrupted while sleeping
+     */
+    public void sleep(final long millis) throws InterruptedException {
+        Thread.sleep(toRealMillis(millis));
+    }
+
+    /**
+     * Convert a duration of this clock to real milliseconds.
+     * @param millis duration in milliseconds
+     * @return real duration, at least 1 ms for positive durations
+     */
+    public long toRealMillis(final long millis) {
+        if (speedup == 1 || millis <= 0) {
+            return millis;
+        }
+        return Math.max(1, (long) (millis / speedup));
+    }
+
+    /**
+     * @return simulated milliseconds per real millisecond
+     */
+    public double getSpeedup() {
+        return speedup;
+    }
+}
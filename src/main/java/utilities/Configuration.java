@@ -1,22 +1,32 @@
 package utilities;
 
-import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.json.JSONArray;
 import org.json.JSONObject;
 
-import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.nio.charset.Charset;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 public class Configuration {
     private JSONObject config;
 
     public Configuration(String fileName) {
-        File configFile = new File(this.getClass().getClassLoader().getResource(fileName).getFile());
-        try {
-            config = new JSONObject(FileUtils.readFileToString(configFile,
-                    Charset.defaultCharset()));
+        // read as a stream, so the file is found inside a jar too
+        try (InputStream in = this.getClass().getClassLoader()
+                .getResourceAsStream(fileName)) {
+            if (in == null) {
+                throw new FileNotFoundException(fileName + " not on the classpath");
+            }
+            config = new JSONObject(IOUtils.toString(in, StandardCharsets.UTF_8));
         } catch (IOException e) {
             e.printStackTrace();
+            config = new JSONObject();
         }
     }
 
@@ -24,11 +34,45 @@ public class Configuration {
         return config.getString(key);
     }
 
+    public String getString(String key, String defaultValue) {
+        return config.optString(key, defaultValue);
+    }
+
     public Integer getInt(String key) {
         return config.getInt(key);
     }
 
+    public Integer getInt(String key, int defaultValue) {
+        return config.optInt(key, defaultValue);
+    }
+
     public Double getDouble(String key) {
         return config.getDouble(key);
     }
+
+    public Double getDouble(String key, double defaultValue) {
+        return config.optDouble(key, defaultValue);
+    }
+
+    public List<String> getStringList(String key) {
+        List<String> values = new ArrayList<>();
+        JSONArray array = config.optJSONArray(key);
+        if (array != null) {
+            for (int i = 0; i < array.length(); i++) {
+                values.add(array.getString(i));
+            }
+        }
+        return values;
+    }
+
+    public Map<String, Double> getDoubleMap(String key) {
+        Map<String, Double> values = new LinkedHashMap<>();
+        JSONObject object = config.optJSONObject(key);
+        if (object != null) {
+            for (String name : object.keySet()) {
+                values.put(name, object.getDouble(name));
+            }
+        }
+        return values;
+    }
 }
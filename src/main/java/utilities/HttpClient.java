@@ -0,0 +1,421 @@
+package utilities;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HTTP GET client with timeouts, keep-alive reuse and retries.
+ *
+ * Response bodies are always read to the end and streams closed without
+ * disconnecting, so the JDK keeps the connection alive for the next request
+ * to the same host. Latency and retries are counted per URL path; query
+ * strings are never recorded since they may carry credentials.
+ */
+public final class HttpClient {
+    /**
+     * Size of the body read buffer.
+     */
+    private static final int BUFFER_SIZE = 8192;
+    /**
+     * First status code counted as a failed request.
+     */
+    private static final int HTTP_SERVER_ERROR = 500;
+
+    /**
+     * Counters of one endpoint.
+     */
+    public static final class EndpointStats {
+        /**
+         * Completed requests.
+         */
+        private final AtomicLong requests = new AtomicLong();
+        /**
+         * Failed requests, retried or not.
+         */
+        private final AtomicLong failures = new AtomicLong();
+        /**
+         * Retries after a failure.
+         */
+        private final AtomicLong retries = new AtomicLong();
+        /**
+         * Sum of request latencies in nanoseconds.
+         */
+        private final AtomicLong totalNanos = new AtomicLong();
+        /**
+         * Highest request latency in nanoseconds.
+         */
+        private final AtomicLong maxNanos = new AtomicLong();
+        /**
+         * Latency of every request in microseconds.
+         */
+        private final LatencyHistogram latencyMicros = new LatencyHistogram();
+        /**
+         * Time from the first attempt to the result of retried calls, in
+         * milliseconds, retries and backoff included.
+         */
+        private final LatencyHistogram completionMillis = new LatencyHistogram();
+
+        /**
+         * Record one request.
+         * @param nanos latency in nanoseconds
+         * @param failed true if the request failed
+         */
+        void record(final long nanos, final boolean failed) {
+            requests.incrementAndGet();
+            if (failed) {
+                failures.incrementAndGet();
+            }
+            totalNanos.addAndGet(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+            latencyMicros.record(nanos / 1000);
+        }
+
+        /**
+         * @return completed requests
+         */
+        public long getRequests() {
+            return requests.get();
+        }
+
+        /**
+         * @return failed requests
+         */
+        public long getFailures() {
+            return failures.get();
+        }
+
+        /**
+         * @return retries after a failure
+         */
+        public long getRetries() {
+            return retries.get();
+        }
+
+        /**
+         * @return mean latency in milliseconds
+         */
+        public double getMeanMillis() {
+            long count = requests.get();
+            return count == 0 ? 0 : totalNanos.get() / 1e6 / count;
+        }
+
+        /**
+         * @return highest latency in milliseconds
+         */
+        public double getMaxMillis() {
+            return maxNanos.get() / 1e6;
+        }
+
+        /**
+         * @return latency of every request in microseconds
+         */
+        public LatencyHistogram getLatencyMicros() {
+            return latencyMicros;
+        }
+
+        /**
+         * @return time from the first attempt to the result of retried
+         *         calls in milliseconds
+         */
+        public LatencyHistogram getCompletionMillis() {
+            return completionMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("requests=%d failures=%d retries=%d"
+                            + " mean=%.1fms p99=%.1fms max=%.1fms",
+                    getRequests(), getFailures(), getRetries(),
+                    getMeanMillis(), latencyMicros.getValueAtPercentile(99) / 1e3,
+                    getMaxMillis());
+        }
+    }
+
+    /**
+     * Connect timeout in milliseconds.
+     */
+    private final int connectTimeoutMillis;
+    /**
+     * Read timeout in milliseconds.
+     */
+    private final int readTimeoutMillis;
+    /**
+     * Retry policy of {@link #getWithRetry}.
+     */
+    private final RetryPolicy retryPolicy;
+    /**
+     * Clock of the retry budget and backoff delays.
+     */
+    private final Clock clock;
+    /**
+     * Counters per URL path.
+     */
+    private final Map<String, EndpointStats> stats = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     * @param connectTimeoutMillis connect timeout in milliseconds
+     * @param readTimeoutMillis read timeout in milliseconds
+     * @param retryPolicy retry policy of {@link #getWithRetry}
+     */
+    public HttpClient(final int connectTimeoutMillis,
+                      final int readTimeoutMillis,
+                      final RetryPolicy retryPolicy) {
+        this(connectTimeoutMillis, readTimeoutMillis, retryPolicy,
+                Clock.SYSTEM);
+    }
+
+    /**
+     * Constructor.
+     * @param connectTimeoutMillis connect timeout in milliseconds
+     * @param readTimeoutMillis read timeout in milliseconds
+     * @param retryPolicy retry policy of {@link #getWithRetry}
+     * @param clock clock of the retry budget and backoff delays,
+     *              accelerated in simulations
+     */
+    public HttpClient(final int connectTimeoutMillis,
+                      final int readTimeoutMillis,
+                      final RetryPolicy retryPolicy, final Clock clock) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.retryPolicy = retryPolicy;
+        this.clock = clock;
+    }
+
+    /**
+     * Make one HTTP GET request.
+     * @param url Input URL
+     * @return status code and body, whatever the status
+     * @throws IOException when network failure occurs
+     */
+    public HttpRequest.Response get(final String url) throws IOException {
+        return get(url, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Make one HTTP GET request with extra headers.
+     * @param url Input URL
+     * @param headers request headers
+     * @return status code and body, whatever the status
+     * @throws IOException when network failure occurs
+     */
+    public HttpRequest.Response get(final String url,
+                                    final Map<String, String> headers)
+            throws IOException {
+        URL target = new URL(url);
+        EndpointStats endpoint = endpoint(target.getPath());
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            HttpURLConnection con = (HttpURLConnection) target.openConnection();
+            con.setConnectTimeout(connectTimeoutMillis);
+            con.setReadTimeout(readTimeoutMillis);
+            con.setUseCaches(false);
+            con.setRequestMethod("GET");
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                con.setRequestProperty(header.getKey(), header.getValue());
+            }
+            int status = con.getResponseCode();
+            InputStream in = status >= HttpURLConnection.HTTP_BAD_REQUEST
+                    ? con.getErrorStream() : con.getInputStream();
+            byte[] body = readFully(in);
+            failed = status >= HTTP_SERVER_ERROR;
+            return new HttpRequest.Response(status, body);
+        } finally {
+            endpoint.record(System.nanoTime() - start, failed);
+        }
+    }
+
+    /**
+     * Make a HTTP GET request, retrying network failures and error statuses
+     * with backoff until the retry budget is spent.
+     * @param url Input URL
+     * @return the first response below 400
+     * @throws IOException when the budget is spent
+     */
+    public HttpRequest.Response getWithRetry(final String url)
+            throws IOException {
+        EndpointStats endpoint = endpoint(new URL(url).getPath());
+        long start = clock.currentTimeMillis();
+        int attempt = 0;
+        while (true) {
+            IOException failure;
+            try {
+                HttpRequest.Response response = get(url);
+                if (response.getStatus() < HttpURLConnection.HTTP_BAD_REQUEST) {
+                    endpoint.completionMillis.record(
+                            clock.currentTimeMillis() - start);
+                    return response;
+                }
+                failure = new IOException("Server returned HTTP response code: "
+                        + response.getStatus());
+            } catch (IOException e) {
+                failure = e;
+            }
+            attempt++;
+            long now = clock.currentTimeMillis();
+            if (retryPolicy.isExhausted(start, now)) {
+                endpoint.completionMillis.record(now - start);
+                throw failure;
+            }
+            endpoint.retries.incrementAndGet();
+            try {
+                clock.sleep(retryPolicy.delayMillis(attempt, start, now));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while retrying", e);
+            }
+        }
+    }
+
+    /**
+     * Make a HTTP GET request without blocking the caller, retrying like
+     * {@link #getWithRetry}. Attempts run on the executor and backoff delays
+     * on the scheduler; cancelling the returned future stops the retries.
+     * @param url Input URL
+     * @param scheduler timer of the backoff delays
+     * @param executor threads making the requests
+     * @return future completed with the first response below 400
+     */
+    public CompletableFuture<HttpRequest.Response> getWithRetryAsync(
+            final String url, final ScheduledExecutorService scheduler,
+            final Executor executor) {
+        CompletableFuture<HttpRequest.Response> result = new CompletableFuture<>();
+        long start = clock.currentTimeMillis();
+        try {
+            EndpointStats endpoint = endpoint(new URL(url).getPath());
+            result.whenComplete((response, e) -> {
+                if (!(e instanceof CancellationException)) {
+                    endpoint.completionMillis.record(
+                            clock.currentTimeMillis() - start);
+                }
+            });
+        } catch (IOException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+        attempt(url, scheduler, executor, result, 1, start);
+        return result;
+    }
+
+    /**
+     * @return the retry policy
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Count a retry made by a caller outside {@link #getWithRetry}.
+     * @param url Input URL
+     * @throws IOException on a malformed URL
+     */
+    public void countRetry(final String url) throws IOException {
+        endpoint(new URL(url).getPath()).retries.incrementAndGet();
+    }
+
+    /**
+     * @return counters per URL path, sorted by path
+     */
+    public Map<String, EndpointStats> getStats() {
+        return Collections.unmodifiableMap(new TreeMap<>(stats));
+    }
+
+    /**
+     * Make one attempt of {@link #getWithRetryAsync} and schedule the next
+     * one on failure.
+     * @param url Input URL
+     * @param scheduler timer of the backoff delays
+     * @param executor threads making the requests
+     * @param result future to complete
+     * @param attempt attempt number, starting at 1
+     * @param start time of the first attempt
+     */
+    private void attempt(final String url,
+                         final ScheduledExecutorService scheduler,
+                         final Executor executor,
+                         final CompletableFuture<HttpRequest.Response> result,
+                         final int attempt, final long start) {
+        try {
+            executor.execute(() -> {
+                if (result.isDone()) {
+                    return;
+                }
+                IOException failure;
+                try {
+                    HttpRequest.Response response = get(url);
+                    if (response.getStatus() < HttpURLConnection.HTTP_BAD_REQUEST) {
+                        result.complete(response);
+                        return;
+                    }
+                    failure = new IOException("Server returned HTTP response code: "
+                            + response.getStatus());
+                } catch (IOException e) {
+                    failure = e;
+                }
+                long now = clock.currentTimeMillis();
+                if (retryPolicy.isExhausted(start, now)) {
+                    result.completeExceptionally(failure);
+                    return;
+                }
+                try {
+                    countRetry(url);
+                    scheduler.schedule(() -> attempt(url, scheduler, executor,
+                            result, attempt + 1, start),
+                            clock.toRealMillis(
+                                    retryPolicy.delayMillis(attempt, start, now)),
+                            TimeUnit.MILLISECONDS);
+                } catch (IOException | RejectedExecutionException e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Get the counters of a path.
+     * @param path URL path
+     * @return endpoint counters
+     */
+    private EndpointStats endpoint(final String path) {
+        return stats.computeIfAbsent(path.isEmpty() ? "/" : path,
+                key -> new EndpointStats());
+    }
+
+    /**
+     * Read a stream to the end and close it.
+     * @param in input stream, may be null
+     * @return bytes read
+     * @throws IOException on read failure
+     */
+    private static byte[] readFully(final InputStream in) throws IOException {
+        if (in == null) {
+            return new byte[0];
+        }
+        try (InputStream stream = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+}
@@ -1,15 +1,61 @@
 package utilities;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
-import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 
 /**
  * HTTP Request Utility Class.
  */
 public final class HttpRequest {
+    /**
+     * Client shared by the static helpers.
+     */
+    private static final HttpClient DEFAULT_CLIENT = new HttpClient(
+            5000, 30000, new RetryPolicy(100, 5000, 60000));
+    /**
+     * Status code of a Range beyond the end of the resource.
+     */
+    public static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    /**
+     * Status code and raw body of a response.
+     */
+    public static final class Response {
+        /**
+         * HTTP status code.
+         */
+        private final int status;
+        /**
+         * Response body.
+         */
+        private final byte[] body;
+
+        /**
+         * Constructor.
+         * @param status HTTP status code
+         * @param body response body
+         */
+        public Response(final int status, final byte[] body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        /**
+         * @return HTTP status code
+         */
+        public int getStatus() {
+            return status;
+        }
+
+        /**
+         * @return response body
+         */
+        public byte[] getBody() {
+            return body;
+        }
+    }
 
     /**
      * Private Constructor.
@@ -24,28 +70,56 @@ public final class HttpRequest {
      */
 
     public static String sendGet(final String url) throws IOException {
+        Response response = DEFAULT_CLIENT.get(url);
+        if (response.getStatus() >= HttpURLConnection.HTTP_BAD_REQUEST) {
+            throw new IOException("Server returned HTTP response code: "
+                    + response.getStatus());
+        }
+        return new String(response.getBody(), StandardCharsets.UTF_8);
+    }
 
-        URL obj = new URL(url);
-        HttpURLConnection con = (HttpURLConnection) obj.openConnection();
-
-        // optional default is GET
-        con.setRequestMethod("GET");
-        con.getResponseCode();
-
-        BufferedReader in = new BufferedReader(
-                new InputStreamReader(con.getInputStream()));
+    /**
+     * Make a HTTP GET request to a URL, retrying with the client's policy.
+     * @param client HTTP client
+     * @param url Input URL
+     * @return response of the request
+     * @throws IOException when the retry budget is spent
+     */
+    public static String sendGet(final HttpClient client, final String url)
+            throws IOException {
+        Response response = client.getWithRetry(url);
+        return new String(response.getBody(), StandardCharsets.UTF_8);
+    }
 
-        String inputLine;
-        StringBuilder response = new StringBuilder();
+    /**
+     * Make a HTTP GET request for the bytes of a URL starting at an offset.
+     * Servers that ignore the Range header answer 200 with the full body.
+     * @param url Input URL
+     * @param offset first byte wanted
+     * @return status code and body of the response
+     * @throws IOException when network failure occurs
+     */
+    public static Response sendRangeGet(final String url, final long offset)
+            throws IOException {
+        return sendRangeGet(DEFAULT_CLIENT, url, offset);
+    }
 
-        while ((inputLine = in.readLine()) != null) {
-            response.append(inputLine);
-            response.append("\n");
+    /**
+     * Make a HTTP GET request for the bytes of a URL starting at an offset.
+     * @param client HTTP client
+     * @param url Input URL
+     * @param offset first byte wanted
+     * @return status code and body of the response, empty past the end
+     * @throws IOException when network failure occurs
+     */
+    public static Response sendRangeGet(final HttpClient client,
+                                        final String url, final long offset)
+            throws IOException {
+        Response response = client.get(url,
+                Collections.singletonMap("Range", "bytes=" + offset + "-"));
+        if (response.getStatus() == HTTP_RANGE_NOT_SATISFIABLE) {
+            return new Response(response.getStatus(), new byte[0]);
         }
-        in.close();
-
-        //return result
-        return response.toString();
-
+        return response;
     }
 }
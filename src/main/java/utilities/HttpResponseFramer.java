@@ -0,0 +1,301 @@
+package utilities;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Finds where an HTTP/1.1 response ends while its bytes stream past.
+ *
+ * The head is parsed; the body, delimited by a Content-Length, chunked or
+ * ending with the connection, is only counted off, so it can be forwarded
+ * or dropped without being copied.
+ */
+final class HttpResponseFramer {
+    /**
+     * Largest response head accepted.
+     */
+    private static final int MAX_HEAD = 64 * 1024;
+    /**
+     * Longest chunk size or trailer line accepted.
+     */
+    private static final int MAX_LINE = 4096;
+
+    /**
+     * Part of the response expected next.
+     */
+    private enum Stage {
+        /**
+         * Status line and headers.
+         */
+        HEAD,
+        /**
+         * Body with a Content-Length.
+         */
+        BODY,
+        /**
+         * Size line of a chunk.
+         */
+        CHUNK_SIZE,
+        /**
+         * Data of a chunk.
+         */
+        CHUNK_DATA,
+        /**
+         * CRLF after the data of a chunk.
+         */
+        CHUNK_END,
+        /**
+         * Trailer lines after the last chunk.
+         */
+        TRAILER,
+        /**
+         * Body ending with the connection.
+         */
+        UNTIL_EOF,
+        /**
+         * Response complete.
+         */
+        DONE
+    }
+
+    /**
+     * Bytes of the head received so far.
+     */
+    private byte[] head = new byte[512];
+    /**
+     * Number of head bytes received.
+     */
+    private int headLength;
+    /**
+     * Chunk size or trailer line received so far.
+     */
+    private final StringBuilder line = new StringBuilder();
+    /**
+     * Part of the response expected next.
+     */
+    private Stage stage = Stage.HEAD;
+    /**
+     * Bytes left in the body, the chunk, or the CRLF after a chunk.
+     */
+    private long remaining;
+    /**
+     * Status code, 0 until the head is parsed.
+     */
+    private int status;
+    /**
+     * True when the server closes the connection after the response.
+     */
+    private boolean close;
+    /**
+     * True when the request was HEAD, whose response has no body.
+     */
+    private boolean headRequest;
+
+    /**
+     * Expect the next response.
+     * @param forHead true when the request was HEAD
+     */
+    void reset(final boolean forHead) {
+        headLength = 0;
+        line.setLength(0);
+        stage = Stage.HEAD;
+        remaining = 0;
+        status = 0;
+        close = false;
+        headRequest = forHead;
+    }
+
+    /**
+     * Scan received bytes from the position to the limit of a buffer,
+     * leaving the buffer untouched.
+     * @param bytes received bytes
+     * @return number of them belonging to the current response
+     * @throws IOException on a malformed response
+     */
+    int scan(final ByteBuffer bytes) throws IOException {
+        int start = bytes.position();
+        int limit = bytes.limit();
+        int i = start;
+        while (i < limit && stage != Stage.DONE) {
+            switch (stage) {
+                case HEAD:
+                    addHead(bytes.get(i++));
+                    break;
+                case BODY:
+                case CHUNK_DATA:
+                    int n = (int) Math.min(remaining, limit - i);
+                    i += n;
+                    remaining -= n;
+                    if (remaining == 0) {
+                        stage = stage == Stage.BODY ? Stage.DONE : Stage.CHUNK_END;
+                        remaining = 2;
+                    }
+                    break;
+                case CHUNK_END:
+                    i++;
+                    if (--remaining == 0) {
+                        stage = Stage.CHUNK_SIZE;
+                    }
+                    break;
+                case CHUNK_SIZE:
+                case TRAILER:
+                    addLine((char) (bytes.get(i++) & 0xFF));
+                    break;
+                default:
+                    // UNTIL_EOF: everything up to the close is body
+                    i = limit;
+            }
+        }
+        return i - start;
+    }
+
+    /**
+     * @return true once the response is complete
+     */
+    boolean isComplete() {
+        return stage == Stage.DONE;
+    }
+
+    /**
+     * Note that the server closed the connection.
+     * @return true when the response is complete
+     */
+    boolean onEof() {
+        if (stage == Stage.UNTIL_EOF) {
+            stage = Stage.DONE;
+        }
+        return stage == Stage.DONE;
+    }
+
+    /**
+     * @return status code, 0 until the head is received
+     */
+    int getStatus() {
+        return status;
+    }
+
+    /**
+     * @return true when the connection cannot be reused
+     */
+    boolean isClose() {
+        return close;
+    }
+
+    /**
+     * Add a head byte, and parse the head once it ends.
+     * @param b head byte
+     * @throws IOException on a malformed or oversized head
+     */
+    private void addHead(final byte b) throws IOException {
+        if (headLength == head.length) {
+            if (head.length >= MAX_HEAD) {
+                throw new IOException("Response head too large");
+            }
+            byte[] larger = new byte[head.length * 2];
+            System.arraycopy(head, 0, larger, 0, headLength);
+            head = larger;
+        }
+        head[headLength++] = b;
+        if (b == '\n' && headLength >= 4 && head[headLength - 2] == '\r'
+                && head[headLength - 3] == '\n' && head[headLength - 4] == '\r') {
+            parseHead();
+        }
+    }
+
+    /**
+     * Parse the status line and headers, and find how the body ends.
+     * @throws IOException on a malformed head
+     */
+    private void parseHead() throws IOException {
+        String[] lines = new String(head, 0, headLength - 4,
+                StandardCharsets.ISO_8859_1).split("\r\n");
+        String[] statusLine = lines[0].split(" ");
+        if (statusLine.length < 2 || !statusLine[0].startsWith("HTTP/")) {
+            throw new IOException("Bad status line " + lines[0]);
+        }
+        try {
+            status = Integer.parseInt(statusLine[1]);
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad status line " + lines[0], e);
+        }
+        headLength = 0;
+        if (status / 100 == 1) {
+            // an interim response precedes the real one
+            return;
+        }
+        close = "HTTP/1.0".equals(statusLine[0]);
+        long contentLength = -1;
+        boolean chunked = false;
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            String name = lines[i].substring(0, colon).trim()
+                    .toLowerCase(Locale.ROOT);
+            String value = lines[i].substring(colon + 1).trim();
+            if ("content-length".equals(name)) {
+                try {
+                    contentLength = Long.parseLong(value);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Bad Content-Length " + value, e);
+                }
+            } else if ("transfer-encoding".equals(name)) {
+                chunked = value.toLowerCase(Locale.ROOT).contains("chunked");
+            } else if ("connection".equals(name)) {
+                close = "close".equalsIgnoreCase(value)
+                        || close && !"keep-alive".equalsIgnoreCase(value);
+            }
+        }
+        if (headRequest || status == 204 || status == 304) {
+            stage = Stage.DONE;
+        } else if (chunked) {
+            stage = Stage.CHUNK_SIZE;
+        } else if (contentLength >= 0) {
+            remaining = contentLength;
+            stage = contentLength == 0 ? Stage.DONE : Stage.BODY;
+        } else {
+            close = true;
+            stage = Stage.UNTIL_EOF;
+        }
+    }
+
+    /**
+     * Add a character of a chunk size or trailer line, and act on the
+     * line once it ends.
+     * @param c character
+     * @throws IOException on a malformed or oversized line
+     */
+    private void addLine(final char c) throws IOException {
+        if (c == '\r') {
+            return;
+        }
+        if (c != '\n') {
+            if (line.length() >= MAX_LINE) {
+                throw new IOException("Chunk line too long");
+            }
+            line.append(c);
+            return;
+        }
+        if (stage == Stage.TRAILER) {
+            // an empty line ends the trailers
+            if (line.length() == 0) {
+                stage = Stage.DONE;
+            }
+            line.setLength(0);
+            return;
+        }
+        int semicolon = line.indexOf(";");
+        String size = (semicolon < 0 ? line.toString()
+                : line.substring(0, semicolon)).trim();
+        line.setLength(0);
+        try {
+            remaining = Long.parseLong(size, 16);
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad chunk size " + size, e);
+        }
+        stage = remaining == 0 ? Stage.TRAILER : Stage.CHUNK_DATA;
+    }
+}
@@ -0,0 +1,145 @@
+package utilities;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of non-negative values, e.g. latencies.
+ *
+ * Buckets are log-linear, as in HdrHistogram: values below 64 get one
+ * bucket each, and every power of two above is split into 32 buckets, so
+ * a percentile is within about 3% of the recorded value. Recording is one
+ * atomic increment per counter and allocates nothing. Values are in
+ * whatever unit the caller records.
+ */
+public final class LatencyHistogram {
+    /**
+     * Bits of sub-bucket precision.
+     */
+    private static final int SUB_BUCKET_BITS = 5;
+    /**
+     * Sub-buckets per power of two.
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /**
+     * Number of buckets covering every non-negative long.
+     */
+    private static final int BUCKETS =
+            (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    /**
+     * Count per bucket.
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    /**
+     * Number of values.
+     */
+    private final AtomicLong count = new AtomicLong();
+    /**
+     * Sum of the values.
+     */
+    private final AtomicLong sum = new AtomicLong();
+    /**
+     * Highest value.
+     */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a value.
+     * @param value value, negative values count as 0
+     */
+    public void record(final long value) {
+        long v = Math.max(0, value);
+        counts.incrementAndGet(index(v));
+        count.incrementAndGet();
+        sum.addAndGet(v);
+        max.accumulateAndGet(v, Math::max);
+    }
+
+    /**
+     * @return number of values
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return mean value, 0 without values
+     */
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * @return sum of the values
+     */
+    public long getSum() {
+        return sum.get();
+    }
+
+    /**
+     * @return highest value
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Value below which a share of the values falls.
+     * @param percentile percentile, 0 to 100
+     * @return highest value of the bucket holding the percentile, capped by
+     *         the highest value; 0 without values
+     */
+    public long getValueAtPercentile(final double percentile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValue(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT,
+                "count=%d mean=%.1f p50=%d p90=%d p99=%d max=%d",
+                getCount(), getMean(), getValueAtPercentile(50),
+                getValueAtPercentile(90), getValueAtPercentile(99), getMax());
+    }
+
+    /**
+     * @param value non-negative value
+     * @return its bucket
+     */
+    private static int index(final long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value)
+                - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS
+                + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * @param index bucket
+     * @return highest value of the bucket
+     */
+    private static long highestValue(final int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long sub = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,714 @@
+package utilities;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Open-loop HTTP load driver on non-blocking sockets.
+ *
+ * Requests are due at a fixed arrival rate, round robin over the targets,
+ * whether or not earlier ones have been answered. One selector thread
+ * multiplexes keep-alive connections; a request waits for a free
+ * connection when a target has as many in flight as its connection limit.
+ * Latency is measured from the time a request was due, not from the time
+ * it was sent, so a slow server is not hidden by the driver sending less
+ * (coordinated omission); the time from send to answer is recorded
+ * separately as service time. Completions are reported every second.
+ */
+public final class LoadDriver {
+    /**
+     * Nanoseconds per second.
+     */
+    private static final long SECOND_NANOS = TimeUnit.SECONDS.toNanos(1);
+    /**
+     * Size of a read.
+     */
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    /**
+     * First status code counted as an error.
+     */
+    private static final int HTTP_BAD_REQUEST = 400;
+
+    /**
+     * Receives the completions of every second.
+     */
+    public interface Listener {
+        /**
+         * Called once per second of the run.
+         * @param second second of the run, from 1
+         * @param completed requests answered in the second
+         * @param errors requests failed in the second
+         * @param latencyMicros latency of the answered requests
+         */
+        void onSecond(int second, long completed, long errors,
+                      LatencyHistogram latencyMicros);
+    }
+
+    /**
+     * Outcome of a run.
+     */
+    public static final class Result {
+        /**
+         * Requests due.
+         */
+        private final long sent;
+        /**
+         * Requests answered without an error status.
+         */
+        private final long completed;
+        /**
+         * Requests failed, timed out or answered with an error status.
+         */
+        private final long errors;
+        /**
+         * Time from start to the end of the schedule or the last answer,
+         * whichever is later, in nanoseconds.
+         */
+        private final long elapsedNanos;
+        /**
+         * Latency from due time to answer in microseconds.
+         */
+        private final LatencyHistogram latencyMicros;
+        /**
+         * Latency from send to answer in microseconds.
+         */
+        private final LatencyHistogram serviceMicros;
+        /**
+         * Answered requests per second of the run.
+         */
+        private final List<Long> completedPerSecond;
+
+        /**
+         * Constructor.
+         * @param sent requests due
+         * @param completed requests answered without an error status
+         * @param errors requests failed
+         * @param elapsedNanos time to the end of the schedule or the last
+         *        answer, whichever is later
+         * @param latencyMicros latency from due time to answer
+         * @param serviceMicros latency from send to answer
+         * @param completedPerSecond answered requests per second
+         */
+        Result(final long sent, final long completed, final long errors,
+               final long elapsedNanos, final LatencyHistogram latencyMicros,
+               final LatencyHistogram serviceMicros,
+               final List<Long> completedPerSecond) {
+            this.sent = sent;
+            this.completed = completed;
+            this.errors = errors;
+            this.elapsedNanos = elapsedNanos;
+            this.latencyMicros = latencyMicros;
+            this.serviceMicros = serviceMicros;
+            this.completedPerSecond = completedPerSecond;
+        }
+
+        /**
+         * @return requests due
+         */
+        public long getSent() {
+            return sent;
+        }
+
+        /**
+         * @return requests answered without an error status
+         */
+        public long getCompleted() {
+            return completed;
+        }
+
+        /**
+         * @return requests failed, timed out or answered with an error
+         */
+        public long getErrors() {
+            return errors;
+        }
+
+        /**
+         * @return answered requests per second, up to the last answer
+         */
+        public double getRps() {
+            return elapsedNanos == 0 ? 0
+                    : completed * (double) SECOND_NANOS / elapsedNanos;
+        }
+
+        /**
+         * @return latency from due time to answer in microseconds
+         */
+        public LatencyHistogram getLatencyMicros() {
+            return latencyMicros;
+        }
+
+        /**
+         * @return latency from send to answer in microseconds
+         */
+        public LatencyHistogram getServiceMicros() {
+            return serviceMicros;
+        }
+
+        /**
+         * @return answered requests per second of the run
+         */
+        public List<Long> getCompletedPerSecond() {
+            return Collections.unmodifiableList(completedPerSecond);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "%d due, %d answered, %d errors, %.1f rps; latency ms"
+                            + " p50=%.1f p99=%.1f p99.9=%.1f max=%.1f;"
+                            + " service ms p50=%.1f p99=%.1f",
+                    sent, completed, errors, getRps(),
+                    latencyMicros.getValueAtPercentile(50) / 1000.0,
+                    latencyMicros.getValueAtPercentile(99) / 1000.0,
+                    latencyMicros.getValueAtPercentile(99.9) / 1000.0,
+                    latencyMicros.getMax() / 1000.0,
+                    serviceMicros.getValueAtPercentile(50) / 1000.0,
+                    serviceMicros.getValueAtPercentile(99) / 1000.0);
+        }
+    }
+
+    /**
+     * A server and its connections.
+     */
+    private static final class Target {
+        /**
+         * Server address.
+         */
+        private final InetSocketAddress address;
+        /**
+         * Request bytes, the same for every request.
+         */
+        private final byte[] request;
+        /**
+         * Keep-alive connections with nothing in flight.
+         */
+        private final ArrayDeque<Connection> idle = new ArrayDeque<>();
+        /**
+         * Requests due while every connection was busy.
+         */
+        private final ArrayDeque<Request> waiting = new ArrayDeque<>();
+        /**
+         * Open connections.
+         */
+        private int open;
+
+        /**
+         * Constructor.
+         * @param url target URL
+         */
+        Target(final URL url) {
+            int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+            this.address = new InetSocketAddress(url.getHost(), port);
+            String path = url.getFile().isEmpty() ? "/" : url.getFile();
+            String host = url.getPort() < 0 ? url.getHost()
+                    : url.getHost() + ":" + url.getPort();
+            this.request = ("GET " + path + " HTTP/1.1\r\nHost: " + host
+                    + "\r\nConnection: keep-alive\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    /**
+     * One request.
+     */
+    private static final class Request {
+        /**
+         * Time the request was due.
+         */
+        private final long dueNanos;
+        /**
+         * Time the request was written, 0 until then.
+         */
+        private long sentNanos;
+
+        /**
+         * Constructor.
+         * @param dueNanos time the request was due
+         */
+        Request(final long dueNanos) {
+            this.dueNanos = dueNanos;
+        }
+    }
+
+    /**
+     * One keep-alive connection.
+     */
+    private static final class Connection {
+        /**
+         * Socket.
+         */
+        private final SocketChannel channel;
+        /**
+         * Server of the connection.
+         */
+        private final Target target;
+        /**
+         * Bytes left to write.
+         */
+        private ByteBuffer out;
+        /**
+         * Framer of the current response.
+         */
+        private final HttpResponseFramer framer = new HttpResponseFramer();
+        /**
+         * Request in flight, null when idle.
+         */
+        private Request request;
+
+        /**
+         * Constructor.
+         * @param channel socket
+         * @param target server of the connection
+         */
+        Connection(final SocketChannel channel, final Target target) {
+            this.channel = channel;
+            this.target = target;
+        }
+    }
+
+    /**
+     * Servers to load, round robin.
+     */
+    private final List<Target> targets = new ArrayList<>();
+    /**
+     * Requests per second over all targets.
+     */
+    private final double rate;
+    /**
+     * Most requests in flight per target.
+     */
+    private final int connectionsPerTarget;
+    /**
+     * Time after which a request in flight fails, in nanoseconds.
+     */
+    private final long timeoutNanos;
+    /**
+     * Connections with a request in flight.
+     */
+    private final Set<Connection> busy = new LinkedHashSet<>();
+    /**
+     * Read buffer shared by the connections.
+     */
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    /**
+     * Latency from due time to answer of the whole run.
+     */
+    private final LatencyHistogram latency = new LatencyHistogram();
+    /**
+     * Latency from send to answer of the whole run.
+     */
+    private final LatencyHistogram service = new LatencyHistogram();
+    /**
+     * Latency of the current second.
+     */
+    private LatencyHistogram secondLatency = new LatencyHistogram();
+    /**
+     * Answers of the current second.
+     */
+    private long secondCompleted;
+    /**
+     * Failures of the current second.
+     */
+    private long secondErrors;
+    /**
+     * Time of the last answer.
+     */
+    private long lastAnswerNanos;
+    /**
+     * Answers of the run.
+     */
+    private long completed;
+    /**
+     * Failures of the run.
+     */
+    private long errors;
+    /**
+     * Selector of the run.
+     */
+    private Selector selector;
+
+    /**
+     * Constructor.
+     * @param urls HTTP URLs to load, round robin
+     * @param rate requests per second over all targets
+     * @param connectionsPerTarget most requests in flight per target
+     * @param timeoutMillis time after which a request in flight fails
+     */
+    public LoadDriver(final List<URL> urls, final double rate,
+                      final int connectionsPerTarget, final long timeoutMillis) {
+        if (urls.isEmpty() || !(rate > 0) || connectionsPerTarget < 1) {
+            throw new IllegalArgumentException(
+                    "Need targets, a positive rate and a connection");
+        }
+        for (URL url : urls) {
+            targets.add(new Target(url));
+        }
+        this.rate = rate;
+        this.connectionsPerTarget = connectionsPerTarget;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    /**
+     * Drive load for a while. Requests due before the end are awaited up
+     * to the timeout. A driver runs once.
+     * @param durationMillis length of the schedule
+     * @param listener receives every second, may be null
+     * @return outcome of the run
+     * @throws IOException when the selector cannot be opened
+     */
+    public Result run(final long durationMillis, final Listener listener)
+            throws IOException {
+        long intervalNanos = (long) (SECOND_NANOS / rate);
+        long durationNanos = TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        List<Long> perSecond = new ArrayList<>();
+        selector = Selector.open();
+        long start = System.nanoTime();
+        long end = start + durationNanos;
+        long due = 0;
+        long nextSecond = start + SECOND_NANOS;
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                while (now - (start + due * intervalNanos) >= 0
+                        && start + due * intervalNanos - end < 0) {
+                    Target target = targets.get((int) (due % targets.size()));
+                    dispatch(target, new Request(start + due * intervalNanos));
+                    due++;
+                }
+                expire(now);
+                while (now - nextSecond >= 0) {
+                    endSecond(perSecond, listener);
+                    nextSecond += SECOND_NANOS;
+                }
+                boolean scheduled = start + due * intervalNanos - end < 0;
+                if (!scheduled && (isDrained() || now - end > timeoutNanos)) {
+                    // the last second is cut short by the end of the run
+                    endSecond(perSecond, listener);
+                    break;
+                }
+                long wake = Math.min(nextSecond, scheduled
+                        ? start + due * intervalNanos : now + timeoutNanos);
+                long waitMillis = TimeUnit.NANOSECONDS.toMillis(wake - now);
+                if (waitMillis > 0) {
+                    selector.select(waitMillis);
+                } else {
+                    selector.selectNow();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handle(key);
+                }
+            }
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                close(key.channel());
+            }
+            selector.close();
+        }
+        for (Target target : targets) {
+            errors += target.waiting.size();
+        }
+        errors += busy.size();
+        long elapsed = Math.max(durationNanos, completed == 0 ? 0
+                : lastAnswerNanos - start);
+        return new Result(due, completed, errors, elapsed, latency,
+                service, perSecond);
+    }
+
+    /**
+     * Report the current second and start the next one.
+     * @param perSecond answered requests of the past seconds
+     * @param listener receives the second, may be null
+     */
+    private void endSecond(final List<Long> perSecond, final Listener listener) {
+        perSecond.add(secondCompleted);
+        if (listener != null) {
+            listener.onSecond(perSecond.size(), secondCompleted, secondErrors,
+                    secondLatency);
+        }
+        secondCompleted = 0;
+        secondErrors = 0;
+        secondLatency = new LatencyHistogram();
+    }
+
+    /**
+     * Send a request on a free connection, open one, or queue the request.
+     * @param target server
+     * @param request request
+     */
+    private void dispatch(final Target target, final Request request) {
+        Connection connection = target.idle.poll();
+        if (connection != null) {
+            send(connection, request);
+        } else if (target.open < connectionsPerTarget) {
+            open(target, request);
+        } else {
+            target.waiting.add(request);
+        }
+    }
+
+    /**
+     * Open a connection for a request.
+     * @param target server
+     * @param request first request of the connection
+     */
+    private void open(final Target target, final Request request) {
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open();
+        } catch (IOException e) {
+            fail();
+            return;
+        }
+        Connection connection = new Connection(channel, target);
+        connection.request = request;
+        target.open++;
+        busy.add(connection);
+        try {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            if (channel.connect(target.address)) {
+                channel.register(selector, 0, connection);
+                send(connection, request);
+            } else {
+                channel.register(selector, SelectionKey.OP_CONNECT, connection);
+            }
+        } catch (IOException | UnresolvedAddressException e) {
+            // an unknown host fails this request, not the whole run
+            drop(connection);
+        }
+    }
+
+    /**
+     * Write a request on a connection.
+     * @param connection connection
+     * @param request request
+     */
+    private void send(final Connection connection, final Request request) {
+        connection.request = request;
+        connection.framer.reset(false);
+        busy.add(connection);
+        request.sentNanos = System.nanoTime();
+        connection.out = ByteBuffer.wrap(connection.target.request);
+        write(connection);
+    }
+
+    /**
+     * Write what the socket takes, and wait for the rest or the answer.
+     * @param connection connection
+     */
+    private void write(final Connection connection) {
+        SelectionKey key = connection.channel.keyFor(selector);
+        try {
+            connection.channel.write(connection.out);
+            key.interestOps(connection.out.hasRemaining()
+                    ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        } catch (IOException e) {
+            drop(connection);
+        }
+    }
+
+    /**
+     * Handle a ready socket.
+     * @param key selection key
+     */
+    private void handle(final SelectionKey key) {
+        Connection connection = (Connection) key.attachment();
+        if (!key.isValid()) {
+            return;
+        }
+        try {
+            if (key.isConnectable()) {
+                connection.channel.finishConnect();
+                send(connection, connection.request);
+            } else if (key.isWritable()) {
+                write(connection);
+            } else if (key.isReadable()) {
+                read(connection);
+            }
+        } catch (IOException e) {
+            drop(connection);
+        }
+    }
+
+    /**
+     * Read an answer, and reuse the connection once it is complete.
+     * @param connection connection
+     * @throws IOException when the socket fails or the answer is malformed
+     */
+    private void read(final Connection connection) throws IOException {
+        if (connection.request == null) {
+            // an idle connection only becomes readable when it is closed
+            retire(connection);
+            return;
+        }
+        boolean eof = false;
+        while (!connection.framer.isComplete()) {
+            readBuffer.clear();
+            int n = connection.channel.read(readBuffer);
+            if (n < 0) {
+                eof = true;
+                break;
+            }
+            if (n == 0) {
+                break;
+            }
+            readBuffer.flip();
+            connection.framer.scan(readBuffer);
+        }
+        if (eof && !connection.framer.onEof()) {
+            throw new IOException("Connection closed before the response ended");
+        }
+        if (!connection.framer.isComplete()) {
+            return;
+        }
+        long now = System.nanoTime();
+        Request request = connection.request;
+        connection.request = null;
+        busy.remove(connection);
+        if (connection.framer.getStatus() >= HTTP_BAD_REQUEST) {
+            errors++;
+            secondErrors++;
+        } else {
+            long micros = (now - request.dueNanos) / 1000;
+            latency.record(micros);
+            secondLatency.record(micros);
+            service.record((now - request.sentNanos) / 1000);
+            completed++;
+            secondCompleted++;
+            lastAnswerNanos = now;
+        }
+        if (eof || connection.framer.isClose()) {
+            retire(connection);
+            Request next = connection.target.waiting.poll();
+            if (next != null) {
+                dispatch(connection.target, next);
+            }
+        } else {
+            release(connection);
+        }
+    }
+
+    /**
+     * Give a free connection the next waiting request, or park it.
+     * @param connection connection
+     */
+    private void release(final Connection connection) {
+        Request next = connection.target.waiting.poll();
+        if (next != null) {
+            send(connection, next);
+        } else {
+            connection.channel.keyFor(selector).interestOps(SelectionKey.OP_READ);
+            connection.target.idle.add(connection);
+        }
+    }
+
+    /**
+     * Fail the request of a broken connection and close it.
+     * @param connection connection
+     */
+    private void drop(final Connection connection) {
+        if (connection.request != null) {
+            fail();
+            connection.request = null;
+        }
+        retire(connection);
+        Request next = connection.target.waiting.poll();
+        if (next != null) {
+            dispatch(connection.target, next);
+        }
+    }
+
+    /**
+     * Close a connection and forget it.
+     * @param connection connection
+     */
+    private void retire(final Connection connection) {
+        busy.remove(connection);
+        connection.target.idle.remove(connection);
+        connection.target.open--;
+        close(connection.channel);
+    }
+
+    /**
+     * Fail requests in flight for longer than the timeout, counted from
+     * the time they were written, or from the time they were due while
+     * their connection is still connecting.
+     * @param now current time
+     */
+    private void expire(final long now) {
+        List<Connection> expired = new ArrayList<>();
+        for (Connection connection : busy) {
+            Request request = connection.request;
+            if (request == null) {
+                continue;
+            }
+            long start = request.sentNanos != 0 ? request.sentNanos
+                    : request.dueNanos;
+            if (now - start > timeoutNanos) {
+                expired.add(connection);
+            }
+        }
+        for (Connection connection : expired) {
+            drop(connection);
+        }
+    }
+
+    /**
+     * Count a failed request.
+     */
+    private void fail() {
+        errors++;
+        secondErrors++;
+    }
+
+    /**
+     * @return true when nothing is in flight or waiting
+     */
+    private boolean isDrained() {
+        if (!busy.isEmpty()) {
+            return false;
+        }
+        for (Target target : targets) {
+            if (!target.waiting.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Close a socket quietly.
+     * @param channel socket, may be null
+     */
+    private static void close(final java.nio.channels.Channel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // nothing left to do with it
+        }
+    }
+}
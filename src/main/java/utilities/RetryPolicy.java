@@ -0,0 +1,104 @@
+package utilities;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with full jitter, bounded by a time budget. Times
+ * are taken from the system clock unless the caller passes its own.
+ */
+public final class RetryPolicy {
+    /**
+     * Delay before the first retry in milliseconds.
+     */
+    private final long baseDelayMillis;
+    /**
+     * Upper bound of a single delay in milliseconds.
+     */
+    private final long maxDelayMillis;
+    /**
+     * Total time allowed for all attempts in milliseconds, 0 for no limit.
+     */
+    private final long budgetMillis;
+
+    /**
+     * Constructor.
+     * @param baseDelayMillis delay before the first retry
+     * @param maxDelayMillis upper bound of a single delay
+     * @param budgetMillis total time allowed, 0 for no limit
+     */
+    public RetryPolicy(final long baseDelayMillis, final long maxDelayMillis,
+                       final long budgetMillis) {
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.budgetMillis = budgetMillis;
+    }
+
+    /**
+     * Delay before a retry: uniform in [0, min(max, base * 2^(attempt - 1))],
+     * so the ceiling is the base delay before the first retry.
+     * @param attempt number of failed attempts so far, starting at 1
+     * @return delay in milliseconds
+     */
+    public long backoffMillis(final int attempt) {
+        int shift = Math.min(Math.max(attempt - 1, 0), 30);
+        long ceiling = Math.min(maxDelayMillis, baseDelayMillis << shift);
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * Check whether another attempt fits in the budget.
+     * @param startMillis time of the first attempt
+     * @return true if the budget is spent
+     */
+    public boolean isExhausted(final long startMillis) {
+        return isExhausted(startMillis, System.currentTimeMillis());
+    }
+
+    /**
+     * Check whether another attempt fits in the budget.
+     * @param startMillis time of the first attempt
+     * @param nowMillis current time, on the clock of startMillis
+     * @return true if the budget is spent
+     */
+    public boolean isExhausted(final long startMillis, final long nowMillis) {
+        return budgetMillis > 0 && nowMillis - startMillis >= budgetMillis;
+    }
+
+    /**
+     * Sleep before a retry, without overrunning the budget.
+     * @param attempt number of failed attempts so far, starting at 1
+     * @param startMillis time of the first attempt
+     * @throws InterruptedException when interrupted while sleeping
+     */
+    public void sleep(final int attempt, final long startMillis)
+            throws InterruptedException {
+        Thread.sleep(delayMillis(attempt, startMillis));
+    }
+
+    /**
+     * Delay before a retry, without overrunning the budget.
+     * @param attempt number of failed attempts so far, starting at 1
+     * @param startMillis time of the first attempt
+     * @return delay in milliseconds
+     */
+    public long delayMillis(final int attempt, final long startMillis) {
+        return delayMillis(attempt, startMillis, System.currentTimeMillis());
+    }
+
+    /**
+     * Delay before a retry, without overrunning the budget.
+     * @param attempt number of failed attempts so far, starting at 1
+     * @param startMillis time of the first attempt
+     * @param nowMillis current time, on the clock of startMillis
+     * @return delay in milliseconds
+     */
+    public long delayMillis(final int attempt, final long startMillis,
+                            final long nowMillis) {
+        long delay = backoffMillis(attempt);
+        if (budgetMillis > 0) {
+            long left = startMillis + budgetMillis - nowMillis;
+            delay = Math.min(delay, Math.max(left, 0));
+        }
+        return delay;
+    }
+}
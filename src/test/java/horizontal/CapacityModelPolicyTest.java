@@ -0,0 +1,71 @@
+package horizontal;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Launch counts of the capacity model.
+ */
+public class CapacityModelPolicyTest {
+    /**
+     * Three minutes in which b joins in the second one: the first minute of
+     * each instance is only partly served.
+     */
+    private static final String LOG = "[Minute 1]\na=5\n[Current rps=5]\n\n"
+            + "[Minute 2]\na=10\nb=3\n[Current rps=13]\n\n"
+            + "[Minute 3]\na=10\nb=10\n[Current rps=20]\n\n";
+
+    /**
+     * The estimate averages the latest two minutes without the first
+     * minute of any instance.
+     */
+    @Test
+    public void skipsFirstMinuteOfEachInstance() {
+        assertEquals(10f, CapacityModelPolicy.estimateInstanceRps(log(LOG)), 0);
+    }
+
+    /**
+     * Every missing instance is launched at once, up to the step bound.
+     */
+    @Test
+    public void launchesMissingInstancesUpToStep() {
+        CapacityModelPolicy policy = new CapacityModelPolicy(5);
+        assertEquals(3, policy.instancesToAdd(log(LOG), 2, 50));
+        assertEquals(5, policy.instancesToAdd(log(LOG), 2, 200));
+    }
+
+    /**
+     * A fleet whose instances, launched or launching, reach the target
+     * gets nothing more, even below the target.
+     */
+    @Test
+    public void addsNothingWhenFleetIsLargeEnough() {
+        CapacityModelPolicy policy = new CapacityModelPolicy(5);
+        assertEquals(0, policy.instancesToAdd(log(LOG), 3, 25));
+        assertEquals(0, policy.instancesToAdd(log(LOG), 2, 20));
+    }
+
+    /**
+     * Without a full minute of any instance, one instance is launched.
+     */
+    @Test
+    public void launchesOneWithoutEstimate() {
+        TestLog log = log("[Minute 1]\na=5\n[Current rps=5]\n\n");
+        assertEquals(0f, CapacityModelPolicy.estimateInstanceRps(log), 0);
+        assertEquals(1, new CapacityModelPolicy(5).instancesToAdd(log, 1, 50));
+    }
+
+    /**
+     * Parse a log.
+     * @param text log
+     * @return parsed log
+     */
+    static TestLog log(final String text) {
+        TestLog log = new TestLog();
+        for (String line : text.split("\n", -1)) {
+            log.accept(line);
+        }
+        return log;
+    }
+}
@@ -0,0 +1,110 @@
+package horizontal;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.ec2.AbstractAmazonEC2;
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.InstanceState;
+import com.amazonaws.services.ec2.model.Reservation;
+import org.junit.Test;
+import utilities.Clock;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Background refresh of the instance tracker.
+ */
+public class InstanceTrackerTest {
+    /**
+     * Instance of the tests.
+     */
+    private static final String INSTANCE_ID = "i-0123456789abcdef0";
+
+    /**
+     * EC2 client failing its first describe calls, then describing one
+     * running instance.
+     */
+    private static final class FlakyEC2 extends AbstractAmazonEC2 {
+        /**
+         * Describe calls made so far.
+         */
+        private final AtomicInteger calls = new AtomicInteger();
+        /**
+         * Number of calls failing first.
+         */
+        private final int failures;
+        /**
+         * Error thrown by the failing calls.
+         */
+        private final RuntimeException error;
+
+        /**
+         * Constructor.
+         * @param failures number of calls failing first
+         * @param error error thrown by the failing calls
+         */
+        FlakyEC2(final int failures, final RuntimeException error) {
+            this.failures = failures;
+            this.error = error;
+        }
+
+        @Override
+        public DescribeInstancesResult describeInstances(
+                final DescribeInstancesRequest request) {
+            if (calls.incrementAndGet() <= failures) {
+                throw error;
+            }
+            return new DescribeInstancesResult().withReservations(
+                    new Reservation().withInstances(new Instance()
+                            .withInstanceId(INSTANCE_ID)
+                            .withState(new InstanceState().withName("running"))));
+        }
+    }
+
+    /**
+     * A describe failing with a client error, which is not an EC2 service
+     * error, does not stop the refreshes after it.
+     * @throws Exception when the state is not reached in time
+     */
+    @Test
+    public void keepsRefreshingAfterClientError() throws Exception {
+        assertRefreshesAfter(new SdkClientException("connection reset"));
+    }
+
+    /**
+     * A describe failing with any unchecked exception does not stop the
+     * refreshes after it.
+     * @throws Exception when the state is not reached in time
+     */
+    @Test
+    public void keepsRefreshingAfterUncheckedException() throws Exception {
+        assertRefreshesAfter(new IllegalStateException("listener failed"));
+    }
+
+    /**
+     * Wait for an instance state through a tracker whose first describe
+     * calls fail.
+     * @param error error of the failing calls
+     * @throws Exception when the state is not reached in time
+     */
+    private static void assertRefreshesAfter(final RuntimeException error)
+            throws Exception {
+        FlakyEC2 ec2 = new FlakyEC2(3, error);
+        InstanceTracker tracker = new InstanceTracker(ec2, new Clock(100));
+        tracker.track(INSTANCE_ID);
+        tracker.start();
+        try {
+            Instance instance = tracker.whenState(INSTANCE_ID, "running")
+                    .get(10, TimeUnit.SECONDS);
+            assertEquals(INSTANCE_ID, instance.getInstanceId());
+            assertTrue(ec2.calls.get() > 3);
+        } finally {
+            tracker.shutdown();
+        }
+    }
+}
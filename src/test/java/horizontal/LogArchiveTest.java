@@ -0,0 +1,108 @@
+package horizontal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Minutes written to an archive read back the same after reopening it.
+ */
+public class LogArchiveTest {
+    /**
+     * Archive file.
+     */
+    private File file;
+
+    /**
+     * Pick a fresh archive file.
+     * @throws IOException when the file cannot be created
+     */
+    @Before
+    public void createFile() throws IOException {
+        file = File.createTempFile("archive", ".bin");
+        file.delete();
+    }
+
+    /**
+     * Delete the archive file.
+     */
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    /**
+     * Minutes of two tests survive a close and reopen, in order, and a
+     * minute archived twice is kept once.
+     * @throws IOException when the archive cannot be opened or closed
+     */
+    @Test
+    public void roundTripsMinutes() throws IOException {
+        LogArchive archive = LogArchive.open(file);
+        archive.append("1", 1000, minute(1, 13.81f, "a", 13.81f));
+        archive.append("2", 2000, minute(1, 9.5f, "b", 9.5f));
+        archive.append("1", 3000, minute(2, 24.17f, "a", 13.81f, "b", 10.36f));
+        archive.append("1", 4000, minute(2, 1f, "a", 1f));
+        archive.close();
+
+        archive = LogArchive.open(file);
+        assertEquals(Arrays.asList("1", "2"), archive.getTestIds());
+        List<MinuteSection> minutes = archive.getMinutes("1");
+        assertEquals(2, minutes.size());
+        assertEquals(1, minutes.get(0).getMinute());
+        assertEquals(24.17f, minutes.get(1).getCurrentRps(), 0);
+        assertEquals(Arrays.asList("a", "b"), Arrays.asList(minutes.get(1)
+                .getInstanceRps().keySet().toArray()));
+        assertEquals(10.36f, minutes.get(1).getInstanceRps().get("b"), 0);
+        assertEquals(9.5f, archive.getMinutes("2").get(0).getCurrentRps(), 0);
+
+        // minutes of a reopened archive are deduplicated too
+        archive.append("1", 5000, minute(2, 1f, "a", 1f));
+        archive.append("1", 6000, minute(3, 11.45f, "a", 11.45f));
+        assertEquals(3, archive.getMinutes("1").size());
+        StringWriter csv = new StringWriter();
+        archive.exportCsv("2", csv);
+        assertTrue(csv.toString().endsWith("2,2000,1,9.50,b,9.50\n"));
+        archive.close();
+    }
+
+    /**
+     * Appending to a closed archive fails instead of touching the file.
+     * @throws IOException when the archive cannot be opened or closed
+     */
+    @Test(expected = IllegalStateException.class)
+    public void rejectsAppendAfterClose() throws IOException {
+        LogArchive archive = LogArchive.open(file);
+        archive.close();
+        archive.close();
+        archive.append("1", 1000, minute(1, 13.81f, "a", 13.81f));
+    }
+
+    /**
+     * Build a complete minute.
+     * @param number minute number
+     * @param currentRps aggregate RPS
+     * @param instances DNS names and RPS, alternating
+     * @return minute section
+     */
+    private static MinuteSection minute(final int number,
+                                        final float currentRps,
+                                        final Object... instances) {
+        MinuteSection minute = new MinuteSection(number);
+        for (int i = 0; i < instances.length; i += 2) {
+            minute.putInstanceRps((String) instances[i],
+                    (Float) instances[i + 1]);
+        }
+        minute.setCurrentRps(currentRps);
+        return minute;
+    }
+}
@@ -0,0 +1,174 @@
+package horizontal;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import utilities.HttpClient;
+import utilities.RetryPolicy;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Incremental reads of a growing test log, with and without Range support.
+ */
+public class LogTailerTest {
+    /**
+     * Web Service of the sample logs.
+     */
+    private static final String DNS = "ec2-54-166-204-255.compute-1.amazonaws.com";
+
+    /**
+     * Log served so far.
+     */
+    private volatile String text = "";
+    /**
+     * True when the server answers Range requests with 206.
+     */
+    private volatile boolean ranges = true;
+    /**
+     * Range headers received, null for none.
+     */
+    private final List<String> rangeHeaders = new CopyOnWriteArrayList<>();
+    /**
+     * Server of the log.
+     */
+    private HttpServer server;
+
+    /**
+     * Serve the log on an ephemeral loopback port.
+     * @throws IOException when the port cannot be bound
+     */
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/log", exchange -> {
+            byte[] log = text.getBytes(StandardCharsets.UTF_8);
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            rangeHeaders.add(range);
+            int status = 200;
+            int from = 0;
+            if (ranges && range != null) {
+                from = Integer.parseInt(range.substring("bytes=".length(),
+                        range.length() - 1));
+                status = from < log.length ? 206 : 416;
+            }
+            byte[] body = status == 416 ? new byte[0]
+                    : Arrays.copyOfRange(log, from, log.length);
+            exchange.sendResponseHeaders(status,
+                    body.length == 0 ? -1 : body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * Stop the server.
+     */
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    /**
+     * A line split over two chunks is parsed once, when it is complete.
+     */
+    @Test
+    public void keepsPartialLineUntilItEnds() {
+        LogTailer tailer = new LogTailer(null, "http://localhost/log");
+        append(tailer, "[Minute 1]\n" + DNS + "=13");
+        MinuteSection minute = tailer.getLog().getMinutes().get(0);
+        assertTrue(minute.getInstanceRps().isEmpty());
+        append(tailer, ".81\n[Current rps=13.81]\n");
+        assertEquals(13.81f, minute.getInstanceRps().get(DNS), 0);
+        assertTrue(minute.isComplete());
+        assertEquals(("[Minute 1]\n" + DNS + "=13.81\n[Current rps=13.81]\n")
+                .length(), tailer.getOffset());
+    }
+
+    /**
+     * A closing section header without a line terminator is complete.
+     */
+    @Test
+    public void acceptsUnterminatedFinishHeader() {
+        LogTailer tailer = new LogTailer(null, "http://localhost/log");
+        append(tailer, "[Minute 1]\n" + DNS + "=13.81\n[Current rps=13.81]\n"
+                + "[Test finished]");
+        assertTrue(tailer.getLog().isFinished());
+    }
+
+    /**
+     * Each poll asks for the bytes after the offset, and a poll past the
+     * end of the log changes nothing.
+     * @throws IOException on network failure
+     */
+    @Test
+    public void pollsFromOffsetWithRange() throws IOException {
+        LogTailer tailer = tailer();
+        text = "[Minute 1]\n" + DNS + "=13";
+        tailer.poll();
+        long offset = tailer.getOffset();
+        text += ".81\n[Current rps=13.81]\n";
+        TestLog log = tailer.poll();
+        tailer.poll();
+        assertEquals(Arrays.asList("bytes=0-", "bytes=" + offset + "-",
+                "bytes=" + text.length() + "-"), rangeHeaders);
+        assertEquals(1, log.getMinutes().size());
+        assertEquals(13.81f, log.getLatestMinute().getInstanceRps().get(DNS),
+                0);
+        assertEquals(text.length(), tailer.getOffset());
+    }
+
+    /**
+     * A server ignoring Range sends the whole log, whose consumed bytes
+     * are skipped.
+     * @throws IOException on network failure
+     */
+    @Test
+    public void skipsConsumedBytesWhenRangeIgnored() throws IOException {
+        ranges = false;
+        LogTailer tailer = tailer();
+        text = "[Minute 1]\n" + DNS + "=13.81\n[Current rps=13.81]\n";
+        tailer.poll();
+        text += "[Minute 2]\n" + DNS + "=10.36\n[Current rps=10.36]\n";
+        TestLog log = tailer.poll();
+        assertEquals(2, log.getMinutes().size());
+        assertEquals(1, log.getMinutes().get(0).getInstanceRps().size());
+        assertEquals(10.36f, log.getCurrentRps(), 0);
+        assertFalse(log.isFinished());
+        assertEquals(text.length(), tailer.getOffset());
+    }
+
+    /**
+     * @return tailer of the served log
+     */
+    private LogTailer tailer() {
+        return new LogTailer(new HttpClient(1000, 1000,
+                new RetryPolicy(0, 0, 0)), "http://127.0.0.1:"
+                + server.getAddress().getPort() + "/log");
+    }
+
+    /**
+     * Feed a chunk of log to a tailer.
+     * @param tailer tailer
+     * @param chunk log bytes
+     */
+    private static void append(final LogTailer tailer, final String chunk) {
+        byte[] bytes = chunk.getBytes(StandardCharsets.UTF_8);
+        tailer.append(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,82 @@
+package horizontal;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Outliers found against the fleet median of the latest minute.
+ */
+public class OutlierDetectorTest {
+    /**
+     * A slow instance is flagged once it has reported for enough minutes.
+     */
+    @Test
+    public void flagsSlowInstanceAfterMinSamples() {
+        OutlierDetector detector = new OutlierDetector(0.7f, 2);
+        InstanceRpsSeries series = new InstanceRpsSeries();
+        record(series, 1, 10, 10, 2);
+        assertTrue(detector.detect(series).isEmpty());
+        record(series, 2, 10, 10, 6.9f);
+        assertEquals(Collections.singletonList("c"), detector.detect(series));
+    }
+
+    /**
+     * An instance missing from the latest minute is flagged at once.
+     */
+    @Test
+    public void flagsMissingInstance() {
+        OutlierDetector detector = new OutlierDetector(0.7f, 2);
+        InstanceRpsSeries series = new InstanceRpsSeries();
+        record(series, 1, 10, 10, 10);
+        series.record(2, "a", 10);
+        series.record(2, "c", 10);
+        assertEquals(Collections.singletonList("b"), detector.detect(series));
+    }
+
+    /**
+     * An evicted instance is not judged again until it is restored.
+     */
+    @Test
+    public void ignoresEvictedInstance() {
+        OutlierDetector detector = new OutlierDetector(0.7f, 2);
+        InstanceRpsSeries series = new InstanceRpsSeries();
+        record(series, 1, 10, 10, 2);
+        series.evict("c");
+        record(series, 2, 10, 10, 2);
+        assertTrue(detector.detect(series).isEmpty());
+        series.restore("c");
+        record(series, 3, 10, 10, 2);
+        record(series, 4, 10, 10, 2);
+        assertEquals(Collections.singletonList("c"), detector.detect(series));
+    }
+
+    /**
+     * The median of an even count is the mean of the two middle values.
+     */
+    @Test
+    public void mediansEvenCount() {
+        assertEquals(5f, OutlierDetector.median(
+                new float[] {8, 2, 4, 6, 0}, 4), 0);
+        assertEquals(4f, OutlierDetector.median(new float[] {8, 2, 4}, 3), 0);
+    }
+
+    /**
+     * Record a minute of the instances a, b and c.
+     * @param series series
+     * @param minute minute number
+     * @param a RPS of a
+     * @param b RPS of b
+     * @param c RPS of c
+     */
+    private static void record(final InstanceRpsSeries series,
+                               final int minute, final float a,
+                               final float b, final float c) {
+        series.record(minute, "a", a);
+        series.record(minute, "b", b);
+        series.record(minute, "c", c);
+    }
+}
@@ -0,0 +1,100 @@
+package horizontal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Replay of a journal whose last line was torn by a crash.
+ */
+public class SessionJournalTest {
+    /**
+     * Journal file.
+     */
+    private File file;
+
+    /**
+     * Create an empty journal file.
+     * @throws IOException when the file cannot be created
+     */
+    @Before
+    public void createFile() throws IOException {
+        file = File.createTempFile("journal", ".jsonl");
+    }
+
+    /**
+     * Delete the journal file.
+     */
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    /**
+     * A last line without its newline is dropped and cut off the file, so
+     * the next record starts on a line of its own.
+     * @throws IOException when the journal cannot be read or written
+     */
+    @Test
+    public void truncatesTornLastLine() throws IOException {
+        SessionJournal journal = SessionJournal.open(file);
+        journal.launched("session-1", "i-1", true);
+        journal.loadGenerator("session-1", "lg.example.com");
+        journal.close();
+        long valid = file.length();
+        write("{\"type\":\"test\",\"session\":\"session-1\",\"test_i");
+
+        journal = SessionJournal.open(file);
+        assertEquals(valid, file.length());
+        SessionJournal.Record record = journal.getUnfinished().get(0);
+        assertEquals("lg.example.com", record.getLoadGeneratorDns());
+        assertNull(record.getTestId());
+        journal.test("session-1", "42");
+        journal.close();
+
+        journal = SessionJournal.open(file);
+        assertEquals("42", journal.getUnfinished().get(0).getTestId());
+        journal.close();
+    }
+
+    /**
+     * A last line that parses but has no newline was not fully flushed,
+     * so it is dropped too.
+     * @throws IOException when the journal cannot be read or written
+     */
+    @Test
+    public void dropsCompleteRecordWithoutNewline() throws IOException {
+        SessionJournal journal = SessionJournal.open(file);
+        journal.launched("session-1", "i-1", true);
+        journal.close();
+        write("{\"type\":\"finished\",\"session\":\"session-1\"}");
+
+        journal = SessionJournal.open(file);
+        List<SessionJournal.Record> unfinished = journal.getUnfinished();
+        assertEquals(1, unfinished.size());
+        assertEquals(Collections.singleton("i-1"),
+                unfinished.get(0).getInstanceIds());
+        journal.close();
+    }
+
+    /**
+     * Append raw bytes to the journal file.
+     * @param text bytes to append
+     * @throws IOException when the file cannot be written
+     */
+    private void write(final String text) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
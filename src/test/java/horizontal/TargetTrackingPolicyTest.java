@@ -0,0 +1,67 @@
+package horizontal;
+
+import org.junit.Test;
+
+import static horizontal.CapacityModelPolicyTest.log;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Launch counts of the target-tracking policy.
+ */
+public class TargetTrackingPolicyTest {
+    /**
+     * Two minutes in which b joins in the second one, at 12 rps per
+     * instance once the first minute of each is left out.
+     */
+    private static final String LOG = "[Minute 1]\na=8\n[Current rps=8]\n\n"
+            + "[Minute 2]\na=12\nb=4\n[Current rps=16]\n\n";
+
+    /**
+     * Below the target the fleet grows to the middle of the band, up to
+     * the step bound; a fleet reaching the target gets nothing.
+     */
+    @Test
+    public void scalesOutToMiddleOfBand() {
+        TargetTrackingPolicy policy = new TargetTrackingPolicy(0.2f, 0.5f, 5);
+        TestLog log = log(LOG);
+        // 50 rps and 10 % headroom at 12 rps each: 5 instances
+        assertEquals(3, policy.instancesToAdd(log, 2, 50));
+        assertEquals(0, policy.instancesToAdd(log, 5, 50));
+        assertEquals(5, policy.instancesToAdd(log, 2, 500));
+        assertTrue(policy.isContinuous());
+    }
+
+    /**
+     * Each new minute is folded into the average once, with its weight.
+     */
+    @Test
+    public void smoothesNewMinutes() {
+        TargetTrackingPolicy policy = new TargetTrackingPolicy(0.2f, 0.5f, 10);
+        TestLog log = log(LOG + "[Minute 3]\na=4\nb=4\n[Current rps=8]\n\n");
+        // (4 + 12) / 2 = 8 rps each: ceil(55 / 8) = 7 instances
+        assertEquals(5, policy.instancesToAdd(log, 2, 50));
+        assertEquals(5, policy.instancesToAdd(log, 2, 50));
+    }
+
+    /**
+     * Without a full minute of any instance, one instance is launched
+     * while the fleet is below the target.
+     */
+    @Test
+    public void launchesOneWithoutEstimate() {
+        TargetTrackingPolicy policy = new TargetTrackingPolicy(0.2f, 0.5f, 5);
+        assertEquals(1, policy.instancesToAdd(
+                log("[Minute 1]\na=8\n[Current rps=8]\n\n"), 1, 50));
+        assertEquals(0, policy.instancesToAdd(
+                log("[Minute 1]\na=80\n[Current rps=80]\n\n"), 1, 50));
+    }
+
+    /**
+     * A smoothing outside (0, 1] is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsBadSmoothing() {
+        new TargetTrackingPolicy(0.2f, 1.5f, 5);
+    }
+}
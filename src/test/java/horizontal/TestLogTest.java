@@ -0,0 +1,65 @@
+package horizontal;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Parsing of test logs with malformed section headers.
+ */
+public class TestLogTest {
+    /**
+     * Web Service of the sample logs.
+     */
+    private static final String DNS = "ec2-54-166-204-255.compute-1.amazonaws.com";
+
+    /**
+     * A minute header whose number does not parse is skipped with its
+     * lines, and the minutes after it are still read.
+     */
+    @Test
+    public void skipsMalformedMinuteHeader() {
+        TestLog log = tail("[Test]\ntestId=1601348831791\n\n"
+                + "[Minute 1]\n" + DNS + "=13.81\n[Current rps=13.81]\n\n"
+                + "[Minute two]\n" + DNS + "=10.36\n[Current rps=10.36]\n\n"
+                + "[Minute 3]\n" + DNS + "=11.45\n[Current rps=11.45]\n");
+        List<MinuteSection> minutes = log.getMinutes();
+        assertEquals(2, minutes.size());
+        assertEquals(1, minutes.get(0).getMinute());
+        assertEquals(3, minutes.get(1).getMinute());
+        assertEquals(11.45f, minutes.get(1).getInstanceRps().get(DNS), 0);
+        assertEquals(11.45f, log.getCurrentRps(), 0);
+        assertEquals("1601348831791", log.getTestId());
+    }
+
+    /**
+     * An RPS header whose value does not parse leaves its minute
+     * incomplete, and the test finish after it is still seen.
+     */
+    @Test
+    public void skipsMalformedCurrentRpsHeader() {
+        TestLog log = tail("[Minute 1]\n" + DNS + "=13.81\n[Current rps=13.81]\n\n"
+                + "[Minute 2]\n" + DNS + "=10.36\n[Current rps=n/a]\n\n"
+                + "[Test finished]");
+        assertEquals(2, log.getMinutes().size());
+        assertEquals(1, log.getLatestMinute().getMinute());
+        assertEquals(13.81f, log.getCurrentRps(), 0);
+        assertTrue(log.isFinished());
+    }
+
+    /**
+     * Feed a log to a tailer in one chunk.
+     * @param text log
+     * @return parsed log
+     */
+    private static TestLog tail(final String text) {
+        LogTailer tailer = new LogTailer(null, "http://localhost/log");
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        tailer.append(bytes, 0, bytes.length);
+        return tailer.getLog();
+    }
+}
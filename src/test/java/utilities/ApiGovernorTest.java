@@ -0,0 +1,72 @@
+package utilities;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Token bucket and rate adaptation of the governor.
+ */
+public class ApiGovernorTest {
+    /**
+     * A full bucket serves its burst at once, and later calls wait for the
+     * refill at the configured rate.
+     * @throws InterruptedException when interrupted while waiting
+     */
+    @Test(timeout = 10000)
+    public void servesBurstThenRefillRate() throws InterruptedException {
+        ApiGovernor governor = new ApiGovernor(Clock.SYSTEM, 20, 5);
+        long start = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            governor.acquire(ApiGovernor.Priority.NORMAL);
+        }
+        assertTrue(governor.getWaitMillis() < 50);
+        for (int i = 0; i < 4; i++) {
+            governor.acquire(ApiGovernor.Priority.BACKGROUND);
+        }
+        long millis = (System.nanoTime() - start) / 1000000;
+        // four tokens at 20 per second
+        assertTrue("took " + millis + " ms", millis >= 190);
+        assertTrue(governor.getWaitMillis() >= 150);
+    }
+
+    /**
+     * Throttling halves the rate down to a tenth of the configured one,
+     * and successes bring it back by 5 % of it per call.
+     */
+    @Test
+    public void adaptsRateAimd() {
+        ApiGovernor governor = new ApiGovernor(Clock.SYSTEM, 10, 5);
+        governor.onThrottled();
+        assertEquals(5, governor.getRate(), 1e-9);
+        for (int i = 0; i < 5; i++) {
+            governor.onThrottled();
+        }
+        assertEquals(1, governor.getRate(), 1e-9);
+        assertEquals(6, governor.getThrottles());
+        for (int i = 0; i < 10; i++) {
+            governor.onSuccess();
+        }
+        assertEquals(6, governor.getRate(), 1e-9);
+        for (int i = 0; i < 100; i++) {
+            governor.onSuccess();
+        }
+        assertEquals(10, governor.getRate(), 1e-9);
+    }
+
+    /**
+     * A throttling error empties the bucket, so the next call waits.
+     * @throws InterruptedException when interrupted while waiting
+     */
+    @Test(timeout = 10000)
+    public void throttlingEmptiesBucket() throws InterruptedException {
+        ApiGovernor governor = new ApiGovernor(Clock.SYSTEM, 20, 5);
+        governor.onThrottled();
+        long start = System.nanoTime();
+        governor.acquire(ApiGovernor.Priority.CRITICAL);
+        long millis = (System.nanoTime() - start) / 1000000;
+        // one token at 10 per second
+        assertTrue("took " + millis + " ms", millis >= 90);
+    }
+}
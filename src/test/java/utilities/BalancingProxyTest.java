@@ -0,0 +1,254 @@
+package utilities;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Retries on reused connections and ejection of failing backends.
+ */
+public class BalancingProxyTest {
+    /**
+     * Backend on a loopback socket, answering one request at a time.
+     */
+    private static final class FakeBackend extends Thread {
+        /**
+         * Listening socket.
+         */
+        private final ServerSocket server;
+        /**
+         * Status of every answer.
+         */
+        private final int status;
+        /**
+         * Requests a connection gets before the backend closes it without
+         * an answer, 0 for never.
+         */
+        private final int closeOn;
+        /**
+         * Requests received, answered or not.
+         */
+        private final AtomicInteger requests = new AtomicInteger();
+
+        /**
+         * Constructor.
+         * @param status status of every answer
+         * @param closeOn requests a connection gets before it is closed
+         *                unanswered, 0 for never
+         * @throws IOException when the port cannot be bound
+         */
+        FakeBackend(final int status, final int closeOn) throws IOException {
+            this.server = new ServerSocket(0, 50,
+                    InetAddress.getLoopbackAddress());
+            this.status = status;
+            this.closeOn = closeOn;
+            setDaemon(true);
+            start();
+        }
+
+        @Override
+        public void run() {
+            while (!server.isClosed()) {
+                try (Socket socket = server.accept()) {
+                    InputStream in = socket.getInputStream();
+                    OutputStream out = socket.getOutputStream();
+                    for (int n = 1; readRequest(in); n++) {
+                        requests.incrementAndGet();
+                        if (n == closeOn) {
+                            break;
+                        }
+                        out.write(("HTTP/1.1 " + status + " X\r\n"
+                                + "Content-Length: 2\r\n\r\nok")
+                                .getBytes(StandardCharsets.ISO_8859_1));
+                        out.flush();
+                    }
+                } catch (IOException e) {
+                    // closed by the test
+                }
+            }
+        }
+
+        /**
+         * @return "host:port" of the backend
+         */
+        String getAddress() {
+            return "127.0.0.1:" + server.getLocalPort();
+        }
+
+        /**
+         * Stop accepting.
+         * @throws IOException when the socket cannot be closed
+         */
+        void close() throws IOException {
+            server.close();
+        }
+    }
+
+    /**
+     * Proxy under test.
+     */
+    private final BalancingProxy proxy = new BalancingProxy(
+            BalancingProxy.Policy.LEAST_OUTSTANDING, 5000);
+    /**
+     * Backends of the test.
+     */
+    private final List<FakeBackend> backends = new ArrayList<>();
+
+    /**
+     * Stop the proxy and the backends.
+     * @throws Exception when they cannot be stopped
+     */
+    @After
+    public void stop() throws Exception {
+        proxy.stop();
+        for (FakeBackend backend : backends) {
+            backend.close();
+        }
+    }
+
+    /**
+     * A GET on a reused connection the backend drops unanswered is sent
+     * again on a new connection.
+     * @throws Exception on failure
+     */
+    @Test(timeout = 20000)
+    public void retriesIdempotentRequestOnDroppedConnection()
+            throws Exception {
+        FakeBackend backend = start(new FakeBackend(200, 2)).get(0);
+        assertEquals(200, call("GET / HTTP/1.1\r\nHost: x\r\n\r\n"));
+        assertEquals(200, call("GET / HTTP/1.1\r\nHost: x\r\n\r\n"));
+        assertEquals(3, backend.requests.get());
+        assertEquals(0, proxy.getBackends().get(0).getFailures());
+    }
+
+    /**
+     * A POST is never sent twice: a dropped reused connection fails it.
+     * @throws Exception on failure
+     */
+    @Test(timeout = 20000)
+    public void doesNotRetryPost() throws Exception {
+        FakeBackend backend = start(new FakeBackend(200, 2)).get(0);
+        assertEquals(200, call("GET / HTTP/1.1\r\nHost: x\r\n\r\n"));
+        assertEquals(502, call("POST / HTTP/1.1\r\nHost: x\r\n"
+                + "Content-Length: 3\r\n\r\nabc"));
+        assertEquals(2, backend.requests.get());
+        assertEquals(1, proxy.getBackends().get(0).getFailures());
+    }
+
+    /**
+     * A backend failing five times in a row is ejected, and the requests
+     * go to the healthy one.
+     * @throws Exception on failure
+     */
+    @Test(timeout = 20000)
+    public void ejectsFailingBackend() throws Exception {
+        List<FakeBackend> started = start(new FakeBackend(200, 0),
+                new FakeBackend(500, 0));
+        BalancingProxy.Backend failing = null;
+        for (BalancingProxy.Backend backend : proxy.getBackends()) {
+            if (backend.getName().equals(started.get(1).getAddress())) {
+                failing = backend;
+            }
+        }
+        for (int i = 0; i < 12; i++) {
+            call("GET / HTTP/1.1\r\nHost: x\r\n\r\n");
+        }
+        assertTrue(failing.isEjected());
+        assertEquals(5, failing.getFailures());
+        assertEquals(5, started.get(1).requests.get());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(200, call("GET / HTTP/1.1\r\nHost: x\r\n\r\n"));
+        }
+        assertFalse(proxy.getBackends().get(0).isEjected()
+                && proxy.getBackends().get(1).isEjected());
+    }
+
+    /**
+     * Start backends and the proxy in front of them.
+     * @param started backends
+     * @return the backends
+     * @throws Exception when the proxy cannot start
+     */
+    private List<FakeBackend> start(final FakeBackend... started)
+            throws Exception {
+        backends.addAll(Arrays.asList(started));
+        List<String> names = new ArrayList<>();
+        for (FakeBackend backend : started) {
+            names.add(backend.getAddress());
+        }
+        proxy.start(0);
+        proxy.setBackends(names);
+        while (proxy.getBackends().size() < names.size()) {
+            Thread.sleep(10);
+        }
+        return backends;
+    }
+
+    /**
+     * Send one request through the proxy on a new connection.
+     * @param request request bytes
+     * @return status of the answer
+     * @throws IOException on network failure
+     */
+    private int call(final String request) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(),
+                proxy.getPort())) {
+            socket.getOutputStream().write(
+                    request.getBytes(StandardCharsets.ISO_8859_1));
+            InputStream in = socket.getInputStream();
+            ByteArrayOutputStream head = new ByteArrayOutputStream();
+            while (!head.toString("ISO-8859-1").endsWith("\r\n\r\n")) {
+                int b = in.read();
+                if (b < 0) {
+                    throw new IOException("Proxy closed before answering");
+                }
+                head.write(b);
+            }
+            return Integer.parseInt(head.toString("ISO-8859-1").split(" ")[1]);
+        }
+    }
+
+    /**
+     * Read one request head, and its body when it has a length.
+     * @param in input
+     * @return false at the end of the stream
+     * @throws IOException on network failure
+     */
+    private static boolean readRequest(final InputStream in)
+            throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        while (!head.toString("ISO-8859-1").endsWith("\r\n\r\n")) {
+            int b = in.read();
+            if (b < 0) {
+                return false;
+            }
+            head.write(b);
+        }
+        for (String line : head.toString("ISO-8859-1").split("\r\n")) {
+            if (line.toLowerCase(Locale.ROOT).startsWith("content-length:")) {
+                int length = Integer.parseInt(line.substring(15).trim());
+                for (int i = 0; i < length; i++) {
+                    in.read();
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,119 @@
+package utilities;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Response boundaries found by the framer, whatever the split of the bytes.
+ */
+public class HttpResponseFramerTest {
+    /**
+     * A chunked body ends after the last chunk and the trailers, even when
+     * it arrives one byte at a time; what follows is not counted.
+     * @throws IOException on a malformed response
+     */
+    @Test
+    public void framesChunkedBody() throws IOException {
+        String response = "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+                + "5\r\nhello\r\n1a;ext=1\r\nabcdefghijklmnopqrstuvwxyz\r\n"
+                + "0\r\nTrailer: x\r\n\r\n";
+        HttpResponseFramer framer = new HttpResponseFramer();
+        framer.reset(false);
+        byte[] bytes = (response + "HTTP/1.1")
+                .getBytes(StandardCharsets.ISO_8859_1);
+        int consumed = 0;
+        for (int i = 0; i < bytes.length && !framer.isComplete(); i++) {
+            consumed += framer.scan(ByteBuffer.wrap(bytes, i, 1));
+        }
+        assertTrue(framer.isComplete());
+        assertEquals(response.length(), consumed);
+        assertEquals(200, framer.getStatus());
+        assertFalse(framer.isClose());
+    }
+
+    /**
+     * The response to a HEAD has no body, whatever its Content-Length.
+     * @throws IOException on a malformed response
+     */
+    @Test
+    public void framesHeadResponseWithoutBody() throws IOException {
+        String head = "HTTP/1.1 200 OK\r\nContent-Length: 100\r\n\r\n";
+        HttpResponseFramer framer = new HttpResponseFramer();
+        framer.reset(true);
+        assertEquals(head.length(), framer.scan(buffer(head + "next")));
+        assertTrue(framer.isComplete());
+    }
+
+    /**
+     * A body without length runs until the server closes, and the
+     * connection cannot be reused.
+     * @throws IOException on a malformed response
+     */
+    @Test
+    public void framesCloseDelimitedBody() throws IOException {
+        String response = "HTTP/1.1 200 OK\r\nConnection: keep-alive\r\n\r\nbody";
+        HttpResponseFramer framer = new HttpResponseFramer();
+        framer.reset(false);
+        assertEquals(response.length(), framer.scan(buffer(response)));
+        assertEquals(3, framer.scan(buffer("end")));
+        assertFalse(framer.isComplete());
+        assertTrue(framer.onEof());
+        assertTrue(framer.isClose());
+    }
+
+    /**
+     * A Content-Length body ends on its last byte, after an interim
+     * response, and an HTTP/1.0 response closes the connection.
+     * @throws IOException on a malformed response
+     */
+    @Test
+    public void framesContentLengthAfterInterimResponse() throws IOException {
+        String response = "HTTP/1.1 100 Continue\r\n\r\n"
+                + "HTTP/1.0 404 Not Found\r\nContent-Length: 3\r\n\r\nabc";
+        HttpResponseFramer framer = new HttpResponseFramer();
+        framer.reset(false);
+        assertEquals(response.length(), framer.scan(buffer(response + "x")));
+        assertTrue(framer.isComplete());
+        assertEquals(404, framer.getStatus());
+        assertTrue(framer.isClose());
+    }
+
+    /**
+     * A connection closed in the middle of a body is not a complete
+     * response.
+     * @throws IOException on a malformed response
+     */
+    @Test
+    public void rejectsTruncatedBody() throws IOException {
+        HttpResponseFramer framer = new HttpResponseFramer();
+        framer.reset(false);
+        framer.scan(buffer("HTTP/1.1 200 OK\r\nContent-Length: 10\r\n\r\nabc"));
+        assertFalse(framer.onEof());
+    }
+
+    /**
+     * A status line that is not HTTP fails.
+     * @throws IOException always
+     */
+    @Test(expected = IOException.class)
+    public void rejectsBadStatusLine() throws IOException {
+        HttpResponseFramer framer = new HttpResponseFramer();
+        framer.reset(false);
+        framer.scan(buffer("SSH-2.0-OpenSSH\r\n\r\n"));
+    }
+
+    /**
+     * @param text response bytes
+     * @return buffer of the bytes
+     */
+    private static ByteBuffer buffer(final String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+}